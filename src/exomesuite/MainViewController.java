@@ -345,6 +345,7 @@ public class MainViewController {
                     controller.setBamFile(file);
                     controller.setReferenceFile(ref);
                     t.setContent(loader.getRoot());
+                    t.setOnClosed(event -> controller.close());
                 }
             } else {
                 String message = ExomeSuite.getStringFormatted("extension.unsupported", file.getName());
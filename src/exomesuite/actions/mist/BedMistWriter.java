@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.actions.mist;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Writes MIST regions as a BED file: chrom, start (0-based), end and a name made of the gene name,
+ * the exon id and the type of match, so regions can be loaded in a genome browser.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+class BedMistWriter implements MistWriter {
+
+    private static final int CHROM = 0;
+    private static final int MIST_START = 3;
+    private static final int MIST_END = 4;
+    private static final int GENE_NAME = 6;
+    private static final int EXON_ID = 8;
+    private static final int MATCH = 11;
+
+    private final BufferedWriter out;
+
+    BedMistWriter(File output) throws IOException {
+        out = new BufferedWriter(new FileWriter(output), TsvMistWriter.BUFFER_SIZE);
+    }
+
+    /**
+     * BED has no headers, so a comment line is written instead.
+     *
+     * @param headers ignored
+     * @throws IOException if the line cannot be written
+     */
+    @Override
+    public void writeHeader(String[] headers) throws IOException {
+        out.write("#chrom\tchromStart\tchromEnd\tname\n");
+    }
+
+    @Override
+    public void write(String[] fields) throws IOException {
+        out.write(fields[CHROM]);
+        out.write('\t');
+        out.write(String.valueOf(Integer.parseInt(fields[MIST_START]) - 1));
+        out.write('\t');
+        out.write(fields[MIST_END]);
+        out.write('\t');
+        out.write(fields[GENE_NAME]);
+        out.write(':');
+        out.write(fields[EXON_ID]);
+        out.write(':');
+        out.write(fields[MATCH]);
+        out.write('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.actions.mist;
+
+import exomesuite.bam.BgzfOutputStream;
+import exomesuite.bam.TabixIndexWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes MIST regions as tab separated values compressed with bgzip, and a tabix index (.tbi) next
+ * to the output, so regions can be queried with tabix. Regions are indexed by the coordinates of
+ * their exon, which follow the order of the exons file; the MIST region is always within 10 bases
+ * of its exon.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+class BgzipMistWriter implements MistWriter {
+
+    private static final int CHROM = 0;
+    private static final int EXON_START = 1;
+    private static final int EXON_END = 2;
+
+    private final File output;
+    private final BgzfOutputStream out;
+    private final TabixIndexWriter index
+            = new TabixIndexWriter(TabixIndexWriter.GENERIC, 1, 2, 3, '#', 1);
+    private final StringBuilder line = new StringBuilder();
+
+    BgzipMistWriter(File output) throws IOException {
+        this.output = output;
+        out = new BgzfOutputStream(output);
+    }
+
+    @Override
+    public void writeHeader(String[] headers) throws IOException {
+        writeLine(headers);
+    }
+
+    @Override
+    public void write(String[] fields) throws IOException {
+        final long start = out.getVirtualOffset();
+        writeLine(fields);
+        index.add(fields[CHROM], Integer.parseInt(fields[EXON_START]) - 1,
+                Integer.parseInt(fields[EXON_END]), start, out.getVirtualOffset());
+    }
+
+    private void writeLine(String[] fields) throws IOException {
+        line.setLength(0);
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                line.append('\t');
+            }
+            line.append(fields[i]);
+        }
+        line.append('\n');
+        out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Closes the compressed file and writes the index.
+     *
+     * @throws IOException if the file or the index cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+        index.write(new File(output.getAbsolutePath() + ".tbi"));
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.actions.mist;
+
+import exomesuite.bam.BamCoverage;
+import java.util.Arrays;
+
+/**
+ * The runs of consecutive positions of a chromosome with a depth under the threshold, sorted by
+ * position. They are computed once per chromosome from the runs of depths given by BamCoverage,
+ * so the MIST regions of each exon are found with a binary search and an intersection, and the
+ * cost depends on the number of poorly covered runs, not on the length of the exons. This is the
+ * only coverage kept in memory: a few bytes per poorly covered run instead of an int per base.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+class LowCoverageRuns implements BamCoverage.DepthConsumer {
+
+    private final int length;
+    private final int threshold;
+    private int[] starts = new int[64];
+    private int[] ends = new int[64];
+    private int size;
+
+    /**
+     * Creates an empty list of runs, to be filled with the depths of the chromosome in order.
+     *
+     * @param length the length of the chromosome
+     * @param threshold the minimum depth of a well covered position
+     */
+    LowCoverageRuns(int length, int threshold) {
+        this.length = length;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Adds the positions to the last run if they are poorly covered.
+     *
+     * @param start first position (1-based)
+     * @param end last position (1-based, inclusive)
+     * @param depth the depth of the positions
+     */
+    @Override
+    public void accept(int start, int end, int depth) {
+        if (depth >= threshold) {
+            return;
+        }
+        if (size > 0 && ends[size - 1] == start - 1) {
+            ends[size - 1] = end;
+            return;
+        }
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, 2 * size);
+            ends = Arrays.copyOf(ends, 2 * size);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    /**
+     * Gets the length of the chromosome.
+     *
+     * @return the last position of the chromosome
+     */
+    int getLength() {
+        return length;
+    }
+
+    /**
+     * Gets the number of runs.
+     *
+     * @return the number of runs
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the first position of the i-th run.
+     *
+     * @param i index of the run
+     * @return the start of the run (1-based, inclusive)
+     */
+    int getStart(int i) {
+        return starts[i];
+    }
+
+    /**
+     * Gets the last position of the i-th run.
+     *
+     * @param i index of the run
+     * @return the end of the run (1-based, inclusive)
+     */
+    int getEnd(int i) {
+        return ends[i];
+    }
+
+    /**
+     * Finds the first run that ends at or after position.
+     *
+     * @param position a 1-based position
+     * @return the index of the run, or size() if all runs end before position
+     */
+    int firstEndingFrom(int position) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (ends[mid] < position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+}
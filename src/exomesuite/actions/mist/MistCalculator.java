@@ -0,0 +1,388 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.actions.mist;
+
+import exomesuite.bam.BamCoverage;
+import exomesuite.bam.BamIndex;
+import exomesuite.bam.BamRecordReader;
+import exomesuite.utils.ExonDatabase;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The MIST engine, shared by the single sample and the cohort tasks. First, the depths of a BAM
+ * file are streamed into the poorly covered runs of each chromosome (computeRuns), in parallel
+ * if the BAM is indexed. Then each exon is intersected with the runs of its chromosome
+ * (findRegions).
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+class MistCalculator {
+
+    /**
+     * Headers of the MIST format.
+     */
+    static final String[] HEADERS = {"chrom", "exon_start", "exon_end", "mist_start", "mist_end",
+        "gene_id", "gene_name", "exon_number", "exon_id", "transcript_name", "biotype", "match"};
+
+    private final static int WINDOW_SIZE = 10;
+    private final static String INSIDE = "inside";
+    private final static String OVERLAP = "overlap";
+    private final static String LEFT = "left";
+    private final static String RIGHT = "right";
+    /**
+     * Estimated memory of a worker: the window of depths of BamCoverage, the BGZF buffers and the
+     * poorly covered runs of a chromosome, with some margin.
+     */
+    private final static long WORKER_MEMORY = 32 << 20;
+
+    private final int threshold, length;
+    private int threads = 1;
+    private long memoryBudget = Long.MAX_VALUE;
+
+    /**
+     * Creates a calculator.
+     *
+     * @param threshold positions with lower depth are poorly covered
+     * @param length minimum length of a MIST region
+     */
+    MistCalculator(int threshold, int length) {
+        this.threshold = threshold;
+        this.length = length;
+    }
+
+    /**
+     * Sets the maximum number of chromosomes processed at the same time. Chromosomes can only be
+     * processed in parallel if the BAM file is indexed (.bai).
+     *
+     * @param threads the number of threads
+     */
+    void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Sets the memory that the workers can use, which limits the number of chromosomes processed
+     * at the same time.
+     *
+     * @param memoryBudget the memory budget in bytes
+     */
+    void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Computes the poorly covered runs of every chromosome of the BAM. Each worker has its own
+     * reader of the BAM file and takes the next chromosome when it finishes the previous one.
+     * Longest chromosomes go first, so the last ones are short and workers finish at the same
+     * time. With only one worker, chromosomes are read in the order of the file, without seeks.
+     *
+     * @param bam the BAM file, sorted by coordinate
+     * @param listener receives the progress and messages
+     * @return the runs of each chromosome, by name, in the order of the BAM header
+     * @throws IOException if the BAM file cannot be read
+     * @throws InterruptedException if the thread is interrupted while waiting for the workers
+     * @throws CancellationException if the listener cancelled the calculation
+     */
+    Map<String, LowCoverageRuns> computeRuns(File bam, Listener listener)
+            throws IOException, InterruptedException {
+        final BamIndex index = threads > 1 ? BamIndex.find(bam) : null;
+        if (threads > 1 && index == null) {
+            listener.message("No index for " + bam.getName()
+                    + ", chromosomes will be read one by one.");
+        }
+        final int workers = index == null ? 1
+                : (int) Math.max(1, Math.min(threads, memoryBudget / WORKER_MEMORY));
+        final List<BamCoverage> readers = new ArrayList<>();
+        readers.add(index == null ? new BamCoverage(bam) : new BamCoverage(bam, index));
+        final Progress progress = new Progress(readers.get(0).getReader(), listener);
+        final LowCoverageRuns[] runs = new LowCoverageRuns[progress.lengths.length];
+        final ExecutorService pool = Executors.newFixedThreadPool(workers, runnable -> {
+            final Thread thread = new Thread(runnable, "MIST " + bam.getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (int i = 1; i < workers; i++) {
+                readers.add(new BamCoverage(bam, index));
+            }
+            final BlockingQueue<BamCoverage> available = new ArrayBlockingQueue<>(workers, false,
+                    readers);
+            final List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < runs.length; i++) {
+                order.add(i);
+            }
+            if (workers > 1) {
+                order.sort((a, b) -> Integer.compare(progress.lengths[b], progress.lengths[a]));
+            }
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int reference : order) {
+                futures.add(pool.submit(() -> {
+                    final BamCoverage reader = available.take();
+                    try {
+                        runs[reference] = readRuns(reader, reference, progress);
+                    } finally {
+                        available.put(reader);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof IOException) {
+                        throw (IOException) ex.getCause();
+                    }
+                    if (ex.getCause() instanceof CancellationException) {
+                        throw (CancellationException) ex.getCause();
+                    }
+                    throw new IOException(ex.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+            readers.forEach(MistCalculator::closeQuietly);
+        }
+        final Map<String, LowCoverageRuns> byName = new LinkedHashMap<>();
+        for (int i = 0; i < runs.length; i++) {
+            byName.put(progress.names[i], runs[i]);
+        }
+        return byName;
+    }
+
+    /**
+     * Streams the depths of a chromosome into its poorly covered runs.
+     */
+    private LowCoverageRuns readRuns(BamCoverage coverage, int reference, Progress progress)
+            throws IOException {
+        final LowCoverageRuns runs = new LowCoverageRuns(progress.lengths[reference], threshold);
+        coverage.scan(reference, runs, pos -> progress.update(reference, pos));
+        progress.update(reference, progress.lengths[reference]);
+        return runs;
+    }
+
+    /**
+     * Finds the MIST regions of every exon and writes them. Exons of chromosomes that are not in
+     * runs are skipped.
+     *
+     * @param exons the exons
+     * @param runs the poorly covered runs of each chromosome, by name
+     * @param writer the output of the regions
+     * @param poorBases if not null, receives the number of poorly covered bases of each exon (not
+     * of its window), by row
+     * @param listener receives messages
+     * @return the number of MIST regions written
+     * @throws IOException if the output cannot be written
+     */
+    int findRegions(ExonDatabase exons, Map<String, LowCoverageRuns> runs, MistWriter writer,
+            int[] poorBases, Listener listener) throws IOException {
+        int matches = 0;
+        final String[] chromosomes = exons.getChromosomes();
+        for (int c = 0; c < chromosomes.length; c++) {
+            final LowCoverageRuns chromosome = runs.get(chromosomes[c]);
+            if (chromosome == null) {
+                listener.message("Chromosome " + chromosomes[c]
+                        + " is not in BAM header. Impossible to process.");
+                continue;
+            }
+            for (int row = exons.getFirstRow(c); row < exons.getEndRow(c); row++) {
+                final int start = exons.getStart(row);
+                final int end = exons.getEnd(row);
+                // Set the window size [start - WS, end + WS]
+                // Start can not be smaller than 1
+                final int windowStart = Math.max(1, start - WINDOW_SIZE);
+                // End cannot be greater than chromosome
+                final int windowEnd = Math.min(end + WINDOW_SIZE, chromosome.getLength());
+                matches += computeMistAreas(exons, row, chromosome, windowStart, windowEnd,
+                        writer);
+                if (poorBases != null) {
+                    poorBases[row] = countPoorBases(chromosome, start, end);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Calculates the mist regions of the window and for each one, prints a line in the output. The
+     * runs overlapping the window are found by binary search and clipped to the window. As in
+     * previous versions, a region that ends inside the window ends at the first well covered
+     * position, and a region reaching the end of the window ends at the end of the window.
+     *
+     * @return the number of mist regions printed
+     */
+    private int computeMistAreas(ExonDatabase exons, int row, LowCoverageRuns runs,
+            int windowStart, int windowEnd, MistWriter writer) throws IOException {
+        int matches = 0;
+        for (int i = runs.firstEndingFrom(windowStart);
+                i < runs.size() && runs.getStart(i) <= windowEnd && windowStart <= windowEnd; i++) {
+            final int mistStart = Math.max(runs.getStart(i), windowStart);
+            final int mistEnd = runs.getEnd(i) < windowEnd ? runs.getEnd(i) + 1 : windowEnd;
+            if (printMist(exons, row, mistStart, mistEnd, writer)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Counts the poorly covered positions in [start, end].
+     */
+    private static int countPoorBases(LowCoverageRuns runs, int start, int end) {
+        int bases = 0;
+        for (int i = runs.firstEndingFrom(start); i < runs.size() && runs.getStart(i) <= end;
+                i++) {
+            bases += Math.min(runs.getEnd(i), end) - Math.max(runs.getStart(i), start) + 1;
+        }
+        return bases;
+    }
+
+    /**
+     * Stores a MIST region only if its length is greater than the length parameter.
+     *
+     * @return true if region was longer than length, false otherwise
+     */
+    private boolean printMist(ExonDatabase exons, int row, int mistStart, int mistEnd,
+            MistWriter writer) throws IOException {
+        if (mistEnd - mistStart + 1 >= length) {
+            // Determine type of match
+            final String match = determineMatch(exons.getStart(row), exons.getEnd(row), mistStart,
+                    mistEnd);
+            // chrom, exon_start, exon_end, mist_start, mist_end, gene_id, gene_name, exon_id,
+            // transcript_name, biotype, match
+            writer.write(new String[]{exons.get(row, ExonDatabase.CHROMOSOME),
+                exons.get(row, ExonDatabase.START), exons.get(row, ExonDatabase.END),
+                String.valueOf(mistStart), String.valueOf(mistEnd),
+                exons.get(row, ExonDatabase.GENE_ID), exons.get(row, ExonDatabase.GENE_NAME),
+                exons.get(row, ExonDatabase.EXON_NUMBER), exons.get(row, ExonDatabase.EXON_ID),
+                exons.get(row, ExonDatabase.TRANSCRIPT_NAME), exons.get(row, ExonDatabase.BIOTYPE),
+                match});
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Given an exon coordinates and a MIST region coordinates determines if the MIST region if
+     * left, right, inside or overlapping the exon.
+     *
+     * @param exonStart start of the exon
+     * @param exonEnd end of the exon
+     * @param mistStart start of the mist region
+     * @param mistEnd end of the mist region
+     * @return left, rigth, inside or overlap
+     */
+    private static String determineMatch(int exonStart, int exonEnd, int mistStart, int mistEnd) {
+        if (mistStart < exonStart) {
+            if (mistEnd > exonEnd) {
+                return OVERLAP;
+            } else {
+                return LEFT;
+            }
+        } else {
+            if (mistEnd > exonEnd) {
+                return RIGHT;
+            } else {
+                return INSIDE;
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ex) {
+            Logger.getLogger(MistCalculator.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Receives the progress of the calculation.
+     */
+    interface Listener {
+
+        /**
+         * Called by the workers every million alignments. Throw a CancellationException to stop
+         * the calculation.
+         *
+         * @param chromosome the chromosome of the worker
+         * @param position the last position read by the worker
+         * @param done the number of positions read in all the chromosomes
+         * @param total the length of the genome
+         */
+        void progress(String chromosome, int position, long done, long total);
+
+        /**
+         * Called with information for the user.
+         *
+         * @param message the message
+         */
+        void message(String message);
+    }
+
+    /**
+     * Last position read in each chromosome, updated by the workers.
+     */
+    private static class Progress {
+
+        final String[] names;
+        final int[] lengths;
+        final int[] positions;
+        final long total;
+        final Listener listener;
+
+        Progress(BamRecordReader reader, Listener listener) {
+            this.names = reader.getReferenceNames();
+            this.lengths = reader.getReferenceLengths();
+            this.positions = new int[lengths.length];
+            this.listener = listener;
+            long sum = 0;
+            for (int length : lengths) {
+                sum += length;
+            }
+            this.total = sum;
+        }
+
+        void update(int reference, int position) {
+            positions[reference] = position;
+            long done = 0;
+            // Positions of other workers may be slightly outdated, enough for a progress
+            for (int p : positions) {
+                done += p;
+            }
+            listener.progress(names[reference], position, done, total);
+        }
+    }
+
+}
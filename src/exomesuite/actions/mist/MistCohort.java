@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.actions.mist;
+
+import exomesuite.MainViewController;
+import exomesuite.actions.SystemTask;
+import exomesuite.utils.ExonDatabase;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs MIST on several BAM files at once. The exons file is read only once and samples are
+ * processed in parallel. Each sample gets its own MIST file, and a matrix with the number of
+ * poorly covered bases of each exon (rows) in each sample (columns) is written to the output.
+ * Exons well covered in every sample are not in the matrix.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+public class MistCohort extends SystemTask {
+
+    /**
+     * Exon columns of the matrix, before the samples.
+     */
+    private static final int[] EXON_COLUMNS = {ExonDatabase.CHROMOSOME, ExonDatabase.START,
+        ExonDatabase.END, ExonDatabase.GENE_ID, ExonDatabase.GENE_NAME, ExonDatabase.EXON_NUMBER,
+        ExonDatabase.EXON_ID, ExonDatabase.TRANSCRIPT_NAME, ExonDatabase.BIOTYPE};
+    private static final String[] EXON_HEADERS = {"chrom", "exon_start", "exon_end", "gene_id",
+        "gene_name", "exon_number", "exon_id", "transcript_name", "biotype"};
+
+    private final List<File> inputs;
+    private final File output, ensembl;
+    private final int threshold, length;
+    private final List<String> samples = new ArrayList<>();
+    private final List<File> sampleOutputs = new ArrayList<>();
+    private int threads = 1;
+    private long memoryBudget = Long.MAX_VALUE;
+    private long startTime;
+    /**
+     * Fraction of each sample already read.
+     */
+    private double[] fractions;
+
+    /**
+     * Parameters are not checked inside MIST, please, be sure all of them are legal. The MIST file
+     * of each sample is written in the folder of the output, named after the BAM file.
+     *
+     * @param inputs the input BAMs
+     * @param output the output matrix
+     * @param ensembl the ensembl database
+     * @param threshold the DP threshold
+     * @param length the minimum length
+     */
+    public MistCohort(List<String> inputs, String output, String ensembl, int threshold,
+            int length) {
+        this.inputs = new ArrayList<>();
+        this.output = new File(output);
+        this.ensembl = new File(ensembl);
+        this.threshold = threshold;
+        this.length = length;
+        final Set<String> used = new HashSet<>();
+        used.add(this.output.getName());
+        for (String input : inputs) {
+            final File bam = new File(input);
+            final String name = bam.getName().replaceAll("\\.bam$", "");
+            String sample = name;
+            for (int i = 2; !used.add(sample + ".mist"); i++) {
+                sample = name + "_" + i;
+            }
+            this.inputs.add(bam);
+            samples.add(sample);
+            sampleOutputs.add(new File(this.output.getParentFile(), sample + ".mist"));
+        }
+    }
+
+    /**
+     * Sets the number of threads, shared by samples and chromosomes. Samples go in parallel;
+     * threads left are used to process several chromosomes of a sample at the same time, if its
+     * BAM file is indexed. Default is 1.
+     *
+     * @param threads the number of threads
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Sets the memory that the workers can use, shared by all the samples. Default is unlimited.
+     *
+     * @param memoryBudget the memory budget in bytes
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Gets the MIST files of the samples, in the order of the inputs.
+     *
+     * @return the MIST file of each sample
+     */
+    public List<File> getSampleOutputs() {
+        return sampleOutputs;
+    }
+
+    @Override
+    protected Integer call() throws Exception {
+        println("Cohort MIST called with params:");
+        inputs.forEach(input -> println("Input BAM = " + input.getAbsolutePath()));
+        println("Threshold = " + threshold);
+        println("Length    = " + length);
+        println("Output    = " + output.getAbsolutePath());
+        int ret = startCohort();
+        updateProgress(1, 1);
+        if (ret == 0) {
+            updateMessage("Successful");
+        } else {
+            updateMessage("Canceled");
+        }
+        return 0;
+    }
+
+    /*
+     * 1: Read exons, once
+     * 2: Run MIST for each sample, in parallel, counting the poorly covered bases of each exon
+     * 3: Write the matrix
+     */
+    private int startCohort() {
+        updateTitle("Finding MIST " + inputs.size() + " samples");
+        updateProgress(0, 1);
+        startTime = System.currentTimeMillis();
+        fractions = new double[inputs.size()];
+        final ExonDatabase exons;
+        try {
+            exons = ExonDatabase.get(ensembl);
+        } catch (IOException ex) {
+            MainViewController.printException(ex);
+            return 1;
+        }
+        final int workers = Math.min(threads, inputs.size());
+        final ExecutorService pool = Executors.newFixedThreadPool(workers, runnable -> {
+            final Thread thread = new Thread(runnable, "Cohort MIST");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final AtomicInteger finished = new AtomicInteger();
+        final int[][][] poorBases = new int[inputs.size()][][];
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < inputs.size(); i++) {
+                final int sample = i;
+                futures.add(pool.submit(() -> {
+                    poorBases[sample] = runSample(sample, exons, workers);
+                    finished.incrementAndGet();
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            writeMatrix(exons, poorBases);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof CancellationException) {
+                return 1;
+            }
+            MainViewController.printException(ex.getCause() instanceof Exception
+                    ? (Exception) ex.getCause() : ex);
+            return 1;
+        } catch (IOException ex) {
+            MainViewController.printException(ex);
+            return 1;
+        } catch (InterruptedException ex) {
+            return 1;
+        } finally {
+            pool.shutdownNow();
+        }
+        println(String.format("%d samples, matrix in %s", finished.get(), output));
+        return 0;
+    }
+
+    /**
+     * Runs MIST on a sample.
+     *
+     * @param sample the index of the sample
+     * @param exons the exons
+     * @param workers the number of samples processed at the same time
+     * @return the poorly covered bases of the sample, as {rows, counts} of the exons with any
+     */
+    private int[][] runSample(int sample, ExonDatabase exons, int workers) throws IOException,
+            InterruptedException {
+        final MistCalculator calculator = new MistCalculator(threshold, length);
+        calculator.setThreads(threads / workers);
+        calculator.setMemoryBudget(memoryBudget / workers);
+        final MistCalculator.Listener listener = new MistCalculator.Listener() {
+
+            @Override
+            public void progress(String chromosome, int position, long done, long total) {
+                if (isCancelled()) {
+                    throw new CancellationException();
+                }
+                fractions[sample] = (double) done / total;
+                calculateProgress(samples.get(sample), chromosome, position);
+            }
+
+            @Override
+            public void message(String message) {
+                println(samples.get(sample) + ": " + message);
+            }
+        };
+        final Map<String, LowCoverageRuns> runs
+                = calculator.computeRuns(inputs.get(sample), listener);
+        final int[] counts = new int[exons.size()];
+        try (MistWriter writer = MistWriter.open(sampleOutputs.get(sample))) {
+            writer.writeHeader(MistCalculator.HEADERS);
+            final int matches = calculator.findRegions(exons, runs, writer, counts, listener);
+            println(String.format("%s: %,d MIST regions found", samples.get(sample), matches));
+        }
+        fractions[sample] = 1;
+        // Keep only the exons with poorly covered bases
+        int size = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                size++;
+            }
+        }
+        final int[] rows = new int[size];
+        final int[] values = new int[size];
+        for (int row = 0, i = 0; row < counts.length; row++) {
+            if (counts[row] > 0) {
+                rows[i] = row;
+                values[i++] = counts[row];
+            }
+        }
+        return new int[][]{rows, values};
+    }
+
+    /**
+     * Writes a line for each exon with poorly covered bases in any sample.
+     */
+    private void writeMatrix(ExonDatabase exons, int[][][] poorBases) throws IOException {
+        final int[] cursors = new int[poorBases.length];
+        final int[] line = new int[poorBases.length];
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(output),
+                TsvMistWriter.BUFFER_SIZE)) {
+            writer.write(String.join("\t", EXON_HEADERS));
+            for (String sample : samples) {
+                writer.write("\t");
+                writer.write(sample);
+            }
+            writer.newLine();
+            for (int row = 0; row < exons.size(); row++) {
+                boolean poor = false;
+                Arrays.fill(line, 0);
+                for (int s = 0; s < poorBases.length; s++) {
+                    final int[] rows = poorBases[s][0];
+                    if (cursors[s] < rows.length && rows[cursors[s]] == row) {
+                        line[s] = poorBases[s][1][cursors[s]++];
+                        poor = true;
+                    }
+                }
+                if (!poor) {
+                    continue;
+                }
+                for (int c = 0; c < EXON_COLUMNS.length; c++) {
+                    if (c > 0) {
+                        writer.write('\t');
+                    }
+                    writer.write(exons.get(row, EXON_COLUMNS[c]));
+                }
+                for (int value : line) {
+                    writer.write('\t');
+                    writer.write(String.valueOf(value));
+                }
+                writer.newLine();
+            }
+        }
+    }
+
+    private void calculateProgress(String sample, String chr, int pos) {
+        double done = 0;
+        for (double fraction : fractions) {
+            done += fraction;
+        }
+        if (done == 0) {
+            return;
+        }
+        final double progress = done / fractions.length;
+        long time = System.currentTimeMillis() - startTime;
+        long remaining = (long) (time / progress) - time;
+        updateMessage(String.format("%s %s (%s:%,d) (%s)", Mist.humanReadableTime(time), sample,
+                chr, pos, Mist.humanReadableTime(remaining)));
+        updateProgress(progress * 100, 100.0);
+    }
+
+}
@@ -114,7 +114,13 @@ public class MistLongAction extends LongAction {
             String ensembl = OS.getProperties().getProperty("ensembl");
 
             List<String> errors = new ArrayList();
-            if (!FileManager.tripleCheck(selectedAlignments)) {
+            final List<String> selectedCohort = controller.isCohort()
+                    ? new ArrayList<>(controller.getAlignmentsOptions()) : null;
+            if (selectedCohort != null) {
+                if (!selectedCohort.stream().allMatch(FileManager::tripleCheck)) {
+                    errors.add(ExomeSuite.getResources().getString("alignments"));
+                }
+            } else if (!FileManager.tripleCheck(selectedAlignments)) {
                 errors.add(ExomeSuite.getResources().getString("alignments"));
             }
             if (!FileManager.tripleCheck(ensembl)) {
@@ -126,7 +132,14 @@ public class MistLongAction extends LongAction {
                 MainViewController.printMessage(message, "warning");
                 return null;
             }
+            if (selectedCohort != null) {
+                return getCohortTask(project, selectedCohort, selectedOutput, ensembl,
+                        selectedThreshold, selectedLength);
+            }
             Mist task = new Mist(selectedAlignments, selectedOutput, ensembl, selectedThreshold, selectedLength);
+            // Chromosomes in parallel, using at most half of the heap
+            task.setThreads(Runtime.getRuntime().availableProcessors());
+            task.setMemoryBudget(Runtime.getRuntime().maxMemory() / 2);
             task.stateProperty().addListener((observable, oldValue, newValue) -> {
                 if (newValue == Worker.State.SUCCEEDED) {
                     project.getFiles().add(new File(selectedOutput));
@@ -137,4 +150,22 @@ public class MistLongAction extends LongAction {
         }
         return null;
     }
+
+    /**
+     * Creates a MIST task for all the alignments of the project.
+     */
+    private SystemTask getCohortTask(Project project, List<String> alignments, String output,
+            String ensembl, int threshold, int length) {
+        MistCohort task = new MistCohort(alignments, output, ensembl, threshold, length);
+        // Samples and chromosomes in parallel, using at most half of the heap
+        task.setThreads(Runtime.getRuntime().availableProcessors());
+        task.setMemoryBudget(Runtime.getRuntime().maxMemory() / 2);
+        task.stateProperty().addListener((observable, oldValue, newValue) -> {
+            if (newValue == Worker.State.SUCCEEDED) {
+                project.getFiles().add(new File(output));
+                project.getFiles().addAll(task.getSampleOutputs());
+            }
+        });
+        return task;
+    }
 }
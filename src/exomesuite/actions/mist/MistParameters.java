@@ -24,6 +24,7 @@ import java.util.List;
 import javafx.event.EventHandler;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.TextField;
 
@@ -55,6 +56,8 @@ public class MistParameters {
     private TextField output;
     @FXML
     private Button selectOutput;
+    @FXML
+    private CheckBox cohort;
 
     /**
      * true if user clicked on Accept
@@ -122,6 +125,9 @@ public class MistParameters {
             }
         });
         selectOutput.setOnAction(event -> selectOutput());
+        cohort.setVisible(false);
+        // In cohort mode, all alignments are used
+        alignments.disableProperty().bind(cohort.selectedProperty());
     }
 
     /**
@@ -134,12 +140,14 @@ public class MistParameters {
     }
 
     /**
-     * Sets the options for the comboBox of alignments.
+     * Sets the options for the comboBox of alignments. With more than one, the cohort mode is
+     * available.
      *
      * @param alignments
      */
     public void setAlignmentsOptions(List<String> alignments) {
         this.alignments.getItems().addAll(alignments);
+        cohort.setVisible(this.alignments.getItems().size() > 1);
     }
 
     /**
@@ -149,6 +157,7 @@ public class MistParameters {
      */
     public void setAlignmentsOptions(String... alignments) {
         this.alignments.getItems().addAll(alignments);
+        cohort.setVisible(this.alignments.getItems().size() > 1);
     }
 
     /**
@@ -214,6 +223,24 @@ public class MistParameters {
         return alignments.getValue();
     }
 
+    /**
+     * true if the user wants to run MIST on all the alignments at once.
+     *
+     * @return true if cohort mode is selected
+     */
+    boolean isCohort() {
+        return cohort.isVisible() && cohort.isSelected();
+    }
+
+    /**
+     * Gets all the alignments options.
+     *
+     * @return the alignments of the comboBox
+     */
+    List<String> getAlignmentsOptions() {
+        return alignments.getItems();
+    }
+
     /**
      * Changes the output. Keep in mind that the String must represent a file.
      *
@@ -241,12 +268,14 @@ public class MistParameters {
         // We try to open in the same folder as the suggested file.
         if (output.getText() != null && !output.getText().isEmpty()) {
             File file = new File(output.getText());
-            File f = FileManager.saveFile(message, file.getParentFile(), file.getName(), FileManager.MIST_FILTER);
+            File f = FileManager.saveFile(message, file.getParentFile(), file.getName(), FileManager.MIST_FILTER,
+                    FileManager.MIST_BGZIP_FILTER, FileManager.BED_FILTER);
             if (f != null) {
                 output.setText(f.getAbsolutePath());
             }
         } else {
-            FileManager.saveFile(output, message, FileManager.MIST_FILTER);
+            FileManager.saveFile(output, message, FileManager.MIST_FILTER,
+                    FileManager.MIST_BGZIP_FILTER, FileManager.BED_FILTER);
         }
     }
 
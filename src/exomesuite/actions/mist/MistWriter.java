@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.actions.mist;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Output of a MIST run. The writer is opened once per run and writes buffered, so regions are
+ * flushed to disk in batches, not line by line. Regions are given as the fields of the MIST
+ * format, in the order of the headers.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+public interface MistWriter extends Closeable {
+
+    /**
+     * Writes the first line, with the names of the columns.
+     *
+     * @param headers the names of the MIST columns
+     * @throws IOException if the line cannot be written
+     */
+    void writeHeader(String[] headers) throws IOException;
+
+    /**
+     * Writes a MIST region.
+     *
+     * @param fields the values of the MIST columns, in the order of the headers
+     * @throws IOException if the region cannot be written
+     */
+    void write(String[] fields) throws IOException;
+
+    /**
+     * Creates the writer for the output, replacing the file if it exists. The format is taken from
+     * the extension of the file.
+     *
+     * @param output the output file
+     * @return a writer in the format of the output
+     * @throws IOException if the file cannot be created
+     */
+    static MistWriter open(File output) throws IOException {
+        switch (Format.of(output)) {
+            case BGZIP:
+                return new BgzipMistWriter(output);
+            case BED:
+                return new BedMistWriter(output);
+            default:
+                return new TsvMistWriter(output);
+        }
+    }
+
+    /**
+     * Formats of the MIST output.
+     */
+    enum Format {
+
+        /**
+         * Tab separated values, with headers (.mist).
+         */
+        TSV,
+        /**
+         * Tab separated values compressed with bgzip and indexed with tabix (.gz).
+         */
+        BGZIP,
+        /**
+         * BED, one line per region (.bed).
+         */
+        BED;
+
+        /**
+         * Chooses the format by the extension of the file: .gz or .bgz for BGZIP, .bed for BED and
+         * TSV otherwise.
+         *
+         * @param file the output file
+         * @return the format of the file
+         */
+        public static Format of(File file) {
+            final String name = file.getName().toLowerCase();
+            if (name.endsWith(".gz") || name.endsWith(".bgz")) {
+                return BGZIP;
+            }
+            if (name.endsWith(".bed")) {
+                return BED;
+            }
+            return TSV;
+        }
+    }
+
+}
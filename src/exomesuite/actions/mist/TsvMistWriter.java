@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.actions.mist;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Writes MIST regions as tab separated values, the .mist format.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+class TsvMistWriter implements MistWriter {
+
+    /**
+     * Buffer size: lines are written to disk in batches of 1MB.
+     */
+    static final int BUFFER_SIZE = 1 << 20;
+
+    private final BufferedWriter out;
+
+    TsvMistWriter(File output) throws IOException {
+        out = new BufferedWriter(new FileWriter(output), BUFFER_SIZE);
+    }
+
+    @Override
+    public void writeHeader(String[] headers) throws IOException {
+        write(headers);
+    }
+
+    @Override
+    public void write(String[] fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                out.write('\t');
+            }
+            out.write(fields[i]);
+        }
+        out.newLine();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+}
@@ -16,7 +16,6 @@
  */
 package exomesuite.bam;
 
-import java.util.List;
 import javafx.scene.text.TextAlignment;
 
 /**
@@ -26,6 +25,17 @@ import javafx.scene.text.TextAlignment;
  */
 public class BamAxisXlabelsLayer extends BamLayer {
 
+    /**
+     * Labels of the last two digits of the positions, so drawing them does not format Strings.
+     */
+    private static final String[] LABELS = new String[100];
+
+    static {
+        for (int i = 0; i < LABELS.length; i++) {
+            LABELS[i] = String.format("%2d", i);
+        }
+    }
+
     /**
      * Creates a layer that displays the labels of the x axis.
      */
@@ -42,7 +52,7 @@ public class BamAxisXlabelsLayer extends BamLayer {
         final double textMargin = bamCanvas.getTextMargin().get();
         final double height = bamCanvas.getHeight();
         final double width = bamCanvas.getWidth();
-        final List<PileUp> reference = bamCanvas.getAlignments();
+        final PileUpWindow reference = bamCanvas.getAlignments();
         // X axis
         int gPos = start;
         int j = 0;
@@ -50,11 +60,11 @@ public class BamAxisXlabelsLayer extends BamLayer {
         final double xTextWidth = baseWidth - 2 * textMargin;
         for (double x = margin + baseWidth; x < width - margin; x += baseWidth, j++) {
             // Labels
-            if (j < reference.size() && reference.get(j).getReference() == '*') {
+            if (j < reference.size() && reference.getReference(j) == PileUp.EMPTY) {
                 getGraphicsContext2D().fillText("*", x - 0.5 * baseWidth, h, xTextWidth);
             } else {
                 final int cropPos = gPos++ % 100;
-                getGraphicsContext2D().fillText(String.format("%2d", cropPos), x - 0.5 * baseWidth, h, xTextWidth);
+                getGraphicsContext2D().fillText(LABELS[cropPos], x - 0.5 * baseWidth, h, xTextWidth);
             }
         }
     }
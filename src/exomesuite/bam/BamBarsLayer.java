@@ -16,7 +16,7 @@
  */
 package exomesuite.bam;
 
-import java.util.List;
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
 
 /**
@@ -26,6 +26,11 @@ import javafx.scene.paint.Color;
  */
 public final class BamBarsLayer extends BamLayer {
 
+    /**
+     * Color of the bars of A, C, G and T, by PileUp counter.
+     */
+    private static final Color[] COLORS = {A_COLOR, C_COLOR, G_COLOR, T_COLOR};
+
     private double barRelativeWidth;
 
     /**
@@ -59,197 +64,94 @@ public final class BamBarsLayer extends BamLayer {
 
     @Override
     protected void draw(BamCanvas bamCanvas) {
-        if (bamCanvas.getShowAlleles().get()) {
-            drawWithAlleles(bamCanvas);
-        } else {
-            drawWithoutAlleles(bamCanvas);
-        }
-    }
-
-    private void drawWithAlleles(BamCanvas bamCanvas) {
         /*
-         4 bars: ATCG.
-         We leave space of the base margins (barRelativeWidth) and divide the space in 4 bars:
-
-         |______| baseWidth
-         | ____ | baseWidth * barRelativeWidth
-         | _    | barWidth = baseWidth * barRelativeWidth * 0.25
-         | atcg |
+         * Bars are painted by color, all the bars of a color in a single path, so there are 5 fills
+         * (one per base and the gray of bases that match the reference) instead of one per bar.
          */
-        final double height = bamCanvas.getHeight();
-        final double width = bamCanvas.getWidth();
-        final double baseWidth = bamCanvas.getBaseWidth().get();
-        final double margin = bamCanvas.getAxisMargin().get();
-        final double barwidth = barRelativeWidth * baseWidth * 0.25;
-        final double y = height * 0.5;
-        final double maxHeigth = 0.5 * height - margin;
-        final boolean inPercentage = bamCanvas.getPercentageUnits().get();
+        final GraphicsContext gc = getGraphicsContext2D();
         final boolean inColor = bamCanvas.getBaseColors().get();
-        List<PileUp> list = bamCanvas.getAlignments();
-        double x = margin + (1.0 - barRelativeWidth) * 0.5 * baseWidth;
-        for (PileUp pileUp : list) {
-            if (x < width - margin) {
-                int A = pileUp.getDepth('A');
-                int T = pileUp.getDepth('T');
-                int C = pileUp.getDepth('C');
-                int G = pileUp.getDepth('G');
-                int a = pileUp.getDepth('a');
-                int t = pileUp.getDepth('t');
-                int c = pileUp.getDepth('c');
-                int g = pileUp.getDepth('g');
-                char reference = pileUp.getReference();
-                // Percentage proportion
-                final double sumF = A + T + G + C;
-                final double sumR = a + c + g + t;
-                final double unitF = maxHeigth / ((inPercentage) ? sumF : bamCanvas.getMaxYValue().get());
-                final double unitR = maxHeigth / ((inPercentage) ? sumR : bamCanvas.getMaxYValue().get());
-
-//            final double prop = maxHeigth / sum;
-//            final double absProp = maxHeigth / bamCanvas.getMaxYValue().get();
-                // By default, no color scheme
-                // A
-                double barheigth = A * unitF;
-                if (inColor || reference != 'A') {
-                    getGraphicsContext2D().setFill(A_COLOR);
-                } else {
-                    getGraphicsContext2D().setFill(Color.DARKGRAY);
-                }
-                getGraphicsContext2D().fillRect(x, y - barheigth, barwidth, barheigth);
-                // a
-                barheigth = a * unitR;
-                if (inColor || reference != 'A') {
-                    getGraphicsContext2D().setFill(A_COLOR);
-                } else {
-                    getGraphicsContext2D().setFill(Color.DARKGRAY);
-                }
-                getGraphicsContext2D().fillRect(x, y, barwidth, barheigth);
-                // C
-                barheigth = C * unitF;
-                if (inColor || reference != 'C') {
-                    getGraphicsContext2D().setFill(C_COLOR);
-                } else {
-                    getGraphicsContext2D().setFill(Color.DARKGRAY);
-                }
-                getGraphicsContext2D().fillRect(x + barwidth, y - barheigth, barwidth, barheigth);
-                // c
-                barheigth = c * unitR;
-                if (inColor || reference != 'C') {
-                    getGraphicsContext2D().setFill(C_COLOR);
-                } else {
-                    getGraphicsContext2D().setFill(Color.DARKGRAY);
-                }
-                getGraphicsContext2D().fillRect(x + barwidth, y, barwidth, barheigth);
-                // G
-                barheigth = G * unitF;
-                if (inColor || reference != 'G') {
-                    getGraphicsContext2D().setFill(G_COLOR);
-                } else {
-                    getGraphicsContext2D().setFill(Color.DARKGRAY);
-                }
-                getGraphicsContext2D().fillRect(x + 2 * barwidth, y - barheigth, barwidth, barheigth);
-                // g
-                barheigth = g * unitR;
-                if (inColor || reference != 'G') {
-                    getGraphicsContext2D().setFill(G_COLOR);
-                } else {
-                    getGraphicsContext2D().setFill(Color.DARKGRAY);
-                }
-                getGraphicsContext2D().fillRect(x + 2 * barwidth, y, barwidth, barheigth);
-                // T
-                barheigth = T * unitF;
-                if (inColor || reference != 'T') {
-                    getGraphicsContext2D().setFill(T_COLOR);
-                } else {
-                    getGraphicsContext2D().setFill(Color.DARKGRAY);
-                }
-                getGraphicsContext2D().fillRect(x + 3 * barwidth, y - barheigth, barwidth, barheigth);
-                // t
-                barheigth = t * unitR;
-                if (inColor || reference != 'T') {
-                    getGraphicsContext2D().setFill(T_COLOR);
-                } else {
-                    getGraphicsContext2D().setFill(Color.DARKGRAY);
-                }
-                getGraphicsContext2D().fillRect(x + 3 * barwidth, y, barwidth, barheigth);
-                x += baseWidth;
-            } else {
-                break;
+        for (int base = PileUp.A; base <= PileUp.T; base++) {
+            gc.beginPath();
+            addBars(bamCanvas, base, inColor, true);
+            gc.setFill(COLORS[base]);
+            gc.fill();
+        }
+        if (!inColor) {
+            gc.beginPath();
+            for (int base = PileUp.A; base <= PileUp.T; base++) {
+                addBars(bamCanvas, base, true, false);
             }
+            gc.setFill(Color.DARKGRAY);
+            gc.fill();
         }
     }
 
-    private void drawWithoutAlleles(BamCanvas bamCanvas) {
+    /**
+     * Adds to the current path the bars of base, for the columns whose reference is base
+     * (matches) and for the rest of the columns (mismatches).
+     */
+    private void addBars(BamCanvas bamCanvas, int base, boolean matches, boolean mismatches) {
         /*
-         4 bars: ATCG.
+         4 bars: ACGT.
          We leave space of the base margins (barRelativeWidth) and divide the space in 4 bars:
 
          |______| baseWidth
          | ____ | baseWidth * barRelativeWidth
          | _    | barWidth = baseWidth * barRelativeWidth * 0.25
-         | atcg |
+         | acgt |
 
+         With alleles, forward bars grow up from the middle and reverse bars grow down.
          */
+        final GraphicsContext gc = getGraphicsContext2D();
         final double height = bamCanvas.getHeight();
         final double width = bamCanvas.getWidth();
         final double baseWidth = bamCanvas.getBaseWidth().get();
         final double margin = bamCanvas.getAxisMargin().get();
         final double barwidth = barRelativeWidth * baseWidth * 0.25;
-        final double y = height - margin;
-        final double maxHeigth = height - 2 * margin;
+        final boolean showAlleles = bamCanvas.getShowAlleles().get();
+        final double y = showAlleles ? height * 0.5 : height - margin;
+        final double maxHeigth = showAlleles ? 0.5 * height - margin : height - 2 * margin;
         final boolean inPercentage = bamCanvas.getPercentageUnits().get();
-        final boolean inColor = bamCanvas.getBaseColors().get();
-//        List<Map<Character, Integer>> list = bamCanvas.getValues();
-        List<PileUp> list = bamCanvas.getAlignments();
+        final double maxValue = bamCanvas.getMaxYValue().get();
+        final char symbol = PileUp.getSymbol(base);
+        final PileUpWindow list = bamCanvas.getAlignments();
         double x = margin + (1.0 - barRelativeWidth) * 0.5 * baseWidth;
-        for (PileUp pileUp : list) {
-            if (x < width - margin) {
-                int A = pileUp.getDepth('A') + pileUp.getDepth('a');
-                int T = pileUp.getDepth('T') + pileUp.getDepth('t');
-                int C = pileUp.getDepth('C') + pileUp.getDepth('c');
-                int G = pileUp.getDepth('G') + pileUp.getDepth('g');
-                char reference = pileUp.getReference();
-                // Percentage proportion
-                final double sum = A + T + G + C;
-                final double unit = maxHeigth / ((inPercentage) ? sum : bamCanvas.getMaxYValue().get());
-//            final double prop = maxHeigth / sum;
-//            final double absProp = maxHeigth / bamCanvas.getMaxYValue().get();
-                // By default, no color scheme
-                // A
-                double barheigth = A * unit;
-                if (inColor || reference != 'A') {
-                    getGraphicsContext2D().setFill(A_COLOR);
-                } else {
-                    getGraphicsContext2D().setFill(Color.DARKGRAY);
-                }
-                getGraphicsContext2D().fillRect(x, y - barheigth, barwidth, barheigth);
-                // C
-                barheigth = C * unit;
-                if (inColor || reference != 'C') {
-                    getGraphicsContext2D().setFill(C_COLOR);
-                } else {
-                    getGraphicsContext2D().setFill(Color.DARKGRAY);
-                }
-                getGraphicsContext2D().fillRect(x + barwidth, y - barheigth, barwidth, barheigth);
-                // G
-                barheigth = G * unit;
-                if (inColor || reference != 'G') {
-                    getGraphicsContext2D().setFill(G_COLOR);
-                } else {
-                    getGraphicsContext2D().setFill(Color.DARKGRAY);
+        for (int i = 0; i < list.size() && x < width - margin; i++, x += baseWidth) {
+            if (list.getReference(i) == symbol ? !matches : !mismatches) {
+                continue;
+            }
+            final double barX = x + base * barwidth;
+            if (showAlleles) {
+                final double unitF = maxHeigth / (inPercentage ? getSum(list, i, 0) : maxValue);
+                final double unitR = maxHeigth
+                        / (inPercentage ? getSum(list, i, PileUp.REVERSE) : maxValue);
+                final double forward = list.getDepth(i, base) * unitF;
+                final double reverse = list.getDepth(i, base + PileUp.REVERSE) * unitR;
+                if (forward > 0) {
+                    gc.rect(barX, y - forward, barwidth, forward);
                 }
-                getGraphicsContext2D().fillRect(x + 2 * barwidth, y - barheigth, barwidth, barheigth);
-                // T
-                barheigth = T * unit;
-                if (inColor || reference != 'T') {
-                    getGraphicsContext2D().setFill(T_COLOR);
-                } else {
-                    getGraphicsContext2D().setFill(Color.DARKGRAY);
+                if (reverse > 0) {
+                    gc.rect(barX, y, barwidth, reverse);
                 }
-                getGraphicsContext2D().fillRect(x + 3 * barwidth, y - barheigth, barwidth, barheigth);
-                x += baseWidth;
             } else {
-                break;
+                final double unit = maxHeigth / (inPercentage
+                        ? getSum(list, i, 0) + getSum(list, i, PileUp.REVERSE) : maxValue);
+                final double barheigth = list.getBothDepth(i, base) * unit;
+                if (barheigth > 0) {
+                    gc.rect(barX, y - barheigth, barwidth, barheigth);
+                }
             }
         }
     }
+
+    /**
+     * Depth of A, C, G and T of the column in a strand (0 forward, REVERSE reverse).
+     */
+    private static int getSum(PileUpWindow list, int column, int strand) {
+        int sum = 0;
+        for (int base = PileUp.A; base <= PileUp.T; base++) {
+            sum += list.getDepth(column, base + strand);
+        }
+        return sum;
+    }
 }
@@ -16,7 +16,7 @@
  */
 package exomesuite.bam;
 
-import java.util.List;
+import javafx.scene.paint.Color;
 
 /**
  * Draws a colored bar on each base, ocuppying the whole surface.
@@ -30,6 +30,11 @@ public class BamBaseBackgroundLayer extends BamLayer {
      */
     final static double opacity = 0.1;
 
+    private static final Color A_BACKGROUND = A_COLOR.deriveColor(0, 1, 1, opacity);
+    private static final Color C_BACKGROUND = C_COLOR.deriveColor(0, 1, 1, opacity);
+    private static final Color G_BACKGROUND = G_COLOR.deriveColor(0, 1, 1, opacity);
+    private static final Color T_BACKGROUND = T_COLOR.deriveColor(0, 1, 1, opacity);
+
     @Override
     protected void draw(BamCanvas bamCanvas) {
         final double height = bamCanvas.getHeight();
@@ -38,26 +43,26 @@ public class BamBaseBackgroundLayer extends BamLayer {
         final double barwidth = baseWidth * 0.9;
         final double barHeight = height - 2 * margin;
         final double y = height - margin - barHeight;
-        final List<PileUp> list = bamCanvas.getAlignments();
+        final PileUpWindow list = bamCanvas.getAlignments();
         int i = 0;
         double x = margin;
 
         while (i < list.size() && x < bamCanvas.getWidth() - margin) {
-            switch (list.get(i).getReference()) {
+            switch (list.getReference(i)) {
                 case 'A':
-                    getGraphicsContext2D().setFill(A_COLOR.deriveColor(0, 1, 1, opacity));
+                    getGraphicsContext2D().setFill(A_BACKGROUND);
                     getGraphicsContext2D().fillRect(x, y, barwidth, barHeight);
                     break;
                 case 'C':
-                    getGraphicsContext2D().setFill(C_COLOR.deriveColor(0, 1, 1, opacity));
+                    getGraphicsContext2D().setFill(C_BACKGROUND);
                     getGraphicsContext2D().fillRect(x, y, barwidth, barHeight);
                     break;
                 case 'T':
-                    getGraphicsContext2D().setFill(T_COLOR.deriveColor(0, 1, 1, opacity));
+                    getGraphicsContext2D().setFill(T_BACKGROUND);
                     getGraphicsContext2D().fillRect(x, y, barwidth, barHeight);
                     break;
                 case 'G':
-                    getGraphicsContext2D().setFill(G_COLOR.deriveColor(0, 1, 1, opacity));
+                    getGraphicsContext2D().setFill(G_BACKGROUND);
                     getGraphicsContext2D().fillRect(x, y, barwidth, barHeight);
                     break;
             }
@@ -16,7 +16,6 @@
  */
 package exomesuite.bam;
 
-import java.util.List;
 import javafx.geometry.VPos;
 import javafx.scene.text.TextAlignment;
 
@@ -27,6 +26,17 @@ import javafx.scene.text.TextAlignment;
  */
 public class BamBaseLabelLayer extends BamLayer {
 
+    /**
+     * Text of each ASCII char, so drawing labels does not create Strings.
+     */
+    private static final String[] LABELS = new String[128];
+
+    static {
+        for (int i = 0; i < LABELS.length; i++) {
+            LABELS[i] = String.valueOf((char) i);
+        }
+    }
+
     /**
      * Creates a layer that displays the nucleotides of the reference.
      */
@@ -41,11 +51,11 @@ public class BamBaseLabelLayer extends BamLayer {
         final double baseWidth = bamCanvas.getBaseWidth().get();
         final double textMargin = bamCanvas.getTextMargin().get();
         final double textWidth = baseWidth - 2 * textMargin;
-        final List<PileUp> list = bamCanvas.getAlignments();
+        final PileUpWindow list = bamCanvas.getAlignments();
         int i = 0;
         double x = margin + baseWidth * 0.5;
         while (i < list.size() && x < bamCanvas.getWidth() - margin) {
-            switch (list.get(i).getReference()) {
+            switch (list.getReference(i)) {
                 case 'A':
                     getGraphicsContext2D().setFill(A_COLOR);
                     break;
@@ -59,7 +69,9 @@ public class BamBaseLabelLayer extends BamLayer {
                     getGraphicsContext2D().setFill(C_COLOR);
                     break;
             }
-            getGraphicsContext2D().fillText(list.get(i).getReference() + "", x, margin, textWidth);
+            final char reference = list.getReference(i);
+            getGraphicsContext2D().fillText(reference < LABELS.length ? LABELS[reference]
+                    : String.valueOf(reference), x, margin, textWidth);
             x += baseWidth;
             i++;
         }
@@ -16,12 +16,12 @@
  */
 package exomesuite.bam;
 
-import java.util.ArrayList;
-import java.util.List;
+import javafx.application.Platform;
 import javafx.beans.property.Property;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleIntegerProperty;
+import javafx.beans.value.ObservableValue;
 import javafx.geometry.Insets;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.Background;
@@ -105,9 +105,13 @@ public class BamCanvas extends StackPane {
     private final Property<Boolean> showYLabels = new SimpleBooleanProperty(true);
 
     /**
-     * List of alignments to show.
+     * Columns of alignments to show.
      */
-    private List<PileUp> alignments = new ArrayList();
+    private PileUpWindow alignments = new PileUpWindow(0);
+    /**
+     * true if a repaint is waiting for the next pulse.
+     */
+    private boolean repaintScheduled;
 
     /**
      * Per nucleotide background layer.
@@ -150,8 +154,6 @@ public class BamCanvas extends StackPane {
      * Creates a BamLayer which contains 9 layers.
      */
     public BamCanvas() {
-        widthProperty().addListener(object -> repaint());
-        heightProperty().addListener(object -> repaint());
         addLayer(backgroundLayer);
         addLayer(selectLayer);
         addLayer(axisXLayer);
@@ -191,21 +193,28 @@ public class BamCanvas extends StackPane {
         showBackgroundColor.bindBidirectional(backgroundLayer.visibleProperty());
         showXAxis.bindBidirectional(axisXLayer.visibleProperty());
         showYAxis.bindBidirectional(axisYLayer.visibleProperty());
-        showAlleles.addListener((obs, old, current) -> {
-            computeMaxY();
-            repaint();
-        });
-        axisMargin.addListener((obs, old, current) -> repaint());
-        tickLength.addListener((obs, old, current) -> repaint());
-        baseWidth.addListener((obs, old, current) -> repaint());
-        genomicPosition.addListener((obs, old, current) -> repaint());
-        textMargin.addListener((obs, old, current) -> repaint());
-        selectedIndex.addListener((obs, old, current) -> repaint());
-        yTicks.addListener((obs, old, current) -> repaint());
-        maxYValue.addListener((obs, old, current) -> repaint());
-        baseColors.addListener((obs, old, current) -> repaint());
-        percentageUnits.addListener((obs, old, current) -> repaint());
-
+        /*
+         * Each layer only depends on some properties, so a change only invalidates the layers that
+         * use it: selecting a position repaints the select layer and the rest of the layers keep
+         * their last image. Invalidated layers are painted once, in the next pulse, no matter how
+         * many properties changed.
+         */
+        final BamLayer[] layers = getChildren().stream().toArray(BamLayer[]::new);
+        repaintOnChange(widthProperty(), layers);
+        repaintOnChange(heightProperty(), layers);
+        repaintOnChange(axisMargin, layers);
+        repaintOnChange(tickLength, axisLayer, axisXLayer, axisYLayer, axisXlabelsLayer);
+        repaintOnChange(baseWidth, backgroundLayer, selectLayer, axisXLayer, axisXlabelsLayer,
+                barsLayer, baseLabelLayer);
+        repaintOnChange(genomicPosition, axisXlabelsLayer);
+        repaintOnChange(textMargin, axisXlabelsLayer, axisYLabelsLayer, baseLabelLayer);
+        repaintOnChange(selectedIndex, selectLayer);
+        repaintOnChange(yTicks, axisYLayer, axisYLabelsLayer);
+        repaintOnChange(maxYValue, axisYLayer, axisYLabelsLayer, barsLayer);
+        repaintOnChange(baseColors, barsLayer);
+        repaintOnChange(percentageUnits, axisYLayer, axisYLabelsLayer, barsLayer);
+        repaintOnChange(showAlleles, axisLayer, axisXLayer, axisYLayer, axisYLabelsLayer, barsLayer);
+        showAlleles.addListener((obs, old, current) -> computeMaxY());
     }
 
     /**
@@ -299,11 +308,11 @@ public class BamCanvas extends StackPane {
     }
 
     /**
-     * Gets the list of pileups that currently must be shown.
+     * Gets the pileups that currently must be shown.
      *
-     * @return the list of current showing pileups
+     * @return the current showing pileups
      */
-    public List<PileUp> getAlignments() {
+    public PileUpWindow getAlignments() {
         return alignments;
     }
 
@@ -398,14 +407,14 @@ public class BamCanvas extends StackPane {
     }
 
     /**
-     * List of pileups.
+     * Pileups to show.
      *
      * @param alignments the alignments
      */
-    public void setAlignments(List<PileUp> alignments) {
+    public void setAlignments(PileUpWindow alignments) {
         this.alignments = alignments;
         computeMaxY();
-        repaint();
+        invalidate(backgroundLayer, selectLayer, axisXlabelsLayer, barsLayer, baseLabelLayer);
     }
 
     /**
@@ -528,46 +537,62 @@ public class BamCanvas extends StackPane {
         showBackgroundColor.set(show);
     }
 
+    /**
+     * Repaints the visible layers that have been invalidated. Hidden layers stay invalidated until
+     * they are shown.
+     */
     private void repaint() {
-        getChildren().stream().forEachOrdered(layer -> ((BamLayer) layer).repaint(this));
+        repaintScheduled = false;
+        getChildren().stream().map(node -> (BamLayer) node)
+                .filter(layer -> layer.isVisible() && layer.isDirty())
+                .forEachOrdered(layer -> layer.repaint(this));
+    }
+
+    /**
+     * Marks the layers to be repainted and schedules a repaint, if there is not one already.
+     */
+    private void invalidate(BamLayer... layers) {
+        for (BamLayer layer : layers) {
+            layer.invalidate();
+        }
+        scheduleRepaint();
+    }
+
+    private void scheduleRepaint() {
+        if (!repaintScheduled) {
+            repaintScheduled = true;
+            Platform.runLater(this::repaint);
+        }
+    }
+
+    private void repaintOnChange(ObservableValue<?> property, BamLayer... layers) {
+        property.addListener((obs, old, current) -> invalidate(layers));
     }
 
     private void addLayer(BamLayer layer) {
         getChildren().add(layer);
         layer.widthProperty().bind(widthProperty());
         layer.heightProperty().bind(heightProperty());
+        layer.visibleProperty().addListener((obs, old, visible) -> {
+            if (visible && layer.isDirty()) {
+                scheduleRepaint();
+            }
+        });
     }
 
     private void computeMaxY() {
-        maxYValue.set(1);
-        alignments.forEach(pileup -> {
-            if (showAlleles.get()) {
-                pileup.getDepths().forEach((base, dp) -> {
-                    if (showAlleles.get()) {
-                        if (dp > maxYValue.get()) {
-                            maxYValue.set(dp);
-                        }
-                    }
-                });
-            } else {
-                final double a = pileup.getDepth('A') + pileup.getDepth('a');
-                final double c = pileup.getDepth('C') + pileup.getDepth('c');
-                final double g = pileup.getDepth('G') + pileup.getDepth('g');
-                final double t = pileup.getDepth('T') + pileup.getDepth('t');
-                if (a > maxYValue.get()) {
-                    maxYValue.set(a);
-                }
-                if (c > maxYValue.get()) {
-                    maxYValue.set(c);
-                }
-                if (g > maxYValue.get()) {
-                    maxYValue.set(g);
-                }
-                if (t > maxYValue.get()) {
-                    maxYValue.set(t);
+        int max = 1;
+        for (int i = 0; i < alignments.size(); i++) {
+            for (int base = PileUp.A; base <= PileUp.T; base++) {
+                if (showAlleles.get()) {
+                    max = Math.max(max, alignments.getDepth(i, base));
+                    max = Math.max(max, alignments.getDepth(i, base + PileUp.REVERSE));
+                } else {
+                    max = Math.max(max, alignments.getBothDepth(i, base));
                 }
             }
-        });
+        }
+        maxYValue.set(max);
     }
 
     Property<Boolean> getShowXAxis() {
@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.bam;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Computes the depth of coverage of a sorted BAM file, one reference at a time, in process. Each
+ * alignment adds +1 at its first covered position and -1 after its last one in a difference
+ * array, so the cost is proportional to the number of alignments, not to their length; a prefix
+ * sum gives the depths. As alignments are sorted, positions before the start of an alignment are
+ * final, so the difference array is only a window that slides along the reference, and depths are
+ * given as runs of positions with the same depth. Memory does not depend on the length of the
+ * reference.
+ * <p>
+ * Depths follow the defaults of samtools mpileup: unmapped, secondary, QC failed and duplicated
+ * reads are skipped, as well as paired reads not properly paired, and bases with quality lower
+ * than 13 are not counted. Deletions count, reference skips (N) do not.
+ * <p>
+ * The file is read sequentially. The start of each reference is remembered the first time it is
+ * found, so references can be requested in any order without reading the file from the beginning
+ * each time. With a BamIndex, the starts are known from the beginning.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+public class BamCoverage implements Closeable {
+
+    /**
+     * Bases with lower quality are not counted, as samtools mpileup -Q default.
+     */
+    public static final int DEFAULT_MIN_BASE_QUALITY = 13;
+    /**
+     * Alignments with any of these flags are skipped.
+     */
+    private static final int SKIPPED_FLAGS = BamRecord.UNMAPPED | BamRecord.SECONDARY
+            | BamRecord.QC_FAIL | BamRecord.DUPLICATE;
+    /**
+     * Number of alignments between progress notifications.
+     */
+    private static final int PROGRESS_STEP = 1 << 20;
+    /**
+     * Initial size of the window of differences, grown if an alignment spans more positions.
+     */
+    private static final int WINDOW_SIZE = 1 << 16;
+    /**
+     * Value of referenceStarts for references without alignments.
+     */
+    private static final long NO_ALIGNMENTS = -2;
+
+    private final BamRecordReader reader;
+    private final BamRecord record = new BamRecord();
+    /**
+     * Virtual offset of the first alignment of each reference, -1 if not found yet, NO_ALIGNMENTS
+     * if the reference has no alignments.
+     */
+    private final long[] referenceStarts;
+    /**
+     * The file has been read up to this virtual offset, the start of an alignment of
+     * scannedReference.
+     */
+    private long scanned;
+    private int scannedReference = -1;
+    private int minBaseQuality = DEFAULT_MIN_BASE_QUALITY;
+    private int[] window = new int[WINDOW_SIZE];
+
+    /**
+     * Opens the BAM file.
+     *
+     * @param bam a BAM file sorted by coordinate
+     * @throws IOException if the file cannot be read
+     */
+    public BamCoverage(File bam) throws IOException {
+        reader = new BamRecordReader(bam);
+        referenceStarts = new long[reader.getReferenceNames().length];
+        Arrays.fill(referenceStarts, -1);
+        scanned = reader.getVirtualOffset();
+    }
+
+    /**
+     * Opens the BAM file, taking the start of each reference from its index.
+     *
+     * @param bam a BAM file sorted by coordinate
+     * @param index the index of the BAM file
+     * @throws IOException if the file cannot be read or the index does not match the file
+     */
+    public BamCoverage(File bam, BamIndex index) throws IOException {
+        this(bam);
+        if (index.getReferenceCount() != referenceStarts.length) {
+            close();
+            throw new IOException("The index does not match " + bam);
+        }
+        for (int i = 0; i < referenceStarts.length; i++) {
+            final long start = index.getReferenceStart(i);
+            referenceStarts[i] = start == -1 ? NO_ALIGNMENTS : start;
+        }
+    }
+
+    /**
+     * Gets the reader, to access the header of the file.
+     *
+     * @return the reader of the BAM file
+     */
+    public BamRecordReader getReader() {
+        return reader;
+    }
+
+    /**
+     * Sets the minimum quality of a base to be counted. Use 0 to count every base.
+     *
+     * @param minBaseQuality the minimum base quality
+     */
+    public void setMinBaseQuality(int minBaseQuality) {
+        this.minBaseQuality = minBaseQuality;
+    }
+
+    /**
+     * Computes the depth of each position of the reference, using 1-based coordinates, so
+     * depths[0] is not used and the array length is the reference length + 1.
+     *
+     * @param reference the name of the reference
+     * @param progress receives the 1-based position of the alignments every million alignments,
+     * or null
+     * @return the depths of the reference or null if the reference is not in the header
+     * @throws IOException if the file cannot be read
+     */
+    public int[] getDepths(String reference, IntConsumer progress) throws IOException {
+        final int index = reader.getReferenceIndex(reference);
+        return index == -1 ? null : getDepths(index, progress);
+    }
+
+    /**
+     * Computes the depth of each position of the reference, using 1-based coordinates, so
+     * depths[0] is not used and the array length is the reference length + 1.
+     *
+     * @param reference the index of the reference
+     * @param progress receives the 1-based position of the alignments every million alignments,
+     * or null
+     * @return the depths of the reference
+     * @throws IOException if the file cannot be read
+     */
+    public int[] getDepths(int reference, IntConsumer progress) throws IOException {
+        final int[] depths = new int[reader.getReferenceLengths()[reference] + 1];
+        scan(reference, (start, end, depth) -> Arrays.fill(depths, start, end + 1, depth),
+                progress);
+        return depths;
+    }
+
+    /**
+     * Computes the depths of the reference as runs of consecutive positions with the same depth.
+     * Every position of the reference, from 1 to its length, is in exactly one run, and runs are
+     * given in order.
+     *
+     * @param reference the index of the reference
+     * @param consumer receives the runs
+     * @param progress receives the 1-based position of the alignments every million alignments,
+     * or null
+     * @throws IOException if the file cannot be read or it is not sorted by coordinate
+     */
+    public void scan(int reference, DepthConsumer consumer, IntConsumer progress)
+            throws IOException {
+        final DepthTrack track = new DepthTrack(reader.getReferenceLengths()[reference], consumer);
+        final long start = referenceStarts[reference] == -1
+                ? findReference(reference) : referenceStarts[reference];
+        if (start < 0) {
+            // No alignments in this reference
+            track.finish();
+            return;
+        }
+        reader.seek(start);
+        int count = 0;
+        long offset = start;
+        while (reader.next(record)) {
+            if (record.getReferenceIndex() != reference) {
+                setScanned(offset, record.getReferenceIndex(), reference);
+                break;
+            }
+            addAlignment(track);
+            if (progress != null && ++count % PROGRESS_STEP == 0) {
+                progress.accept(record.getPosition() + 1);
+            }
+            offset = reader.getVirtualOffset();
+        }
+        track.finish();
+    }
+
+    /**
+     * Reads the file from the furthest known position until the first alignment of the
+     * reference, remembering the start of the references found on the way.
+     *
+     * @return the virtual offset of the first alignment of reference or -1 if not found
+     */
+    private long findReference(int reference) throws IOException {
+        reader.seek(scanned);
+        int previous = scannedReference;
+        long offset = scanned;
+        while (reader.next(record)) {
+            final int current = record.getReferenceIndex();
+            if (current != previous) {
+                setScanned(offset, current, previous);
+                if (current == reference) {
+                    return offset;
+                }
+                previous = current;
+            }
+            offset = reader.getVirtualOffset();
+        }
+        scanned = offset;
+        scannedReference = previous;
+        return NO_ALIGNMENTS;
+    }
+
+    /**
+     * Records that an alignment of reference starts at offset, after an alignment of previous.
+     */
+    private void setScanned(long offset, int reference, int previous) {
+        if (reference != previous && reference >= 0 && referenceStarts[reference] == -1) {
+            referenceStarts[reference] = offset;
+        }
+        if (offset > scanned) {
+            scanned = offset;
+            scannedReference = previous;
+        }
+    }
+
+    /**
+     * Adds the current record to the track.
+     */
+    private void addAlignment(DepthTrack track) throws IOException {
+        final int flag = record.getFlag();
+        if ((flag & SKIPPED_FLAGS) != 0
+                || ((flag & BamRecord.PAIRED) != 0 && (flag & BamRecord.PROPER_PAIR) == 0)) {
+            return;
+        }
+        // 1-based
+        int position = record.getPosition() + 1;
+        track.moveTo(position);
+        int base = 0;
+        final int sequenceLength = record.getSequenceLength();
+        final int qualities = record.qualityStart();
+        for (int i = 0; i < record.getCigarLength(); i++) {
+            final int length = record.getCigarOperationLength(i);
+            switch (record.getCigarOperator(i)) {
+                case 0: // M
+                case 7: // =
+                case 8: // X
+                    track.add(position, length, 1);
+                    if (minBaseQuality > 0) {
+                        for (int j = 0; j < length && base + j < sequenceLength; j++) {
+                            if ((record.data[qualities + base + j] & 0xff) < minBaseQuality) {
+                                track.add(position + j, 1, -1);
+                            }
+                        }
+                    }
+                    position += length;
+                    base += length;
+                    break;
+                case 2: // D
+                    track.add(position, length, 1);
+                    position += length;
+                    break;
+                case 3: // N
+                    position += length;
+                    break;
+                case 1: // I
+                case 4: // S
+                    base += length;
+            }
+        }
+    }
+
+    /**
+     * Receives the depths of a reference as runs of positions with the same depth.
+     */
+    public interface DepthConsumer {
+
+        /**
+         * Called for each run of positions with the same depth.
+         *
+         * @param start first position of the run (1-based)
+         * @param end last position of the run (1-based, inclusive)
+         * @param depth the depth of every position of the run
+         */
+        void accept(int start, int end, int depth);
+    }
+
+    /**
+     * The sliding window of differences of a reference. Positions before the start of the current
+     * alignment are final: their depths are calculated and given to the consumer, and their cells
+     * are reused by the next positions.
+     */
+    private class DepthTrack {
+
+        private final int length;
+        private final DepthConsumer consumer;
+        /**
+         * First position not given to the consumer yet.
+         */
+        private int flushed = 1;
+        private int depth;
+        private int runStart = 1;
+        private int runDepth;
+
+        DepthTrack(int length, DepthConsumer consumer) {
+            this.length = length;
+            this.consumer = consumer;
+            // A cancelled scan may have left differences
+            Arrays.fill(window, 0);
+        }
+
+        /**
+         * Gives the depths of the positions before position to the consumer.
+         */
+        void moveTo(int position) throws IOException {
+            if (position < flushed) {
+                throw new IOException("BAM file is not sorted by coordinate");
+            }
+            final int to = Math.min(position, length + 1);
+            final int mask = window.length - 1;
+            for (int p = flushed; p < to; p++) {
+                depth += window[p & mask];
+                window[p & mask] = 0;
+                if (depth != runDepth) {
+                    if (runStart < p) {
+                        consumer.accept(runStart, p - 1, runDepth);
+                    }
+                    runStart = p;
+                    runDepth = depth;
+                }
+            }
+            flushed = Math.max(flushed, to);
+        }
+
+        /**
+         * Adds value to [position, position + length).
+         */
+        void add(int position, int count, int value) {
+            if (position > length) {
+                return;
+            }
+            final int end = position + count;
+            ensureCapacity(Math.min(end, length + 1));
+            final int mask = window.length - 1;
+            window[position & mask] += value;
+            if (end <= length) {
+                window[end & mask] -= value;
+            }
+        }
+
+        /**
+         * Gives the rest of the reference to the consumer.
+         */
+        void finish() throws IOException {
+            moveTo(length + 1);
+            if (runStart <= length) {
+                consumer.accept(runStart, length, runDepth);
+            }
+        }
+
+        /**
+         * Grows the window, keeping its size a power of 2, until it holds position.
+         */
+        private void ensureCapacity(int position) {
+            if (position - flushed < window.length) {
+                return;
+            }
+            int size = window.length;
+            while (position - flushed >= size) {
+                size *= 2;
+            }
+            final int[] grown = new int[size];
+            final int oldMask = window.length - 1;
+            for (int p = flushed; p < flushed + window.length; p++) {
+                grown[p & (size - 1)] = window[p & oldMask];
+            }
+            window = grown;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+}
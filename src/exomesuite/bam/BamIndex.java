@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.bam;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The index of a BAM file (.bai), as written by samtools index. It tells where the alignments of
+ * each reference start, so a reference can be read without reading the previous ones, and several
+ * references can be read at the same time with different readers. The bins, chunks and linear
+ * index of each reference are kept, so the alignments of a region can be read by seeking to the
+ * chunks that may contain them.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+public class BamIndex {
+
+    /**
+     * Bin with the metadata of the reference (number of mapped and unmapped reads), not alignments.
+     */
+    private static final int PSEUDO_BIN = 37450;
+    /**
+     * Size of the windows of the linear index, 16KB.
+     */
+    private static final int LINEAR_SHIFT = 14;
+
+    private final long[] referenceStarts;
+    private final ReferenceIndex[] references;
+
+    /**
+     * Reads the BAM index.
+     *
+     * @param index the .bai file
+     * @throws IOException if the file cannot be read or it is not a BAM index
+     */
+    public BamIndex(File index) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(index)))) {
+            final byte[] magic = new byte[4];
+            in.readFully(magic);
+            if (magic[0] != 'B' || magic[1] != 'A' || magic[2] != 'I' || magic[3] != 1) {
+                throw new IOException(index + " is not a BAM index");
+            }
+            referenceStarts = new long[readInt(in)];
+            references = new ReferenceIndex[referenceStarts.length];
+            for (int i = 0; i < referenceStarts.length; i++) {
+                long start = -1;
+                final int bins = readInt(in);
+                final ReferenceIndex reference = new ReferenceIndex(bins);
+                int chunkCount = 0;
+                for (int j = 0; j < bins; j++) {
+                    final int bin = readInt(in);
+                    final int chunks = readInt(in);
+                    reference.bins[j] = bin;
+                    reference.firstChunks[j] = chunkCount;
+                    if (2 * (chunkCount + chunks) > reference.chunks.length) {
+                        reference.chunks = Arrays.copyOf(reference.chunks,
+                                Math.max(2 * (chunkCount + chunks), 2 * reference.chunks.length));
+                    }
+                    for (int k = 0; k < chunks; k++) {
+                        final long chunkStart = readLong(in);
+                        final long chunkEnd = readLong(in);
+                        reference.chunks[2 * chunkCount] = chunkStart;
+                        reference.chunks[2 * chunkCount + 1] = chunkEnd;
+                        chunkCount++;
+                        if (bin != PSEUDO_BIN && (start == -1 || chunkStart < start)) {
+                            start = chunkStart;
+                        }
+                    }
+                }
+                reference.firstChunks[bins] = chunkCount;
+                referenceStarts[i] = start;
+                // Linear index
+                reference.linear = new long[readInt(in)];
+                for (int j = 0; j < reference.linear.length; j++) {
+                    reference.linear[j] = readLong(in);
+                }
+                references[i] = reference;
+            }
+        }
+    }
+
+    /**
+     * Looks for the index of the BAM file: file.bam.bai or file.bai.
+     *
+     * @param bam the BAM file
+     * @return the index or null if there is no index
+     * @throws IOException if the index exists but cannot be read
+     */
+    public static BamIndex find(File bam) throws IOException {
+        File index = new File(bam.getAbsolutePath() + ".bai");
+        if (!index.exists()) {
+            final String name = bam.getAbsolutePath();
+            index = new File(name.replaceAll("\\.bam$", "") + ".bai");
+        }
+        return index.exists() && index.lastModified() >= bam.lastModified()
+                ? new BamIndex(index) : null;
+    }
+
+    /**
+     * Gets the number of references in the index.
+     *
+     * @return the number of references
+     */
+    public int getReferenceCount() {
+        return referenceStarts.length;
+    }
+
+    /**
+     * Gets the virtual offset of the first alignment of the reference.
+     *
+     * @param reference the index of the reference
+     * @return the virtual offset or -1 if the reference has no alignments
+     */
+    public long getReferenceStart(int reference) {
+        return referenceStarts[reference];
+    }
+
+    /**
+     * Gets the chunks of the file that may contain the alignments of the reference overlapping
+     * the region [start, end). The alignments of the region are found by reading each chunk from
+     * its first virtual offset up to its last one, and skipping the alignments that do not
+     * overlap.
+     *
+     * @param reference the index of the reference
+     * @param start first position of the region (0-based)
+     * @param end end of the region (0-based, exclusive)
+     * @return the pairs of virtual offsets [begin, end) of the chunks, sorted and not overlapping
+     */
+    public long[] getChunks(int reference, int start, int end) {
+        final ReferenceIndex index = references[reference];
+        final BitSet candidates = getBins(start, end);
+        // Alignments starting before this offset end before start
+        final int window = start >> LINEAR_SHIFT;
+        final long minOffset = index.linear.length == 0 ? 0
+                : index.linear[Math.min(window, index.linear.length - 1)];
+        long[] chunks = new long[16];
+        int size = 0;
+        for (int i = 0; i < index.bins.length; i++) {
+            if (index.bins[i] == PSEUDO_BIN || !candidates.get(index.bins[i])) {
+                continue;
+            }
+            for (int c = index.firstChunks[i]; c < index.firstChunks[i + 1]; c++) {
+                if (index.chunks[2 * c + 1] <= minOffset) {
+                    continue;
+                }
+                if (size == chunks.length) {
+                    chunks = Arrays.copyOf(chunks, 2 * size);
+                }
+                chunks[size++] = index.chunks[2 * c];
+                chunks[size++] = index.chunks[2 * c + 1];
+            }
+        }
+        return merge(chunks, size);
+    }
+
+    /**
+     * Sorts the chunks by begin and merges the ones that overlap or touch.
+     */
+    private static long[] merge(long[] chunks, int size) {
+        final int count = size / 2;
+        final long[] begins = new long[count];
+        for (int i = 0; i < count; i++) {
+            begins[i] = chunks[2 * i];
+        }
+        // Sort the pairs by begin, through the sorted begins and their original indexes
+        final Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(begins[a], begins[b]));
+        final long[] merged = new long[size];
+        int length = 0;
+        for (int i : order) {
+            final long begin = chunks[2 * i];
+            final long end = chunks[2 * i + 1];
+            if (length > 0 && begin <= merged[length - 1]) {
+                merged[length - 1] = Math.max(merged[length - 1], end);
+            } else {
+                merged[length++] = begin;
+                merged[length++] = end;
+            }
+        }
+        return Arrays.copyOf(merged, length);
+    }
+
+    /**
+     * Gets the bins that may contain alignments overlapping [start, end), as in the SAM
+     * specification (reg2bins).
+     */
+    private static BitSet getBins(int start, int end) {
+        final BitSet bins = new BitSet(PSEUDO_BIN);
+        final int last = Math.max(start, end - 1);
+        bins.set(0);
+        // Levels of 64MB, 8MB, 1MB, 128KB and 16KB
+        final int[] firsts = {1, 9, 73, 585, 4681};
+        final int[] shifts = {26, 23, 20, 17, 14};
+        for (int level = 0; level < firsts.length; level++) {
+            bins.set(firsts[level] + (start >> shifts[level]),
+                    firsts[level] + (last >> shifts[level]) + 1);
+        }
+        return bins;
+    }
+
+    private static int readInt(DataInputStream in) throws IOException {
+        return Integer.reverseBytes(in.readInt());
+    }
+
+    private static long readLong(DataInputStream in) throws IOException {
+        return Long.reverseBytes(in.readLong());
+    }
+
+    /**
+     * Bins, chunks and linear index of a reference.
+     */
+    private static class ReferenceIndex {
+
+        private final int[] bins;
+        /**
+         * The chunks of bins[i] are from firstChunks[i] to firstChunks[i + 1].
+         */
+        private final int[] firstChunks;
+        /**
+         * Pairs of virtual offsets [begin, end).
+         */
+        private long[] chunks = new long[16];
+        private long[] linear;
+
+        ReferenceIndex(int bins) {
+            this.bins = new int[bins];
+            this.firstChunks = new int[bins + 1];
+        }
+    }
+
+}
@@ -33,6 +33,12 @@ abstract class BamLayer extends Canvas {
     protected static final Color C_COLOR = Color.rgb(255, 89, 85);
     protected static final Color G_COLOR = Color.rgb(142, 104, 255);
 
+    /**
+     * true if something the layer draws has changed since its last repaint. Until then, the canvas
+     * keeps the last image.
+     */
+    private boolean dirty = true;
+
     /**
      * Clears and paints the whole layer.
      *
@@ -41,6 +47,23 @@ abstract class BamLayer extends Canvas {
     public void repaint(BamCanvas bamCanvas) {
         getGraphicsContext2D().clearRect(0, 0, getWidth(), getHeight());
         draw(bamCanvas);
+        dirty = false;
+    }
+
+    /**
+     * Marks the layer to be repainted in the next repaint of the BamCanvas.
+     */
+    void invalidate() {
+        dirty = true;
+    }
+
+    /**
+     * true if the layer must be repainted.
+     *
+     * @return true if the layer has been invalidated since its last repaint
+     */
+    boolean isDirty() {
+        return dirty;
     }
 
     /**
@@ -22,9 +22,8 @@ import exomesuite.utils.OS;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.List;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
 import javafx.scene.control.CheckMenuItem;
@@ -79,10 +78,22 @@ public class BamReader {
      */
     private File alignments;
 
-    private List<PileUp> windowAlignments;
-    int windowStart = 0, windowEnd = 0;
-    String windowChromosome = "";
-    private static final int WINDOW_SIZE = 50;
+    /**
+     * Reads the regions of the alignments file in process, kept open while the tab is. Null if
+     * the file is not indexed, then samtools is used.
+     */
+    private BamRegionReader regionReader;
+    private boolean regionReaderOpened;
+    private boolean closed;
+    /**
+     * Pileups of all the alignment files, by tiles.
+     */
+    private static final PileUpCache CACHE = new PileUpCache(Runtime.getRuntime().maxMemory() / 16);
+    /**
+     * Last displayed region, to know where the user is moving.
+     */
+    private String lastChromosome = "";
+    private int lastStart;
 
     /**
      * Initializes the controller class.
@@ -136,15 +147,12 @@ public class BamReader {
                 // Count reference ·
                 int emptySpaces = 0;
                 for (int j = 0; j < clickedPos; j++) {
-                    if (bamCanvas.getAlignments().get(j).getReference() == '*') {
+                    if (bamCanvas.getAlignments().getReference(j) == PileUp.EMPTY) {
                         emptySpaces++;
                     }
                 }
                 final int pos = current.intValue() + genomicStartPosition - emptySpaces;
-                PileUp pu = bamCanvas.getAlignments().get(clickedPos);
-                if (pu != null) {
-                    info.setText(pos + ":" + pu);
-                }
+                info.setText(pos + ":" + bamCanvas.getAlignments().getPileUp(clickedPos));
             }
         });
     }
@@ -168,6 +176,24 @@ public class BamReader {
         this.genome = file;
     }
 
+    /**
+     * Closes the alignments file and removes its pileups from the cache. Call it when the reader
+     * is not used anymore.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (alignments != null) {
+            CACHE.remove(alignments);
+        }
+        if (regionReader != null) {
+            try {
+                regionReader.close();
+            } catch (IOException ex) {
+                MainViewController.printException(ex);
+            }
+        }
+    }
+
     /**
      * Computes chr and position and calls changePosition if it is a valid position.
      */
@@ -203,168 +229,93 @@ public class BamReader {
             end += (1 - start);
             start = 1;
         }
-        List<PileUp> pileups = new ArrayList();
-        // So, I want chr:start-end
-        // What do I have in alignmentWindow
-        if (!windowChromosome.equals(chr) || start < windowStart || end > windowEnd) {
-            // Determine the size of the new window
-            windowStart = start - WINDOW_SIZE;
-            if (windowStart < 1) {
-                windowStart = 1;
-            }
-            windowEnd = end + WINDOW_SIZE;
-            windowChromosome = chr;
-            windowAlignments = readBamFile(windowChromosome, windowStart, windowEnd);
-        }
-        for (int i = 0; i <= end - start && i + start - windowStart < windowAlignments.size(); i++) {
-            pileups.add(windowAlignments.get(i + start - windowStart));
+        PileUpWindow pileups;
+        try {
+            pileups = CACHE.get(alignments, chr, start, end, this::readBamFile);
+        } catch (IOException ex) {
+            MainViewController.printException(ex);
+            pileups = new PileUpWindow(0);
         }
+        // Next tiles in the direction of the movement, at both sides after a jump
+        final int direction = chr.equals(lastChromosome) && Math.abs(start - lastStart) < end - start
+                ? Integer.compare(start, lastStart) : 0;
+        CACHE.prefetch(alignments, chr, start, end, direction, this::readBamFile);
+        lastChromosome = chr;
+        lastStart = start;
         bamCanvas.setAlignments(pileups);
         bamCanvas.setGenomicPosition(start);
 //        bamCanvas.setSelectedIndex(index);
     }
 
     /**
-     * Gets the alignment PileUps of the chromosome:start-end from the bamFile.
+     * Gets the alignment PileUps of the chromosome:start-end from the bamFile. If the bamFile is
+     * indexed, the region is read in process, if not, samtools is called. It is called by the
+     * cache, from the JavaFX thread or from the prefetch thread.
      *
      * @param chromosome the chromosome
      * @param start the start position
      * @param end the end position
-     * @return
+     * @return a column for each position, followed by the columns of its insertions
+     * @throws IOException if the alignments cannot be read
      */
-    private List<PileUp> readBamFile(String chromosome, int start, int end) {
-        final List<PileUp> pileups = new ArrayList<>();
+    private synchronized PileUpWindow readBamFile(String chromosome, int start, int end)
+            throws IOException {
+        if (closed) {
+            throw new IOException(alignments + " is closed");
+        }
+        if (!regionReaderOpened) {
+            regionReaderOpened = true;
+            regionReader = BamRegionReader.open(alignments, genome);
+        }
+        return regionReader != null
+                ? regionReader.read(chromosome, start, end)
+                : readPileUp(chromosome, start, end);
+    }
+
+    /**
+     * Gets the alignment PileUps of the chromosome:start-end with samtools mpileup, for files
+     * without index. Positions without alignments, which mpileup skips, get an empty column.
+     *
+     * @param chromosome the chromosome
+     * @param start the start position
+     * @param end the end position
+     * @return a column for each position, followed by the columns of its insertions
+     * @throws IOException if samtools fails
+     */
+    private PileUpWindow readPileUp(String chromosome, int start, int end) throws IOException {
+        final PileUpWindow pileups = new PileUpWindow(end - start + 1);
         ProcessBuilder pb = new ProcessBuilder("samtools", "mpileup", "-f", genome.getAbsolutePath(),
                 "-r", chromosome + ":" + start + "-" + end, alignments.getAbsolutePath());
-        System.out.println(pb.command());
         String errorLine = "";
-        try {
-            final Process p = pb.start();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
-                    BufferedReader error = new BufferedReader(new InputStreamReader(p.getErrorStream()))) {
-                // [mpileup] 1 samples in 1 input files
-                // <mpileup> Set max per-file depth to 8000
-                reader.lines().forEachOrdered(line -> pileups.addAll(decodePileUp(line)));
-                String eLine;
-                while ((eLine = error.readLine()) != null) {
-                    errorLine += "\n" + eLine;
+        final Process p = pb.start();
+        int next = start;
+        try (InputStream in = p.getInputStream();
+                BufferedReader error = new BufferedReader(new InputStreamReader(p.getErrorStream()))) {
+            // [mpileup] 1 samples in 1 input files
+            // <mpileup> Set max per-file depth to 8000
+            final MpileupDecoder decoder = new MpileupDecoder(in);
+            while (decoder.next()) {
+                for (; next < decoder.getPosition(); next++) {
+                    pileups.addColumn('N');
                 }
-            } catch (IOException ex) {
-                MainViewController.printException(ex);
+                decoder.addTo(pileups);
+                next = decoder.getPosition() + 1;
             }
-            int ret = p.waitFor();
-            if (ret != 0) {
-                MainViewController.printMessage("Problems loading alignments: " + errorLine, "error");
+            String eLine;
+            while ((eLine = error.readLine()) != null) {
+                errorLine += "\n" + eLine;
             }
-        } catch (IOException | InterruptedException ex) {
-            MainViewController.printException(ex);
         }
-        return pileups;
-    }
-
-    /**
-     * Returns one or more pileups, if there is an insertion, this list will grown up.
-     *
-     * @param line
-     * @return
-     */
-    private List<PileUp> decodePileUp(String line) {
-        /*
-         * In the pileup format (without -u or -g), each line represents a genomic position,
-         * consisting of chromosome name, 1-based coordinate, reference base, the number of reads
-         * covering the site, read bases, base qualities and alignment mapping qualities.
-         * Information on match, mismatch, indel, strand, mapping quality and start and end of a
-         * read are all encoded at the read base column.
-         * At this column:
-         * (.) a dot stands for a match to the reference base on the forward strand.
-         * (,) a comma for a match on the reverse strand.
-         * (<>) a '>' or '<' for a reference skip.
-         * (ACGTN) for a mismatch on the forward strand.
-         * (acgtn) for a mismatch on the reverse strand.
-         * ("\\+[0-9]+[ACGTNacgtn]+") indicates there is an insertion between this reference
-         * position and the next reference position. The length of the insertion is given by the
-         * integer in the pattern, followed by the inserted sequence.
-         * ("-[0-9]+[ACGTNacgtn]+") represents a deletion from the reference. The deleted bases
-         * will be presented as `*' in the following lines.
-         * (^) marks the start of a read. The ASCII of the character following (^) minus 33 gives
-         * the mapping quality.
-         * ($) marks the end of a read segment.
-         */
-        List<PileUp> pileUps = new ArrayList<>();
-        final String[] row = line.split("\t");
-        final char ref = row[2].charAt(0);
-        pileUps.add(new PileUp(ref));
-        char[] reads = row[4].replace('.', ref).replace(',', Character.toLowerCase(ref)).toCharArray();
-        for (int i = 0; i < reads.length; i++) {
-            char base = reads[i];
-            switch (base) {
-                case 'c':
-                case 'C':
-                case 'a':
-                case 'A':
-                case 't':
-                case 'T':
-                case 'g':
-                case 'G':
-                    pileUps.get(0).incrementDepth(base);
-                    break;
-                case '+':
-                    int j = i + 1;
-                    while (Character.isDigit(reads[j])) {
-                        j++;
-                    }
-                    // +1A
-                    // i j (length=1)
-                    // +10ACTACGTACG
-                    // i  j (length=10)
-                    int length = 0;
-                    try {
-                        length = Integer.valueOf(row[4].substring(i + 1, j));
-                    } catch (Exception ex) {
-                        MainViewController.printException(ex);
-                    }
-                    for (int k = 0; k < length; k++) {
-                        PileUp pu;
-                        if (pileUps.size() < k + 2) {
-                            pu = new PileUp(PileUp.EMPTY);
-                            pileUps.add(pu);
-                        } else {
-                            pu = pileUps.get(k + 1);
-                        }
-                        pu.incrementDepth(reads[j + k]);
-                        i = j + length - 1;
-                        break;
-                    }
-                    break;
-                case '-':
-                    // Deletions just need to be supressed
-                    j = i + 1;
-                    while (Character.isDigit(reads[j])) {
-                        j++;
-                    }
-                    // -1A
-                    // i j (length=1)
-                    // -10ACTACGTACG
-                    // i  j (length=10)
-                    length = Integer.valueOf(row[4].substring(i + 1, j));
-                    i = j + length - 1;
-                    break;
-                case '$':
-                    // nothing to do
-                    break;
-                case '^':
-                    // skip quality value
-                    i++;
-                    break;
-                case '*':
-                    // nothing to do
-                    break;
-                case '>':
-                case '<':
-                // What to do?
+        try {
+            if (p.waitFor() != 0) {
+                throw new IOException("Problems loading alignments: " + errorLine);
             }
-
+        } catch (InterruptedException ex) {
+            throw new IOException(ex);
+        }
+        for (; next <= end; next++) {
+            pileups.addColumn('N');
         }
-        return pileUps;
+        return pileups;
     }
 }
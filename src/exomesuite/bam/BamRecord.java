@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.bam;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An alignment of a BAM file, decoded on demand from its binary form. A record is meant to be
+ * reused: {@code BamRecordReader.next(record)} overwrites it, so reading a whole file does not
+ * create one object per alignment.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+public class BamRecord {
+
+    /**
+     * Template having multiple segments in sequencing.
+     */
+    public static final int PAIRED = 0x1;
+    /**
+     * Each segment properly aligned according to the aligner.
+     */
+    public static final int PROPER_PAIR = 0x2;
+    /**
+     * Segment unmapped.
+     */
+    public static final int UNMAPPED = 0x4;
+    /**
+     * SEQ being reverse complemented.
+     */
+    public static final int REVERSE = 0x10;
+    /**
+     * Secondary alignment.
+     */
+    public static final int SECONDARY = 0x100;
+    /**
+     * Not passing quality controls.
+     */
+    public static final int QC_FAIL = 0x200;
+    /**
+     * PCR or optical duplicate.
+     */
+    public static final int DUPLICATE = 0x400;
+    /**
+     * Supplementary alignment.
+     */
+    public static final int SUPPLEMENTARY = 0x800;
+
+    /**
+     * CIGAR operators, by code: MIDNSHP=X.
+     */
+    public static final char[] CIGAR_OPERATORS = {'M', 'I', 'D', 'N', 'S', 'H', 'P', '=', 'X'};
+    /**
+     * Bases of the sequence, by code.
+     */
+    private static final char[] BASES = "=ACMGRSVTWYHKDBN".toCharArray();
+
+    private static final int READ_NAME = 32;
+
+    /**
+     * The binary record, without its block_size.
+     */
+    byte[] data = new byte[1024];
+    int length;
+
+    /**
+     * Gets the index of the reference sequence, -1 for unmapped reads without coordinate.
+     *
+     * @return the reference index
+     */
+    public int getReferenceIndex() {
+        return int32(0);
+    }
+
+    /**
+     * Gets the 0-based leftmost position of the alignment.
+     *
+     * @return the 0-based position
+     */
+    public int getPosition() {
+        return int32(4);
+    }
+
+    /**
+     * Gets the mapping quality.
+     *
+     * @return the mapping quality
+     */
+    public int getMappingQuality() {
+        return data[9] & 0xff;
+    }
+
+    /**
+     * Gets the bitwise flag of the alignment.
+     *
+     * @return the flag
+     */
+    public int getFlag() {
+        return uint16(14);
+    }
+
+    /**
+     * Gets the number of operations of the CIGAR.
+     *
+     * @return the number of CIGAR operations
+     */
+    public int getCigarLength() {
+        return uint16(12);
+    }
+
+    /**
+     * Gets the code of the i-th CIGAR operation, as an index of CIGAR_OPERATORS.
+     *
+     * @param i the index of the operation
+     * @return the code of the operator
+     */
+    public int getCigarOperator(int i) {
+        return data[cigarStart() + 4 * i] & 0xf;
+    }
+
+    /**
+     * Gets the length of the i-th CIGAR operation.
+     *
+     * @param i the index of the operation
+     * @return the length of the operation
+     */
+    public int getCigarOperationLength(int i) {
+        return int32(cigarStart() + 4 * i) >>> 4;
+    }
+
+    /**
+     * Gets the length of the read sequence.
+     *
+     * @return the length of the sequence
+     */
+    public int getSequenceLength() {
+        return int32(16);
+    }
+
+    /**
+     * Gets the i-th base of the read.
+     *
+     * @param i the index of the base
+     * @return the base: =ACMGRSVTWYHKDBN
+     */
+    public char getBase(int i) {
+        final int b = data[sequenceStart() + i / 2];
+        return BASES[(i & 1) == 0 ? (b >> 4) & 0xf : b & 0xf];
+    }
+
+    /**
+     * Gets the Phred quality of the i-th base of the read, 255 if missing.
+     *
+     * @param i the index of the base
+     * @return the base quality
+     */
+    public int getBaseQuality(int i) {
+        return data[qualityStart() + i] & 0xff;
+    }
+
+    /**
+     * Gets the name of the read.
+     *
+     * @return the read name
+     */
+    public String getReadName() {
+        // Null terminated
+        return new String(data, READ_NAME, (data[8] & 0xff) - 1, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Gets the 0-based position next to the last reference base covered by the alignment.
+     *
+     * @return the end of the alignment (exclusive)
+     */
+    public int getEnd() {
+        int end = getPosition();
+        for (int i = 0; i < getCigarLength(); i++) {
+            switch (getCigarOperator(i)) {
+                case 0: // M
+                case 2: // D
+                case 3: // N
+                case 7: // =
+                case 8: // X
+                    end += getCigarOperationLength(i);
+            }
+        }
+        return end;
+    }
+
+    private int cigarStart() {
+        return READ_NAME + (data[8] & 0xff);
+    }
+
+    private int sequenceStart() {
+        return cigarStart() + 4 * getCigarLength();
+    }
+
+    /**
+     * Position in data of the quality of the first base.
+     */
+    int qualityStart() {
+        return sequenceStart() + (getSequenceLength() + 1) / 2;
+    }
+
+    private int int32(int off) {
+        return (data[off] & 0xff) | (data[off + 1] & 0xff) << 8 | (data[off + 2] & 0xff) << 16
+                | (data[off + 3] & 0xff) << 24;
+    }
+
+    private int uint16(int off) {
+        return (data[off] & 0xff) | (data[off + 1] & 0xff) << 8;
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.bam;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the alignments of a BAM file in process, without samtools. The header is read when the
+ * file is opened; alignments are read one by one into a reusable BamRecord.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+public class BamRecordReader implements Closeable {
+
+    private final BgzfInputStream in;
+    private final String headerText;
+    private final String[] referenceNames;
+    private final int[] referenceLengths;
+    private final byte[] int32 = new byte[4];
+
+    /**
+     * Opens the BAM file and reads its header.
+     *
+     * @param bam the BAM file
+     * @throws IOException if the file cannot be read or it is not a BAM file
+     */
+    public BamRecordReader(File bam) throws IOException {
+        in = new BgzfInputStream(bam);
+        try {
+            final byte[] magic = new byte[4];
+            if (!in.readFullyOrEnd(magic, 0, 4) || magic[0] != 'B' || magic[1] != 'A'
+                    || magic[2] != 'M' || magic[3] != 1) {
+                throw new IOException(bam + " is not a BAM file");
+            }
+            headerText = readString(readInt());
+            final int references = readInt();
+            referenceNames = new String[references];
+            referenceLengths = new int[references];
+            for (int i = 0; i < references; i++) {
+                final String name = readString(readInt());
+                // Null terminated
+                referenceNames[i] = name.substring(0, name.length() - 1);
+                referenceLengths[i] = readInt();
+            }
+        } catch (IOException ex) {
+            in.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Gets the text of the header (lines starting with @).
+     *
+     * @return the header text
+     */
+    public String getHeaderText() {
+        return headerText;
+    }
+
+    /**
+     * Gets the names of the reference sequences, in the order of the reference indexes.
+     *
+     * @return the reference names
+     */
+    public String[] getReferenceNames() {
+        return referenceNames;
+    }
+
+    /**
+     * Gets the lengths of the reference sequences, in the order of the reference indexes.
+     *
+     * @return the reference lengths
+     */
+    public int[] getReferenceLengths() {
+        return referenceLengths;
+    }
+
+    /**
+     * Gets the index of the reference with the given name.
+     *
+     * @param name the name of the reference
+     * @return the index of the reference or -1 if it is not in the header
+     */
+    public int getReferenceIndex(String name) {
+        for (int i = 0; i < referenceNames.length; i++) {
+            if (referenceNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the next alignment into record.
+     *
+     * @param record the record to overwrite
+     * @return false if there are no more alignments
+     * @throws IOException if the file cannot be read
+     */
+    public boolean next(BamRecord record) throws IOException {
+        if (!in.readFullyOrEnd(int32, 0, 4)) {
+            return false;
+        }
+        final int size = toInt(int32);
+        if (size < 32) {
+            throw new IOException("Corrupted BAM record");
+        }
+        if (record.data.length < size) {
+            record.data = new byte[Math.max(size, 2 * record.data.length)];
+        }
+        if (!in.readFullyOrEnd(record.data, 0, size)) {
+            throw new EOFException("Unexpected end of BAM file");
+        }
+        record.length = size;
+        return true;
+    }
+
+    /**
+     * Gets the virtual offset of the next alignment.
+     *
+     * @return the current virtual offset
+     */
+    public long getVirtualOffset() {
+        return in.getVirtualOffset();
+    }
+
+    /**
+     * Moves to the given virtual offset, which must be the start of an alignment.
+     *
+     * @param virtualOffset the virtual offset, from getVirtualOffset() or a BAM index
+     * @throws IOException if the file cannot be read
+     */
+    public void seek(long virtualOffset) throws IOException {
+        in.seek(virtualOffset);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private int readInt() throws IOException {
+        if (!in.readFullyOrEnd(int32, 0, 4)) {
+            throw new EOFException("Unexpected end of BAM file");
+        }
+        return toInt(int32);
+    }
+
+    private String readString(int length) throws IOException {
+        final byte[] bytes = new byte[length];
+        if (length > 0 && !in.readFullyOrEnd(bytes, 0, length)) {
+            throw new EOFException("Unexpected end of BAM file");
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static int toInt(byte[] b) {
+        return (b[0] & 0xff) | (b[1] & 0xff) << 8 | (b[2] & 0xff) << 16 | (b[3] & 0xff) << 24;
+    }
+
+}
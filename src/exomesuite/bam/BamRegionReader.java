@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.bam;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reads the pileup of regions of an indexed BAM file in process, like samtools mpileup -r but
+ * without starting a process or parsing text. The BAM index gives the chunks of the file that
+ * may contain alignments of the region, so only they are decompressed, and the columns are built
+ * from the CIGAR and the sequence of each alignment. The file stays open between regions, so a
+ * reader should be kept for as long as the file is displayed.
+ * <p>
+ * Alignments are filtered as samtools mpileup does by default: unmapped, secondary, QC failed,
+ * duplicated and not properly paired alignments are skipped, and bases with quality lower than
+ * 13 are not counted. BAQ is not computed.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+public class BamRegionReader implements Closeable {
+
+    /**
+     * Alignments with any of these flags are skipped.
+     */
+    private static final int SKIPPED_FLAGS = BamRecord.UNMAPPED | BamRecord.SECONDARY
+            | BamRecord.QC_FAIL | BamRecord.DUPLICATE;
+
+    private final BamRecordReader reader;
+    private final BamIndex index;
+    private final IndexedFasta genome;
+    private final BamRecord record = new BamRecord();
+    private int minBaseQuality = BamCoverage.DEFAULT_MIN_BASE_QUALITY;
+
+    /**
+     * Opens the BAM file.
+     *
+     * @param bam the BAM file, sorted by coordinate
+     * @param index the index of the BAM file
+     * @param genome the reference genome, to take the reference bases, or null
+     * @throws IOException if the file cannot be read or the index does not match it
+     */
+    public BamRegionReader(File bam, BamIndex index, IndexedFasta genome) throws IOException {
+        this.reader = new BamRecordReader(bam);
+        this.index = index;
+        this.genome = genome;
+        if (index.getReferenceCount() != reader.getReferenceNames().length) {
+            close();
+            throw new IOException("The index does not match " + bam);
+        }
+    }
+
+    /**
+     * Opens the BAM file with its index and the reference genome with its index.
+     *
+     * @param bam the BAM file
+     * @param genome the FASTA of the reference genome
+     * @return the reader, or null if the BAM file is not indexed
+     * @throws IOException if the files cannot be read
+     */
+    public static BamRegionReader open(File bam, File genome) throws IOException {
+        final BamIndex index = BamIndex.find(bam);
+        if (index == null) {
+            return null;
+        }
+        return new BamRegionReader(bam, index, genome == null ? null : IndexedFasta.find(genome));
+    }
+
+    /**
+     * Sets the minimum quality of a base to be counted. Use 0 to count every base.
+     *
+     * @param minBaseQuality the minimum base quality
+     */
+    public void setMinBaseQuality(int minBaseQuality) {
+        this.minBaseQuality = minBaseQuality;
+    }
+
+    /**
+     * Reads the pileup of chromosome:start-end. There is a column for every position of the
+     * region, even if no alignment covers it, followed by a column with EMPTY reference for each
+     * inserted base after it.
+     *
+     * @param chromosome the chromosome, with or without chr
+     * @param start first position (1-based)
+     * @param end last position (1-based, inclusive)
+     * @return the columns of the region, empty if the chromosome is not in the file
+     * @throws IOException if the file cannot be read
+     */
+    public synchronized PileUpWindow read(String chromosome, int start, int end)
+            throws IOException {
+        final int reference = getReferenceIndex(chromosome);
+        if (reference == -1 || end < start) {
+            return new PileUpWindow(0);
+        }
+        final int length = end - start + 1;
+        final PileUpWindow columns = new PileUpWindow(length);
+        final byte[] bases = getReferenceBases(chromosome, start, end);
+        for (int i = 0; i < length; i++) {
+            columns.addColumn(bases == null ? 'N' : (char) bases[i]);
+        }
+        // Insertions after each column, only created where there are insertions
+        final PileUpWindow[] insertions = new PileUpWindow[length];
+        final long[] chunks = index.getChunks(reference, start - 1, end);
+        for (int c = 0; c < chunks.length; c += 2) {
+            reader.seek(chunks[c]);
+            while (reader.getVirtualOffset() < chunks[c + 1] && reader.next(record)) {
+                if (record.getReferenceIndex() != reference || record.getPosition() >= end) {
+                    // Sorted, so the rest of the chunk is after the region
+                    break;
+                }
+                addAlignment(start, columns, insertions);
+            }
+        }
+        int total = length;
+        for (PileUpWindow inserted : insertions) {
+            if (inserted != null) {
+                total += inserted.size();
+            }
+        }
+        if (total == length) {
+            return columns;
+        }
+        final PileUpWindow pileups = new PileUpWindow(total);
+        for (int i = 0; i < length; i++) {
+            pileups.addColumns(columns, i, i + 1);
+            if (insertions[i] != null) {
+                pileups.addColumns(insertions[i], 0, insertions[i].size());
+            }
+        }
+        return pileups;
+    }
+
+    /**
+     * Adds the bases of the current record to the columns.
+     */
+    private void addAlignment(int start, PileUpWindow columns, PileUpWindow[] insertions) {
+        final int flag = record.getFlag();
+        if ((flag & SKIPPED_FLAGS) != 0
+                || ((flag & BamRecord.PAIRED) != 0 && (flag & BamRecord.PROPER_PAIR) == 0)) {
+            return;
+        }
+        final int strand = (flag & BamRecord.REVERSE) != 0 ? PileUp.REVERSE : 0;
+        final int length = columns.size();
+        // Column of the 1-based position
+        int column = record.getPosition() + 1 - start;
+        int base = 0;
+        // Last operation was M, =, X (1) or D (2), so insertions are placed after a column
+        int previous = 0;
+        final int sequenceLength = record.getSequenceLength();
+        for (int i = 0; i < record.getCigarLength() && column <= length; i++) {
+            final int operationLength = record.getCigarOperationLength(i);
+            final int operator = record.getCigarOperator(i);
+            switch (operator) {
+                case 0: // M
+                case 7: // =
+                case 8: // X
+                    for (int j = 0; j < operationLength && base + j < sequenceLength; j++) {
+                        if (column + j >= 0 && column + j < length
+                                && record.getBaseQuality(base + j) >= minBaseQuality) {
+                            columns.increment(column + j, getCounter(base + j) + strand);
+                        }
+                    }
+                    column += operationLength;
+                    base += operationLength;
+                    break;
+                case 1: // I
+                    // Inserted after the previous column, if its base is counted
+                    if (previous != 0 && column > 0 && column <= length
+                            && (previous == 2
+                            || record.getBaseQuality(base - 1) >= minBaseQuality)) {
+                        PileUpWindow inserted = insertions[column - 1];
+                        if (inserted == null) {
+                            inserted = new PileUpWindow(operationLength);
+                            insertions[column - 1] = inserted;
+                        }
+                        for (int j = 0; j < operationLength && base + j < sequenceLength; j++) {
+                            if (inserted.size() == j) {
+                                inserted.addColumn(PileUp.EMPTY);
+                            }
+                            inserted.increment(j, getCounter(base + j) + strand);
+                        }
+                    }
+                    base += operationLength;
+                    break;
+                case 2: // D
+                    for (int j = Math.max(0, -column); j < operationLength && column + j < length; j++) {
+                        columns.increment(column + j, PileUp.DELETION + strand);
+                    }
+                    column += operationLength;
+                    break;
+                case 3: // N
+                    column += operationLength;
+                    break;
+                case 4: // S
+                    base += operationLength;
+            }
+            previous = operator == 0 || operator == 7 || operator == 8 ? 1 : operator == 2 ? 2 : 0;
+        }
+    }
+
+    /**
+     * Gets the forward counter of the i-th base of the record. Ambiguous bases count as N.
+     */
+    private int getCounter(int i) {
+        switch (record.getBase(i)) {
+            case 'A':
+                return PileUp.A;
+            case 'C':
+                return PileUp.C;
+            case 'G':
+                return PileUp.G;
+            case 'T':
+                return PileUp.T;
+            default:
+                return PileUp.N;
+        }
+    }
+
+    /**
+     * Gets the index of the chromosome in the BAM file, trying with and without chr.
+     */
+    private int getReferenceIndex(String chromosome) {
+        int reference = reader.getReferenceIndex(chromosome);
+        if (reference == -1) {
+            reference = reader.getReferenceIndex(chromosome.startsWith("chr")
+                    ? chromosome.substring(3) : "chr" + chromosome);
+        }
+        return reference;
+    }
+
+    private byte[] getReferenceBases(String chromosome, int start, int end) throws IOException {
+        if (genome == null) {
+            return null;
+        }
+        if (!genome.contains(chromosome)) {
+            chromosome = chromosome.startsWith("chr") ? chromosome.substring(3) : "chr" + chromosome;
+        }
+        return genome.getBases(chromosome, start, end);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } finally {
+            if (genome != null) {
+                genome.close();
+            }
+        }
+    }
+
+}
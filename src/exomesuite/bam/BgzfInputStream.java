@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.bam;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a BGZF file (the compression of BAM files), block by block. BGZF is a series of gzip
+ * blocks of at most 64KB, so any position of the uncompressed data can be addressed with a virtual
+ * offset: the address of the block in the file in the 48 high bits and the position inside the
+ * uncompressed block in the 16 low bits. Virtual offsets are what BAM indexes store, and they can
+ * be used to seek.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+public class BgzfInputStream extends InputStream {
+
+    private static final int MAX_BLOCK_SIZE = 1 << 16;
+    private static final int HEADER_SIZE = 18;
+
+    private final RandomAccessFile file;
+    private final Inflater inflater = new Inflater(true);
+    private final byte[] compressed = new byte[MAX_BLOCK_SIZE];
+    private final byte[] block = new byte[MAX_BLOCK_SIZE];
+    private int blockLength;
+    private int blockPosition;
+    private long blockAddress;
+    private long nextBlockAddress;
+
+    /**
+     * Opens the BGZF file.
+     *
+     * @param file the BGZF file
+     * @throws IOException if the file cannot be opened
+     */
+    public BgzfInputStream(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+    }
+
+    /**
+     * Decompresses the next block with data. Empty blocks, like the end of file marker, are
+     * skipped.
+     *
+     * @return false if the end of file was reached
+     */
+    private boolean loadBlock() throws IOException {
+        do {
+            blockAddress = nextBlockAddress;
+            blockPosition = 0;
+            blockLength = 0;
+            file.seek(blockAddress);
+            final int read = readBytes(compressed, 0, HEADER_SIZE);
+            if (read == 0) {
+                return false;
+            }
+            final int extraLength = uint16(compressed, 10);
+            if (read < HEADER_SIZE || (compressed[0] & 0xff) != 31 || (compressed[1] & 0xff) != 139
+                    || (compressed[3] & 4) == 0 || extraLength < 6) {
+                throw new IOException("Not a BGZF block at " + blockAddress);
+            }
+            // The BC subfield, with the size of the block, is usually the only one
+            final int dataStart = 12 + extraLength;
+            readFully(compressed, HEADER_SIZE, dataStart - HEADER_SIZE);
+            int blockSize = -1;
+            for (int i = 12; i + 4 <= dataStart; i += 4 + uint16(compressed, i + 2)) {
+                if (compressed[i] == 'B' && compressed[i + 1] == 'C') {
+                    blockSize = uint16(compressed, i + 4) + 1;
+                }
+            }
+            if (blockSize < dataStart + 8 || blockSize > MAX_BLOCK_SIZE) {
+                throw new IOException("Not a BGZF block at " + blockAddress);
+            }
+            readFully(compressed, dataStart, blockSize - dataStart);
+            // Last 4 bytes: size of the uncompressed data
+            final int size = int32(compressed, blockSize - 4);
+            inflater.reset();
+            inflater.setInput(compressed, dataStart, blockSize - 8 - dataStart);
+            try {
+                blockLength = size == 0 ? 0 : inflater.inflate(block, 0, size);
+            } catch (DataFormatException ex) {
+                throw new IOException("Corrupted BGZF block at " + blockAddress, ex);
+            }
+            nextBlockAddress = blockAddress + blockSize;
+        } while (blockLength == 0);
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (blockPosition == blockLength && !loadBlock()) {
+            return -1;
+        }
+        return block[blockPosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int read = 0;
+        while (read < len) {
+            if (blockPosition == blockLength && !loadBlock()) {
+                return read == 0 ? -1 : read;
+            }
+            final int n = Math.min(len - read, blockLength - blockPosition);
+            System.arraycopy(block, blockPosition, b, off + read, n);
+            blockPosition += n;
+            read += n;
+        }
+        return read;
+    }
+
+    /**
+     * Reads exactly len bytes, unless the end of file is found before reading any byte.
+     *
+     * @param b the destination buffer
+     * @param off the first position of the buffer
+     * @param len the number of bytes to read
+     * @return false if the end of file was reached before reading any byte
+     * @throws IOException if the file cannot be read or it ends in the middle of the bytes
+     */
+    public boolean readFullyOrEnd(byte[] b, int off, int len) throws IOException {
+        final int read = read(b, off, len);
+        if (read == -1) {
+            return false;
+        }
+        if (read < len) {
+            throw new EOFException("Unexpected end of BGZF file");
+        }
+        return true;
+    }
+
+    /**
+     * Gets the virtual offset of the next byte to read.
+     *
+     * @return the current virtual offset
+     */
+    public long getVirtualOffset() {
+        // At the end of a block, the next byte is the first of the next block
+        return blockPosition == blockLength && blockLength > 0
+                ? nextBlockAddress << 16
+                : blockAddress << 16 | blockPosition;
+    }
+
+    /**
+     * Moves to the given virtual offset.
+     *
+     * @param virtualOffset the virtual offset, usually from getVirtualOffset() or an index
+     * @throws IOException if the block cannot be read
+     */
+    public void seek(long virtualOffset) throws IOException {
+        final long address = virtualOffset >>> 16;
+        final int position = (int) (virtualOffset & 0xffff);
+        if (address != blockAddress || blockLength == 0) {
+            nextBlockAddress = address;
+            if (!loadBlock()) {
+                return;
+            }
+        }
+        blockPosition = Math.min(position, blockLength);
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        file.close();
+    }
+
+    private int readBytes(byte[] b, int off, int len) throws IOException {
+        int read = 0;
+        while (read < len) {
+            final int n = file.read(b, off + read, len - read);
+            if (n == -1) {
+                break;
+            }
+            read += n;
+        }
+        return read;
+    }
+
+    private void readFully(byte[] b, int off, int len) throws IOException {
+        if (readBytes(b, off, len) < len) {
+            throw new EOFException("Truncated BGZF block at " + blockAddress);
+        }
+    }
+
+    private static int uint16(byte[] b, int off) {
+        return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8;
+    }
+
+    private static int int32(byte[] b, int off) {
+        return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16
+                | (b[off + 3] & 0xff) << 24;
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.bam;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a BGZF file (bgzip), the counterpart of BgzfInputStream. Data is buffered and compressed
+ * in independent gzip blocks, so the output can be read by any gzip reader and indexed with
+ * virtual offsets. The empty block that marks the end of file is written on close.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+public class BgzfOutputStream extends OutputStream {
+
+    /**
+     * Uncompressed bytes per block, as bgzip, so the compressed block always fits in 64KB.
+     */
+    private static final int BLOCK_DATA_SIZE = 0xff00;
+    private static final int HEADER_SIZE = 18;
+    private static final int FOOTER_SIZE = 8;
+    private static final byte[] EOF_BLOCK = {31, -117, 8, 4, 0, 0, 0, 0, 0, -1, 6, 0, 66, 67, 2, 0,
+        27, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+
+    private final OutputStream out;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] block = new byte[BLOCK_DATA_SIZE];
+    private final byte[] compressed = new byte[1 << 16];
+    private int blockLength;
+    private long blockAddress;
+    private boolean closed;
+
+    /**
+     * Creates the BGZF file, replacing it if it exists.
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be created
+     */
+    public BgzfOutputStream(File file) throws IOException {
+        this.out = new FileOutputStream(file);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (blockLength == BLOCK_DATA_SIZE) {
+            writeBlock();
+        }
+        block[blockLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (blockLength == BLOCK_DATA_SIZE) {
+                writeBlock();
+            }
+            final int n = Math.min(len, BLOCK_DATA_SIZE - blockLength);
+            System.arraycopy(b, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Gets the virtual offset of the next byte to write. Call it between records to index them.
+     *
+     * @return the current virtual offset
+     */
+    public long getVirtualOffset() {
+        return blockAddress << 16 | blockLength;
+    }
+
+    /**
+     * Compresses the current block, even if it is not full, so the data written so far can be
+     * read. Called between records, it ends the block so the next one starts a new block.
+     *
+     * @throws IOException if the block cannot be written
+     */
+    @Override
+    public void flush() throws IOException {
+        if (blockLength > 0) {
+            writeBlock();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (blockLength > 0) {
+                writeBlock();
+            }
+            out.write(EOF_BLOCK);
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        deflater.reset();
+        deflater.setInput(block, 0, blockLength);
+        deflater.finish();
+        final int limit = compressed.length - HEADER_SIZE - FOOTER_SIZE;
+        int size = deflater.deflate(compressed, HEADER_SIZE, limit);
+        if (!deflater.finished()) {
+            // Incompressible data: store it (0xff00 bytes plus store headers always fit)
+            deflater.reset();
+            deflater.setLevel(Deflater.NO_COMPRESSION);
+            deflater.setInput(block, 0, blockLength);
+            deflater.finish();
+            size = deflater.deflate(compressed, HEADER_SIZE, limit);
+            deflater.setLevel(Deflater.DEFAULT_COMPRESSION);
+        }
+        final int blockSize = HEADER_SIZE + size + FOOTER_SIZE;
+        // gzip header with the BC extra subfield: the size of the block - 1
+        compressed[0] = 31;
+        compressed[1] = (byte) 139;
+        compressed[2] = 8;
+        compressed[3] = 4;
+        for (int i = 4; i < 9; i++) {
+            compressed[i] = 0;
+        }
+        compressed[9] = (byte) 0xff;
+        setInt16(compressed, 10, 6);
+        compressed[12] = 'B';
+        compressed[13] = 'C';
+        setInt16(compressed, 14, 2);
+        setInt16(compressed, 16, blockSize - 1);
+        crc.reset();
+        crc.update(block, 0, blockLength);
+        setInt32(compressed, HEADER_SIZE + size, (int) crc.getValue());
+        setInt32(compressed, HEADER_SIZE + size + 4, blockLength);
+        out.write(compressed, 0, blockSize);
+        blockAddress += blockSize;
+        blockLength = 0;
+    }
+
+    private static void setInt16(byte[] b, int off, int value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >> 8);
+    }
+
+    private static void setInt32(byte[] b, int off, int value) {
+        setInt16(b, off, value);
+        setInt16(b, off + 2, value >> 16);
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.bam;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads regions of a FASTA file indexed with samtools faidx (.fai), without reading the rest of
+ * the file. The index gives, for each sequence, the offset of its first base and the length of
+ * its lines, so the offset of any base is known.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+public class IndexedFasta implements Closeable {
+
+    private final FileChannel channel;
+    private final Map<String, Sequence> sequences = new HashMap<>();
+
+    /**
+     * Opens the FASTA file and reads its index.
+     *
+     * @param fasta the FASTA file, with file.fai next to it
+     * @throws IOException if the file or its index cannot be read
+     */
+    public IndexedFasta(File fasta) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(fasta + ".fai"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] row = line.split("\t");
+                if (row.length < 5) {
+                    continue;
+                }
+                try {
+                    sequences.put(row[0], new Sequence(Integer.parseInt(row[1]),
+                            Long.parseLong(row[2]), Integer.parseInt(row[3]),
+                            Integer.parseInt(row[4])));
+                } catch (NumberFormatException ex) {
+                    throw new IOException("Bad FASTA index line: " + line, ex);
+                }
+            }
+        }
+        channel = FileChannel.open(fasta.toPath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * Looks for the index of the FASTA file and opens it.
+     *
+     * @param fasta the FASTA file
+     * @return the indexed FASTA or null if there is no index
+     * @throws IOException if the file or its index cannot be read
+     */
+    public static IndexedFasta find(File fasta) throws IOException {
+        return new File(fasta + ".fai").exists() ? new IndexedFasta(fasta) : null;
+    }
+
+    /**
+     * true if the FASTA contains a sequence with the name.
+     *
+     * @param name the name of the sequence
+     * @return true if the sequence is in the index
+     */
+    public boolean contains(String name) {
+        return sequences.containsKey(name);
+    }
+
+    /**
+     * Reads the bases of the region, in upper case. Positions after the end of the sequence are N.
+     *
+     * @param name the name of the sequence
+     * @param start first position (1-based)
+     * @param end last position (1-based, inclusive)
+     * @return the bases from start to end, or null if there is no sequence with the name
+     * @throws IOException if the file cannot be read
+     */
+    public byte[] getBases(String name, int start, int end) throws IOException {
+        final Sequence sequence = sequences.get(name);
+        if (sequence == null) {
+            return null;
+        }
+        final byte[] bases = new byte[end - start + 1];
+        final int last = Math.min(end, sequence.length);
+        int read = 0;
+        if (start <= last) {
+            final long from = sequence.getOffset(start);
+            final long to = sequence.getOffset(last) + 1;
+            final ByteBuffer buffer = ByteBuffer.allocate((int) (to - from));
+            while (buffer.hasRemaining() && channel.read(buffer, from + buffer.position()) > 0) {
+            }
+            for (int i = 0; i < buffer.position() && read < bases.length; i++) {
+                final byte b = buffer.get(i);
+                if (b != '\n' && b != '\r') {
+                    bases[read++] = (byte) Character.toUpperCase(b);
+                }
+            }
+        }
+        while (read < bases.length) {
+            bases[read++] = 'N';
+        }
+        return bases;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * A line of the index.
+     */
+    private static class Sequence {
+
+        private final int length;
+        private final long offset;
+        private final int lineBases;
+        private final int lineWidth;
+
+        Sequence(int length, long offset, int lineBases, int lineWidth) {
+            this.length = length;
+            this.offset = offset;
+            this.lineBases = lineBases;
+            this.lineWidth = lineWidth;
+        }
+
+        /**
+         * Offset in the file of the 1-based position.
+         */
+        long getOffset(int position) {
+            final int base = position - 1;
+            return offset + (long) (base / lineBases) * lineWidth + base % lineBases;
+        }
+    }
+
+}
@@ -0,0 +1,437 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.bam;
+
+import exomesuite.utils.ByteSequence;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Decodes the text output of samtools mpileup (without -u or -g) line by line, straight from the
+ * bytes of the stream. Lines are not converted to Strings: the fields are found in a reusable
+ * buffer and the bases are counted into primitive counters, so decoding a whole file creates no
+ * objects per line. After next(), the position, the reference and the counters of the line can
+ * be read, or added to a PileUpWindow.
+ * <p>
+ * In the pileup format, each line represents a genomic position, consisting of chromosome name,
+ * 1-based coordinate, reference base, and, for each sample, the number of reads covering the
+ * site, read bases and base qualities. Information on match, mismatch, indel, strand, mapping
+ * quality and start and end of a read are all encoded at the read base column. At this column:
+ * <ul>
+ * <li>(.) a dot stands for a match to the reference base on the forward strand.</li>
+ * <li>(,) a comma for a match on the reverse strand.</li>
+ * <li>(ACGTN) for a mismatch on the forward strand, (acgtn) on the reverse strand.</li>
+ * <li>(*) a deleted base, (#) on the reverse strand in newer versions.</li>
+ * <li>(&gt;&lt;) a reference skip.</li>
+ * <li>(+[0-9]+[ACGTNacgtn]+) an insertion between this reference position and the next one,
+ * after the previous base. The length of the insertion is given by the integer, followed by the
+ * inserted sequence.</li>
+ * <li>(-[0-9]+[ACGTNacgtn]+) a deletion from the reference after the previous base. The deleted
+ * bases will be presented as * in the following lines.</li>
+ * <li>(^) marks the start of a read. The char following ^ minus 33 gives the mapping
+ * quality.</li>
+ * <li>($) marks the end of a read segment.</li>
+ * </ul>
+ * Each base, *, # or reference skip has a quality in the quality column, in the same order. The
+ * counters of all the samples are added.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+public class MpileupDecoder {
+
+    private static final int CHROMOSOME = 0, POSITION = 1, REFERENCE = 2, FIRST_SAMPLE = 3;
+
+    private final InputStream in;
+    private byte[] buffer = new byte[1 << 16];
+    /**
+     * Valid bytes in buffer.
+     */
+    private int limit;
+    private boolean endOfStream;
+    /**
+     * Limits of the current line in buffer, end excludes the line break.
+     */
+    private int lineStart, lineEnd;
+    /**
+     * Start of each field of the line, the end of a field is the start of the next one - 1.
+     */
+    private int[] fields = new int[16];
+    private int fieldCount;
+    private final ByteSequence chromosome = new ByteSequence();
+    private ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+
+    private int position;
+    private char reference;
+    private int depth;
+    private final int[] counters = new int[PileUp.COUNTERS];
+    /**
+     * Counters of the inserted bases, PileUp.COUNTERS per inserted position.
+     */
+    private int[] insertions = new int[4 * PileUp.COUNTERS];
+    private int insertionLength;
+    private int minBaseQuality;
+
+    /**
+     * Creates a decoder of the stream. The stream is not closed by the decoder.
+     *
+     * @param in the output of samtools mpileup
+     */
+    public MpileupDecoder(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Sets the minimum quality of a base to be counted. samtools mpileup already skips the bases
+     * with quality lower than its -Q, so the default is 0.
+     *
+     * @param minBaseQuality the minimum base quality
+     */
+    public void setMinBaseQuality(int minBaseQuality) {
+        this.minBaseQuality = minBaseQuality;
+    }
+
+    /**
+     * Reads and decodes the next line.
+     *
+     * @return false if there are no more lines
+     * @throws IOException if the stream cannot be read or a line is not in pileup format
+     */
+    public boolean next() throws IOException {
+        do {
+            if (!readLine()) {
+                return false;
+            }
+        } while (lineEnd == lineStart);
+        splitFields();
+        if (fieldCount < FIRST_SAMPLE) {
+            throw new IOException("Bad pileup line: "
+                    + new String(buffer, lineStart, lineEnd - lineStart, "US-ASCII"));
+        }
+        chromosome.set(wrapper, fields[CHROMOSOME], fields[POSITION] - 1 - fields[CHROMOSOME]);
+        position = parseInt(fields[POSITION], fields[REFERENCE] - 1);
+        final char ref = (char) buffer[fields[REFERENCE]];
+        reference = Character.toUpperCase(ref);
+        Arrays.fill(counters, 0);
+        Arrays.fill(insertions, 0, insertionLength * PileUp.COUNTERS, 0);
+        insertionLength = 0;
+        depth = 0;
+        for (int f = FIRST_SAMPLE; f + 1 < fieldCount; f += 3) {
+            final int sampleDepth = parseInt(fields[f], fields[f + 1] - 1);
+            // Samples without reads have * as bases and qualities
+            if (sampleDepth == 0) {
+                continue;
+            }
+            depth += sampleDepth;
+            final int qualities = f + 2 < fieldCount ? fields[f + 2] : -1;
+            decodeBases(fields[f + 1], getFieldEnd(f + 1), qualities,
+                    qualities == -1 ? -1 : getFieldEnd(f + 2));
+        }
+        return true;
+    }
+
+    /**
+     * Gets the chromosome of the current line. The sequence is overwritten by next().
+     *
+     * @return the chromosome
+     */
+    public CharSequence getChromosome() {
+        return chromosome;
+    }
+
+    /**
+     * Gets the position of the current line.
+     *
+     * @return the 1-based position
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * Gets the reference base of the current line, in upper case.
+     *
+     * @return the reference base
+     */
+    public char getReference() {
+        return reference;
+    }
+
+    /**
+     * Gets the number of reads covering the position, as reported by samtools, for all the
+     * samples.
+     *
+     * @return the depth of the position
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Gets the depth of a counter at the position.
+     *
+     * @param counter the counter, see PileUp.getCounter()
+     * @return the depth
+     */
+    public int getDepth(int counter) {
+        return counters[counter];
+    }
+
+    /**
+     * Gets the length of the longest insertion after the position.
+     *
+     * @return the number of inserted positions
+     */
+    public int getInsertionLength() {
+        return insertionLength;
+    }
+
+    /**
+     * Gets the depth of a counter at an inserted position.
+     *
+     * @param inserted the inserted position, from 0 to getInsertionLength() - 1
+     * @param counter the counter, see PileUp.getCounter()
+     * @return the depth
+     */
+    public int getInsertionDepth(int inserted, int counter) {
+        return insertions[inserted * PileUp.COUNTERS + counter];
+    }
+
+    /**
+     * Adds the position to the window, followed by a column for each inserted position.
+     *
+     * @param window the window
+     */
+    public void addTo(PileUpWindow window) {
+        final int column = window.addColumn(reference);
+        for (int c = 0; c < PileUp.COUNTERS; c++) {
+            window.add(column, c, counters[c]);
+        }
+        for (int k = 0; k < insertionLength; k++) {
+            final int insertion = window.addColumn(PileUp.EMPTY);
+            for (int c = 0; c < PileUp.COUNTERS; c++) {
+                window.add(insertion, c, insertions[k * PileUp.COUNTERS + c]);
+            }
+        }
+    }
+
+    /**
+     * Counts the bases of the read bases column of a sample.
+     */
+    private void decodeBases(int start, int end, int quality, int qualityEnd) throws IOException {
+        // The previous read entry was counted, so its insertion is counted too
+        boolean counted = false;
+        int i = start;
+        while (i < end) {
+            final byte b = buffer[i++];
+            int counter = -1;
+            boolean entry = true;
+            switch (b) {
+                case '.':
+                    counter = getForwardCounter(reference);
+                    break;
+                case ',':
+                    counter = getForwardCounter(reference) + PileUp.REVERSE;
+                    break;
+                case '*':
+                    counter = PileUp.DELETION;
+                    break;
+                case '#':
+                    counter = PileUp.DELETION + PileUp.REVERSE;
+                    break;
+                case '>':
+                case '<':
+                    // A reference skip has quality, but it is not counted
+                    break;
+                case '^':
+                    // Skip the mapping quality
+                    i++;
+                    entry = false;
+                    break;
+                case '$':
+                    entry = false;
+                    break;
+                case '+':
+                case '-': {
+                    int length = 0;
+                    while (i < end && buffer[i] >= '0' && buffer[i] <= '9') {
+                        length = 10 * length + buffer[i++] - '0';
+                    }
+                    if (i + length > end) {
+                        throw new IOException("Bad indel at position " + position);
+                    }
+                    if (b == '+' && counted) {
+                        addInsertion(i, length);
+                    }
+                    i += length;
+                    entry = false;
+                    break;
+                }
+                default:
+                    if (b >= 'A' && b <= 'Z') {
+                        counter = getForwardCounter((char) b);
+                    } else if (b >= 'a' && b <= 'z') {
+                        counter = getForwardCounter((char) (b - 'a' + 'A')) + PileUp.REVERSE;
+                    } else {
+                        entry = false;
+                    }
+            }
+            if (entry) {
+                counted = false;
+                boolean passes = true;
+                if (quality != -1) {
+                    if (quality >= qualityEnd) {
+                        throw new IOException("Missing base qualities at position " + position);
+                    }
+                    passes = buffer[quality++] - 33 >= minBaseQuality;
+                }
+                if (passes && counter != -1) {
+                    counters[counter]++;
+                    counted = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the inserted bases buffer[from, from + length).
+     */
+    private void addInsertion(int from, int length) {
+        if (length > insertionLength) {
+            if (length * PileUp.COUNTERS > insertions.length) {
+                insertions = Arrays.copyOf(insertions,
+                        Math.max(length * PileUp.COUNTERS, 2 * insertions.length));
+            }
+            insertionLength = length;
+        }
+        for (int k = 0; k < length; k++) {
+            final byte b = buffer[from + k];
+            final int counter = b >= 'a' && b <= 'z'
+                    ? getForwardCounter((char) (b - 'a' + 'A')) + PileUp.REVERSE
+                    : getForwardCounter((char) b);
+            insertions[k * PileUp.COUNTERS + counter]++;
+        }
+    }
+
+    /**
+     * Counter of an upper case base in the forward strand, N for any other char.
+     */
+    private static int getForwardCounter(char base) {
+        switch (base) {
+            case 'A':
+                return PileUp.A;
+            case 'C':
+                return PileUp.C;
+            case 'G':
+                return PileUp.G;
+            case 'T':
+                return PileUp.T;
+            default:
+                return PileUp.N;
+        }
+    }
+
+    /**
+     * Moves lineStart and lineEnd to the next line, reading more bytes if needed.
+     *
+     * @return false if there are no more lines
+     */
+    private boolean readLine() throws IOException {
+        int from = lineEnd < limit ? lineEnd + 1 : limit;
+        if (lineStart == 0 && lineEnd == 0 && limit == 0) {
+            from = 0;
+        }
+        int searched = from;
+        while (true) {
+            for (int i = searched; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    lineStart = from;
+                    lineEnd = i > from && buffer[i - 1] == '\r' ? i - 1 : i;
+                    return true;
+                }
+            }
+            if (endOfStream) {
+                if (from < limit) {
+                    // Last line without line break
+                    lineStart = from;
+                    lineEnd = limit;
+                    return true;
+                }
+                lineStart = lineEnd = limit;
+                return false;
+            }
+            // Move the incomplete line to the beginning and read more
+            final int pending = limit - from;
+            if (from > 0) {
+                System.arraycopy(buffer, from, buffer, 0, pending);
+            } else if (pending == buffer.length) {
+                buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+                wrapper = ByteBuffer.wrap(buffer);
+            }
+            limit = pending;
+            searched = pending;
+            from = 0;
+            final int read = in.read(buffer, limit, buffer.length - limit);
+            if (read == -1) {
+                endOfStream = true;
+            } else {
+                limit += read;
+            }
+        }
+    }
+
+    private void splitFields() {
+        fieldCount = 0;
+        addField(lineStart);
+        for (int i = lineStart; i < lineEnd; i++) {
+            if (buffer[i] == '\t') {
+                addField(i + 1);
+            }
+        }
+    }
+
+    private void addField(int start) {
+        if (fieldCount == fields.length) {
+            fields = Arrays.copyOf(fields, 2 * fieldCount);
+        }
+        fields[fieldCount++] = start;
+    }
+
+    /**
+     * End of the field, exclusive.
+     */
+    private int getFieldEnd(int field) {
+        return field + 1 < fieldCount ? fields[field + 1] - 1 : lineEnd;
+    }
+
+    private int parseInt(int from, int to) throws IOException {
+        if (from >= to) {
+            throw new IOException("Bad number in pileup line");
+        }
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            final byte b = buffer[i];
+            if (b < '0' || b > '9') {
+                throw new IOException("Bad number in pileup line");
+            }
+            value = 10 * value + b - '0';
+        }
+        return value;
+    }
+
+}
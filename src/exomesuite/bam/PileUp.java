@@ -16,12 +16,16 @@
  */
 package exomesuite.bam;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * Stores information about a position in the pileup. The reference and the depth of each base.
  * Reference can be * for insertions.
+ * <p>
+ * Depths are kept in COUNTERS ints, one per base and strand, so counting a base does not create
+ * any object: A, C, G, T, N and deletions (*) of the forward strand and a, c, g, t, n and
+ * deletions (#) of the reverse strand. The same layout is used by PileUpWindow for many
+ * positions.
  *
  * @author Pascual Lorente Arencibia (pasculorente@gmail.com)
  */
@@ -31,11 +35,39 @@ public class PileUp {
      * Character used for the reference whe nhas no value. It is an asterisk. '*'
      */
     public final static char EMPTY = '*';
+    /**
+     * Counters of the forward strand. The counter of the same base in the reverse strand is
+     * REVERSE positions after.
+     */
+    public static final int A = 0, C = 1, G = 2, T = 3, N = 4, DELETION = 5;
+    /**
+     * Offset of the counters of the reverse strand.
+     */
+    public static final int REVERSE = 6;
+    /**
+     * Number of counters of a position.
+     */
+    public static final int COUNTERS = 12;
+    /**
+     * The base of each counter.
+     */
+    private static final String SYMBOLS = "ACGTN*acgtn#";
+    /**
+     * Counter of each ASCII char, -1 if it is not counted.
+     */
+    private static final byte[] COUNTER_INDEXES = new byte[128];
+
+    static {
+        Arrays.fill(COUNTER_INDEXES, (byte) -1);
+        for (int i = 0; i < COUNTERS; i++) {
+            COUNTER_INDEXES[SYMBOLS.charAt(i)] = (byte) i;
+        }
+    }
 
     /**
-     * Keys are ACTGN and values the DPs
+     * Depth of each counter.
      */
-    private final Map<Character, Integer> depths = new HashMap();
+    private final int[] depths = new int[COUNTERS];
     /**
      * The reference.
      */
@@ -66,36 +98,81 @@ public class PileUp {
      * @return the depth of coverage
      */
     public int getDepth(char base) {
-        return depths.getOrDefault(base, 0);
+        final int counter = getCounter(base);
+        return counter == -1 ? 0 : depths[counter];
     }
 
     /**
      * Adds 1 to the dp of the given base. ACTG for the forward, actg for the reverse
      *
-     * @param base the base to increment (ACTGactgN*)
+     * @param base the base to increment (ACGTN*acgtn#)
      */
     public void incrementDepth(char base) {
-        final int dp = depths.getOrDefault(base, 0);
-        depths.put(base, dp + 1);
+        final int counter = getCounter(base);
+        if (counter != -1) {
+            depths[counter]++;
+        }
+    }
+
+    /**
+     * Gets the depth of a counter.
+     *
+     * @param counter the counter, from getCounter()
+     * @return the depth
+     */
+    public int getDepth(int counter) {
+        return depths[counter];
+    }
+
+    /**
+     * Sets the depth of a counter.
+     *
+     * @param counter the counter, from getCounter()
+     * @param depth the depth
+     */
+    void setDepth(int counter, int depth) {
+        depths[counter] = depth;
+    }
+
+    /**
+     * Gets the counter of a base.
+     *
+     * @param base ACGTN* for the forward strand, acgtn# for the reverse strand
+     * @return the index of the counter, or -1 if the base is not counted
+     */
+    public static int getCounter(char base) {
+        return base < 128 ? COUNTER_INDEXES[base] : -1;
     }
 
     /**
-     * Gets the depths as map. the depth of a is {@code getDepths().get('A)}
+     * Gets the base of a counter.
      *
-     * @return the depths map
+     * @param counter the counter
+     * @return the base
      */
-    public Map<Character, Integer> getDepths() {
-        return depths;
+    public static char getSymbol(int counter) {
+        return SYMBOLS.charAt(counter);
     }
 
     /**
-     * The string representation of the pilepup: A-{T=1,C=2,t=14,c=12}.
+     * The string representation of the pilepup: A->{C=2, T=1, c=12, t=14}.
      *
      * @return the String representation
      */
     @Override
     public String toString() {
-        return String.format("%c->%s", reference, depths);
+        final StringBuilder builder = new StringBuilder().append(reference).append("->{");
+        boolean first = true;
+        for (int i = 0; i < COUNTERS; i++) {
+            if (depths[i] > 0) {
+                if (!first) {
+                    builder.append(", ");
+                }
+                builder.append(getSymbol(i)).append('=').append(depths[i]);
+                first = false;
+            }
+        }
+        return builder.append('}').toString();
     }
 
 }
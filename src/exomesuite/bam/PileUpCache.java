@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.bam;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Cache of pileups, by tiles of TILE_SIZE positions of a chromosome of a BAM file. Tiles are
+ * kept while they fit in the memory budget, evicting the least recently used first, so moving
+ * around a region or between near variants does not read the file again. Tiles next to the ones
+ * being displayed can be loaded in background before they are needed, in the direction of the
+ * movement.
+ * <p>
+ * Tiles have a column for every position, followed by a column with EMPTY reference for every
+ * inserted base after it. Loaders must return the same.
+ * <p>
+ * Tiles are keyed by the modification time of the file too, so a file that is written again is
+ * read again. Tiles of the old file are evicted as usual, or by remove().
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+public class PileUpCache {
+
+    /**
+     * Positions per tile.
+     */
+    public static final int TILE_SIZE = 1024;
+    /**
+     * Number of tiles prefetched in the direction of the movement.
+     */
+    private static final int PREFETCH_TILES = 2;
+
+    private final long memoryBudget;
+    private long memory;
+    /**
+     * In access order, so the first tile is the least recently used.
+     */
+    private final Map<Key, Tile> tiles = new LinkedHashMap<>(64, 0.75f, true);
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "PileUp prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param memoryBudget the approximated memory that the tiles can use, in bytes
+     */
+    public PileUpCache(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Gets the pileups of chromosome:start-end, loading the tiles that are not in the cache. If
+     * a tile is being prefetched, waits for it.
+     *
+     * @param bam the BAM file
+     * @param chromosome the chromosome
+     * @param start first position (1-based)
+     * @param end last position (1-based, inclusive)
+     * @param loader reads the pileups of the BAM file
+     * @return the pileups of the region, a new window
+     * @throws IOException if a tile cannot be loaded
+     */
+    public PileUpWindow get(File bam, String chromosome, int start, int end, Loader loader)
+            throws IOException {
+        final PileUpWindow pileups = new PileUpWindow(end - start + 1);
+        for (int tile = getTile(start); tile <= getTile(end); tile++) {
+            final PileUpWindow tilePileUps = join(request(new Key(bam, chromosome, tile), loader,
+                    false));
+            // Columns of insertions (EMPTY reference) do not count as positions
+            int pos = tile * TILE_SIZE;
+            int from = -1;
+            int to = tilePileUps.size();
+            for (int i = 0; i < tilePileUps.size(); i++) {
+                if (tilePileUps.getReference(i) != PileUp.EMPTY) {
+                    pos++;
+                }
+                if (pos > end) {
+                    to = i;
+                    break;
+                }
+                if (pos >= start && from == -1) {
+                    from = i;
+                }
+            }
+            if (from != -1) {
+                pileups.addColumns(tilePileUps, from, to);
+            }
+        }
+        return pileups;
+    }
+
+    /**
+     * Loads in background the tiles next to chromosome:start-end that are not in the cache.
+     *
+     * @param bam the BAM file
+     * @param chromosome the chromosome
+     * @param start first position of the displayed region (1-based)
+     * @param end last position of the displayed region (1-based, inclusive)
+     * @param direction greater than 0 if moving right, lower than 0 if moving left, 0 to load
+     * one tile at each side
+     * @param loader reads the pileups of the BAM file, it will be called from another thread
+     */
+    public void prefetch(File bam, String chromosome, int start, int end, int direction,
+            Loader loader) {
+        final int first = getTile(start);
+        final int last = getTile(end);
+        if (direction >= 0) {
+            for (int i = 1; i <= (direction == 0 ? 1 : PREFETCH_TILES); i++) {
+                request(new Key(bam, chromosome, last + i), loader, true);
+            }
+        }
+        if (direction <= 0) {
+            for (int i = 1; i <= (direction == 0 ? 1 : PREFETCH_TILES) && first - i >= 0; i++) {
+                request(new Key(bam, chromosome, first - i), loader, true);
+            }
+        }
+    }
+
+    /**
+     * Removes all the tiles of the BAM file.
+     *
+     * @param bam the BAM file
+     */
+    public synchronized void remove(File bam) {
+        final Iterator<Map.Entry<Key, Tile>> iterator = tiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Key, Tile> entry = iterator.next();
+            if (entry.getKey().bam.equals(bam.getAbsoluteFile())) {
+                memory -= entry.getValue().weight;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Gets the tile from the cache, or starts loading it.
+     *
+     * @param background if true the tile is loaded in the prefetch thread, if not, in this one
+     */
+    private Tile request(Key key, Loader loader, boolean background) {
+        final Tile tile;
+        synchronized (this) {
+            final Tile cached = tiles.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            tile = new Tile();
+            tiles.put(key, tile);
+        }
+        if (background) {
+            prefetcher.execute(() -> load(key, tile, loader));
+        } else {
+            load(key, tile, loader);
+        }
+        return tile;
+    }
+
+    /**
+     * Waits for the tile to be loaded.
+     */
+    private static PileUpWindow join(Tile tile) throws IOException {
+        try {
+            return tile.pileups.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) ex.getCause()).getCause();
+            }
+            throw ex;
+        }
+    }
+
+    private void load(Key key, Tile tile, Loader loader) {
+        final int start = key.tile * TILE_SIZE + 1;
+        try {
+            final PileUpWindow pileups = loader.load(key.chromosome, start, start + TILE_SIZE - 1);
+            synchronized (this) {
+                // Only if it has not been removed meanwhile
+                if (tiles.get(key) == tile) {
+                    tile.weight = pileups.getMemory();
+                    memory += tile.weight;
+                    evict();
+                }
+            }
+            tile.pileups.complete(pileups);
+        } catch (IOException | RuntimeException ex) {
+            synchronized (this) {
+                if (tiles.get(key) == tile) {
+                    tiles.remove(key);
+                }
+            }
+            tile.pileups.completeExceptionally(ex instanceof IOException
+                    ? new UncheckedIOException((IOException) ex) : ex);
+        }
+    }
+
+    /**
+     * Removes the least recently used tiles until the memory is in the budget. The last tile is
+     * always kept.
+     */
+    private void evict() {
+        final Iterator<Tile> iterator = tiles.values().iterator();
+        while (memory > memoryBudget && tiles.size() > 1 && iterator.hasNext()) {
+            final Tile tile = iterator.next();
+            // Tiles being loaded have no weight yet
+            if (tile.pileups.isDone() || tile.weight > 0) {
+                memory -= tile.weight;
+                iterator.remove();
+            }
+        }
+    }
+
+    private static int getTile(int position) {
+        return (Math.max(1, position) - 1) / TILE_SIZE;
+    }
+
+    /**
+     * Reads the pileups of a region.
+     */
+    public interface Loader {
+
+        /**
+         * Reads the pileups of chromosome:start-end.
+         *
+         * @param chromosome the chromosome
+         * @param start first position (1-based)
+         * @param end last position (1-based, inclusive)
+         * @return a column for every position, each one followed by its insertions
+         * @throws IOException if the file cannot be read
+         */
+        PileUpWindow load(String chromosome, int start, int end) throws IOException;
+    }
+
+    private static class Tile {
+
+        private final CompletableFuture<PileUpWindow> pileups = new CompletableFuture<>();
+        private long weight;
+    }
+
+    private static class Key {
+
+        private final File bam;
+        private final long lastModified;
+        private final String chromosome;
+        private final int tile;
+
+        Key(File bam, String chromosome, int tile) {
+            this.bam = bam.getAbsoluteFile();
+            this.lastModified = bam.lastModified();
+            this.chromosome = chromosome;
+            this.tile = tile;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return tile == other.tile && lastModified == other.lastModified
+                    && bam.equals(other.bam) && chromosome.equals(other.chromosome);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(bam, lastModified, chromosome, tile);
+        }
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.bam;
+
+import java.util.Arrays;
+
+/**
+ * The pileup of a region, as columns. Columns are stored as arrays, not as PileUps: the
+ * references in one array and the depths in another one, with PileUp.COUNTERS ints per column, so
+ * counting bases and painting them do not create objects, however deep the region is. A column
+ * with EMPTY reference is an insertion after the previous one.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+public class PileUpWindow {
+
+    private char[] references;
+    private int[] depths;
+    private int size;
+
+    /**
+     * Creates an empty window.
+     *
+     * @param capacity expected number of columns
+     */
+    public PileUpWindow(int capacity) {
+        references = new char[Math.max(1, capacity)];
+        depths = new int[references.length * PileUp.COUNTERS];
+    }
+
+    /**
+     * Gets the number of columns.
+     *
+     * @return the number of columns
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds a column with no depth at the end.
+     *
+     * @param reference the reference base, or EMPTY for insertions
+     * @return the index of the new column
+     */
+    public int addColumn(char reference) {
+        ensureCapacity(size + 1);
+        references[size] = reference;
+        Arrays.fill(depths, size * PileUp.COUNTERS, (size + 1) * PileUp.COUNTERS, 0);
+        return size++;
+    }
+
+    /**
+     * Adds a copy of the columns [from, to) of other at the end.
+     *
+     * @param other the source window
+     * @param from first column of other
+     * @param to end column of other, exclusive
+     */
+    public void addColumns(PileUpWindow other, int from, int to) {
+        if (to <= from) {
+            return;
+        }
+        ensureCapacity(size + to - from);
+        System.arraycopy(other.references, from, references, size, to - from);
+        System.arraycopy(other.depths, from * PileUp.COUNTERS, depths, size * PileUp.COUNTERS,
+                (to - from) * PileUp.COUNTERS);
+        size += to - from;
+    }
+
+    /**
+     * The reference base of the column. ACGTN or EMPTY.
+     *
+     * @param column the column
+     * @return the reference base
+     */
+    public char getReference(int column) {
+        return references[column];
+    }
+
+    /**
+     * Gets the depth of a counter in a column.
+     *
+     * @param column the column
+     * @param counter the counter, see PileUp.getCounter()
+     * @return the depth
+     */
+    public int getDepth(int column, int counter) {
+        return depths[column * PileUp.COUNTERS + counter];
+    }
+
+    /**
+     * Gets the depth of a base in a column, adding both strands.
+     *
+     * @param column the column
+     * @param counter the counter of the base in the forward strand
+     * @return the depth of both strands
+     */
+    public int getBothDepth(int column, int counter) {
+        final int offset = column * PileUp.COUNTERS + counter;
+        return depths[offset] + depths[offset + PileUp.REVERSE];
+    }
+
+    /**
+     * Adds 1 to the depth of a counter in a column.
+     *
+     * @param column the column
+     * @param counter the counter, see PileUp.getCounter()
+     */
+    public void increment(int column, int counter) {
+        depths[column * PileUp.COUNTERS + counter]++;
+    }
+
+    /**
+     * Adds an amount to the depth of a counter in a column.
+     *
+     * @param column the column
+     * @param counter the counter, see PileUp.getCounter()
+     * @param amount the depth to add
+     */
+    public void add(int column, int counter, int amount) {
+        depths[column * PileUp.COUNTERS + counter] += amount;
+    }
+
+    /**
+     * Adds 1 to the depth of a base in a column, if the base is counted.
+     *
+     * @param column the column
+     * @param base the base, ACGTN* for the forward strand and acgtn# for the reverse strand
+     */
+    public void increment(int column, char base) {
+        final int counter = PileUp.getCounter(base);
+        if (counter != -1) {
+            depths[column * PileUp.COUNTERS + counter]++;
+        }
+    }
+
+    /**
+     * Copies a column into a PileUp.
+     *
+     * @param column the column
+     * @return a new PileUp with the reference and depths of the column
+     */
+    public PileUp getPileUp(int column) {
+        final PileUp pileUp = new PileUp(references[column]);
+        for (int i = 0; i < PileUp.COUNTERS; i++) {
+            pileUp.setDepth(i, getDepth(column, i));
+        }
+        return pileUp;
+    }
+
+    /**
+     * Approximated size in memory of the window.
+     *
+     * @return the size in bytes
+     */
+    public long getMemory() {
+        return 48 + 2L * references.length + 4L * depths.length;
+    }
+
+    private void ensureCapacity(int columns) {
+        if (columns > references.length) {
+            final int capacity = Math.max(columns, 2 * references.length);
+            references = Arrays.copyOf(references, capacity);
+            depths = Arrays.copyOf(depths, capacity * PileUp.COUNTERS);
+        }
+    }
+
+}
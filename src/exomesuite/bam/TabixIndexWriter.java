@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.bam;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Builds a tabix index (.tbi) for a BGZF compressed, tab separated file while it is written with
+ * a BgzfOutputStream. Each record is added with its coordinates and the virtual offsets where it
+ * starts and ends; the index is written at the end, so the data file is written only once.
+ * <p>
+ * Records of a sequence should be contiguous and sorted by start, as tabix expects. Unsorted
+ * records still give a correct index, only a less efficient one.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+public class TabixIndexWriter {
+
+    /**
+     * Generic format, 1-based closed coordinates.
+     */
+    public static final int GENERIC = 0;
+    /**
+     * Flag for 0-based half-open coordinates, as BED files.
+     */
+    public static final int UCSC = 0x10000;
+    /**
+     * Each entry of the linear index covers 16Kb.
+     */
+    private static final int LINEAR_SHIFT = 14;
+
+    private final int format, sequenceColumn, beginColumn, endColumn, skip;
+    private final char meta;
+    private final List<String> names = new ArrayList<>();
+    private final List<Reference> references = new ArrayList<>();
+    private Reference current;
+
+    /**
+     * Prepares an empty index. Columns are 1-based, as in tabix.
+     *
+     * @param format GENERIC or UCSC
+     * @param sequenceColumn column of the sequence name
+     * @param beginColumn column of the start
+     * @param endColumn column of the end, 0 if there is no end column
+     * @param meta lines starting with this char are not indexed
+     * @param skip number of header lines to skip
+     */
+    public TabixIndexWriter(int format, int sequenceColumn, int beginColumn, int endColumn,
+            char meta, int skip) {
+        this.format = format;
+        this.sequenceColumn = sequenceColumn;
+        this.beginColumn = beginColumn;
+        this.endColumn = endColumn;
+        this.meta = meta;
+        this.skip = skip;
+    }
+
+    /**
+     * Adds a record to the index.
+     *
+     * @param sequence name of the sequence
+     * @param begin 0-based start of the record
+     * @param end 0-based end of the record (exclusive)
+     * @param startOffset virtual offset of the first byte of the record
+     * @param endOffset virtual offset next to the last byte of the record
+     */
+    public void add(String sequence, int begin, int end, long startOffset, long endOffset) {
+        if (current == null || !current.name.equals(sequence)) {
+            final int index = names.indexOf(sequence);
+            if (index == -1) {
+                current = new Reference(sequence);
+                names.add(sequence);
+                references.add(current);
+            } else {
+                current = references.get(index);
+            }
+        }
+        if (end <= begin) {
+            end = begin + 1;
+        }
+        current.add(begin, end, startOffset, endOffset);
+    }
+
+    /**
+     * Writes the index, BGZF compressed, as tabix does.
+     *
+     * @param file the index file, usually the data file + .tbi
+     * @throws IOException if the file cannot be written
+     */
+    public void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BgzfOutputStream(file))) {
+            out.write(new byte[]{'T', 'B', 'I', 1});
+            writeInt(out, references.size());
+            writeInt(out, format);
+            writeInt(out, sequenceColumn);
+            writeInt(out, beginColumn);
+            writeInt(out, endColumn);
+            writeInt(out, meta);
+            writeInt(out, skip);
+            int namesLength = 0;
+            for (String name : names) {
+                namesLength += name.getBytes(StandardCharsets.US_ASCII).length + 1;
+            }
+            writeInt(out, namesLength);
+            for (String name : names) {
+                out.write(name.getBytes(StandardCharsets.US_ASCII));
+                out.write(0);
+            }
+            for (Reference reference : references) {
+                reference.write(out);
+            }
+        }
+    }
+
+    /**
+     * Calculates the bin of a region of the UCSC binning scheme, as in the SAM specification.
+     *
+     * @param begin 0-based start
+     * @param end 0-based end (exclusive)
+     * @return the smallest bin containing the region
+     */
+    static int reg2bin(int begin, int end) {
+        --end;
+        if (begin >> 14 == end >> 14) {
+            return ((1 << 15) - 1) / 7 + (begin >> 14);
+        }
+        if (begin >> 17 == end >> 17) {
+            return ((1 << 12) - 1) / 7 + (begin >> 17);
+        }
+        if (begin >> 20 == end >> 20) {
+            return ((1 << 9) - 1) / 7 + (begin >> 20);
+        }
+        if (begin >> 23 == end >> 23) {
+            return ((1 << 6) - 1) / 7 + (begin >> 23);
+        }
+        if (begin >> 26 == end >> 26) {
+            return ((1 << 3) - 1) / 7 + (begin >> 26);
+        }
+        return 0;
+    }
+
+    private static void writeInt(DataOutputStream out, int value) throws IOException {
+        out.writeInt(Integer.reverseBytes(value));
+    }
+
+    private static void writeLong(DataOutputStream out, long value) throws IOException {
+        out.writeLong(Long.reverseBytes(value));
+    }
+
+    /**
+     * Binning and linear index of a sequence.
+     */
+    private static class Reference {
+
+        final String name;
+        /**
+         * Chunks of each bin, as pairs of virtual offsets (start, end).
+         */
+        final Map<Integer, long[]> bins = new TreeMap<>();
+        final Map<Integer, Integer> chunkCounts = new TreeMap<>();
+        /**
+         * Smallest virtual offset of the records overlapping each 16Kb window, -1 if none.
+         */
+        long[] linear = new long[64];
+        int linearLength;
+
+        Reference(String name) {
+            this.name = name;
+            Arrays.fill(linear, -1);
+        }
+
+        void add(int begin, int end, long startOffset, long endOffset) {
+            final int bin = reg2bin(begin, end);
+            long[] chunks = bins.get(bin);
+            final int count = chunkCounts.getOrDefault(bin, 0);
+            // Chunks ending in the block where this record starts are merged, as tabix does
+            if (count > 0 && chunks[2 * count - 1] >>> 16 == startOffset >>> 16
+                    && chunks[2 * count - 1] <= startOffset) {
+                chunks[2 * count - 1] = endOffset;
+            } else {
+                if (chunks == null) {
+                    chunks = new long[4];
+                } else if (chunks.length == 2 * count) {
+                    chunks = Arrays.copyOf(chunks, 4 * count);
+                }
+                chunks[2 * count] = startOffset;
+                chunks[2 * count + 1] = endOffset;
+                bins.put(bin, chunks);
+                chunkCounts.put(bin, count + 1);
+            }
+            final int first = begin >> LINEAR_SHIFT;
+            final int last = (end - 1) >> LINEAR_SHIFT;
+            if (last >= linear.length) {
+                final int length = linear.length;
+                linear = Arrays.copyOf(linear, Math.max(last + 1, 2 * length));
+                Arrays.fill(linear, length, linear.length, -1);
+            }
+            for (int w = first; w <= last; w++) {
+                if (linear[w] == -1 || startOffset < linear[w]) {
+                    linear[w] = startOffset;
+                }
+            }
+            linearLength = Math.max(linearLength, last + 1);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            writeInt(out, bins.size());
+            for (Map.Entry<Integer, long[]> entry : bins.entrySet()) {
+                final int count = chunkCounts.get(entry.getKey());
+                writeInt(out, entry.getKey());
+                writeInt(out, count);
+                for (int i = 0; i < 2 * count; i++) {
+                    writeLong(out, entry.getValue()[i]);
+                }
+            }
+            // Empty windows take the offset of the previous one
+            writeInt(out, linearLength);
+            long previous = 0;
+            for (int i = 0; i < linearLength; i++) {
+                if (linear[i] != -1) {
+                    previous = linear[i];
+                }
+                writeLong(out, previous);
+            }
+        }
+    }
+
+}
@@ -17,6 +17,7 @@
 package exomesuite.graphic;
 
 import exomesuite.ExomeSuite;
+import exomesuite.utils.Ensembl;
 import exomesuite.utils.FileManager;
 import exomesuite.utils.OS;
 import java.io.File;
@@ -111,6 +112,10 @@ public class Databases {
     @FXML
     private void selectEnsembl() {
         selectDatabase(ensembl, ENSMEBL, "exons", FileManager.TSV_FILTER, FileManager.ALL_FILTER);
+        // Load the exons now, so their binary file is compiled before they are needed
+        if (!ensembl.getText().isEmpty()) {
+            Ensembl.setFile(new File(ensembl.getText()));
+        }
     }
 
     /**
@@ -16,181 +16,164 @@
  */
 package exomesuite.lfs;
 
-import exomesuite.MainViewController;
-import exomesuite.vcf.Variant;
 import java.util.Locale;
-import java.util.Map;
-import java.util.TreeMap;
 
 /**
+ * Low frequency codon substitution. A synonym substitution gets a score, the frequency of the
+ * source codon divided by the frequency of the new one, when it is higher than 1. Codons are
+ * encoded in 6 bits (2 bits per base), so the tables are arrays of 64 elements and the lookup
+ * does not create any object.
  *
  * @author Lorente Arencibia, Pascual <pasculorente@gmail.com>
  */
 public class LFS {
 
-    private static final Map<String, Double> frequencies = new TreeMap();
-    private static final Map<String, String> aminoacids = new TreeMap();
+    private static final double[] frequencies = new double[64];
+    private static final char[] aminoacids = new char[64];
 
     static {
-        frequencies.put("TTT", 0.45);
-        frequencies.put("TTC", 0.55);
-        frequencies.put("TTA", 0.07);
-        frequencies.put("TTG", 0.13);
-        frequencies.put("TCT", 0.18);
-        frequencies.put("TCC", 0.22);
-        frequencies.put("TCA", 0.15);
-        frequencies.put("TCG", 0.06);
-        frequencies.put("TAT", 0.43);
-        frequencies.put("TAC", 0.57);
-        frequencies.put("TAA", 0.28);
-        frequencies.put("TAG", 0.20);
-        frequencies.put("TGT", 0.45);
-        frequencies.put("TGC", 0.55);
-        frequencies.put("TGA", 0.52);
-        frequencies.put("TGG", 1.00);
-        frequencies.put("CTT", 0.13);
-        frequencies.put("CTC", 0.20);
-        frequencies.put("CTA", 0.07);
-        frequencies.put("CTG", 0.41);
-        frequencies.put("CCT", 0.28);
-        frequencies.put("CCC", 0.33);
-        frequencies.put("CCA", 0.27);
-        frequencies.put("CCG", 0.11);
-        frequencies.put("CAT", 0.41);
-        frequencies.put("CAC", 0.59);
-        frequencies.put("CAA", 0.25);
-        frequencies.put("CAG", 0.75);
-        frequencies.put("CGT", 0.08);
-        frequencies.put("CGC", 0.19);
-        frequencies.put("CGA", 0.11);
-        frequencies.put("CGG", 0.21);
-        frequencies.put("ATT", 0.36);
-        frequencies.put("ATC", 0.48);
-        frequencies.put("ATA", 0.16);
-        frequencies.put("ATG", 1.00);
-        frequencies.put("ACT", 0.24);
-        frequencies.put("ACC", 0.36);
-        frequencies.put("ACA", 0.28);
-        frequencies.put("ACG", 0.12);
-        frequencies.put("AAT", 0.46);
-        frequencies.put("AAC", 0.54);
-        frequencies.put("AAA", 0.42);
-        frequencies.put("AAG", 0.58);
-        frequencies.put("AGT", 0.15);
-        frequencies.put("AGC", 0.24);
-        frequencies.put("AGA", 0.20);
-        frequencies.put("AGG", 0.20);
-        frequencies.put("GTT", 0.18);
-        frequencies.put("GTC", 0.24);
-        frequencies.put("GTA", 0.11);
-        frequencies.put("GTG", 0.47);
-        frequencies.put("GCT", 0.26);
-        frequencies.put("GCC", 0.40);
-        frequencies.put("GCA", 0.23);
-        frequencies.put("GCG", 0.11);
-        frequencies.put("GAT", 0.46);
-        frequencies.put("GAC", 0.54);
-        frequencies.put("GAA", 0.42);
-        frequencies.put("GAG", 0.58);
-        frequencies.put("GGT", 0.16);
-        frequencies.put("GGC", 0.34);
-        frequencies.put("GGA", 0.25);
-        frequencies.put("GGG", 0.25);
-        aminoacids.put("TTT", "F");
-        aminoacids.put("TTC", "F");
-        aminoacids.put("TTA", "L");
-        aminoacids.put("TTG", "L");
-        aminoacids.put("TCT", "S");
-        aminoacids.put("TCC", "S");
-        aminoacids.put("TCA", "S");
-        aminoacids.put("TCG", "S");
-        aminoacids.put("TAT", "Y");
-        aminoacids.put("TAC", "Y");
-        aminoacids.put("TAA", "*");
-        aminoacids.put("TAG", "*");
-        aminoacids.put("TGT", "C");
-        aminoacids.put("TGC", "C");
-        aminoacids.put("TGA", "*");
-        aminoacids.put("TGG", "W");
-        aminoacids.put("CTT", "L");
-        aminoacids.put("CTC", "L");
-        aminoacids.put("CTA", "L");
-        aminoacids.put("CTG", "L");
-        aminoacids.put("CCT", "P");
-        aminoacids.put("CCC", "P");
-        aminoacids.put("CCA", "P");
-        aminoacids.put("CCG", "P");
-        aminoacids.put("CAT", "H");
-        aminoacids.put("CAC", "H");
-        aminoacids.put("CAA", "Q");
-        aminoacids.put("CAG", "Q");
-        aminoacids.put("CGT", "R");
-        aminoacids.put("CGC", "R");
-        aminoacids.put("CGA", "R");
-        aminoacids.put("CGG", "R");
-        aminoacids.put("ATT", "I");
-        aminoacids.put("ATC", "I");
-        aminoacids.put("ATA", "I");
-        aminoacids.put("ATG", "M");
-        aminoacids.put("ACT", "T");
-        aminoacids.put("ACC", "T");
-        aminoacids.put("ACA", "T");
-        aminoacids.put("ACG", "T");
-        aminoacids.put("AAT", "N");
-        aminoacids.put("AAC", "N");
-        aminoacids.put("AAA", "K");
-        aminoacids.put("AAG", "K");
-        aminoacids.put("AGT", "S");
-        aminoacids.put("AGC", "S");
-        aminoacids.put("AGA", "R");
-        aminoacids.put("AGG", "R");
-        aminoacids.put("GTT", "V");
-        aminoacids.put("GTC", "V");
-        aminoacids.put("GTA", "V");
-        aminoacids.put("GTG", "V");
-        aminoacids.put("GCT", "A");
-        aminoacids.put("GCC", "A");
-        aminoacids.put("GCA", "A");
-        aminoacids.put("GCG", "A");
-        aminoacids.put("GAT", "D");
-        aminoacids.put("GAC", "D");
-        aminoacids.put("GAA", "E");
-        aminoacids.put("GAG", "E");
-        aminoacids.put("GGT", "G");
-        aminoacids.put("GGC", "G");
-        aminoacids.put("GGA", "G");
-        aminoacids.put("GGG", "G");
+        put("TTT", 'F', 0.45);
+        put("TTC", 'F', 0.55);
+        put("TTA", 'L', 0.07);
+        put("TTG", 'L', 0.13);
+        put("TCT", 'S', 0.18);
+        put("TCC", 'S', 0.22);
+        put("TCA", 'S', 0.15);
+        put("TCG", 'S', 0.06);
+        put("TAT", 'Y', 0.43);
+        put("TAC", 'Y', 0.57);
+        put("TAA", '*', 0.28);
+        put("TAG", '*', 0.20);
+        put("TGT", 'C', 0.45);
+        put("TGC", 'C', 0.55);
+        put("TGA", '*', 0.52);
+        put("TGG", 'W', 1.00);
+        put("CTT", 'L', 0.13);
+        put("CTC", 'L', 0.20);
+        put("CTA", 'L', 0.07);
+        put("CTG", 'L', 0.41);
+        put("CCT", 'P', 0.28);
+        put("CCC", 'P', 0.33);
+        put("CCA", 'P', 0.27);
+        put("CCG", 'P', 0.11);
+        put("CAT", 'H', 0.41);
+        put("CAC", 'H', 0.59);
+        put("CAA", 'Q', 0.25);
+        put("CAG", 'Q', 0.75);
+        put("CGT", 'R', 0.08);
+        put("CGC", 'R', 0.19);
+        put("CGA", 'R', 0.11);
+        put("CGG", 'R', 0.21);
+        put("ATT", 'I', 0.36);
+        put("ATC", 'I', 0.48);
+        put("ATA", 'I', 0.16);
+        put("ATG", 'M', 1.00);
+        put("ACT", 'T', 0.24);
+        put("ACC", 'T', 0.36);
+        put("ACA", 'T', 0.28);
+        put("ACG", 'T', 0.12);
+        put("AAT", 'N', 0.46);
+        put("AAC", 'N', 0.54);
+        put("AAA", 'K', 0.42);
+        put("AAG", 'K', 0.58);
+        put("AGT", 'S', 0.15);
+        put("AGC", 'S', 0.24);
+        put("AGA", 'R', 0.20);
+        put("AGG", 'R', 0.20);
+        put("GTT", 'V', 0.18);
+        put("GTC", 'V', 0.24);
+        put("GTA", 'V', 0.11);
+        put("GTG", 'V', 0.47);
+        put("GCT", 'A', 0.26);
+        put("GCC", 'A', 0.40);
+        put("GCA", 'A', 0.23);
+        put("GCG", 'A', 0.11);
+        put("GAT", 'D', 0.46);
+        put("GAC", 'D', 0.54);
+        put("GAA", 'E', 0.42);
+        put("GAG", 'E', 0.58);
+        put("GGT", 'G', 0.16);
+        put("GGC", 'G', 0.34);
+        put("GGA", 'G', 0.25);
+        put("GGG", 'G', 0.25);
     }
 
-    public static void addLFS(Variant variant) {
-        try {
-            Map<String, String> infos = variant.getInfos();
-            String codons = infos.get("COD");
-            if (codons != null) {
-                String[] cods = codons.split("[/-]");
-                // Only supports 2 structures: aaT/aaC and tta-Gta
-                if (cods.length != 2) {
-                    return;
-                }
-                String from = aminoacids.get(cods[0].toUpperCase());
-                String to = aminoacids.get(cods[1].toUpperCase());
-                // Sometimes it's null
-                if (from == null || to == null) {
-                    return;
-                }
-                // Synonyms
-                if (from.equals(to)) {
-                    double source = frequencies.get(cods[0].toUpperCase());
-                    double destiny = frequencies.get(cods[1].toUpperCase());
-                    double score = source / destiny;
-                    if (score > 1) {
-                        infos.put("LFS", String.format(Locale.US, "%.2f", score));
-                    }
-                }
+    private static void put(String codon, char aminoacid, double frequency) {
+        final int code = encode(codon, 0, 3);
+        aminoacids[code] = aminoacid;
+        frequencies[code] = frequency;
+    }
+
+    /**
+     * Computes the LFS score of the value of a COD field, between from and to. Only supports 2
+     * structures: aaT/aaC and tta-Gta.
+     *
+     * @param cod the text containing the COD value
+     * @param from first char of the value
+     * @param to end of the value, exclusive
+     * @return the score, or 0 if the substitution is not a synonym or the value is not supported
+     */
+    public static double getScore(CharSequence cod, int from, int to) {
+        if (to - from != 7 || (cod.charAt(from + 3) != '/' && cod.charAt(from + 3) != '-')) {
+            return 0;
+        }
+        final int source = encode(cod, from, from + 3);
+        final int destiny = encode(cod, from + 4, to);
+        // Sometimes it's not a codon
+        if (source == -1 || destiny == -1) {
+            return 0;
+        }
+        // Synonyms
+        if (aminoacids[source] != aminoacids[destiny]) {
+            return 0;
+        }
+        return frequencies[source] / frequencies[destiny];
+    }
+
+    /**
+     * Formats a score as the value of the LFS field.
+     *
+     * @param score the score
+     * @return the score with 2 decimals
+     */
+    public static String format(double score) {
+        return String.format(Locale.US, "%.2f", score);
+    }
+
+    /**
+     * Encodes 3 bases, in any case, into 6 bits.
+     *
+     * @return the code of the codon, or -1 if it is not a codon
+     */
+    private static int encode(CharSequence codon, int from, int to) {
+        if (to - from != 3) {
+            return -1;
+        }
+        int code = 0;
+        for (int i = from; i < to; i++) {
+            final int base;
+            switch (codon.charAt(i)) {
+                case 'A':
+                case 'a':
+                    base = 0;
+                    break;
+                case 'C':
+                case 'c':
+                    base = 1;
+                    break;
+                case 'G':
+                case 'g':
+                    base = 2;
+                    break;
+                case 'T':
+                case 't':
+                    base = 3;
+                    break;
+                default:
+                    return -1;
             }
-        } catch (Exception ex) {
-            MainViewController.printException(ex);
-            System.err.println(variant);
+            code = code << 2 | base;
         }
+        return code;
     }
 }
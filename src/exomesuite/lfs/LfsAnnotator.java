@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.lfs;
+
+import exomesuite.utils.BatchPipeline;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Annotates a whole VCF file with the LFS score, without loading it. The file is streamed in
+ * batches of lines, which are annotated in parallel and written in the same order, so only a few
+ * batches are in memory. The score is computed from the COD field of each line, with no Variant.
+ * Previous LFS values are replaced.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+public class LfsAnnotator {
+
+    public static final String INFO_ID = "LFS";
+    public static final String INFO_HEADER = "##INFO=<ID=LFS,Number=1,Type=Float,"
+            + "Description=\"Low frequency codon substitution\">";
+    private static final String CODONS_ID = "COD";
+    /**
+     * Lines per batch.
+     */
+    private static final int BATCH_SIZE = 4096;
+    private static final int INFO_COLUMN = 7;
+
+    private int threads = 1;
+
+    /**
+     * Sets the number of batches annotated at the same time. Default is 1.
+     *
+     * @param threads the number of threads
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Annotates input into output. They must be different files.
+     *
+     * @param input the VCF file
+     * @param output the annotated VCF file
+     * @return the number of variants with LFS
+     * @throws IOException if input cannot be read or output cannot be written
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public long annotate(File input, File output) throws IOException, InterruptedException {
+        final AtomicLong annotated = new AtomicLong();
+        try (BufferedReader reader = new BufferedReader(new FileReader(input), 1 << 16);
+                BatchPipeline pipeline = new BatchPipeline(output, threads,
+                        "LFS " + input.getName())) {
+            List<String> batch = new ArrayList<>(BATCH_SIZE);
+            boolean headerWritten = false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("##")) {
+                    if (line.startsWith("##INFO=<ID=" + INFO_ID + ",")) {
+                        continue;
+                    }
+                    // LFS header goes alphabetically between the INFO headers
+                    if (!headerWritten && line.startsWith("##INFO=<")
+                            && line.compareTo(INFO_HEADER) > 0) {
+                        pipeline.writeLine(INFO_HEADER);
+                        headerWritten = true;
+                    }
+                    pipeline.writeLine(line);
+                    continue;
+                }
+                if (line.startsWith("#")) {
+                    if (!headerWritten) {
+                        pipeline.writeLine(INFO_HEADER);
+                        headerWritten = true;
+                    }
+                    pipeline.writeLine(line);
+                    continue;
+                }
+                batch.add(line);
+                if (batch.size() == BATCH_SIZE) {
+                    pipeline.submit(batch, lines -> annotate(lines, annotated));
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+            if (!batch.isEmpty()) {
+                pipeline.submit(batch, lines -> annotate(lines, annotated));
+            }
+            pipeline.flush();
+        }
+        return annotated.get();
+    }
+
+    /**
+     * Annotates a batch of lines, replacing each line by the annotated one. Lines are only copied
+     * when their INFO changes.
+     */
+    private static void annotate(List<String> lines, AtomicLong annotated) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < lines.size(); i++) {
+            final String line = lines.get(i);
+            // Limits of the INFO column
+            int start = 0;
+            for (int c = 0; c < INFO_COLUMN && start > -1; c++) {
+                start = line.indexOf('\t', start);
+                if (start > -1) {
+                    start++;
+                }
+            }
+            if (start == -1) {
+                continue;
+            }
+            int end = line.indexOf('\t', start);
+            if (end == -1) {
+                end = line.length();
+            }
+            double score = 0;
+            boolean hasLfs = false;
+            for (int from = start; from < end;) {
+                int to = line.indexOf(';', from);
+                if (to == -1 || to > end) {
+                    to = end;
+                }
+                if (isField(line, from, to, CODONS_ID)) {
+                    score = LFS.getScore(line, from + CODONS_ID.length() + 1, to);
+                } else if (isField(line, from, to, INFO_ID)) {
+                    hasLfs = true;
+                }
+                from = to + 1;
+            }
+            if (score <= 1 && !hasLfs) {
+                continue;
+            }
+            builder.setLength(0);
+            builder.append(line, 0, start);
+            final int length = builder.length();
+            // Copy INFO without the old LFS
+            if (!(end - start == 1 && line.charAt(start) == '.')) {
+                for (int from = start; from < end;) {
+                    int to = line.indexOf(';', from);
+                    if (to == -1 || to > end) {
+                        to = end;
+                    }
+                    if (to > from && !isField(line, from, to, INFO_ID)) {
+                        if (builder.length() > length) {
+                            builder.append(';');
+                        }
+                        builder.append(line, from, to);
+                    }
+                    from = to + 1;
+                }
+            }
+            if (score > 1) {
+                if (builder.length() > length) {
+                    builder.append(';');
+                }
+                builder.append(INFO_ID).append('=').append(LFS.format(score));
+                annotated.incrementAndGet();
+            }
+            if (builder.length() == length) {
+                builder.append('.');
+            }
+            builder.append(line, end, line.length());
+            lines.set(i, builder.toString());
+        }
+    }
+
+    /**
+     * true if the INFO field between from and to has the key id, as a flag or with a value.
+     */
+    private static boolean isField(String line, int from, int to, String id) {
+        final int keyEnd = from + id.length();
+        return line.startsWith(id, from) && (keyEnd == to
+                || (keyEnd < to && line.charAt(keyEnd) == '='));
+    }
+
+}
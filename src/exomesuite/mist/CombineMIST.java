@@ -20,27 +20,20 @@ import exomesuite.ExomeSuite;
 import exomesuite.MainViewController;
 import exomesuite.graphic.SizableImage;
 import exomesuite.utils.FileManager;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
+import javafx.scene.control.ComboBox;
 import javafx.scene.control.ListView;
 import javafx.scene.control.TextField;
 
 /**
- * The window to intersect MIST files.
+ * The window to combine MIST files: intersection, exons in at least k files or union.
  *
  * @author Pascual Lorente Arencibia (pasculorente@gmail.com)
  */
@@ -54,28 +47,10 @@ public class CombineMIST {
     private TextField output;
     @FXML
     private Button startButton;
-
-    /**
-     * The field that contains the EXON_ID
-     */
-    private final int ID_COLUMN = 8;
-    /**
-     * The field that contains the start_poor
-     */
-    private final int START_POOR = 3;
-    /**
-     * The field that contains the end_poor
-     */
-    private final int END_POOR = 4;
-    /**
-     * The field that contains the match
-     */
-    private final int MATCH = 11;
-    /**
-     * Header line must not mutate
-     */
-    private final String[] HEADER = {"chrom", "exon_start", "exon_end", "poor_start", "poor_end",
-        "gene_id", "gene_name", "exon_number", "exon_id", "transcript_name", "biotype", "match"};
+    @FXML
+    private ComboBox<String> mode;
+    @FXML
+    private TextField minimum;
 
     /**
      * Initializes the controller class.
@@ -85,14 +60,25 @@ public class CombineMIST {
         // The add Button can add multilpe files.
         addButton.setOnAction(e -> {
             List<File> f = FileManager.openFiles(ExomeSuite.getResources().getString("select.mist"),
-                    FileManager.MIST_FILTER, FileManager.ALL_FILTER);
+                    FileManager.MIST_FILTER, FileManager.MIST_BGZIP_FILTER, FileManager.ALL_FILTER);
             if (f != null) {
                 fileList.getItems().addAll(f);
             }
         });
         // The start Button is disable until user selects an output file.
         startButton.setDisable(true);
-        startButton.setOnAction(e -> intersect(fileList.getItems(), new File(output.getText())));
+        startButton.setOnAction(e -> combine(fileList.getItems(), new File(output.getText())));
+        // Intersection, at least k files or union. k is only editable in the second mode.
+        mode.getItems().addAll(ExomeSuite.getResources().getString("combine.mist.intersection"),
+                ExomeSuite.getResources().getString("combine.mist.at.least"),
+                ExomeSuite.getResources().getString("combine.mist.union"));
+        mode.getSelectionModel().select(0);
+        minimum.disableProperty().bind(mode.getSelectionModel().selectedIndexProperty().isNotEqualTo(1));
+        minimum.setOnKeyTyped(event -> {
+            if (!Character.isDigit(event.getCharacter().charAt(0))) {
+                event.consume();
+            }
+        });
         addButton.setGraphic(new SizableImage("exomesuite/img/new.png", SizableImage.SMALL_SIZE));
         startButton.setGraphic(new SizableImage("exomesuite/img/start.png", SizableImage.SMALL_SIZE));
     }
@@ -108,113 +94,58 @@ public class CombineMIST {
     }
 
     /**
-     * The main method of the intersection. Reads each file and finds which lines contain the same
-     * exon for all of them.
+     * The main method of the combination. Finds the exons present in all the files, in at least k
+     * files or in any file, depending on the selected mode. See MistCombiner.
      */
-    private void intersect(List<File> inputs, File output) {
-
-        // Let's count the matches so the user will see it in the 'Everything went OK' dialog.
-        final AtomicInteger m = new AtomicInteger();
-        // The firs file includes the lines with the exons info.
-        final List<String[]> refFile = readExons(inputs.get(0));
-        // For the rest of files only store the IDs.
-        final List<Set<String>> files = new ArrayList<>();
-        // Muahahaha, parallel reading of the rest of files.
-        inputs.subList(1, inputs.size()).parallelStream().forEach(f -> files.add(readExonsID(f)));
-
-        // Runs over refFile and checks if the exon_id is contained in the rest of files
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(output))) {
-            printLine(bw, HEADER);
-            for (String[] row : refFile) {
-                // the NO-CONDITION algorithm. Look for someone who does not have it.
-                boolean match = true;
-                for (Set s : files) {
-                    if (!s.contains(row[ID_COLUMN])) {
-                        match = false;
-                        break;
-                    }
-                }
-                if (match) {
-                    // This fields are set to .
-                    row[START_POOR] = ".";
-                    row[END_POOR] = ".";
-                    row[MATCH] = ".";
-                    printLine(bw, row);
-                    m.incrementAndGet();
-                }
-            }
-        } catch (Exception ex) {
-            Logger.getLogger(CombineMIST.class.getName()).log(Level.SEVERE, null, ex);
+    private void combine(List<File> inputs, File output) {
+        if (inputs.isEmpty()) {
+            return;
         }
-        String message = ExomeSuite.getStringFormatted("combine.mist.success", output.getAbsolutePath(), m);
-        MainViewController.printMessage(message, "success");
-    }
-
-    /**
-     * Reads a MIST file and returns a <code>List<String[]></code> with all of the lines split by
-     * \t. Lines with the same exon are excluded.
-     *
-     * @param file The file to read
-     * @return a list with line.split("\t")
-     */
-    private List<String[]> readExons(File file) {
-        final List<String[]> exons = new ArrayList();
-        final Set<String> ids = new TreeSet<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            // Skip HEADER
-            reader.readLine();
-            reader.lines().forEach(line -> {
-                final String[] row = line.split("\t");
-                final String id = row[ID_COLUMN];
-                // Put only genuine lines.
-                if (ids.add(id)) {
-                    exons.add(row);
+        final int min;
+        switch (mode.getSelectionModel().getSelectedIndex()) {
+            case 1:
+                try {
+                    min = Math.max(1, Math.min(inputs.size(), Integer.valueOf(minimum.getText())));
+                } catch (NumberFormatException ex) {
+                    MainViewController.printMessage(ExomeSuite.getStringFormatted("not.a.number",
+                            minimum.getText()), "warning");
+                    return;
                 }
-            });
-        } catch (FileNotFoundException ex) {
-            Logger.getLogger(CombineMIST.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (IOException ex) {
-            Logger.getLogger(CombineMIST.class.getName()).log(Level.SEVERE, null, ex);
-        }
-        return exons;
-    }
-
-    /**
-     * Reads a MIST file and returns a Set<String> with all of the unique exon_ids that file
-     * contains.
-     *
-     * @param file the MIST file to read
-     * @return a Set with all unique identifiers
-     */
-    private Set<String> readExonsID(File file) {
-        final Set<String> ids = new TreeSet<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            // Skip HEADER
-            reader.readLine();
-            reader.lines().forEach(line -> ids.add(line.split("\t")[ID_COLUMN]));
-        } catch (FileNotFoundException ex) {
-            Logger.getLogger(CombineMIST.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (IOException ex) {
-            Logger.getLogger(CombineMIST.class.getName()).log(Level.SEVERE, null, ex);
+                break;
+            case 2:
+                min = 1;
+                break;
+            default:
+                min = inputs.size();
         }
-        return ids;
-    }
+        // Files are read twice, so the combination runs out of the JavaFX thread
+        final MistCombiner combiner = new MistCombiner(new ArrayList<>(inputs));
+        final Task<Integer> task = new Task<Integer>() {
 
-    /**
-     * Prints a String[] in a BufferedWriter, separating values by TAB (\t) and adds a line
-     * separator.
-     *
-     * @param bw The bufferedWriter to write. Often associated to a FileWriter.
-     * @param row The String [] to write.
-     * @throws IOException when problems with the BufferedWriter.
-     */
-    private void printLine(BufferedWriter bw, String[] row) throws IOException {
-        // First field does not have \t prefix.
-        bw.write(row[0]);
-        for (int i = 1; i < row.length; i++) {
-            bw.write("\t" + row[i]);
-        }
-        bw.newLine();
+            @Override
+            protected Integer call() throws Exception {
+                return combiner.combine(output, min);
+            }
+        };
+        task.setOnSucceeded(event -> {
+            startButton.setDisable(false);
+            // Let's count the matches so the user will see it in the 'Everything went OK' dialog.
+            String message = ExomeSuite.getStringFormatted("combine.mist.success",
+                    output.getAbsolutePath(), task.getValue());
+            MainViewController.printMessage(message, "success");
+        });
+        task.setOnFailed(event -> {
+            startButton.setDisable(false);
+            if (task.getException() instanceof Exception) {
+                MainViewController.printException((Exception) task.getException());
+            } else {
+                Logger.getLogger(CombineMIST.class.getName()).log(Level.SEVERE, null, task.getException());
+            }
+        });
+        startButton.setDisable(true);
+        final Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        thread.start();
     }
 
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.mist;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A map from non negative int keys to int counts, with open addressing over primitive arrays, so
+ * no Integer is created per key. Not thread safe.
+ *
+ * @author Pascual Lorente Arencibia (pasculorente@gmail.com)
+ */
+final class IntCounter {
+
+    /**
+     * Marks an empty slot, keys must be non negative.
+     */
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private int[] counts;
+    private int size;
+
+    /**
+     * Creates an empty counter.
+     *
+     * @param expected the expected number of keys
+     */
+    IntCounter(int expected) {
+        int capacity = 16;
+        while (capacity < 2 * expected) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        counts = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Adds one to the count of key.
+     *
+     * @param key a non negative key
+     * @return the new count of key
+     */
+    int increment(int key) {
+        int slot = slot(keys, key);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            if (++size > keys.length / 2) {
+                grow();
+                slot = slot(keys, key);
+            }
+        }
+        return ++counts[slot];
+    }
+
+    /**
+     * Gets the count of key.
+     *
+     * @param key a non negative key
+     * @return the count of key, 0 if it was never incremented
+     */
+    int get(int key) {
+        final int slot = slot(keys, key);
+        return keys[slot] == EMPTY ? 0 : counts[slot];
+    }
+
+    /**
+     * Number of keys in the counter.
+     *
+     * @return the number of distinct keys
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Performs action for each key in the counter, in no particular order.
+     *
+     * @param action the action for each key
+     */
+    void forEachKey(IntConsumer action) {
+        for (int key : keys) {
+            if (key != EMPTY) {
+                action.accept(key);
+            }
+        }
+    }
+
+    private void grow() {
+        final int[] oldKeys = keys;
+        final int[] oldCounts = counts;
+        keys = new int[2 * oldKeys.length];
+        counts = new int[keys.length];
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                final int slot = slot(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    /**
+     * Linear probing. Returns the slot of key or the empty slot where it should be.
+     */
+    private static int slot(int[] keys, int key) {
+        final int mask = keys.length - 1;
+        // Codes are consecutive, so they are mixed before masking
+        final int hash = key * 0x9E3779B9;
+        int slot = (hash ^ hash >>> 16) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.mist;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Combines MIST files by exon, as a hash join. First, all the files are read in parallel, keeping
+ * only their exon ids: each id is interned to an int code and the number of files that contain
+ * each code is counted. Then the files are read again in order and every exon that is in enough
+ * files is written as soon as it is found, so only the codes and the counts are kept in memory.
+ * Both passes are linear in the size of the files.
+ * <p>
+ * The minimum number of files selects the kind of combination: the number of files for a strict
+ * intersection, k for exons in at least k files and 1 for the union. The output has the columns
+ * of MIST, with the poor region fields set to ".", plus the number of files containing the exon.
+ *
+ * @author Pascual Lorente Arencibia (pasculorente@gmail.com)
+ */
+final class MistCombiner {
+
+    /**
+     * The field that contains the EXON_ID
+     */
+    private static final int ID_COLUMN = 8;
+    /**
+     * The field that contains the start_poor
+     */
+    private static final int START_POOR = 3;
+    /**
+     * The field that contains the end_poor
+     */
+    private static final int END_POOR = 4;
+    /**
+     * The field that contains the match
+     */
+    private static final int MATCH = 11;
+    /**
+     * Header line must not mutate
+     */
+    static final String[] HEADER = {"chrom", "exon_start", "exon_end", "poor_start", "poor_end",
+        "gene_id", "gene_name", "exon_number", "exon_id", "transcript_name", "biotype", "match",
+        "samples"};
+
+    private final List<File> inputs;
+    /**
+     * Exon id to code. Shared by the readers, so codes are unique for all the files.
+     */
+    private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+    private final AtomicInteger nextCode = new AtomicInteger();
+    /**
+     * Number of files that contain each code.
+     */
+    private final IntCounter samples = new IntCounter(1 << 16);
+
+    /**
+     * Prepares the combination of inputs. Files are read when combine() is called.
+     *
+     * @param inputs the MIST files, plain or gzipped
+     */
+    MistCombiner(List<File> inputs) {
+        this.inputs = inputs;
+    }
+
+    /**
+     * Writes the exons present in at least minimum files.
+     *
+     * @param output the output file
+     * @param minimum the minimum number of files containing an exon, from 1 (union) to the
+     * number of files (intersection)
+     * @return the number of exons written
+     * @throws IOException if any file cannot be read or the output cannot be written
+     */
+    int combine(File output, int minimum) throws IOException {
+        try {
+            inputs.parallelStream().forEach(this::count);
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        // How many exons must be written, so the second pass can stop as soon as they are
+        final AtomicInteger selected = new AtomicInteger();
+        samples.forEachKey(code -> {
+            if (samples.get(code) >= minimum) {
+                selected.incrementAndGet();
+            }
+        });
+        final BitSet written = new BitSet(nextCode.get());
+        int remaining = selected.get();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(output), 1 << 20)) {
+            printLine(writer, HEADER);
+            writer.newLine();
+            for (int i = 0; i < inputs.size() && remaining > 0; i++) {
+                try (BufferedReader reader = openReader(inputs.get(i))) {
+                    // Skip HEADER
+                    reader.readLine();
+                    String line;
+                    while (remaining > 0 && (line = reader.readLine()) != null) {
+                        final String id = getId(line);
+                        if (id == null) {
+                            continue;
+                        }
+                        final int code = codes.get(id);
+                        final int count = samples.get(code);
+                        if (count >= minimum && !written.get(code)) {
+                            written.set(code);
+                            remaining--;
+                            final String[] row = line.split("\t", -1);
+                            // This fields are set to .
+                            row[START_POOR] = ".";
+                            row[END_POOR] = ".";
+                            if (row.length > MATCH) {
+                                row[MATCH] = ".";
+                            }
+                            printLine(writer, row);
+                            writer.write("\t" + count);
+                            writer.newLine();
+                        }
+                    }
+                }
+            }
+        }
+        return selected.get() - remaining;
+    }
+
+    /**
+     * Reads the exon ids of a file and adds one to the count of each distinct one. Called from
+     * several threads at the same time.
+     */
+    private void count(File file) {
+        final IntCounter ids = new IntCounter(1 << 12);
+        try (BufferedReader reader = openReader(file)) {
+            // Skip HEADER
+            reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String id = getId(line);
+                if (id != null) {
+                    ids.increment(codes.computeIfAbsent(id, key -> nextCode.getAndIncrement()));
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        // Lines with the same exon count once
+        synchronized (samples) {
+            ids.forEachKey(samples::increment);
+        }
+    }
+
+    /**
+     * Gets the exon_id of a MIST line without splitting the whole line.
+     *
+     * @return the exon_id or null if the line is too short
+     */
+    private static String getId(String line) {
+        int start = 0;
+        for (int i = 0; i < ID_COLUMN; i++) {
+            start = line.indexOf('\t', start) + 1;
+            if (start == 0) {
+                return null;
+            }
+        }
+        final int end = line.indexOf('\t', start);
+        return end == -1 ? line.substring(start) : line.substring(start, end);
+    }
+
+    /**
+     * Opens a MIST file, decompressing it if it ends with .gz (gzip or bgzip).
+     */
+    private static BufferedReader openReader(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (file.getName().endsWith(".gz")) {
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    /**
+     * Prints a String[] in a BufferedWriter, separating values by TAB (\t). The line separator is
+     * not added.
+     *
+     * @param bw The bufferedWriter to write. Often associated to a FileWriter.
+     * @param row The String [] to write.
+     * @throws IOException when problems with the BufferedWriter.
+     */
+    private static void printLine(BufferedWriter bw, String[] row) throws IOException {
+        // First field does not have \t prefix.
+        bw.write(row[0]);
+        for (int i = 1; i < row.length; i++) {
+            bw.write('\t');
+            bw.write(row[i]);
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.tsv;
+
+import exomesuite.utils.NumberParser;
+import java.util.Arrays;
+
+/**
+ * Number of distinct values of each column of a set of rows. Rows are added one by one, directly
+ * from the bytes of the line, so no String is created. Optionally, it also infers the type of
+ * each column.
+ *
+ * @author Pascual Lorente Arencibia (pasculorente@gmail.com)
+ */
+final class ColumnStatistics {
+
+    /**
+     * Maximum number of distinct values of a CATEGORICAL column.
+     */
+    private static final int MAX_CATEGORIES = 256;
+
+    private final DistinctCounter[] counters;
+    /**
+     * Whether all the values seen are numbers, or integers. Null if types are not inferred.
+     */
+    private final boolean[] numbers;
+    private final boolean[] integers;
+    /**
+     * Whether there is at least one not missing value.
+     */
+    private final boolean[] values;
+
+    /**
+     * Creates empty statistics.
+     *
+     * @param columns the number of columns
+     * @param inferTypes whether to infer the type of the columns, which requires parsing every
+     * value
+     */
+    ColumnStatistics(int columns, boolean inferTypes) {
+        counters = new DistinctCounter[columns];
+        for (int i = 0; i < columns; i++) {
+            counters[i] = new DistinctCounter();
+        }
+        if (inferTypes) {
+            numbers = new boolean[columns];
+            integers = new boolean[columns];
+            values = new boolean[columns];
+            Arrays.fill(numbers, true);
+            Arrays.fill(integers, true);
+        } else {
+            numbers = integers = values = null;
+        }
+    }
+
+    /**
+     * Adds the values of a line. Fields beyond the number of columns are ignored.
+     *
+     * @param line a tab separated line
+     */
+    void add(CharSequence line) {
+        final int length = line.length();
+        int column = 0;
+        int from = 0;
+        for (int i = 0; i <= length && column < counters.length; i++) {
+            if (i == length || line.charAt(i) == '\t') {
+                counters[column].add(DistinctCounter.hash(line, from, i));
+                if (numbers != null) {
+                    inferType(line, from, i, column);
+                }
+                column++;
+                from = i + 1;
+            }
+        }
+    }
+
+    private void inferType(CharSequence line, int from, int to, int column) {
+        if (!numbers[column] || TSVStore.isMissing(line, from, to)) {
+            return;
+        }
+        values[column] = true;
+        if (integers[column] && !TSVStore.isInteger(line, from, to)) {
+            integers[column] = false;
+        }
+        if (!integers[column] && Double.isNaN(NumberParser.parseNumber(line, from, to))) {
+            numbers[column] = false;
+        }
+    }
+
+    /**
+     * Gets the number of distinct values of the column.
+     *
+     * @param column the column
+     * @return the number of distinct values, exact or estimated
+     */
+    long getDistinct(int column) {
+        return counters[column].count();
+    }
+
+    /**
+     * Whether the number of distinct values of the column is exact or estimated.
+     *
+     * @param column the column
+     * @return true if getDistinct(column) is exact
+     */
+    boolean isExact(int column) {
+        return counters[column].isExact();
+    }
+
+    /**
+     * Gets the inferred type of the column. Only available if types are inferred.
+     *
+     * @param column the column
+     * @return the type of the column
+     */
+    ColumnType getType(int column) {
+        if (values[column] && integers[column]) {
+            return ColumnType.INTEGER;
+        }
+        if (values[column] && numbers[column]) {
+            return ColumnType.DOUBLE;
+        }
+        if (isExact(column) && getDistinct(column) <= MAX_CATEGORIES) {
+            return ColumnType.CATEGORICAL;
+        }
+        return ColumnType.TEXT;
+    }
+
+}
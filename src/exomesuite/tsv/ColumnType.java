@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.tsv;
+
+/**
+ * Type of the values of a TSV column, inferred when the file is opened. Empty cells and dots are
+ * considered missing values and do not change the type of a column.
+ *
+ * @author Pascual Lorente Arencibia (pasculorente@gmail.com)
+ */
+public enum ColumnType {
+
+    /**
+     * All the values are integers.
+     */
+    INTEGER,
+    /**
+     * All the values are numbers.
+     */
+    DOUBLE,
+    /**
+     * Not numeric, but with few distinct values.
+     */
+    CATEGORICAL,
+    /**
+     * Any other column.
+     */
+    TEXT
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.tsv;
+
+/**
+ * Counts the number of distinct values of a column, given the 64 bit hash of each value. While
+ * there are few distinct values, hashes are kept in an open addressing set, so the count is exact.
+ * When the set reaches EXACT_LIMIT values, it is replaced by a HyperLogLog sketch, which uses a
+ * fixed amount of memory and has an error of about 1%.
+ *
+ * @author Pascual Lorente Arencibia (pasculorente@gmail.com)
+ */
+final class DistinctCounter {
+
+    /**
+     * Maximum number of values counted exactly.
+     */
+    private static final int EXACT_LIMIT = 1 << 12;
+    /**
+     * Bits of the hash used to select the register of the sketch.
+     */
+    private static final int PRECISION = 14;
+    private static final int REGISTERS = 1 << PRECISION;
+
+    /**
+     * Exact set of hashes. 0 marks an empty slot, so the hash 0 is tracked apart.
+     */
+    private long[] hashes = new long[16];
+    private int size;
+    private boolean containsZero;
+    /**
+     * Registers of the sketch, null while counting exactly.
+     */
+    private byte[] registers;
+
+    /**
+     * Adds a value to the counter.
+     *
+     * @param hash the hash of the value, see {@code hash()}
+     */
+    void add(long hash) {
+        if (registers != null) {
+            addToSketch(hash);
+        } else if (hash == 0) {
+            containsZero = true;
+        } else if (addToSet(hash) && size == EXACT_LIMIT) {
+            registers = new byte[REGISTERS];
+            for (long h : hashes) {
+                if (h != 0) {
+                    addToSketch(h);
+                }
+            }
+            if (containsZero) {
+                addToSketch(0);
+            }
+            hashes = null;
+        }
+    }
+
+    private boolean addToSet(long hash) {
+        int mask = hashes.length - 1;
+        int slot = (int) hash & mask;
+        while (hashes[slot] != 0) {
+            if (hashes[slot] == hash) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        hashes[slot] = hash;
+        // Keep the set at most half full
+        if (++size * 2 > hashes.length) {
+            final long[] old = hashes;
+            hashes = new long[old.length * 2];
+            mask = hashes.length - 1;
+            for (long h : old) {
+                if (h != 0) {
+                    slot = (int) h & mask;
+                    while (hashes[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    hashes[slot] = h;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void addToSketch(long hash) {
+        final int register = (int) (hash >>> (64 - PRECISION));
+        // Position of the first 1 in the rest of the bits
+        final int rank = Math.min(Long.numberOfLeadingZeros(hash << PRECISION), 64 - PRECISION) + 1;
+        if (rank > registers[register]) {
+            registers[register] = (byte) rank;
+        }
+    }
+
+    /**
+     * Whether the count is exact or an estimation.
+     *
+     * @return true if count() is exact
+     */
+    boolean isExact() {
+        return registers == null;
+    }
+
+    /**
+     * Gets the number of distinct values added.
+     *
+     * @return the number of distinct values, exact or estimated
+     */
+    long count() {
+        if (registers == null) {
+            return containsZero ? size + 1 : size;
+        }
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        final double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+        final double estimate = alpha * REGISTERS * REGISTERS / sum;
+        // Small range correction
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+            return Math.round(REGISTERS * Math.log((double) REGISTERS / zeros));
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * 64 bit hash of s[from, to). FNV-1a followed by the MurmurHash3 finalizer, so all the bits
+     * are well distributed, as the sketch uses the highest ones.
+     *
+     * @param s the sequence
+     * @param from the first char (inclusive)
+     * @param to the last char (exclusive)
+     * @return the hash of the region
+     */
+    static long hash(CharSequence s, int from, int to) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = from; i < to; i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
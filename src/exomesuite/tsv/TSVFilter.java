@@ -16,6 +16,11 @@
  */
 package exomesuite.tsv;
 
+import exomesuite.utils.NumberParser;
+import java.util.function.DoublePredicate;
+import java.util.function.IntPredicate;
+import java.util.regex.Pattern;
+
 /**
  * This class represents a filter for a TSV file.
  *
@@ -144,11 +149,105 @@ public class TSVFilter {
         if (!active) {
             return true;
         }
-        String stringValue = line[selectedIndex];
+        final Pattern pattern = selectedConnector == Connector.MATCHES ? Pattern.compile(value) : null;
+        return test(line[selectedIndex], parseValue(), pattern);
+    }
+
+    /**
+     * Compiles the filter for the rows of the store. The value of the filter is parsed only once,
+     * and the cells are accessed depending on the type of the column: numeric columns are
+     * compared as primitive values, categorical columns are evaluated once per category and the
+     * rest only read the selected cell. The result is the same as filter(String[]) with the
+     * split row.
+     *
+     * @param store the store with the rows
+     * @return a predicate that tests rows of the store
+     */
+    public IntPredicate getPredicate(TSVStore store) {
+        if (selectedIndex < 0 || !active) {
+            return row -> true;
+        }
+        final int column = selectedIndex;
+        final Double number = parseValue();
+        final Pattern pattern = selectedConnector == Connector.MATCHES ? Pattern.compile(value) : null;
+        final IntPredicate text = row -> test(store.getCell(row, column), number, pattern);
+        final boolean numeric = selectedConnector == Connector.EQUALS
+                || selectedConnector == Connector.GREATER || selectedConnector == Connector.LESS;
+        switch (store.getType(column)) {
+            case CATEGORICAL:
+                final String[] categories = store.getCategories(column);
+                final boolean[] accepted = new boolean[categories.length];
+                for (int i = 0; i < categories.length; i++) {
+                    accepted[i] = test(categories[i], number, pattern);
+                }
+                final int[] codes = store.getCodes(column);
+                return row -> accepted[codes[row]];
+            case INTEGER:
+                if (numeric) {
+                    final int[] integers = store.getIntegers(column);
+                    final DoublePredicate compare = compare(number);
+                    // Values not greater than Double.MIN_VALUE, and missing ones, are not numbers
+                    return row -> integers[row] > 0 ? compare.test(integers[row]) : text.test(row);
+                }
+                break;
+            case DOUBLE:
+                if (numeric) {
+                    final double[] doubles = store.getDoubles(column);
+                    final DoublePredicate compare = compare(number);
+                    return row -> doubles[row] > Double.MIN_VALUE
+                            ? compare.test(doubles[row]) : text.test(row);
+                }
+        }
+        return text;
+    }
+
+    /**
+     * Parses the value of the filter.
+     *
+     * @return the value as a number or null if it is not a number
+     */
+    private Double parseValue() {
+        if (value == null) {
+            return null;
+        }
+        final double number = NumberParser.parseNumber(value, 0, value.length());
+        return Double.isNaN(number) ? null : number;
+    }
+
+    /**
+     * Numeric comparison of EQUALS, GREATER and LESS. If the value of the filter is not a number,
+     * every number passes.
+     */
+    private DoublePredicate compare(Double number) {
+        if (number == null) {
+            return cell -> true;
+        }
+        final double v = number;
+        switch (selectedConnector) {
+            case EQUALS:
+                return cell -> cell == v;
+            case GREATER:
+                return cell -> cell > v;
+            default:
+                return cell -> cell < v;
+        }
+    }
+
+    /**
+     * Tests a single cell.
+     *
+     * @param stringValue the value of the cell
+     * @param number the value of the filter as a number, or null if it is not a number
+     * @param pattern the compiled value if the connector is MATCHES
+     * @return true if the cell passes the filter
+     */
+    private boolean test(String stringValue, Double number, Pattern pattern) {
         double doubleValue = Double.MIN_VALUE;
-        try {
-            doubleValue = Double.valueOf(stringValue);
-        } catch (Exception e) {
+        if (stringValue != null) {
+            final double parsed = NumberParser.parseNumber(stringValue, 0, stringValue.length());
+            if (!Double.isNaN(parsed)) {
+                doubleValue = parsed;
+            }
         }
         switch (selectedConnector) {
             case CONTAINS:
@@ -163,36 +262,24 @@ public class TSVFilter {
                 break;
             case EQUALS:
                 if (doubleValue > Double.MIN_VALUE) {
-                    try {
-                        return Double.valueOf(value) == doubleValue;
-                    } catch (NumberFormatException e) {
-                        return true;
-                    }
+                    return number == null || number == doubleValue;
                 } else if (stringValue != null) {
                     return stringValue.equals(value);
                 }
                 break;
             case GREATER:
                 if (doubleValue > Double.MIN_VALUE) {
-                    try {
-                        return doubleValue > Double.valueOf(value);
-                    } catch (NumberFormatException e) {
-                        return true;
-                    }
+                    return number == null || doubleValue > number;
                 }
                 break;
             case LESS:
                 if (doubleValue > Double.MIN_VALUE) {
-                    try {
-                        return doubleValue < Double.valueOf(value);
-                    } catch (NumberFormatException e) {
-                        return true;
-                    }
+                    return number == null || doubleValue < number;
                 }
                 break;
             case MATCHES:
                 if (stringValue != null) {
-                    return stringValue.matches(value);
+                    return pattern.matcher(stringValue).matches();
                 }
         }
         return aceptingVoids;
@@ -20,20 +20,21 @@ import exomesuite.MainViewController;
 import exomesuite.graphic.IndexCell;
 import exomesuite.graphic.NaturalCell;
 import exomesuite.graphic.SizableImage;
+import exomesuite.utils.ByteSequence;
 import exomesuite.utils.FileManager;
 import exomesuite.utils.OS;
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
 import javafx.beans.property.SimpleStringProperty;
+import javafx.collections.FXCollections;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -66,6 +67,14 @@ public class TSVReader extends SplitPane {
 
     private final File file;
     private String[] headers;
+    /**
+     * Line index of the opened file.
+     */
+    private TSVStore store;
+    /**
+     * Statistics of all the rows of the file, computed once at load.
+     */
+    private ColumnStatistics fileStatistics;
 
     private AtomicInteger totalLines = new AtomicInteger();
     private AtomicInteger currentLines = new AtomicInteger();
@@ -106,16 +115,29 @@ public class TSVReader extends SplitPane {
     }
 
     private void loadFile() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            headers = reader.readLine().split("\t");
+        try {
+            store = new TSVStore(file);
+            headers = store.getHeaders();
             generateColumns();
-            reader.lines().forEachOrdered(line -> table.getItems().add(line.split("\t")));
-            totalLines.set(table.getItems().size());
+            setRows(null);
+            totalLines.set(store.size());
             currentLines.set(totalLines.get());
+            fileStatistics = store.getStatistics();
         } catch (Exception e) {
             MainViewController.printException(e);
+            return;
         }
-        setInfo();
+        setInfo(fileStatistics);
+    }
+
+    /**
+     * Shows the given rows of the store in the table. Rows are only split when the table displays
+     * them.
+     *
+     * @param rows the rows of the store, or null for all of them
+     */
+    private void setRows(int[] rows) {
+        table.setItems(FXCollections.observableList(store.asList(rows)));
     }
 
     private void generateColumns() {
@@ -131,57 +153,78 @@ public class TSVReader extends SplitPane {
         }
     }
 
+    /**
+     * Runs across the rows of the store, without reading the file again, and shows the rows that
+     * pass all the filters. Statistics of the accepted rows are computed in the same pass. Without
+     * filters, the statistics of the file, computed at load, are reused.
+     */
     private void filter() {
-        table.getItems().clear();
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            reader.readLine();
-            reader.lines().forEachOrdered(line -> {
-                String[] row = line.split("\t");
-                boolean accepted = true;
-                for (Node node : filtersPane.getChildren()) {
-                    TSVFilterPane pane = (TSVFilterPane) node;
-                    if (!pane.getFilter().filter(row)) {
-                        accepted = false;
-                        break;
-                    }
-                }
-                if (accepted) {
-                    table.getItems().add(row);
-                }
-            });
+        if (store == null) {
+            return;
+        }
+        final List<IntPredicate> filters = new ArrayList<>();
+        try {
+            for (Node node : filtersPane.getChildren()) {
+                filters.add(((TSVFilterPane) node).getFilter().getPredicate(store));
+            }
         } catch (Exception e) {
             MainViewController.printException(e);
+            return;
+        }
+        if (filters.isEmpty()) {
+            setRows(null);
+            currentLines.set(store.size());
+            setInfo(fileStatistics);
+            return;
+        }
+        final ColumnStatistics statistics = new ColumnStatistics(headers.length, false);
+        final ByteSequence line = new ByteSequence();
+        final int[] rows = new int[store.size()];
+        int accepted = 0;
+        for (int row = 0; row < store.size(); row++) {
+            if (accept(row, filters)) {
+                rows[accepted++] = row;
+                statistics.add(store.setLine(row, line));
+            }
+        }
+        setRows(accepted == store.size() ? null : Arrays.copyOf(rows, accepted));
+        currentLines.set(accepted);
+        setInfo(statistics);
+    }
+
+    private static boolean accept(int row, List<IntPredicate> filters) {
+        for (IntPredicate filter : filters) {
+            if (!filter.test(row)) {
+                return false;
+            }
         }
-        currentLines.set(table.getItems().size());
-        setInfo();
+        return true;
     }
 
-    private void setInfo() {
+    /**
+     * Shows the number of rows and, in the header of each column, its number of distinct values.
+     * Estimated values are prefixed with ~.
+     *
+     * @param statistics the statistics of the rows in the table
+     */
+    private void setInfo(ColumnStatistics statistics) {
         double percentage = 100.0 * currentLines.get() / totalLines.get();
         infoLabel.setText(String.format("%,d / %,d (%.2f%%)", currentLines.get(), totalLines.get(),
                 percentage));
-        Set<String>[] uniques = new Set[headers.length];
-        for (int i = 0; i < uniques.length; i++) {
-            uniques[i] = new TreeSet<>();
-        }
-        table.getItems().stream().forEach(line -> {
-            for (int i = 0; i < line.length; i++) {
-                uniques[i].add(line[i]);
-            }
-        });
         for (int i = 0; i < headers.length; i++) {
+            final String distinct = (statistics.isExact(i) ? "" : "~") + statistics.getDistinct(i);
             // Skip index column
             VBox box = (VBox) table.getColumns().get(i + 1).getGraphic();
             if (box == null) {
                 Label name = new Label(table.getColumns().get(i + 1).getText());
-                Label size = new Label(uniques[i].size() + "");
+                Label size = new Label(distinct);
                 box = new VBox(name, size);
                 box.setAlignment(Pos.CENTER);
                 table.getColumns().get(i + 1).setGraphic(box);
                 table.getColumns().get(i + 1).setText(null);
             }
             Label size = (Label) box.getChildren().get(1);
-            size.setText(uniques[i].size() + "");
+            size.setText(distinct);
 //            table.getColumns().get(i + 1).setText(headers[i] + "\n" + uniques[i].size());
         }
     }
@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.tsv;
+
+import exomesuite.utils.ByteSequence;
+import exomesuite.utils.LineIndex;
+import exomesuite.utils.NumberParser;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Line index of a memory-mapped Tab Separated Values file. The first line is the header. For the
+ * rest of lines, only their offset and length are stored, in off-heap buffers, and they are split
+ * when they are requested, usually for the rows the table is showing. This way, files with
+ * millions of lines open in seconds.
+ * <p>
+ * When the file is opened, the type of each column is inferred. Numeric columns can be read as
+ * primitive arrays and categorical ones as arrays of category codes, created the first time they
+ * are requested, so filters can run over them without parsing the file again.
+ *
+ * @author Pascual Lorente Arencibia (pasculorente@gmail.com)
+ */
+public class TSVStore {
+
+    /**
+     * Mapped regions of the file and location of each row, without the header.
+     */
+    private LineIndex lines;
+    private String[] headers;
+    private int size;
+    private ColumnStatistics statistics;
+    /**
+     * Typed columns created so far: int[] for INTEGER, double[] for DOUBLE and Categories for
+     * CATEGORICAL columns.
+     */
+    private final Map<Integer, Object> columns = new HashMap<>();
+
+    /**
+     * Maps and indexes the file. The file is not kept open, mapped regions remain valid until
+     * they are garbage collected.
+     *
+     * @param file the TSV file
+     * @throws IOException if the file cannot be read or it is empty
+     */
+    public TSVStore(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            lines = new LineIndex(file, channel);
+            load(channel);
+        }
+        size = lines.size();
+        if (headers == null) {
+            throw new IOException("No headers in " + file);
+        }
+        statistics = new ColumnStatistics(headers.length, true);
+        final ByteSequence line = new ByteSequence();
+        for (int row = 0; row < size; row++) {
+            statistics.add(setLine(row, line));
+        }
+    }
+
+    /**
+     * Maps the file in regions with LineIndex and stores the location of each line.
+     */
+    private void load(FileChannel channel) throws IOException {
+        final long fileSize = channel.size();
+        long start = 0;
+        while (start < fileSize) {
+            final MappedByteBuffer segment = lines.map(start);
+            final int end = segment.limit();
+            int lineStart = 0;
+            while (lineStart < end) {
+                int lineEnd = lineStart;
+                while (lineEnd < end && segment.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                addLine(segment, start, lineStart, lineEnd);
+                lineStart = lineEnd + 1;
+            }
+            start += end;
+        }
+    }
+
+    private void addLine(ByteBuffer segment, long segmentStart, int from, int to) {
+        // Windows line ends
+        if (to > from && segment.get(to - 1) == '\r') {
+            to--;
+        }
+        if (headers == null) {
+            headers = split(new ByteSequence(segment, from, to - from));
+            return;
+        }
+        lines.add(segmentStart + from, to - from);
+    }
+
+    private static String[] split(ByteSequence line) {
+        return line.toString().split("\t");
+    }
+
+    /**
+     * Gets the names of the columns, from the first line of the file.
+     *
+     * @return the headers
+     */
+    public String[] getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Number of rows of the file, without the header line.
+     *
+     * @return the number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Statistics of all the rows of the file, computed when the file is opened.
+     *
+     * @return the statistics of the file
+     */
+    ColumnStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Gets the type of the column, inferred when the file was opened.
+     *
+     * @param column the column
+     * @return the type of the column
+     */
+    public ColumnType getType(int column) {
+        return statistics.getType(column);
+    }
+
+    /**
+     * Moves line to the bytes of the given row.
+     *
+     * @param row the row
+     * @param line the sequence to move
+     * @return line
+     */
+    ByteSequence setLine(int row, ByteSequence line) {
+        return lines.setLine(row, line);
+    }
+
+    /**
+     * Gets the line of the given row, without the line break.
+     *
+     * @param row the row
+     * @return the line
+     */
+    public String getLine(int row) {
+        return setLine(row, new ByteSequence()).toString();
+    }
+
+    /**
+     * Gets the fields of the given row. Each call splits the line again.
+     *
+     * @param row the row
+     * @return the fields of the row
+     */
+    public String[] getRow(int row) {
+        return split(setLine(row, new ByteSequence()));
+    }
+
+    /**
+     * Gets one field of the given row, without splitting the rest of the line.
+     *
+     * @param row the row
+     * @param column the column
+     * @return the value, or an empty String if the row has not that many fields
+     */
+    public String getCell(int row, int column) {
+        final ByteSequence line = setLine(row, new ByteSequence());
+        final int[] bounds = new int[2];
+        return findField(line, column, bounds)
+                ? line.subSequence(bounds[0], bounds[1]).toString() : "";
+    }
+
+    /**
+     * Stores in bounds the first and last (exclusive) position of the column in line.
+     *
+     * @return false if the line has not that many fields
+     */
+    private static boolean findField(ByteSequence line, int column, int[] bounds) {
+        int from = 0;
+        for (int i = 0; i < column; i++) {
+            from = line.indexOf('\t', from) + 1;
+            if (from == 0) {
+                return false;
+            }
+        }
+        final int to = line.indexOf('\t', from);
+        bounds[0] = from;
+        bounds[1] = to == -1 ? line.length() : to;
+        return true;
+    }
+
+    /**
+     * Gets the values of an INTEGER column. Missing values are Integer.MIN_VALUE.
+     *
+     * @param column the column
+     * @return the values of the column, by row
+     */
+    synchronized int[] getIntegers(int column) {
+        int[] values = (int[]) columns.get(column);
+        if (values == null) {
+            values = new int[size];
+            final ByteSequence line = new ByteSequence();
+            final int[] bounds = new int[2];
+            for (int row = 0; row < size; row++) {
+                setLine(row, line);
+                values[row] = findField(line, column, bounds) && !isMissing(line, bounds[0], bounds[1])
+                        ? (int) NumberParser.parseNumber(line, bounds[0], bounds[1])
+                        : Integer.MIN_VALUE;
+            }
+            columns.put(column, values);
+        }
+        return values;
+    }
+
+    /**
+     * Gets the values of a DOUBLE column. Missing values are NaN.
+     *
+     * @param column the column
+     * @return the values of the column, by row
+     */
+    synchronized double[] getDoubles(int column) {
+        double[] values = (double[]) columns.get(column);
+        if (values == null) {
+            values = new double[size];
+            final ByteSequence line = new ByteSequence();
+            final int[] bounds = new int[2];
+            for (int row = 0; row < size; row++) {
+                setLine(row, line);
+                values[row] = findField(line, column, bounds)
+                        ? NumberParser.parseNumber(line, bounds[0], bounds[1])
+                        : Double.NaN;
+            }
+            columns.put(column, values);
+        }
+        return values;
+    }
+
+    /**
+     * Gets the distinct values of a CATEGORICAL column, indexed by the codes of getCodes().
+     *
+     * @param column the column
+     * @return the categories of the column
+     */
+    String[] getCategories(int column) {
+        return getCategorical(column).values.toArray(new String[0]);
+    }
+
+    /**
+     * Gets the category code of each row of a CATEGORICAL column.
+     *
+     * @param column the column
+     * @return the category codes, by row
+     */
+    int[] getCodes(int column) {
+        return getCategorical(column).codes;
+    }
+
+    private synchronized Categories getCategorical(int column) {
+        Categories categories = (Categories) columns.get(column);
+        if (categories == null) {
+            categories = new Categories(size);
+            final Map<String, Integer> codes = new HashMap<>();
+            for (int row = 0; row < size; row++) {
+                final String value = getCell(row, column);
+                Integer code = codes.get(value);
+                if (code == null) {
+                    code = codes.size();
+                    codes.put(value, code);
+                    categories.values.add(value);
+                }
+                categories.codes[row] = code;
+            }
+            columns.put(column, categories);
+        }
+        return categories;
+    }
+
+    /**
+     * Whether s[from, to) is a missing value: empty or a dot.
+     *
+     * @param s the sequence
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @return true if the value is missing
+     */
+    static boolean isMissing(CharSequence s, int from, int to) {
+        return from == to || (to - from == 1 && s.charAt(from) == '.');
+    }
+
+    /**
+     * Whether s[from, to) is an integer of at most 9 digits, so it fits in an int.
+     *
+     * @param s the sequence
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @return true if the value is an integer
+     */
+    static boolean isInteger(CharSequence s, int from, int to) {
+        if (from < to && (s.charAt(from) == '-' || s.charAt(from) == '+')) {
+            from++;
+        }
+        if (from == to || to - from > 9) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets a read only list of rows backed by this store. Rows are split when the list is
+     * accessed and the last ones are cached, so it is cheap to use as the items of a table.
+     *
+     * @param rows the rows of the store to include, in order, or null to include all of them
+     * @return a list of rows
+     */
+    public List<String[]> asList(int[] rows) {
+        return LineIndex.asList(rows, size, this::getRow);
+    }
+
+    /**
+     * Distinct values of a column and the code of the value of each row.
+     */
+    private static class Categories {
+
+        final List<String> values = new ArrayList<>();
+        final int[] codes;
+
+        Categories(int size) {
+            codes = new int[size];
+        }
+    }
+
+}
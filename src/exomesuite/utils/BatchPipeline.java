@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.utils;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Writes a text file from batches of lines that are transformed in parallel. Batches are written
+ * in the order they were submitted, and only a few of them are kept in memory: submit() waits
+ * for the oldest batches when there are more than two per thread. With one thread, batches are
+ * transformed in the calling thread.
+ *
+ * @author Pascual Lorente Arencibia (pasculorente@gmail.com)
+ */
+public class BatchPipeline implements Closeable {
+
+    private final BufferedWriter writer;
+    private final int threads;
+    private final ExecutorService pool;
+    /**
+     * Batches being transformed, in order of submission.
+     */
+    private final Deque<Future<List<String>>> pending = new ArrayDeque<>();
+
+    /**
+     * Creates a pipeline that writes into output.
+     *
+     * @param output the file to write
+     * @param threads the number of batches transformed at the same time
+     * @param name the name of the threads
+     * @throws IOException if output cannot be created
+     */
+    public BatchPipeline(File output, int threads, String name) throws IOException {
+        this.writer = new BufferedWriter(new FileWriter(output), 1 << 20);
+        this.threads = Math.max(1, threads);
+        this.pool = this.threads > 1
+                ? Executors.newFixedThreadPool(this.threads, runnable -> {
+                    final Thread thread = new Thread(runnable, name);
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                : null;
+    }
+
+    /**
+     * Writes a line after the submitted batches, such as a header.
+     *
+     * @param line the line, without line break
+     * @throws IOException if the line or a batch cannot be written
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public void writeLine(String line) throws IOException, InterruptedException {
+        flush();
+        writer.write(line);
+        writer.newLine();
+    }
+
+    /**
+     * Transforms a batch in background and writes it after the previous ones. transform may
+     * replace the elements of the list, but not add or remove them.
+     *
+     * @param batch the lines, which must not be used by the caller anymore
+     * @param transform the transformation of the batch
+     * @throws IOException if a previous batch cannot be written
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public void submit(List<String> batch, Consumer<List<String>> transform)
+            throws IOException, InterruptedException {
+        if (pool == null) {
+            transform.accept(batch);
+            pending.add(CompletableFuture.completedFuture(batch));
+        } else {
+            pending.add(pool.submit(() -> transform.accept(batch), batch));
+        }
+        while (pending.size() > 2 * threads) {
+            write(pending.poll());
+        }
+    }
+
+    /**
+     * Writes all the submitted batches, waiting for them.
+     *
+     * @throws IOException if a batch cannot be written
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public void flush() throws IOException, InterruptedException {
+        while (!pending.isEmpty()) {
+            write(pending.poll());
+        }
+    }
+
+    private void write(Future<List<String>> future) throws IOException, InterruptedException {
+        try {
+            for (String line : future.get()) {
+                writer.write(line);
+                writer.newLine();
+            }
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Stops the pending batches and closes the file. Call flush() first to write them.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+        writer.close();
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A CharSequence view over a region of a ByteBuffer. Each byte is a char, which is right for the
+ * ASCII text of VCF, TSV or pileup files. The view can be moved with {@code set()}, so only one
+ * object is needed to walk over all the lines of a buffer.
+ *
+ * @author Pascual Lorente Arencibia (pasculorente@gmail.com)
+ */
+public final class ByteSequence implements CharSequence {
+
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+    /**
+     * Creates an empty view. Call set() before using it.
+     */
+    public ByteSequence() {
+    }
+
+    /**
+     * Creates a view of buffer[offset, offset + length).
+     *
+     * @param buffer the buffer
+     * @param offset the first byte of the view
+     * @param length the number of bytes of the view
+     */
+    public ByteSequence(ByteBuffer buffer, int offset, int length) {
+        set(buffer, offset, length);
+    }
+
+    /**
+     * Moves the view to buffer[offset, offset + length).
+     *
+     * @param buffer the buffer
+     * @param offset the first byte of the view
+     * @param length the number of bytes of the view
+     * @return this view
+     */
+    public ByteSequence set(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (buffer.get(offset + index) & 0xff);
+    }
+
+    /**
+     * Returns the position of the first occurrence of c after from, or -1.
+     *
+     * @param c the char to look for
+     * @param from the first position
+     * @return the position of c or -1 if not found
+     */
+    public int indexOf(char c, int from) {
+        for (int i = from; i < length; i++) {
+            if (buffer.get(offset + i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a new String with the chars in [start, end), decoded as UTF-8.
+     *
+     * @param start first index (inclusive)
+     * @param end last index (exclusive)
+     * @return a new String
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        final byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset + start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length).toString();
+    }
+
+}
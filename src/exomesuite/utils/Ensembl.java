@@ -17,91 +17,82 @@
 package exomesuite.utils;
 
 import exomesuite.MainViewController;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
-import javafx.collections.ObservableMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javafx.concurrent.Task;
 
 /**
+ * The Ensembl exons of the application, loaded in background into the shared ExonDatabase.
  *
  * @author Pascual Lorente Arencibia (pasculorente@gmail.com)
  */
 public class Ensembl {
 
     private static File file;
-    private static ObservableMap<String, ObservableList<Exon>> transcripts;
+    private static volatile ExonDatabase database;
+    private static volatile boolean loading;
 
     /**
-     * Per chromosome map list of transcripts.
+     * The exons index, sorted by chromosome and position.
      *
-     * @return the trasncripts.
+     * @return the exons, or null if they are not loaded yet or could not be read
      */
-    public static ObservableMap<String, ObservableList<Exon>> getTranscripts() {
-        return transcripts;
+    public static ExonDatabase getDatabase() {
+        return database;
+    }
+
+    /**
+     * Whether the exons are being read.
+     *
+     * @return true until the current file is read or fails
+     */
+    public static boolean isLoading() {
+        return loading;
     }
 
     private static void initialize() {
-        Task task;
-        task = new Task() {
+        final File toRead = file;
+        database = null;
+        loading = true;
+        final Task<ExonDatabase> task = new Task<ExonDatabase>() {
 
             @Override
-            protected Object call() throws Exception {
-                System.out.println("Reading exons");
-                transcripts = FXCollections.observableHashMap();
-                try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-                    // Skip header
-                    br.readLine();
-                    br.lines().forEach(line -> {
-                        // Create the Exon
-                        Exon exon = new Exon(line);
-                        String chr = exon.getChromosome();
-                        // Take the exons list of the chromosome
-                        ObservableList<Exon> exons = transcripts.get(chr);
-                        // If list does not exist, create it and add the only exon
-                        if (exons == null) {
-                            exons = FXCollections.observableArrayList();
-                            exons.add(exon);
-                            transcripts.put(chr, exons);
-                        } else {
-                            // Try to insert in a previous position
-                            boolean inserted = false;
-                            for (int i = 0; i < exons.size(); i++) {
-                                // If there is an exons with a higher start, insert before
-                                if (exons.get(i).start > exon.start) {
-                                    exons.add(i, exon);
-                                    inserted = true;
-                                    break;
-                                } else if (exons.get(i).start == exon.start) {
-                                    if (exons.get(i).end > exon.end) {
-                                        exons.add(i, exon);
-                                        inserted = true;
-                                        break;
-                                    }
-                                }
-                            }
-                            // Add to the end of the list
-                            if (!inserted) {
-                                exons.add(exon);
-                            }
-                        }
-                    });
-                    System.out.println("Done");
-                } catch (Exception e) {
-                    MainViewController.printException(e);
-//                    Dialogs.create().printException(e);
-                }
-                return null;
+            protected ExonDatabase call() throws Exception {
+                Logger.getLogger(Ensembl.class.getName()).log(Level.INFO, "Reading exons from {0}",
+                        toRead);
+                final ExonDatabase exons = ExonDatabase.get(toRead);
+                Logger.getLogger(Ensembl.class.getName()).log(Level.INFO, "{0} exons read",
+                        exons.size());
+                return exons;
             }
 
         };
-        new Thread(task).start();
+        task.setOnSucceeded(e -> {
+            // Another file may have been selected meanwhile
+            if (toRead.equals(file)) {
+                database = task.getValue();
+                loading = false;
+            }
+        });
+        task.setOnFailed(e -> {
+            if (toRead.equals(file)) {
+                loading = false;
+            }
+            if (task.getException() instanceof Exception) {
+                MainViewController.printException((Exception) task.getException());
+            } else {
+                Logger.getLogger(Ensembl.class.getName()).log(Level.SEVERE, null,
+                        task.getException());
+            }
+        });
+        final Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        thread.start();
     }
 
     /**
-     * Changes the ensmbl file.
+     * Changes the Ensembl file, and reads it in background if it is a different one.
      *
      * @param file the new Ensembl file
      */
@@ -112,61 +103,4 @@ public class Ensembl {
         }
     }
 
-    /**
-     * Keeps info about an exon line.
-     */
-    public static class Exon {
-
-        private int start;
-        private int end;
-        private final String[] line;
-
-        /**
-         * Creates a new exons using the line. Line must be separated by tabs "\t".
-         *
-         * @param line the exon line
-         */
-        public Exon(String line) {
-            this.line = line.split("\t");
-            this.start = Integer.valueOf(this.line[1]);
-            this.end = Integer.valueOf(this.line[2]);
-        }
-
-        /**
-         * Gets the end position of the exon.
-         *
-         * @return the end position
-         */
-        public int getEnd() {
-            return end;
-        }
-
-        /**
-         * Gets the whole line of the Exon.
-         *
-         * @return the line
-         */
-        public String[] getLine() {
-            return line;
-        }
-
-        /**
-         * Gets the start position of the exon.
-         *
-         * @return the start position of the exon
-         */
-        public int getStart() {
-            return start;
-        }
-
-        /**
-         * Gets the chromosome of the exon.
-         *
-         * @return the chromosome
-         */
-        public String getChromosome() {
-            return line[0];
-        }
-    }
-
 }
@@ -0,0 +1,758 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * The Ensembl exons file, parsed once into a compact table. Coordinates are kept in primitive
+ * arrays and text fields are dictionary encoded: each distinct value (gene names, biotypes...) is
+ * stored once in a pool, and rows keep only its code. Rows are grouped by chromosome, in order of
+ * appearance, and sorted by start and end inside each chromosome.
+ * <p>
+ * Overlap queries use an implicit augmented interval tree: the sorted rows of a chromosome are
+ * the in-order traversal of a binary tree, and each node keeps the maximum end of its subtree,
+ * so a query costs O(log n + k) for k exons found. The database is immutable once read, so one
+ * instance can be shared by all the threads, see get().
+ * <p>
+ * The first time a file is read, the table is compiled into a binary file next to it (file +
+ * .exdb) that keeps the size and the modification time of the text file. Later reads only map
+ * the binary file in memory, so loading is immediate and the pages are shared by all the
+ * processes of the host that use the same file. If the binary file cannot be written, the same
+ * layout is kept in the heap.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+public class ExonDatabase {
+
+    // chrom | start | end | gene_id | gene_name | exon_number | transcript_id | transcript_name |
+    // transcript_info | gene_biotype
+    public static final int CHROMOSOME = 0;
+    public static final int START = 1;
+    public static final int END = 2;
+    public static final int GENE_ID = 3;
+    public static final int GENE_NAME = 4;
+    public static final int EXON_NUMBER = 5;
+    public static final int EXON_ID = 6;
+    public static final int TRANSCRIPT_NAME = 7;
+    public static final int TRANSCRIPT_INFO = 8;
+    public static final int BIOTYPE = 9;
+    /**
+     * Number of columns of the file.
+     */
+    public static final int COLUMNS = 10;
+
+    /**
+     * Extension of the binary file.
+     */
+    public static final String CACHE_EXTENSION = ".exdb";
+    private static final int MAGIC = 0x42445845;
+    private static final int VERSION = 1;
+    private static final int TEXT_COLUMNS = COLUMNS - GENE_ID;
+
+    private final String[] headers;
+    private final String[] chromosomes;
+    /**
+     * First row of each chromosome, plus the number of rows at the end.
+     */
+    private final int[] chromosomeRows;
+    /**
+     * Level of the root of the interval tree of each chromosome.
+     */
+    private final int[] rootLevels;
+    private final int size;
+    private final IntBuffer starts;
+    private final IntBuffer ends;
+    /**
+     * Maximum end of the subtree of each row in the interval tree of its chromosome.
+     */
+    private final IntBuffer maxEnds;
+    /**
+     * Codes of the text columns (from GENE_ID), by column and row.
+     */
+    private final IntBuffer[] codes;
+    /**
+     * The pool of distinct values: value i is UTF-8 encoded in poolBytes, from poolOffsets[i] to
+     * poolOffsets[i + 1].
+     */
+    private final IntBuffer poolOffsets;
+    private final ByteBuffer poolBytes;
+    private final Map<String, Integer> chromosomeIndexes = new HashMap<>();
+
+    /**
+     * The last database read by get(), with the file and its modification time.
+     */
+    private static ExonDatabase shared;
+    private static File sharedFile;
+    private static long sharedModified;
+
+    /**
+     * Reads the layout of the binary file, from the end of the header.
+     */
+    private ExonDatabase(ByteBuffer data) throws IOException {
+        headers = readStrings(data);
+        chromosomes = readStrings(data);
+        size = data.getInt();
+        if (data.getInt() != TEXT_COLUMNS) {
+            throw new IOException("Unexpected number of columns");
+        }
+        chromosomeRows = new int[chromosomes.length + 1];
+        data.asIntBuffer().get(chromosomeRows);
+        data.position(data.position() + 4 * chromosomeRows.length);
+        rootLevels = new int[chromosomes.length];
+        data.asIntBuffer().get(rootLevels);
+        data.position(data.position() + 4 * rootLevels.length);
+        starts = slice(data, size);
+        ends = slice(data, size);
+        maxEnds = slice(data, size);
+        codes = new IntBuffer[TEXT_COLUMNS];
+        for (int c = 0; c < TEXT_COLUMNS; c++) {
+            codes[c] = slice(data, size);
+        }
+        final int poolSize = data.getInt();
+        poolOffsets = slice(data, poolSize + 1);
+        poolBytes = data.slice();
+        if (chromosomeRows[chromosomes.length] != size
+                || poolBytes.limit() != poolOffsets.get(poolSize)) {
+            throw new IOException("Truncated exons file");
+        }
+        for (int c = 0; c < chromosomes.length; c++) {
+            chromosomeIndexes.put(chromosomes[c], c);
+        }
+    }
+
+    /**
+     * Gets the database of the file, reading it only if it is not the last one read or it has
+     * been modified since. Use it instead of read() so all the tools share the same instance.
+     *
+     * @param file the Ensembl exons file
+     * @return the exons of the file
+     * @throws IOException if the file cannot be read or a coordinate is not a number
+     */
+    public static synchronized ExonDatabase get(File file) throws IOException {
+        final File absolute = file.getAbsoluteFile();
+        if (shared == null || !absolute.equals(sharedFile)
+                || absolute.lastModified() != sharedModified) {
+            // Release the old one before reading
+            shared = null;
+            sharedModified = absolute.lastModified();
+            shared = read(absolute);
+            sharedFile = absolute;
+        }
+        return shared;
+    }
+
+    /**
+     * Reads the exons file. The first line is the headers. If the binary file is up to date it is
+     * mapped, otherwise the text file is compiled into it.
+     *
+     * @param file the Ensembl exons file
+     * @return the exons of the file
+     * @throws IOException if the file cannot be read or a coordinate is not a number
+     */
+    public static ExonDatabase read(File file) throws IOException {
+        final File cache = getCacheFile(file);
+        final long length = file.length();
+        final long modified = file.lastModified();
+        if (cache.exists()) {
+            try {
+                final ByteBuffer data = map(cache);
+                if (data.getInt() == MAGIC && data.getInt() == VERSION && data.getLong() == length
+                        && data.getLong() == modified) {
+                    return new ExonDatabase(data);
+                }
+            } catch (IOException | RuntimeException ex) {
+                // A broken binary file is compiled again
+                Logger.getLogger(ExonDatabase.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+        final ByteBuffer data = compile(file, length, modified);
+        if (write(cache, data)) {
+            final ByteBuffer mapped = map(cache);
+            mapped.position(data.position());
+            return new ExonDatabase(mapped);
+        }
+        return new ExonDatabase(data);
+    }
+
+    /**
+     * The binary file of an exons file.
+     *
+     * @param file the Ensembl exons file
+     * @return the file + .exdb
+     */
+    public static File getCacheFile(File file) {
+        return new File(file.getAbsolutePath() + CACHE_EXTENSION);
+    }
+
+    /**
+     * Parses the text file into the binary layout.
+     *
+     * @return the binary layout, positioned after the header
+     */
+    private static ByteBuffer compile(File file, long length, long modified) throws IOException {
+        final Map<String, Integer> dictionary = new HashMap<>();
+        final Map<String, Integer> chromosomeCodes = new HashMap<>();
+        String[] names = new String[32];
+        int[] chromosomeOf = new int[1 << 16];
+        int[] starts = new int[1 << 16];
+        int[] ends = new int[1 << 16];
+        int[][] codes = new int[TEXT_COLUMNS][1 << 16];
+        int size = 0;
+        final String[] headers;
+        final String[] fields = new String[COLUMNS];
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            final String first = reader.readLine();
+            headers = first == null ? new String[0] : first.split("\t");
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                split(line, fields);
+                if (size == starts.length) {
+                    final int capacity = 2 * size;
+                    chromosomeOf = Arrays.copyOf(chromosomeOf, capacity);
+                    starts = Arrays.copyOf(starts, capacity);
+                    ends = Arrays.copyOf(ends, capacity);
+                    for (int c = 0; c < codes.length; c++) {
+                        codes[c] = Arrays.copyOf(codes[c], capacity);
+                    }
+                }
+                Integer chromosome = chromosomeCodes.get(fields[CHROMOSOME]);
+                if (chromosome == null) {
+                    chromosome = chromosomeCodes.size();
+                    chromosomeCodes.put(fields[CHROMOSOME], chromosome);
+                    if (chromosome == names.length) {
+                        names = Arrays.copyOf(names, 2 * chromosome);
+                    }
+                    names[chromosome] = fields[CHROMOSOME];
+                }
+                chromosomeOf[size] = chromosome;
+                try {
+                    starts[size] = Integer.parseInt(fields[START]);
+                    ends[size] = Integer.parseInt(fields[END]);
+                } catch (NumberFormatException ex) {
+                    throw new IOException("Bad coordinates in " + file + ": " + line, ex);
+                }
+                for (int c = 0; c < codes.length; c++) {
+                    final String value = fields[GENE_ID + c];
+                    Integer code = dictionary.get(value);
+                    if (code == null) {
+                        code = dictionary.size();
+                        dictionary.put(value, code);
+                    }
+                    codes[c][size] = code;
+                }
+                size++;
+            }
+        }
+        final byte[][] pool = new byte[dictionary.size()][];
+        dictionary.forEach((value, code) -> pool[code] = value.getBytes(StandardCharsets.UTF_8));
+        return group(headers, Arrays.copyOf(names, chromosomeCodes.size()), chromosomeOf, starts,
+                ends, codes, size, pool, length, modified);
+    }
+
+    /**
+     * Sorts the rows by chromosome (in order of appearance), then by start and end, and builds the
+     * interval trees. Exons with the same coordinates keep the order of the file.
+     *
+     * @return the binary layout, positioned after the header
+     */
+    private static ByteBuffer group(String[] headers, String[] chromosomes, int[] chromosomeOf,
+            int[] starts, int[] ends, int[][] codes, int size, byte[][] pool, long length,
+            long modified) {
+        final int[] chromosomeRows = new int[chromosomes.length + 1];
+        for (int i = 0; i < size; i++) {
+            chromosomeRows[chromosomeOf[i] + 1]++;
+        }
+        for (int c = 0; c < chromosomes.length; c++) {
+            chromosomeRows[c + 1] += chromosomeRows[c];
+        }
+        // Counting sort by chromosome
+        final int[] next = Arrays.copyOf(chromosomeRows, chromosomes.length);
+        final int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[next[chromosomeOf[i]]++] = i;
+        }
+        // Two primitive sorts per chromosome: by end, and then by start keeping the rank of the
+        // first sort in the low bits, so ties are broken by end and then by line
+        final long[] keys = new long[size];
+        for (int c = 0; c < chromosomes.length; c++) {
+            final int from = chromosomeRows[c];
+            final int to = chromosomeRows[c + 1];
+            for (int r = from; r < to; r++) {
+                keys[r] = (long) ends[order[r]] << 32 | order[r];
+            }
+            Arrays.sort(keys, from, to);
+            for (int r = from; r < to; r++) {
+                order[r] = (int) keys[r];
+            }
+            for (int r = from; r < to; r++) {
+                keys[r] = (long) starts[order[r]] << 32 | r;
+            }
+            Arrays.sort(keys, from, to);
+            for (int r = from; r < to; r++) {
+                keys[r] = order[(int) keys[r]];
+            }
+            for (int r = from; r < to; r++) {
+                order[r] = (int) keys[r];
+            }
+        }
+        final int[] sortedStarts = new int[size];
+        final int[] sortedEnds = new int[size];
+        final int[][] sortedCodes = new int[codes.length][size];
+        for (int r = 0; r < size; r++) {
+            final int i = order[r];
+            sortedStarts[r] = starts[i];
+            sortedEnds[r] = ends[i];
+            for (int c = 0; c < codes.length; c++) {
+                sortedCodes[c][r] = codes[c][i];
+            }
+        }
+        final int[] maxEnds = new int[size];
+        final int[] rootLevels = new int[chromosomes.length];
+        for (int c = 0; c < chromosomes.length; c++) {
+            rootLevels[c] = buildTree(sortedEnds, maxEnds, chromosomeRows[c], chromosomeRows[c + 1]);
+        }
+        // Header, strings, counts and int sections, and the pool
+        final byte[][] headerBytes = encode(headers);
+        final byte[][] chromosomeBytes = encode(chromosomes);
+        int poolLength = 0;
+        for (byte[] value : pool) {
+            poolLength += value.length;
+        }
+        final long capacity = 24 + length(headerBytes) + length(chromosomeBytes) + 12
+                + 4L * (2 * chromosomes.length + 1) + 4L * (3 + TEXT_COLUMNS) * size
+                + 4L * (pool.length + 1) + poolLength;
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many exons");
+        }
+        final ByteBuffer data = ByteBuffer.allocate((int) capacity).order(ByteOrder.LITTLE_ENDIAN);
+        data.putInt(MAGIC).putInt(VERSION).putLong(length).putLong(modified);
+        final int start = data.position();
+        putStrings(data, headerBytes);
+        putStrings(data, chromosomeBytes);
+        data.putInt(size).putInt(TEXT_COLUMNS);
+        putInts(data, chromosomeRows, chromosomeRows.length);
+        putInts(data, rootLevels, rootLevels.length);
+        putInts(data, sortedStarts, size);
+        putInts(data, sortedEnds, size);
+        putInts(data, maxEnds, size);
+        for (int[] column : sortedCodes) {
+            putInts(data, column, size);
+        }
+        data.putInt(pool.length);
+        int offset = 0;
+        for (byte[] value : pool) {
+            data.putInt(offset);
+            offset += value.length;
+        }
+        data.putInt(offset);
+        for (byte[] value : pool) {
+            data.put(value);
+        }
+        data.position(start);
+        return data;
+    }
+
+    /**
+     * Builds the interval tree of the rows [from, to) of a chromosome. Local index i is a node of
+     * level k if its k lowest bits are 1 and bit k is 0; leaves are the even indexes. Children of
+     * a node x of level k are x - 2^(k-1) and x + 2^(k-1). Nodes past the end of the chromosome
+     * do not exist, but their subtrees may, so the maximum of the last existing node is used.
+     *
+     * @return the level of the root
+     */
+    private static int buildTree(int[] ends, int[] maxEnds, int from, int to) {
+        final int n = to - from;
+        if (n == 0) {
+            return -1;
+        }
+        int lastIndex = 0;
+        int last = 0;
+        for (int i = 0; i < n; i += 2) {
+            lastIndex = i;
+            last = maxEnds[from + i] = ends[from + i];
+        }
+        int k;
+        for (k = 1; 1L << k <= n; k++) {
+            final int x = 1 << (k - 1);
+            final long step = (long) x << 2;
+            for (long i = (x << 1) - 1; i < n; i += step) {
+                final int node = (int) i;
+                final int left = maxEnds[from + node - x];
+                final int right = node + x < n ? maxEnds[from + node + x] : last;
+                maxEnds[from + node] = Math.max(ends[from + node], Math.max(left, right));
+            }
+            // lastIndex goes up to its parent
+            lastIndex = (lastIndex >> k & 1) != 0 ? lastIndex - x : lastIndex + x;
+            if (lastIndex < n && maxEnds[from + lastIndex] > last) {
+                last = maxEnds[from + lastIndex];
+            }
+        }
+        return k - 1;
+    }
+
+    /**
+     * Splits a line by tabs into fields. Missing fields are empty.
+     */
+    private static void split(String line, String[] fields) {
+        int from = 0;
+        for (int i = 0; i < fields.length; i++) {
+            if (from > line.length()) {
+                fields[i] = "";
+                continue;
+            }
+            int to = line.indexOf('\t', from);
+            if (to == -1) {
+                to = line.length();
+            }
+            fields[i] = line.substring(from, to);
+            from = to + 1;
+        }
+    }
+
+    /**
+     * Writes the binary file through a temporary file, so other processes never map a half
+     * written one.
+     *
+     * @return true if the file was written
+     */
+    private static boolean write(File cache, ByteBuffer data) {
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(cache.getParentFile().toPath(), cache.getName(), ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                final ByteBuffer all = data.duplicate();
+                all.rewind();
+                while (all.hasRemaining()) {
+                    channel.write(all);
+                }
+            }
+            // Temporary files are private, but the cache is for every user of the exons file
+            temp.toFile().setReadable(true, false);
+            Files.move(temp, cache.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException ex) {
+            Logger.getLogger(ExonDatabase.class.getName()).log(Level.WARNING,
+                    "Exons will not be cached in " + cache, ex);
+            if (temp != null) {
+                temp.toFile().delete();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Maps the whole file, read only.
+     */
+    private static ByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private static byte[][] encode(String[] values) {
+        final byte[][] bytes = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = values[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return bytes;
+    }
+
+    private static long length(byte[][] values) {
+        long length = 4;
+        for (byte[] value : values) {
+            length += 4 + value.length;
+        }
+        return length;
+    }
+
+    private static void putStrings(ByteBuffer data, byte[][] values) {
+        data.putInt(values.length);
+        for (byte[] value : values) {
+            data.putInt(value.length).put(value);
+        }
+    }
+
+    private static String[] readStrings(ByteBuffer data) {
+        final String[] values = new String[data.getInt()];
+        for (int i = 0; i < values.length; i++) {
+            final byte[] value = new byte[data.getInt()];
+            data.get(value);
+            values[i] = new String(value, StandardCharsets.UTF_8);
+        }
+        return values;
+    }
+
+    private static void putInts(ByteBuffer data, int[] values, int length) {
+        data.asIntBuffer().put(values, 0, length);
+        data.position(data.position() + 4 * length);
+    }
+
+    /**
+     * A view of the next length ints of data, which is moved after them.
+     */
+    private static IntBuffer slice(ByteBuffer data, int length) {
+        final ByteBuffer ints = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        ints.limit(4 * length);
+        data.position(data.position() + 4 * length);
+        return ints.asIntBuffer();
+    }
+
+    /**
+     * Gets the headers of the file.
+     *
+     * @return the first line of the file, split by tabs
+     */
+    public String[] getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Gets the number of exons.
+     *
+     * @return the number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the names of the chromosomes, in order of appearance in the file.
+     *
+     * @return the chromosomes
+     */
+    public String[] getChromosomes() {
+        return chromosomes;
+    }
+
+    /**
+     * Gets the first row of the i-th chromosome.
+     *
+     * @param chromosome the index of the chromosome in getChromosomes()
+     * @return the first row of the chromosome
+     */
+    public int getFirstRow(int chromosome) {
+        return chromosomeRows[chromosome];
+    }
+
+    /**
+     * Gets the row next to the last row of the i-th chromosome.
+     *
+     * @param chromosome the index of the chromosome in getChromosomes()
+     * @return the end row of the chromosome (exclusive)
+     */
+    public int getEndRow(int chromosome) {
+        return chromosomeRows[chromosome + 1];
+    }
+
+    /**
+     * Gets the index of the chromosome of the row.
+     *
+     * @param row the row
+     * @return the index of the chromosome in getChromosomes()
+     */
+    public int getChromosomeIndex(int row) {
+        // Every chromosome has rows, so first rows are strictly increasing
+        final int index = Arrays.binarySearch(chromosomeRows, row);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * Gets the chromosome of the row.
+     *
+     * @param row the row
+     * @return the chromosome
+     */
+    public String getChromosome(int row) {
+        return chromosomes[getChromosomeIndex(row)];
+    }
+
+    /**
+     * Gets the index of a chromosome by its name.
+     *
+     * @param chromosome the name of the chromosome
+     * @return the index of the chromosome in getChromosomes() or -1 if there are no exons in it
+     */
+    public int indexOf(String chromosome) {
+        final Integer index = chromosomeIndexes.get(chromosome);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Calls action with every row overlapping the region, in order of start and end.
+     *
+     * @param chromosome the index of the chromosome in getChromosomes()
+     * @param start the first position of the region
+     * @param end the last position of the region (inclusive)
+     * @param action called with the row of each overlapping exon
+     */
+    public void forEachOverlapping(int chromosome, int start, int end, IntConsumer action) {
+        final int level = rootLevels[chromosome];
+        if (level < 0) {
+            return;
+        }
+        final int from = chromosomeRows[chromosome];
+        final int n = chromosomeRows[chromosome + 1] - from;
+        // Nodes to visit, their levels and whether their left child was already visited
+        final int[] nodes = new int[2 * level + 4];
+        final int[] levels = new int[nodes.length];
+        final boolean[] leftDone = new boolean[nodes.length];
+        int top = 0;
+        nodes[top] = (1 << level) - 1;
+        levels[top] = level;
+        leftDone[top++] = false;
+        while (top > 0) {
+            top--;
+            final int node = nodes[top];
+            final int k = levels[top];
+            if (k <= 3) {
+                // Small subtree, linear scan
+                final int first = node >> k << k;
+                final int last = Math.min(n, first + (1 << (k + 1)) - 1);
+                for (int i = first; i < last && starts.get(from + i) <= end; i++) {
+                    if (ends.get(from + i) >= start) {
+                        action.accept(from + i);
+                    }
+                }
+            } else if (!leftDone[top]) {
+                // Come back to this node once the left child is done
+                leftDone[top++] = true;
+                final int left = node - (1 << (k - 1));
+                if (left >= n || maxEnds.get(from + left) >= start) {
+                    nodes[top] = left;
+                    levels[top] = k - 1;
+                    leftDone[top++] = false;
+                }
+            } else if (node < n && starts.get(from + node) <= end) {
+                if (ends.get(from + node) >= start) {
+                    action.accept(from + node);
+                }
+                nodes[top] = node + (1 << (k - 1));
+                levels[top] = k - 1;
+                leftDone[top++] = false;
+            }
+        }
+    }
+
+    /**
+     * Gets the rows of the exons overlapping the region.
+     *
+     * @param chromosome the name of the chromosome
+     * @param start the first position of the region
+     * @param end the last position of the region (inclusive)
+     * @return the rows, in order of start and end, empty if there are none
+     */
+    public int[] getOverlapping(String chromosome, int start, int end) {
+        final int index = indexOf(chromosome);
+        if (index == -1) {
+            return new int[0];
+        }
+        final IntStream.Builder rows = IntStream.builder();
+        forEachOverlapping(index, start, end, rows);
+        return rows.build().toArray();
+    }
+
+    /**
+     * Gets the start of the exon.
+     *
+     * @param row the row
+     * @return the start of the exon
+     */
+    public int getStart(int row) {
+        return starts.get(row);
+    }
+
+    /**
+     * Gets the end of the exon.
+     *
+     * @param row the row
+     * @return the end of the exon
+     */
+    public int getEnd(int row) {
+        return ends.get(row);
+    }
+
+    /**
+     * Gets a field of the row.
+     *
+     * @param row the row
+     * @param column one of the column constants
+     * @return the value of the field
+     */
+    public String get(int row, int column) {
+        switch (column) {
+            case CHROMOSOME:
+                return getChromosome(row);
+            case START:
+                return String.valueOf(starts.get(row));
+            case END:
+                return String.valueOf(ends.get(row));
+            default:
+                return decode(codes[column - GENE_ID].get(row));
+        }
+    }
+
+    /**
+     * Gets a value of the pool.
+     */
+    private String decode(int code) {
+        final int from = poolOffsets.get(code);
+        final byte[] value = new byte[poolOffsets.get(code + 1) - from];
+        for (int i = 0; i < value.length; i++) {
+            value[i] = poolBytes.get(from + i);
+        }
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the fields of the row, as the line was split by tabs.
+     *
+     * @param row the row
+     * @return a new array with the fields of the row
+     */
+    public String[] getRow(int row) {
+        final String[] fields = new String[COLUMNS];
+        for (int c = 0; c < COLUMNS; c++) {
+            fields[c] = get(row, c);
+        }
+        return fields;
+    }
+
+}
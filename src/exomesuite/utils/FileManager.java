@@ -87,6 +87,17 @@ public final class FileManager {
      */
     public static final FileChooser.ExtensionFilter MIST_FILTER
             = new FileChooser.ExtensionFilter("Missing sequences tool format (.mist)", "*.mist");
+    /**
+     * Filters bgzip compressed MIST files (.mist.gz)
+     */
+    public static final FileChooser.ExtensionFilter MIST_BGZIP_FILTER
+            = new FileChooser.ExtensionFilter("Compressed MIST, tabix indexed (.mist.gz)",
+                    "*.mist.gz");
+    /**
+     * Filters BED files (.bed)
+     */
+    public static final FileChooser.ExtensionFilter BED_FILTER
+            = new FileChooser.ExtensionFilter("Browser Extensible Data (.bed)", "*.bed");
     /**
      * The last successful path. Id est, the last path where the user did not canceled the file
      * selection.
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Line index of a memory-mapped text file. The file is mapped in regions of at most 1 GB, each one
+ * ending after its last complete line, so lines never cross regions. For each line, only its
+ * offset and length are stored, in off-heap buffers, and its bytes are read with setLine().
+ * <p>
+ * Lines are added by a single thread, but they can be read from any other thread once the caller
+ * has published them (for example, by writing a volatile size after adding them).
+ *
+ * @author Pascual Lorente Arencibia (pasculorente@gmail.com)
+ */
+public final class LineIndex {
+
+    /**
+     * Maximum size of each mapped region of the file.
+     */
+    private static final long SEGMENT_SIZE = 1L << 30;
+    /**
+     * Initial number of lines of the index.
+     */
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    /**
+     * Number of rows cached by the lists of asList().
+     */
+    private static final int CACHE_SIZE = 512;
+
+    private final File file;
+    private final FileChannel channel;
+    /**
+     * Mapped regions of the file. Arrays are replaced, not modified, so they can be read while
+     * the file is loading.
+     */
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private volatile long[] segmentStarts = new long[0];
+    private int size;
+    private int capacity;
+    /**
+     * Replaced when they grow.
+     */
+    private volatile ByteBuffer offsets;
+    private volatile ByteBuffer lengths;
+
+    /**
+     * Creates an empty index of the file. The channel is not closed by the index, but mapped
+     * regions remain valid after the channel is closed.
+     *
+     * @param file the file, for error messages
+     * @param channel an open channel of the file
+     */
+    public LineIndex(File file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Maps the next region of the file, from start. The limit of the returned buffer is set after
+     * the last complete line of the region, so the next region must be mapped from start + limit.
+     *
+     * @param start the position in the file of the region, the end of the previous one
+     * @return the mapped region, with its limit after its last line
+     * @throws IOException if the region cannot be mapped or a line is longer than a region
+     */
+    public MappedByteBuffer map(long start) throws IOException {
+        final long fileSize = channel.size();
+        final int length = (int) Math.min(SEGMENT_SIZE, fileSize - start);
+        final MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        int end = length;
+        if (start + length < fileSize) {
+            // The incomplete last line goes to the next segment
+            while (end > 0 && segment.get(end - 1) != '\n') {
+                end--;
+            }
+            if (end == 0) {
+                throw new IOException("Line too long in " + file);
+            }
+        }
+        segment.limit(end);
+        final long[] starts = Arrays.copyOf(segmentStarts, segmentStarts.length + 1);
+        starts[starts.length - 1] = start;
+        final MappedByteBuffer[] buffers = Arrays.copyOf(segments, segments.length + 1);
+        buffers[buffers.length - 1] = segment;
+        segmentStarts = starts;
+        segments = buffers;
+        return segment;
+    }
+
+    /**
+     * Adds a line to the index.
+     *
+     * @param offset the position of the line in the file
+     * @param length the length of the line, without the line break
+     */
+    public void add(long offset, int length) {
+        if (size == capacity) {
+            allocate(capacity * 2);
+        }
+        offsets.putLong(size * 8, offset);
+        lengths.putInt(size * 4, length);
+        size++;
+    }
+
+    /**
+     * Number of lines added so far.
+     *
+     * @return the number of lines
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Moves line to the bytes of the given line.
+     *
+     * @param index the index of the line
+     * @param line the sequence to move
+     * @return line
+     */
+    public ByteSequence setLine(int index, ByteSequence line) {
+        final long offset = offsets.getLong(index * 8);
+        final long[] starts = segmentStarts;
+        int segment = Arrays.binarySearch(starts, offset);
+        if (segment < 0) {
+            segment = -segment - 2;
+        }
+        return line.set(segments[segment], (int) (offset - starts[segment]),
+                lengths.getInt(index * 4));
+    }
+
+    /**
+     * Releases the mapped regions. Buffers are unmapped by the garbage collector.
+     */
+    public void clear() {
+        segments = new MappedByteBuffer[0];
+        segmentStarts = new long[0];
+    }
+
+    /**
+     * Creates the index with the new capacity, copying the current values.
+     */
+    private void allocate(int newCapacity) {
+        offsets = grow(offsets, newCapacity * 8);
+        lengths = grow(lengths, newCapacity * 4);
+        capacity = newCapacity;
+    }
+
+    /**
+     * Creates a direct buffer of bytes, in native order, with the content of column.
+     *
+     * @param column the buffer to copy, or null
+     * @param bytes the capacity of the new buffer
+     * @return the new buffer
+     */
+    public static ByteBuffer grow(ByteBuffer column, int bytes) {
+        final ByteBuffer grown = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        if (column != null) {
+            column.clear();
+            grown.put(column);
+            grown.clear();
+        }
+        return grown;
+    }
+
+    /**
+     * Gets a read only list of rows, whose elements are created by factory when the list is
+     * accessed. The last ones are cached, so it is cheap to use as the items of a table, but
+     * elements can be created again at any time.
+     *
+     * @param <T> the type of the elements
+     * @param rows the rows to include, in order, or null to include the rows 0 to size - 1
+     * @param size the number of rows when rows is null
+     * @param factory creates the element of a row
+     * @return a list of rows
+     */
+    public static <T> List<T> asList(int[] rows, int size, IntFunction<T> factory) {
+        return new RowList<>(rows, rows == null ? size : rows.length, factory);
+    }
+
+    /**
+     * List view of a set of rows.
+     */
+    private static class RowList<T> extends AbstractList<T> {
+
+        private final int[] rows;
+        private final int size;
+        private final IntFunction<T> factory;
+        private final int[] cachedRows = new int[CACHE_SIZE];
+        private final Object[] cache = new Object[CACHE_SIZE];
+
+        RowList(int[] rows, int size, IntFunction<T> factory) {
+            this.rows = rows;
+            this.size = size;
+            this.factory = factory;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public synchronized T get(int index) {
+            final int row = rows == null ? index : rows[index];
+            final int slot = row & (CACHE_SIZE - 1);
+            if (cache[slot] == null || cachedRows[slot] != row) {
+                cache[slot] = factory.apply(row);
+                cachedRows[slot] = row;
+            }
+            return (T) cache[slot];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+    }
+
+}
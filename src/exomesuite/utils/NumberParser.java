@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.utils;
+
+/**
+ * Parses decimal numbers from a region of a CharSequence. Plain numbers (123, -1.5), which are
+ * most of the values of VCF and TSV files, are parsed without creating a String. Other notations
+ * (1e-5, long numbers) are delegated to Double.parseDouble.
+ *
+ * @author Pascual Lorente Arencibia (pasculorente@gmail.com)
+ */
+public final class NumberParser {
+
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8,
+        1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+    private NumberParser() {
+    }
+
+    /**
+     * Parses a decimal number in [from, to), as Double.parseDouble would.
+     *
+     * @param s the sequence
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @return the double value
+     * @throws NumberFormatException if the sequence is not a number
+     */
+    public static double parseDouble(CharSequence s, int from, int to) {
+        final double value = parsePlain(s, from, to);
+        return Double.isNaN(value) ? Double.parseDouble(s.subSequence(from, to).toString()) : value;
+    }
+
+    /**
+     * Parses s[from, to) as parseDouble() would, but returning NaN instead of throwing an
+     * exception when it is not a number. Values with chars that cannot be part of a number are
+     * rejected without trying to parse them.
+     *
+     * @param s the sequence
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @return the number, or NaN if it is not a number
+     */
+    public static double parseNumber(CharSequence s, int from, int to) {
+        final double value = parsePlain(s, from, to);
+        if (!Double.isNaN(value)) {
+            return value;
+        }
+        // Scientific notation or long numbers
+        for (int j = from; j < to; j++) {
+            if ("0123456789+-.eE".indexOf(s.charAt(j)) == -1) {
+                return Double.NaN;
+            }
+        }
+        try {
+            return Double.parseDouble(s.subSequence(from, to).toString());
+        } catch (NumberFormatException ex) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Parses a number with an optional sign, digits and an optional point, with at most 15
+     * digits, so the division by the power of ten is exact.
+     *
+     * @return the value, or NaN if the number is not plain
+     */
+    private static double parsePlain(CharSequence s, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            negative = s.charAt(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int decimals = 0;
+        int digits = 0;
+        boolean point = false;
+        for (; i < to; i++) {
+            final char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                // Beyond 15 digits the division is not exact, let Double do it
+                if (++digits > 15) {
+                    return Double.NaN;
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (point) {
+                    decimals++;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+        final double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+        return negative ? -value : value;
+    }
+
+}
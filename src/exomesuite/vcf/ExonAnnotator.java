@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.vcf;
+
+import exomesuite.utils.BatchPipeline;
+import exomesuite.utils.ExonDatabase;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Annotates a whole VCF file with the exons of the variants. The file is streamed in batches of
+ * lines of the same chromosome, which are annotated in parallel and written in the same order.
+ * Each batch is merge joined against the sorted exons of its chromosome: a cursor walks the exons
+ * by start while the variants advance, keeping the exons that are still open, so a position
+ * sorted file is annotated in one linear pass. If positions go back, the cursor is placed again
+ * with the interval index of the ExonDatabase.
+ * <p>
+ * Each variant overlapping exons gets the INFO fields in INFO_IDS, with one value per exon, in
+ * the same order in all of them. Previous values of these fields are replaced.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+public class ExonAnnotator {
+
+    /**
+     * IDs of the INFO fields, in the same order as COLUMNS.
+     */
+    public static final String[] INFO_IDS = {"EXON_GENE", "EXON_GENE_ID", "EXON_ID",
+        "EXON_TRANSCRIPT", "EXON_BIOTYPE"};
+    private static final String[] DESCRIPTIONS = {"Gene name", "Ensembl gene ID",
+        "Ensembl exon ID", "Transcript name", "Gene biotype"};
+    private static final int[] COLUMNS = {ExonDatabase.GENE_NAME, ExonDatabase.GENE_ID,
+        ExonDatabase.EXON_ID, ExonDatabase.TRANSCRIPT_NAME, ExonDatabase.BIOTYPE};
+    /**
+     * Lines per batch.
+     */
+    private static final int BATCH_SIZE = 4096;
+    private static final int INFO_COLUMN = 7;
+
+    private final ExonDatabase exons;
+    private int threads = 1;
+
+    /**
+     * Creates an annotator for the exons.
+     *
+     * @param exons the exons index, see ExonDatabase.get()
+     */
+    public ExonAnnotator(ExonDatabase exons) {
+        this.exons = exons;
+    }
+
+    /**
+     * Sets the number of batches annotated at the same time. Default is 1.
+     *
+     * @param threads the number of threads
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Gets the header lines of the INFO fields.
+     *
+     * @return the ##INFO lines, one per field
+     */
+    public static String[] getInfoHeaders() {
+        final String[] headers = new String[INFO_IDS.length];
+        for (int i = 0; i < INFO_IDS.length; i++) {
+            headers[i] = "##INFO=<ID=" + INFO_IDS[i] + ",Number=.,Type=String,Description=\""
+                    + DESCRIPTIONS[i] + " of the overlapping exons\">";
+        }
+        return headers;
+    }
+
+    /**
+     * Annotates input into output. They must be different files.
+     *
+     * @param input the VCF file
+     * @param output the annotated VCF file
+     * @return the number of variants that overlap at least one exon
+     * @throws IOException if input cannot be read or output cannot be written
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public long annotate(File input, File output) throws IOException, InterruptedException {
+        final AtomicLong annotated = new AtomicLong();
+        try (BufferedReader reader = new BufferedReader(new FileReader(input), 1 << 16);
+                BatchPipeline pipeline = new BatchPipeline(output, threads,
+                        "Exons " + input.getName())) {
+            List<String> batch = new ArrayList<>(BATCH_SIZE);
+            String chromosome = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("##")) {
+                    if (!isOwnHeader(line)) {
+                        pipeline.writeLine(line);
+                    }
+                    continue;
+                }
+                if (line.startsWith("#")) {
+                    for (String header : getInfoHeaders()) {
+                        pipeline.writeLine(header);
+                    }
+                    pipeline.writeLine(line);
+                    continue;
+                }
+                final int tab = line.indexOf('\t');
+                final String lineChromosome = tab == -1 ? line : line.substring(0, tab);
+                if (batch.size() == BATCH_SIZE
+                        || (!batch.isEmpty() && !lineChromosome.equals(chromosome))) {
+                    submit(pipeline, batch, chromosome, annotated);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+                chromosome = lineChromosome;
+                batch.add(line);
+            }
+            if (!batch.isEmpty()) {
+                submit(pipeline, batch, chromosome, annotated);
+            }
+            pipeline.flush();
+        }
+        return annotated.get();
+    }
+
+    private void submit(BatchPipeline pipeline, List<String> batch, String chromosome,
+            AtomicLong annotated) throws IOException, InterruptedException {
+        final int index = exons.indexOf(chromosome);
+        pipeline.submit(batch, lines -> new Batch(lines, index, annotated).run());
+    }
+
+    /**
+     * true if line is the ##INFO header of one of the fields of the annotator, that will be
+     * written again.
+     */
+    private static boolean isOwnHeader(String line) {
+        if (!line.startsWith("##INFO=<ID=")) {
+            return false;
+        }
+        for (String id : INFO_IDS) {
+            if (line.startsWith(id + ",", 11)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Annotates a batch of lines of one chromosome, replacing each line by the annotated one.
+     */
+    private class Batch implements Runnable {
+
+        private final List<String> lines;
+        private final int chromosome;
+        private final AtomicLong annotated;
+        /**
+         * Exons with start before the current position that may still overlap.
+         */
+        private int[] open = new int[16];
+        private int openSize;
+        /**
+         * Next exon by start, not yet in open.
+         */
+        private int next;
+        private int position;
+        private final int endRow;
+
+        Batch(List<String> lines, int chromosome, AtomicLong annotated) {
+            this.lines = lines;
+            this.chromosome = chromosome;
+            this.annotated = annotated;
+            this.endRow = chromosome == -1 ? 0 : exons.getEndRow(chromosome);
+        }
+
+        @Override
+        public void run() {
+            final int[] tabs = new int[INFO_COLUMN + 1];
+            final StringBuilder builder = new StringBuilder();
+            // Place the cursor at the first variant
+            position = -1;
+            for (int i = 0; i < lines.size(); i++) {
+                final String line = lines.get(i);
+                if (!findTabs(line, tabs)) {
+                    continue;
+                }
+                final int pos;
+                try {
+                    pos = Integer.parseInt(line.substring(tabs[0] + 1, tabs[1]));
+                } catch (NumberFormatException ex) {
+                    continue;
+                }
+                // The variant covers its reference allele
+                final int end = pos + Math.max(1, tabs[3] - tabs[2] - 1) - 1;
+                final int matches = chromosome == -1 ? 0 : moveTo(pos, end);
+                final String info = line.substring(tabs[INFO_COLUMN - 1] + 1, tabs[INFO_COLUMN]);
+                final String newInfo = buildInfo(info, matches, builder);
+                if (matches > 0) {
+                    annotated.incrementAndGet();
+                }
+                if (!newInfo.equals(info)) {
+                    lines.set(i, line.substring(0, tabs[INFO_COLUMN - 1] + 1) + newInfo
+                            + line.substring(tabs[INFO_COLUMN]));
+                }
+            }
+        }
+
+        /**
+         * Moves the cursor to pos. After it, open contains the exons overlapping pos, and the
+         * exons from next with start up to end overlap the variant too.
+         *
+         * @return the number of exons overlapping [pos, end]
+         */
+        private int moveTo(int pos, int end) {
+            if (pos < position || position == -1) {
+                seek(pos);
+            } else {
+                while (next < endRow && exons.getStart(next) <= pos) {
+                    add(next++);
+                }
+                // Close the exons that end before pos, keeping the order of the rest
+                int kept = 0;
+                for (int i = 0; i < openSize; i++) {
+                    if (exons.getEnd(open[i]) >= pos) {
+                        open[kept++] = open[i];
+                    }
+                }
+                openSize = kept;
+            }
+            position = pos;
+            int matches = openSize;
+            for (int row = next; row < endRow && exons.getStart(row) <= end; row++) {
+                matches++;
+            }
+            return matches;
+        }
+
+        /**
+         * Places the cursor at pos with the interval index.
+         */
+        private void seek(int pos) {
+            openSize = 0;
+            exons.forEachOverlapping(chromosome, pos, pos, this::add);
+            // First row with start > pos
+            int low = exons.getFirstRow(chromosome);
+            int high = endRow;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (exons.getStart(mid) <= pos) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            next = low;
+        }
+
+        private void add(int row) {
+            if (openSize == open.length) {
+                open = Arrays.copyOf(open, 2 * openSize);
+            }
+            open[openSize++] = row;
+        }
+
+        private int getMatch(int i) {
+            return i < openSize ? open[i] : next + i - openSize;
+        }
+
+        /**
+         * Removes the fields of the annotator from info and adds the new values.
+         */
+        private String buildInfo(String info, int matches, StringBuilder builder) {
+            builder.setLength(0);
+            if (!info.equals(".")) {
+                int from = 0;
+                while (from <= info.length()) {
+                    int to = info.indexOf(';', from);
+                    if (to == -1) {
+                        to = info.length();
+                    }
+                    if (to > from && !isOwnField(info, from, to)) {
+                        if (builder.length() > 0) {
+                            builder.append(';');
+                        }
+                        builder.append(info, from, to);
+                    }
+                    from = to + 1;
+                }
+            }
+            if (matches > 0) {
+                for (int f = 0; f < INFO_IDS.length; f++) {
+                    if (builder.length() > 0) {
+                        builder.append(';');
+                    }
+                    builder.append(INFO_IDS[f]).append('=');
+                    for (int m = 0; m < matches; m++) {
+                        if (m > 0) {
+                            builder.append(',');
+                        }
+                        appendValue(builder, exons.get(getMatch(m), COLUMNS[f]));
+                    }
+                }
+            }
+            return builder.length() == 0 ? "." : builder.toString();
+        }
+
+        private boolean isOwnField(String info, int from, int to) {
+            for (String id : INFO_IDS) {
+                if (info.startsWith(id, from) && (from + id.length() == to
+                        || info.charAt(from + id.length()) == '=')) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Appends a value, replacing the characters that are not allowed in INFO values.
+     */
+    private static void appendValue(StringBuilder builder, String value) {
+        if (value.isEmpty()) {
+            builder.append('.');
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            builder.append(c == ',' || c == ';' || c == '=' || c == ' ' || c == '\t' ? '_' : c);
+        }
+    }
+
+    /**
+     * Finds the tabs that end the first INFO_COLUMN + 1 columns. The last one may be the end of
+     * the line.
+     *
+     * @return false if the line has less columns than INFO
+     */
+    private static boolean findTabs(String line, int[] tabs) {
+        int from = 0;
+        for (int i = 0; i < tabs.length; i++) {
+            final int tab = line.indexOf('\t', from);
+            if (tab == -1) {
+                if (i < INFO_COLUMN) {
+                    return false;
+                }
+                tabs[i] = line.length();
+            } else {
+                tabs[i] = tab;
+            }
+            from = tabs[i] + 1;
+        }
+        return true;
+    }
+
+}
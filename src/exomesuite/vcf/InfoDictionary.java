@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.vcf;
+
+import java.util.Arrays;
+
+/**
+ * Per file dictionary of INFO keys. Each key gets an ordinal, so variants only need to store
+ * ordinals and every variant of the file shares the same key Strings. Keys can be looked up
+ * directly from a region of a line, so no String is created for keys already in the dictionary.
+ * Reading is lock free, so it can be shared by several threads parsing the same file. The
+ * VariantStore also uses it to code CHROM and FILTER values.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+public final class InfoDictionary {
+
+    /**
+     * Keys and hash slots, replaced as a whole when a new key is added.
+     */
+    private volatile State state = new State(new String[0], new int[16]);
+
+    /**
+     * Creates an empty dictionary.
+     */
+    public InfoDictionary() {
+    }
+
+    /**
+     * Creates a dictionary with the given keys. Ordinals will follow the order of keys.
+     *
+     * @param keys the initial keys
+     */
+    public InfoDictionary(Iterable<String> keys) {
+        keys.forEach(this::add);
+    }
+
+    /**
+     * Number of keys in the dictionary.
+     *
+     * @return the number of keys
+     */
+    public int size() {
+        return state.keys.length;
+    }
+
+    /**
+     * Gets the key with the given ordinal.
+     *
+     * @param ordinal the ordinal of the key
+     * @return the key
+     */
+    public String getKey(int ordinal) {
+        return state.keys[ordinal];
+    }
+
+    /**
+     * Gets the ordinal of the key.
+     *
+     * @param key the key
+     * @return the ordinal of the key or -1 if the key is not in the dictionary
+     */
+    public int getOrdinal(String key) {
+        return key == null ? -1 : getOrdinal(key, 0, key.length());
+    }
+
+    /**
+     * Gets the ordinal of the key stored in s[from, to).
+     *
+     * @param s a sequence containing the key
+     * @param from the first char of the key
+     * @param to the end of the key (exclusive)
+     * @return the ordinal of the key or -1 if it is not in the dictionary
+     */
+    int getOrdinal(CharSequence s, int from, int to) {
+        final State current = state;
+        final int mask = current.slots.length - 1;
+        int slot = hash(s, from, to) & mask;
+        int entry;
+        while ((entry = current.slots[slot]) != 0) {
+            final String key = current.keys[entry - 1];
+            if (matches(key, s, from, to)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds the key stored in s[from, to), if not present, and returns its ordinal.
+     *
+     * @param s a sequence containing the key
+     * @param from the first char of the key
+     * @param to the end of the key (exclusive)
+     * @return the ordinal of the key
+     */
+    int add(CharSequence s, int from, int to) {
+        final int ordinal = getOrdinal(s, from, to);
+        return ordinal != -1 ? ordinal : add(s.subSequence(from, to).toString());
+    }
+
+    /**
+     * Adds the key, if not present, and returns its ordinal.
+     *
+     * @param key the new key
+     * @return the ordinal of the key
+     */
+    public synchronized int add(String key) {
+        final int ordinal = getOrdinal(key);
+        if (ordinal != -1) {
+            return ordinal;
+        }
+        final String[] keys = Arrays.copyOf(state.keys, state.keys.length + 1);
+        keys[keys.length - 1] = key;
+        // Keep the table at most half full
+        int capacity = state.slots.length;
+        while (capacity < 2 * keys.length) {
+            capacity *= 2;
+        }
+        final int[] slots = new int[capacity];
+        for (int i = 0; i < keys.length; i++) {
+            int slot = hash(keys[i], 0, keys[i].length()) & (capacity - 1);
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            slots[slot] = i + 1;
+        }
+        state = new State(keys, slots);
+        return keys.length - 1;
+    }
+
+    /**
+     * Same hash as String.hashCode(), but over a region of the sequence.
+     */
+    private static int hash(CharSequence s, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        // Spread the bits, as small tables only use the lowest ones
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(String key, CharSequence s, int from, int to) {
+        if (key.length() != to - from) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) != s.charAt(from + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Snapshot of the dictionary. Slots contain ordinal + 1, so 0 is an empty slot.
+     */
+    private static class State {
+
+        final String[] keys;
+        final int[] slots;
+
+        State(String[] keys, int[] slots) {
+            this.keys = keys;
+            this.slots = slots;
+        }
+    }
+
+}
@@ -17,7 +17,11 @@
 package exomesuite.vcf;
 
 import exomesuite.ExomeSuite;
-import java.util.Map;
+import exomesuite.utils.NumberParser;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * This class represents a filter for a VCF file. The filter is characterized by a field (CHROM,
@@ -36,6 +40,14 @@ public class VCFFilter {
     private String selectedInfo;
     private boolean strict = true;
     private boolean enabled = true;
+    /**
+     * Incremented every time the filter condition changes (not when it is enabled or disabled).
+     */
+    private int version;
+    /**
+     * Last compiled predicate.
+     */
+    private volatile Compiled compiled;
 
     /**
      * Creates a new VCFFIlter with default connector EQUALS and default field CHROMOSOME.
@@ -74,6 +86,7 @@ public class VCFFilter {
      */
     public void setValue(String value) {
         this.value = value;
+        version++;
     }
 
     /**
@@ -92,6 +105,7 @@ public class VCFFilter {
      */
     public void setConnector(Connector connector) {
         this.connector = connector;
+        version++;
     }
 
     /**
@@ -110,6 +124,7 @@ public class VCFFilter {
      */
     public void setField(Field field) {
         this.field = field;
+        version++;
     }
 
     /**
@@ -128,6 +143,7 @@ public class VCFFilter {
      */
     public void setSelectedInfo(String selectedInfo) {
         this.selectedInfo = selectedInfo;
+        version++;
     }
 
     /**
@@ -146,6 +162,7 @@ public class VCFFilter {
      */
     public void setStrict(boolean accept) {
         this.strict = accept;
+        version++;
     }
 
     /**
@@ -166,6 +183,16 @@ public class VCFFilter {
         this.enabled = enabled;
     }
 
+    /**
+     * Gets the version of the filter condition. It changes every time field, connector, value,
+     * selected info or strictness are modified, so results of the filter can be cached.
+     *
+     * @return the current version of the filter
+     */
+    public int getVersion() {
+        return version;
+    }
+
     /**
      * Returns true in case this variant passes this filter or filter can NOT be applied due to
      * field/connector/value incompatibilities.
@@ -174,105 +201,221 @@ public class VCFFilter {
      * @return true if passes the filter or the filter cannot be applied, false otherwise.
      */
     public boolean filter(Variant variant) {
-        if (field == null) {
-            return true;
-        }
         if (!enabled) {
             return true;
         }
-        // Get the value (one of the Field.values())
-        String stringValue = null;
-        double doubleValue = Double.MIN_VALUE;
+        return getPredicate(variant.getDictionary()).test(variant);
+    }
+
+    /**
+     * Gets the filter condition compiled for the variants of a file: the value is parsed, the
+     * regular expression compiled and the INFO key resolved only once. The predicate is cached
+     * until the filter changes. It does not take into account if the filter is enabled.
+     *
+     * @param dictionary the INFO dictionary of the variants that will be tested
+     * @return a predicate that returns true if a variant passes the filter
+     */
+    public Predicate<Variant> getPredicate(InfoDictionary dictionary) {
+        Compiled current = compiled;
+        if (current == null || current.version != version || current.dictionary != dictionary) {
+            current = new Compiled(version, dictionary, compile(dictionary));
+            compiled = current;
+        }
+        return current.predicate;
+    }
+
+    /**
+     * Gets the filter condition compiled for the rows of a store. Conditions on CHROM, FILTER,
+     * POS and QUAL, and numeric conditions (greater and less than) on INFO, are evaluated against
+     * the columns of the store, and CHROM and FILTER only once per distinct value. The rest of
+     * conditions create the Variant of each row, see getPredicate(). It does not take into
+     * account if the filter is enabled. The predicate can be used from any thread, but the store
+     * must be completely loaded.
+     *
+     * @param store the store
+     * @return a predicate that returns true if the variant of a row passes the filter
+     */
+    public IntPredicate getRowPredicate(VariantStore store) {
+        if (field != null && connector != Connector.PRESENT && connector != Connector.NOT_PRESENT) {
+            final Condition condition = compileCondition();
+            switch (field) {
+                case CHROMOSOME: {
+                    final boolean[] accepted = test(store.getChromosomes(), condition);
+                    return row -> accepted[store.getChromCode(row)];
+                }
+                case FILTER: {
+                    final boolean[] accepted = test(store.getFilters(), condition);
+                    return row -> accepted[store.getFilterCode(row)];
+                }
+                case POSITION:
+                    return row -> condition.test(null, store.getPos(row));
+                case QUALITY:
+                    return row -> condition.test(null, store.getQual(row));
+                case INFO:
+                    if (selectedInfo != null
+                            && (connector == Connector.GREATER || connector == Connector.LESS)) {
+                        final String key = selectedInfo;
+                        // Only the number is used, missing values and strings are not numbers
+                        return row -> {
+                            final double number = store.getInfoNumber(key, row);
+                            return condition.test(null,
+                                    Double.isNaN(number) ? Double.MIN_VALUE : number);
+                        };
+                    }
+            }
+        }
+        final Predicate<Variant> predicate = getPredicate(store.getDictionary());
+        return row -> predicate.test(store.getVariant(row));
+    }
+
+    /**
+     * Tests the condition on every value of the dictionary.
+     *
+     * @return the result for each ordinal
+     */
+    private static boolean[] test(InfoDictionary values, Condition condition) {
+        final boolean[] accepted = new boolean[values.size()];
+        for (int i = 0; i < accepted.length; i++) {
+            accepted[i] = condition.test(values.getKey(i), Double.MIN_VALUE);
+        }
+        return accepted;
+    }
+
+    private Predicate<Variant> compile(InfoDictionary dictionary) {
+        if (field == null) {
+            return variant -> true;
+        }
+        // Reserve the ordinal, so it is the same if the key is found later
+        final int ordinal = selectedInfo == null ? -1 : dictionary.add(selectedInfo);
+        switch (connector) {
+            case PRESENT:
+                return variant -> variant.containsInfo(ordinal);
+            case NOT_PRESENT:
+                return variant -> !variant.containsInfo(ordinal);
+        }
+        final Condition condition = compileCondition();
         switch (field) {
             case CHROMOSOME:
-                stringValue = variant.getChrom();
-                break;
+                return variant -> condition.test(variant.getChrom(), Double.MIN_VALUE);
             case POSITION:
-                doubleValue = variant.getPos();
-                break;
+                return variant -> condition.test(null, variant.getPos());
             case QUALITY:
-                doubleValue = variant.getQual();
-                break;
+                return variant -> condition.test(null, variant.getQual());
             case FILTER:
-                stringValue = variant.getFilter();
-                break;
+                return variant -> condition.test(variant.getFilter(), Double.MIN_VALUE);
             case ID:
-                stringValue = variant.getId();
-                break;
+                return variant -> condition.test(variant.getId(), Double.MIN_VALUE);
             case REF:
-                stringValue = variant.getRef();
-                break;
+                return variant -> condition.test(variant.getRef(), Double.MIN_VALUE);
             case ALT:
-                stringValue = variant.getAlt();
-                break;
+                return variant -> condition.test(variant.getAlt(), Double.MIN_VALUE);
             case INFO:
-                Map<String, String> map = variant.getInfos();
-                if (map.containsKey(selectedInfo)) {
-                    stringValue = map.get(selectedInfo);
-                    if (stringValue != null) {
-                        try {
-                            // Take only the first value, supposing they are comma separated
-                            doubleValue = Double.valueOf(stringValue.split(",")[0]);
-                        } catch (NumberFormatException e) {
-                            // If not a number
-                        }
-                    }
-                }
-                break;
+                return variant -> {
+                    final String stringValue = variant.getInfoValue(ordinal);
+                    return condition.test(stringValue, toNumber(stringValue));
+                };
+        }
+        return variant -> true;
+    }
+
+    /**
+     * Creates the condition for the connector. Numbers are only taken into account when they are
+     * greater than Double.MIN_VALUE.
+     */
+    private Condition compileCondition() {
+        final boolean pass = strict;
+        final String text = value == null ? "" : value;
+        Double number;
+        try {
+            number = Double.valueOf(text);
+        } catch (NumberFormatException e) {
+            // If user did not input a number, numeric filters are passed
+            number = null;
         }
+        final Double operand = number;
         switch (connector) {
             case CONTAINS:
-                if (stringValue != null) {
-                    return stringValue.contains(value);
-                }
-                break;
+                return (stringValue, doubleValue) -> stringValue != null
+                        ? stringValue.contains(text) : pass;
             case DIFFERS:
-                if (stringValue != null) {
-                    return !value.equals(stringValue);
-                }
-                break;
+                return (stringValue, doubleValue) -> stringValue != null
+                        ? !text.equals(stringValue) : pass;
             case EQUALS:
-                if (doubleValue > Double.MIN_VALUE) {
-                    try {
-                        return Double.valueOf(value) == doubleValue;
-                    } catch (NumberFormatException e) {
-                        return true;
+                return (stringValue, doubleValue) -> {
+                    if (doubleValue > Double.MIN_VALUE) {
+                        return operand == null || operand == doubleValue;
                     }
-                } else if (stringValue != null) {
-                    return stringValue.equals(value);
-                }
-                break;
+                    return stringValue != null ? stringValue.equals(text) : pass;
+                };
             case GREATER:
-                if (doubleValue > Double.MIN_VALUE) {
-                    try {
-                        return doubleValue > Double.valueOf(value);
-                    } catch (NumberFormatException e) {
-                        // If user did not input a number, filter is passed
-                        return true;
-                    }
-                }
-                break;
+                return (stringValue, doubleValue) -> doubleValue > Double.MIN_VALUE
+                        ? operand == null || doubleValue > operand : pass;
             case LESS:
-                if (doubleValue > Double.MIN_VALUE) {
-                    try {
-                        return doubleValue < Double.valueOf(value);
-                    } catch (NumberFormatException e) {
-                        // If user did not input a number, filter is passed
-                        return true;
-                    }
-                }
-                break;
+                return (stringValue, doubleValue) -> doubleValue > Double.MIN_VALUE
+                        ? operand == null || doubleValue < operand : pass;
             case MATCHES:
-                if (stringValue != null) {
-                    return stringValue.matches(value);
+                Pattern pattern;
+                try {
+                    pattern = Pattern.compile(text);
+                } catch (PatternSyntaxException e) {
+                    // A wrong expression cannot be applied
+                    pattern = null;
                 }
-                break;
-            case PRESENT:
-                return variant.getInfos().containsKey(selectedInfo);
-            case NOT_PRESENT:
-                return !variant.getInfos().containsKey(selectedInfo);
+                final Pattern regex = pattern;
+                return (stringValue, doubleValue) -> stringValue != null
+                        ? regex == null || regex.matcher(stringValue).matches() : pass;
+        }
+        return (stringValue, doubleValue) -> pass;
+    }
+
+    /**
+     * Takes the first value, supposing they are comma separated, as a number.
+     *
+     * @param value the INFO value
+     * @return the number or Double.MIN_VALUE if it is not a number
+     */
+    private static double toNumber(String value) {
+        if (value == null || value.isEmpty()) {
+            return Double.MIN_VALUE;
+        }
+        // Avoid exceptions for values that clearly are not numbers
+        final char first = value.charAt(0);
+        if (first != '-' && first != '+' && first != '.' && (first < '0' || first > '9')) {
+            return Double.MIN_VALUE;
+        }
+        int end = value.indexOf(',');
+        if (end == -1) {
+            end = value.length();
+        }
+        try {
+            return NumberParser.parseDouble(value, 0, end);
+        } catch (NumberFormatException e) {
+            return Double.MIN_VALUE;
+        }
+    }
+
+    /**
+     * A connector and a value, applied to the value of the field.
+     */
+    private interface Condition {
+
+        boolean test(String stringValue, double doubleValue);
+    }
+
+    /**
+     * A compiled predicate and the state of the filter when it was compiled.
+     */
+    private static class Compiled {
+
+        final int version;
+        final InfoDictionary dictionary;
+        final Predicate<Variant> predicate;
+
+        Compiled(int version, InfoDictionary dictionary, Predicate<Variant> predicate) {
+            this.version = version;
+            this.dictionary = dictionary;
+            this.predicate = predicate;
         }
-        return strict;
     }
 
     /**
@@ -34,6 +34,7 @@ import java.util.TreeMap;
 public class VCFHeader {
 
     private List<Map<String, String>> infos = new ArrayList<>();
+    private final InfoDictionary dictionary = new InfoDictionary();
 
     /**
      * Creates a new VCFHeader using the info of the vcfFile.
@@ -48,7 +49,11 @@ public class VCFHeader {
                     break;
                 }
                 if (line.startsWith("##INFO=<")) {
-                    infos.add(parseInfo(line));
+                    final Map<String, String> info = parseInfo(line);
+                    infos.add(info);
+                    if (info.containsKey("ID")) {
+                        dictionary.add(info.get("ID"));
+                    }
                 }
             }
         } catch (IOException ex) {
@@ -121,4 +126,14 @@ public class VCFHeader {
         return infos;
     }
 
+    /**
+     * Gets the dictionary of INFO keys of this file. It is initialized with the IDs of the ##INFO
+     * lines, and keys not declared in the header are added as variants find them.
+     *
+     * @return the INFO keys dictionary
+     */
+    public InfoDictionary getDictionary() {
+        return dictionary;
+    }
+
 }
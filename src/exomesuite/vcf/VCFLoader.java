@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.vcf;
+
+import java.io.File;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
+import javafx.concurrent.Task;
+
+/**
+ * Loads a VCF file into a VariantStore in background. As SystemTasks, it reports its progress
+ * through {@code progressProperty()} and {@code messageProperty()}. Besides, the number of rows
+ * already loaded is published in batches, in the JavaFX thread, through
+ * {@code loadedRowsProperty()}, so the table can show the first variants while the rest of the
+ * file is loading.
+ * <p>
+ * {@code VCFLoader loader = new VCFLoader(file, header.getDictionary());}
+ * <p>
+ * {@code new Thread(loader).start();}
+ *
+ * @author Pascual Lorente Arencibia (pasculorente@gmail.com)
+ */
+public class VCFLoader extends Task<VariantStore> {
+
+    private final File file;
+    private final InfoDictionary dictionary;
+    private final ReadOnlyIntegerWrapper loadedRows = new ReadOnlyIntegerWrapper(this, "loadedRows");
+    /**
+     * Rows loaded and not yet published to the JavaFX thread, -1 if there is no update pending.
+     */
+    private final AtomicInteger pendingRows = new AtomicInteger(-1);
+    private volatile VariantStore store;
+
+    /**
+     * Creates a new loader for the file.
+     *
+     * @param file the VCF file
+     * @param dictionary the INFO keys dictionary of the file, usually from its VCFHeader
+     */
+    public VCFLoader(File file, InfoDictionary dictionary) {
+        this.file = file;
+        this.dictionary = dictionary;
+        updateTitle(file.getName());
+    }
+
+    @Override
+    protected VariantStore call() throws Exception {
+        return new VariantStore(file, dictionary, this::loaded);
+    }
+
+    private void loaded(VariantStore store, int rows, long bytes, long totalBytes) {
+        if (isCancelled()) {
+            // The store closes the file
+            throw new CancellationException();
+        }
+        this.store = store;
+        updateProgress(bytes, totalBytes);
+        updateMessage(String.format("%,d (%.2f%%)", rows, bytes * 100.0 / totalBytes));
+        // Like Task does with progress, only one update is queued in the JavaFX thread at a time
+        if (pendingRows.getAndSet(rows) == -1) {
+            Platform.runLater(() -> loadedRows.set(pendingRows.getAndSet(-1)));
+        }
+    }
+
+    /**
+     * Gets the store being loaded, which can already be used to read the first
+     * {@code getLoadedRows()} rows. When the task succeeds, it is also its value.
+     *
+     * @return the store being loaded, or null if no row has been loaded yet
+     */
+    public VariantStore getStore() {
+        return store;
+    }
+
+    /**
+     * Gets the number of rows loaded, updated in the JavaFX thread.
+     *
+     * @return the number of rows loaded
+     */
+    public int getLoadedRows() {
+        return loadedRows.get();
+    }
+
+    /**
+     * Number of rows loaded, updated in batches in the JavaFX thread.
+     *
+     * @return the loaded rows property
+     */
+    public ReadOnlyIntegerProperty loadedRowsProperty() {
+        return loadedRows.getReadOnlyProperty();
+    }
+
+}
@@ -21,26 +21,38 @@ import exomesuite.MainViewController;
 import exomesuite.graphic.IndexCell;
 import exomesuite.graphic.NaturalCell;
 import exomesuite.graphic.SizableImage;
-import exomesuite.lfs.LFS;
+import exomesuite.lfs.LfsAnnotator;
+import exomesuite.utils.ExonDatabase;
 import exomesuite.utils.FileManager;
 import exomesuite.utils.OS;
 import exomesuite.vep.EnsemblRest;
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javafx.beans.property.SimpleStringProperty;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableListBase;
+import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -81,6 +93,8 @@ public class VCFReader extends SplitPane {
     @FXML
     private Button lfs;
     @FXML
+    private Button exons;
+    @FXML
     private Button viewHeaders;
 
     /**
@@ -110,6 +124,26 @@ public class VCFReader extends SplitPane {
     private Set<String> infos = new TreeSet();
     private Set<String> headers = new LinkedHashSet();
     private VCFHeader vcfHeader;
+    /**
+     * Columnar store of the opened file.
+     */
+    private VariantStore store;
+    /**
+     * Rows accepted by each filter.
+     */
+    private final Map<VCFFilter, FilterMask> masks = new HashMap<>();
+    /**
+     * Background loader of the store, kept to cancel it if the file is loaded again.
+     */
+    private VCFLoader loader;
+    /**
+     * Evaluation of the filters in background, if running.
+     */
+    private Task<Map<VCFFilter, BitSet>> filterTask;
+    /**
+     * true while an annotation is replacing the file.
+     */
+    private boolean annotating;
 
     /**
      * Creates a new VCFTable to read the vcfFile.
@@ -147,7 +181,10 @@ public class VCFReader extends SplitPane {
                 + "->" + param.getValue().getAlt()));
         rsId.setCellValueFactory(param -> new SimpleStringProperty(param.getValue().getId()));
         filter.setCellValueFactory(param -> new SimpleStringProperty(param.getValue().getFilter()));
-        qual.setCellValueFactory(param -> new SimpleStringProperty(param.getValue().getQual() + ""));
+        qual.setCellValueFactory(param -> {
+            final double q = param.getValue().getQual();
+            return new SimpleStringProperty(Double.isNaN(q) ? "." : q + "");
+        });
         lineNumber.setCellFactory(param -> new IndexCell());
         chrom.setCellFactory(column -> new NaturalCell());
         position.setCellFactory(column -> new NaturalCell());
@@ -160,33 +197,111 @@ public class VCFReader extends SplitPane {
         addListener(variantInfo);
 //        addListener(formatBox);
         loadFile();
-//        vep.setOnAction(event -> getVEPInfo());
-//        vep.setVisible(false);
+        vep.setOnAction(event -> getVEPInfo());
         lfs.setOnAction(event -> getLfsInfo());
+        exons.setOnAction(event -> annotateExons());
         viewHeaders.setOnAction(event -> viewHeader());
 
     }
 
+    /**
+     * Loads the file in background. Variants are added to the table in batches while they are
+     * loaded, and filters are applied when the whole file is in the store.
+     */
     private void loadFile() {
         vcfHeader = new VCFHeader(vcfFile);
-        table.getItems().clear();
         totalLines.set(0);
         headers.clear();
         infos.clear();
-        try (BufferedReader in = new BufferedReader(new FileReader(vcfFile))) {
-            in.lines().forEachOrdered(line -> {
-                if (line.startsWith("#")) {
-                    addHeader(line);
-                } else {
-                    table.getItems().add(toVariant(line));
-                    totalLines.incrementAndGet();
-                }
-            });
-        } catch (Exception ex) {
-            Logger.getLogger(VCFReader.class.getName()).log(Level.SEVERE, null, ex);
+        if (filterTask != null) {
+            filterTask.cancel();
+            filterTask = null;
+            setFiltering(false);
+        }
+        closeStore();
+        masks.clear();
+        if (loader != null) {
+            loader.cancel();
+        }
+        final VCFLoader current = new VCFLoader(vcfFile, vcfHeader.getDictionary());
+        final LoadingList items = new LoadingList();
+        loader = current;
+        table.setItems(items);
+        setLoading(true);
+        infoLabel.textProperty().bind(current.messageProperty());
+        current.loadedRowsProperty().addListener((obs, old, rows)
+                -> items.setVariants(current.getStore().asList(null)));
+        current.setOnSucceeded(event -> {
+            if (current != loader) {
+                // The file was loaded again before this loader finished
+                closeStore(current.getValue());
+                return;
+            }
+            store = current.getValue();
+            store.getHeaders().forEach(this::addHeader);
+            totalLines.set(store.size());
+            setLoading(false);
+            filter();
+        });
+        current.setOnFailed(event -> {
+            Logger.getLogger(VCFReader.class.getName()).log(Level.SEVERE, null, current.getException());
+            if (current != loader) {
+                return;
+            }
+            table.setItems(FXCollections.observableArrayList());
+            setLoading(false);
+            lines.set(0);
+            updateInfo();
+        });
+        final Thread thread = new Thread(current);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Disables the actions that need the whole file while it is loading.
+     */
+    private void setLoading(boolean loading) {
+        if (!loading) {
+            infoLabel.textProperty().unbind();
+        }
+        addFilter.setDisable(loading);
+        setFileActionsDisabled(loading || annotating);
+    }
+
+    /**
+     * Disables the annotations and the export, that read the whole file.
+     */
+    private void setFileActionsDisabled(boolean disabled) {
+        export.setDisable(disabled);
+        vep.setDisable(disabled);
+        lfs.setDisable(disabled);
+        exons.setDisable(disabled);
+    }
+
+    /**
+     * Shows the given rows of the store in the table. Variants are only created for the rows the
+     * table is displaying.
+     *
+     * @param rows the rows of the store, or null for all of them
+     */
+    private void setRows(int[] rows) {
+        table.setItems(FXCollections.observableList(store.asList(rows)));
+    }
+
+    private void closeStore() {
+        closeStore(store);
+        store = null;
+    }
+
+    private static void closeStore(VariantStore store) {
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException ex) {
+                Logger.getLogger(VCFReader.class.getName()).log(Level.SEVERE, null, ex);
+            }
         }
-        lines.set(totalLines.get());
-        updateInfo();
     }
 
     /**
@@ -199,7 +314,7 @@ public class VCFReader extends SplitPane {
     }
 
     private Variant toVariant(String t) {
-        return new Variant(t);
+        return new Variant(t, vcfHeader.getDictionary());
     }
 
     /**
@@ -244,42 +359,97 @@ public class VCFReader extends SplitPane {
     }
 
     /**
-     * Runs across the variants filtering them.
+     * Runs across the variants filtering them, in background. Each filter keeps the set of rows
+     * that it accepts, so only the filters that changed since the last call are evaluated again.
+     * Filters are compiled here and evaluated against the columns of the store in a Task, while
+     * the filters are disabled.
      */
     private void filter() {
-        table.getItems().clear();
-        lines.set(0);
-        try (BufferedReader in = new BufferedReader(new FileReader(vcfFile))) {
-            in.lines().forEachOrdered(line -> {
-                if (!line.startsWith("#")) {
-                    final Variant v = new Variant(line);
-                    if (filter(v)) {
-                        table.getItems().add(v);
-                        lines.incrementAndGet();
-                    }
+        if (store == null) {
+            return;
+        }
+        if (filterTask != null) {
+            filterTask.cancel();
+        }
+        final VariantStore current = store;
+        final List<VCFFilter> enabled = new ArrayList<>();
+        final Set<VCFFilter> all = new HashSet<>();
+        // Filters to evaluate again, with the version they are compiled from
+        final Map<VCFFilter, IntPredicate> predicates = new HashMap<>();
+        final Map<VCFFilter, Integer> versions = new HashMap<>();
+        for (Node pane : filtersPane.getChildren()) {
+            final VCFFilter f = ((VCFFilterPane) pane).getFilter();
+            all.add(f);
+            if (f.isEnabled()) {
+                enabled.add(f);
+                final FilterMask mask = masks.get(f);
+                if (mask == null || mask.version != f.getVersion()) {
+                    predicates.put(f, f.getRowPredicate(current));
+                    versions.put(f, f.getVersion());
                 }
-            });
-        } catch (Exception ex) {
-            Logger.getLogger(VCFReader.class.getName()).log(Level.SEVERE, null, ex);
+            }
         }
-        updateInfo();
+        // Forget deleted filters
+        masks.keySet().retainAll(all);
+        final Task<Map<VCFFilter, BitSet>> task = new Task<Map<VCFFilter, BitSet>>() {
+
+            @Override
+            protected Map<VCFFilter, BitSet> call() throws Exception {
+                final Map<VCFFilter, BitSet> computed = new HashMap<>();
+                final int size = current.size();
+                for (Map.Entry<VCFFilter, IntPredicate> entry : predicates.entrySet()) {
+                    final IntPredicate predicate = entry.getValue();
+                    final BitSet rows = new BitSet(size);
+                    for (int row = 0; row < size; row++) {
+                        if (predicate.test(row)) {
+                            rows.set(row);
+                        }
+                        if ((row & 0xffff) == 0 && isCancelled()) {
+                            return computed;
+                        }
+                    }
+                    computed.put(entry.getKey(), rows);
+                }
+                return computed;
+            }
+        };
+        task.setOnSucceeded(event -> {
+            filterTask = null;
+            setFiltering(false);
+            if (current != store) {
+                return;
+            }
+            task.getValue().forEach((f, rows)
+                    -> masks.put(f, new FilterMask(versions.get(f), rows)));
+            final BitSet passed = new BitSet(current.size());
+            passed.set(0, current.size());
+            enabled.forEach(f -> passed.and(masks.get(f).rows));
+            lines.set(passed.cardinality());
+            setRows(lines.get() == current.size() ? null : passed.stream().toArray());
+            updateInfo();
+        });
+        task.setOnFailed(event -> {
+            filterTask = null;
+            setFiltering(false);
+            if (task.getException() instanceof Exception) {
+                MainViewController.printException((Exception) task.getException());
+            } else {
+                Logger.getLogger(VCFReader.class.getName()).log(Level.SEVERE, null, task.getException());
+            }
+        });
+        filterTask = task;
+        setFiltering(true);
+        final Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        thread.start();
     }
 
     /**
-     *
-     * @param variant
-     * @return true if variant pass all filters.
+     * Disables the filters while they are being evaluated.
      */
-    private boolean filter(Variant variant) {
-        boolean pass = true;
-        for (Node pane : filtersPane.getChildren()) {
-            VCFFilter f = ((VCFFilterPane) pane).getFilter();
-            if (!f.filter(variant)) {
-                pass = false;
-                break;
-            }
-        }
-        return pass;
+    private void setFiltering(boolean filtering) {
+        filtersPane.setDisable(filtering);
+        addFilter.setDisable(filtering);
     }
 
     private void updateInfo() {
@@ -316,41 +486,142 @@ public class VCFReader extends SplitPane {
     }
 
     private void exportTo(File output) {
-        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(output)))) {
-            headers.forEach(writer::println);
-            table.getItems().forEach(writer::println);
+        exportTo(output, table.getItems(), null);
+    }
+
+    /**
+     * Writes the headers and the variants in output. As the store is reading the VCF file, if
+     * output is the VCF file, variants are written to a temporary file that replaces the VCF file
+     * at the end, and the file is loaded again.
+     *
+     * @param output the output file
+     * @param variants the variants to write
+     * @param action something to do with each variant before writing it, or null
+     */
+    private void exportTo(File output, List<Variant> variants, Consumer<Variant> action) {
+        final boolean replace = output.getAbsoluteFile().equals(vcfFile.getAbsoluteFile());
+        try {
+            final File target = replace
+                    ? File.createTempFile(vcfFile.getName(), ".tmp", vcfFile.getAbsoluteFile().getParentFile())
+                    : output;
+            try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(target)))) {
+                headers.forEach(writer::println);
+                variants.forEach(variant -> {
+                    if (action != null) {
+                        action.accept(variant);
+                    }
+                    writer.println(variant);
+                });
+            }
+            if (replace) {
+                Files.move(target.toPath(), vcfFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                loadFile();
+            }
         } catch (IOException ex) {
             MainViewController.printException(ex);
         }
     }
 
+    /**
+     * Annotates all the variants with VEP in background, overwriting the file, which is loaded
+     * again at the end.
+     */
     private void getVEPInfo() {
-        EnsemblRest.getVepInformation(table.getItems());
-
+        if (store == null) {
+            return;
+        }
+        annotateInBackground(EnsemblRest::getVepInformation, annotated
+                -> MainViewController.printMessage(
+                        String.format("%,d variants with VEP results", annotated), "success"));
     }
 
+    /**
+     * Annotates the LFS of all the variants in background, overwriting the file, which is loaded
+     * again at the end.
+     */
     private void getLfsInfo() {
-        injectLFSHeasder();
-        // Store filters status and deactivate all of them
-        boolean[] enabled = new boolean[filtersPane.getChildren().size()];
-        for (int i = 0; i < enabled.length; i++) {
-            VCFFilterPane pane = (VCFFilterPane) filtersPane.getChildren().get(i);
-            enabled[i] = pane.getFilter().isEnabled();
-            pane.getFilter().setEnabled(false);
+        if (store == null) {
+            return;
         }
-        // Load all variants
-        filter();
-        // Apply LFS.
-        table.getItems().parallelStream().forEach(LFS::addLFS);
-        // Export to file
-        exportTo(vcfFile);
-        // Restore filters
-        for (int i = 0; i < enabled.length; i++) {
-            VCFFilterPane pane = (VCFFilterPane) filtersPane.getChildren().get(i);
-            pane.getFilter().setEnabled(enabled[i]);
+        final LfsAnnotator annotator = new LfsAnnotator();
+        annotator.setThreads(Runtime.getRuntime().availableProcessors());
+        annotateInBackground(annotator::annotate, annotated -> {
+            MainViewController.printMessage(String.format("%,d variants with LFS", annotated),
+                    "success");
+            lfs.setVisible(false);
+        });
+    }
+
+    /**
+     * Annotates the exons of all the variants in background, overwriting the file, which is
+     * loaded again at the end.
+     */
+    private void annotateExons() {
+        final String ensembl = OS.getProperties().getProperty("ensembl");
+        if (ensembl == null || !new File(ensembl).exists()) {
+            MainViewController.printMessage("Select the Ensembl exons database first", "warning");
+            return;
         }
-        filter();
-        lfs.setVisible(false);
+        annotateInBackground((input, output) -> {
+            final ExonAnnotator annotator = new ExonAnnotator(ExonDatabase.get(new File(ensembl)));
+            annotator.setThreads(Runtime.getRuntime().availableProcessors());
+            return annotator.annotate(input, output);
+        }, annotated -> MainViewController.printMessage(
+                String.format("%,d variants in exons", annotated), "success"));
+    }
+
+    /**
+     * Streams the file through annotation into a temporary file in background, which replaces
+     * the file when it is complete. Then the file is loaded again. As every annotation replaces
+     * the file, the annotations and the export are disabled until it finishes.
+     *
+     * @param annotation the annotation from the file into the temporary file
+     * @param onSucceeded called in the JavaFX thread with the result of annotation
+     */
+    private void annotateInBackground(Annotation annotation,
+            Consumer<Long> onSucceeded) {
+        final Task<Long> task = new Task<Long>() {
+
+            @Override
+            protected Long call() throws Exception {
+                final File temp = File.createTempFile(vcfFile.getName(), ".tmp",
+                        vcfFile.getAbsoluteFile().getParentFile());
+                try {
+                    final long annotated = annotation.annotate(vcfFile, temp);
+                    Files.move(temp.toPath(), vcfFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    return annotated;
+                } finally {
+                    temp.delete();
+                }
+            }
+        };
+        task.setOnSucceeded(event -> {
+            annotating = false;
+            onSucceeded.accept(task.getValue());
+            loadFile();
+        });
+        task.setOnFailed(event -> {
+            annotating = false;
+            setFileActionsDisabled(false);
+            if (task.getException() instanceof Exception) {
+                MainViewController.printException((Exception) task.getException());
+            } else {
+                Logger.getLogger(VCFReader.class.getName()).log(Level.SEVERE, null, task.getException());
+            }
+        });
+        annotating = true;
+        setFileActionsDisabled(true);
+        final Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * An annotation of a whole VCF file into another one.
+     */
+    private interface Annotation {
+
+        long annotate(File input, File output) throws Exception;
     }
 
     private void viewHeader() {
@@ -365,27 +636,6 @@ public class VCFReader extends SplitPane {
         stage.show();
     }
 
-    /**
-     * Inserts LFS header alphabetically.
-     */
-    private void injectLFSHeasder() {
-        // Insert LFS header
-        final String lfsInfo = "##INFO=<ID=LFS,Number=1,Type=Integer,Description=\"Low frequency codon substitution\">";
-        if (!headers.contains(lfsInfo)) {
-            Set<String> copy = new LinkedHashSet();
-            boolean inserted = false;
-            for (String h : headers) {
-                if (!inserted && h.startsWith("##INFO=<") && h.compareTo(lfsInfo) > 0) {
-                    copy.add(lfsInfo);
-                }
-                copy.add(h);
-            }
-            headers = copy;
-            infos.add("LFS");
-            vcfHeader.getInfos().add(vcfHeader.parseInfo(lfsInfo));
-        }
-    }
-
     private void exportToTSV(File output) {
         final int length = infos.size() + 7;
         final String[] head = new String[length];
@@ -409,25 +659,18 @@ public class VCFReader extends SplitPane {
                 line[2] = var.getId();
                 line[3] = var.getRef();
                 line[4] = var.getAlt();
-                line[5] = String.format("%.4f", var.getQual());
+                line[5] = Double.isNaN(var.getQual()) ? "."
+                        : String.format(Locale.US, "%.4f", var.getQual());
                 line[6] = var.getFilter();
-                for (int k = 7; k < line.length; k++) {
-                    line[k] = ".";
-                }
-                var.getInfos().forEach((key, value) -> {
-                    int pos = -1;
-                    int j = 0;
-                    for (String info : infos) {
-                        if (info.equals(key)) {
-                            pos = j;
-                            break;
-                        }
-                        j++;
+                int k = 7;
+                for (String info : infos) {
+                    if (var.containsInfo(info)) {
+                        final String value = var.getInfoValue(info);
+                        line[k++] = (value == null) ? "yes" : value;
+                    } else {
+                        line[k++] = ".";
                     }
-                    if (pos != -1) {
-                        line[pos + 7] = (value == null) ? "yes" : value;
-                    }
-                });
+                }
                 writer.println(OS.asString("\t", line));
             });
         } catch (IOException ex) {
@@ -435,4 +678,47 @@ public class VCFReader extends SplitPane {
         }
     }
 
+    /**
+     * Items of the table while the file is loading. Each batch of loaded variants is notified as
+     * an addition at the end, so the table keeps its scroll and selection.
+     */
+    private static class LoadingList extends ObservableListBase<Variant> {
+
+        private List<Variant> variants = Collections.emptyList();
+
+        void setVariants(List<Variant> loaded) {
+            final int from = variants.size();
+            variants = loaded;
+            if (loaded.size() > from) {
+                beginChange();
+                nextAdd(from, loaded.size());
+                endChange();
+            }
+        }
+
+        @Override
+        public Variant get(int index) {
+            return variants.get(index);
+        }
+
+        @Override
+        public int size() {
+            return variants.size();
+        }
+    }
+
+    /**
+     * The rows that passed a filter and the version of the filter when it was evaluated.
+     */
+    private static class FilterMask {
+
+        final int version;
+        final BitSet rows;
+
+        FilterMask(int version, BitSet rows) {
+            this.version = version;
+            this.rows = rows;
+        }
+    }
+
 }
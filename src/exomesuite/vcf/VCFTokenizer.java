@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.vcf;
+
+import exomesuite.utils.NumberParser;
+
+/**
+ * Single pass, index based tokenizer for VCF lines. Instead of splitting the line, it stores the
+ * position of the separators, so any field can be read later from the original CharSequence
+ * without creating intermediate Strings.
+ *
+ * @author Pascual Lorente Arencibia (pasculorente@gmail.com)
+ */
+final class VCFTokenizer {
+
+    /**
+     * Number of fixed columns in a VCF line (CHROM to FORMAT).
+     */
+    static final int FIXED_FIELDS = 9;
+
+    private VCFTokenizer() {
+    }
+
+    /**
+     * Stores in ends the position of the tab that closes each of the first ends.length fields. If
+     * the line has less fields, the end of the line is stored for the rest of them.
+     *
+     * @param line the VCF line
+     * @param ends where to store the position of the tabs
+     * @return the number of fields found, at most ends.length
+     */
+    static int tokenize(CharSequence line, int[] ends) {
+        final int length = line.length();
+        int field = 0;
+        for (int i = 0; i < length && field < ends.length; i++) {
+            if (line.charAt(i) == '\t') {
+                ends[field++] = i;
+            }
+        }
+        final int found = field < ends.length ? field + 1 : field;
+        while (field < ends.length) {
+            ends[field++] = length;
+        }
+        return found;
+    }
+
+    /**
+     * Parses an integer in [from, to) without creating a String.
+     *
+     * @param s the sequence
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @return the integer value
+     * @throws NumberFormatException if the sequence is not an integer
+     */
+    static int parseInt(CharSequence s, int from, int to) {
+        if (from >= to) {
+            throw new NumberFormatException("Empty number");
+        }
+        boolean negative = false;
+        int i = from;
+        if (s.charAt(i) == '-' || s.charAt(i) == '+') {
+            negative = s.charAt(i) == '-';
+            if (++i == to) {
+                throw new NumberFormatException(s.subSequence(from, to).toString());
+            }
+        }
+        int value = 0;
+        for (; i < to; i++) {
+            final int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException(s.subSequence(from, to).toString());
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses the QUAL field. The missing value (.) is returned as NaN.
+     *
+     * @param s the sequence
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @return the quality or NaN if missing
+     * @throws NumberFormatException if the sequence is not a number nor a dot
+     */
+    static double parseQual(CharSequence s, int from, int to) {
+        if (to - from == 1 && s.charAt(from) == '.') {
+            return Double.NaN;
+        }
+        return NumberParser.parseDouble(s, from, to);
+    }
+
+}
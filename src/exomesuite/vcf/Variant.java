@@ -16,57 +16,105 @@
  */
 package exomesuite.vcf;
 
-import exomesuite.utils.OS;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
 
 /**
- * Stores a variant.
+ * Stores a variant. The line is tokenized only once, storing the position of the tabs, and every
+ * field is taken from the original line when it is requested. The INFO map is not created until
+ * someone asks for it.
  *
  * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
  */
 public class Variant {
 
-    private final String chrom, id, ref, alt, filter, info, format;
+    private static final int CHROM = 0;
+    private static final int POS = 1;
+    private static final int ID = 2;
+    private static final int REF = 3;
+    private static final int ALT = 4;
+    private static final int QUAL = 5;
+    private static final int FILTER = 6;
+    private static final int INFO = 7;
+    private static final int FORMAT = 8;
+
+    /**
+     * The original VCF line.
+     */
+    private final String line;
+    /**
+     * Position of the tab that ends each of the fixed fields (CHROM to FORMAT).
+     */
+    private final int[] ends = new int[VCFTokenizer.FIXED_FIELDS];
     private final int pos;
     private final double qual;
-    private final String[] samples;
-    private final Map<String, String> infos = new TreeMap();
+    /**
+     * Lazy INFO map, null until getInfos() is called.
+     */
+    private Map<String, String> infos;
+    /**
+     * The INFO keys of the file.
+     */
+    private InfoDictionary dictionary;
+    /**
+     * Lazy INFO index, null until an INFO value is requested. For each INFO entry it contains 3
+     * ints: ordinal of the key, start of the value (-1 for flags) and end of the value.
+     */
+    private int[] infoIndex;
+    /**
+     * If true, the INFO map cannot be modified.
+     */
+    private final boolean readOnly;
 
     /**
-     * Parses the VCF line and creates a Variant.
+     * Parses the VCF line and creates a Variant with its own INFO dictionary.
      *
      * @param line the line to parse
      */
     public Variant(String line) {
-        final String[] v = line.split("\t");
-        chrom = v[0];
-        pos = Integer.valueOf(v[1]);
-        id = v[2];
-        ref = v[3];
-        alt = v[4];
-        qual = Double.valueOf(v[5]);
-        filter = v[6];
-        info = v[7];
-        Arrays.stream(info.split(";")).forEach(i -> {
-            String[] pair = i.split("=");
-            String key = pair[0];
-            String value = pair.length > 1 ? pair[1] : null;
-            infos.put(key, value);
-        });
-        if (v.length > 8) {
-            format = v[8];
-            final int nSamples = v.length - 9;
-            samples = new String[nSamples];
-            for (int i = 0; i < nSamples; i++) {
-                samples[i] = v[9 + i];
-            }
-        } else {
-            format = null;
-            samples = null;
-        }
+        this(line, null);
+    }
+
+    /**
+     * Parses the VCF line and creates a Variant. INFO keys will be taken from the dictionary, so
+     * all the variants of the same file should share it.
+     *
+     * @param line the line to parse
+     * @param dictionary the INFO keys dictionary of the file
+     */
+    public Variant(String line, InfoDictionary dictionary) {
+        this(line, dictionary, false);
+    }
+
+    /**
+     * Parses the VCF line and creates a Variant. If readOnly, the map returned by getInfos()
+     * cannot be modified.
+     *
+     * @param line the line to parse
+     * @param dictionary the INFO keys dictionary of the file
+     * @param readOnly true to forbid changes on the INFO map
+     */
+    Variant(String line, InfoDictionary dictionary, boolean readOnly) {
+        this.line = line;
+        this.dictionary = dictionary;
+        this.readOnly = readOnly;
+        VCFTokenizer.tokenize(line, ends);
+        pos = VCFTokenizer.parseInt(line, start(POS), ends[POS]);
+        qual = VCFTokenizer.parseQual(line, start(QUAL), ends[QUAL]);
+    }
+
+    /**
+     * Index of the first char of the field.
+     */
+    private int start(int field) {
+        return field == 0 ? 0 : Math.min(ends[field - 1] + 1, line.length());
+    }
+
+    private String field(int field) {
+        return line.substring(start(field), ends[field]);
     }
 
     /**
@@ -75,7 +123,7 @@ public class Variant {
      * @return the chromosome of the variant
      */
     public String getChrom() {
-        return chrom;
+        return field(CHROM);
     }
 
     /**
@@ -84,7 +132,7 @@ public class Variant {
      * @return the ID of the variant
      */
     public String getId() {
-        return id;
+        return field(ID);
     }
 
     /**
@@ -93,7 +141,7 @@ public class Variant {
      * @return the ref value
      */
     public String getRef() {
-        return ref;
+        return field(REF);
     }
 
     /**
@@ -102,7 +150,7 @@ public class Variant {
      * @return the alt value
      */
     public String getAlt() {
-        return alt;
+        return field(ALT);
     }
 
     /**
@@ -111,7 +159,7 @@ public class Variant {
      * @return the filter value
      */
     public String getFilter() {
-        return filter;
+        return field(FILTER);
     }
 
     /**
@@ -120,7 +168,7 @@ public class Variant {
      * @return the info value
      */
     public String getInfo() {
-        return info;
+        return field(INFO);
     }
 
     /**
@@ -129,7 +177,11 @@ public class Variant {
      * @return the format value
      */
     public String getFormat() {
-        return format;
+        return hasFormat() ? field(FORMAT) : null;
+    }
+
+    private boolean hasFormat() {
+        return ends[INFO] < line.length();
     }
 
     /**
@@ -144,7 +196,7 @@ public class Variant {
     /**
      * Gets the QUAL of the variant.
      *
-     * @return the quality
+     * @return the quality, NaN if missing (.)
      */
     public double getQual() {
         return qual;
@@ -159,32 +211,198 @@ public class Variant {
      * file.
      */
     public String[] getSamples() {
+        if (!hasFormat()) {
+            return null;
+        }
+        int nSamples = 0;
+        for (int i = ends[FORMAT]; i < line.length(); i++) {
+            if (line.charAt(i) == '\t') {
+                nSamples++;
+            }
+        }
+        final String[] samples = new String[nSamples];
+        int from = ends[FORMAT] + 1;
+        for (int i = 0; i < nSamples; i++) {
+            int to = line.indexOf('\t', from);
+            if (to == -1) {
+                to = line.length();
+            }
+            samples[i] = line.substring(from, to);
+            from = to + 1;
+        }
         return samples;
     }
 
+    /**
+     * Gets the INFO as a map. The map is created the first time this method is called, so try to
+     * avoid it if you only need to read some values, use {@link #getInfoValue(String)} instead.
+     * Changes on the map will be reflected by the variant, unless the variant is read only, as the
+     * variants of VariantStore.asList(), whose map cannot be modified.
+     *
+     * @return a map with the INFO fields, flags have null value
+     */
     public Map<String, String> getInfos() {
+        if (infos == null) {
+            final int[] index = getInfoIndex();
+            final Map<String, String> map = new TreeMap<>();
+            for (int i = 0; i < index.length; i += 3) {
+                map.put(dictionary.getKey(index[i]), value(index, i));
+            }
+            infos = readOnly ? Collections.unmodifiableMap(map) : map;
+        }
         return infos;
     }
 
+    /**
+     * Gets the value of an INFO field without creating the whole INFO map.
+     *
+     * @param key the INFO key
+     * @return the value, or null if the variant does not have the key or if the key is a flag
+     */
+    public String getInfoValue(String key) {
+        if (infos != null) {
+            return infos.get(key);
+        }
+        getInfoIndex();
+        return getInfoValue(dictionary.getOrdinal(key));
+    }
+
+    /**
+     * Checks if the variant contains the INFO key, without creating the whole INFO map.
+     *
+     * @param key the INFO key
+     * @return true if the INFO field contains the key, even if it is a flag
+     */
+    public boolean containsInfo(String key) {
+        if (infos != null) {
+            return infos.containsKey(key);
+        }
+        getInfoIndex();
+        return containsInfo(dictionary.getOrdinal(key));
+    }
+
+    /**
+     * Gets the value of the INFO key with the given ordinal in the file dictionary.
+     *
+     * @param ordinal the ordinal of the key
+     * @return the value, or null if not present or flag
+     */
+    String getInfoValue(int ordinal) {
+        if (infos != null) {
+            return ordinal < 0 ? null : infos.get(dictionary.getKey(ordinal));
+        }
+        final int[] index = getInfoIndex();
+        for (int i = 0; i < index.length; i += 3) {
+            if (index[i] == ordinal) {
+                return value(index, i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if the variant contains the INFO key with the given ordinal in the file dictionary.
+     *
+     * @param ordinal the ordinal of the key
+     * @return true if present
+     */
+    boolean containsInfo(int ordinal) {
+        if (infos != null) {
+            return ordinal >= 0 && infos.containsKey(dictionary.getKey(ordinal));
+        }
+        final int[] index = getInfoIndex();
+        for (int i = 0; i < index.length; i += 3) {
+            if (index[i] == ordinal) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String value(int[] index, int i) {
+        return index[i + 1] == -1 ? null : line.substring(index[i + 1], index[i + 2]);
+    }
+
+    /**
+     * Gets the dictionary used for the INFO keys of this variant.
+     *
+     * @return the INFO dictionary
+     */
+    InfoDictionary getDictionary() {
+        if (dictionary == null) {
+            dictionary = new InfoDictionary();
+        }
+        return dictionary;
+    }
+
+    /**
+     * Creates the INFO index the first time is requested.
+     *
+     * @return the INFO index
+     */
+    private int[] getInfoIndex() {
+        if (infoIndex == null) {
+            final InfoDictionary dictionary = getDictionary();
+            final int to = ends[INFO];
+            final int from = start(INFO);
+            // Count entries to allocate only one array
+            int entries = 0;
+            for (int i = from; i < to; i++) {
+                if (line.charAt(i) == ';') {
+                    entries++;
+                }
+            }
+            int[] index = new int[3 * (entries + 1)];
+            int size = 0;
+            int pos = from;
+            while (pos < to) {
+                int end = line.indexOf(';', pos);
+                if (end == -1 || end > to) {
+                    end = to;
+                }
+                if (end > pos && !(end - pos == 1 && line.charAt(pos) == '.')) {
+                    int equals = line.indexOf('=', pos);
+                    if (equals == -1 || equals > end) {
+                        equals = end;
+                    }
+                    index[size] = dictionary.add(line, pos, equals);
+                    index[size + 1] = equals == end ? -1 : equals + 1;
+                    index[size + 2] = end;
+                    size += 3;
+                }
+                pos = end + 1;
+            }
+            infoIndex = size == index.length ? index : Arrays.copyOf(index, size);
+        }
+        return infoIndex;
+    }
+
     @Override
     public String toString() {
         String formats = "";
-        if (format != null) {
-            formats = "\t" + format + OS.asString("\t", samples);
+        if (hasFormat()) {
+            formats = line.substring(ends[INFO]);
         }
-        String inf = "";
-        for (Map.Entry<String, String> entry : infos.entrySet()) {
-            String key = entry.getKey();
-            String value = entry.getValue();
-            if (value == null) {
-                inf += key + ";";
-            } else {
-                inf += key + "=" + value + ";";
+        final String inf;
+        if (infos == null) {
+            // Nobody touched the INFO, so it is still the original one
+            inf = getInfo();
+        } else {
+            final StringBuilder builder = new StringBuilder();
+            for (Map.Entry<String, String> entry : infos.entrySet()) {
+                if (builder.length() > 0) {
+                    builder.append(";");
+                }
+                builder.append(entry.getKey());
+                if (entry.getValue() != null) {
+                    builder.append("=").append(entry.getValue());
+                }
             }
+            inf = builder.length() > 0 ? builder.toString() : ".";
         }
-        // Remove last comma
-        inf = inf.substring(0, inf.length() - 2);
-        return String.format(Locale.US, "%s\t%d\t%s\t%s\t%s\t%.4f\t%s\t%s%s", chrom, pos, id, ref, alt, qual, filter, inf, formats);
+        final String q = Double.isNaN(qual) ? "." : String.format(Locale.US, "%.4f", qual);
+        return String.format(Locale.US, "%s\t%d\t%s\t%s\t%s\t%s\t%s\t%s%s", getChrom(), pos,
+                getId(), getRef(), getAlt(), q, getFilter(), inf, formats);
     }
 
 }
@@ -16,20 +16,11 @@
  */
 package exomesuite.vcf;
 
-import exomesuite.MainViewController;
+import exomesuite.utils.Ensembl;
+import exomesuite.utils.ExonDatabase;
 import exomesuite.utils.OS;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 import javafx.beans.property.SimpleStringProperty;
-import javafx.concurrent.Task;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
 
@@ -44,8 +35,10 @@ public class VariantExons extends TableView<String[]> implements VariantListener
      * Creates a new VariantExons.
      */
     public VariantExons() {
-        File exons = new File(OS.getProperties().getProperty("ensembl"));
-        Ensembl.initialize(exons);
+        final String exons = OS.getProperties().getProperty("ensembl");
+        if (exons != null) {
+            Ensembl.setFile(new File(exons));
+        }
         initialize();
     }
 
@@ -84,136 +77,17 @@ public class VariantExons extends TableView<String[]> implements VariantListener
         if (variant == null) {
             return;
         }
-        if (Ensembl.chromosomes.containsKey(variant.getChrom())) {
-            List<Exon> list = new ArrayList<>(Ensembl.chromosomes.get(variant.getChrom()));
-            for (Exon e : list) {
-                if (e.start > variant.getPos()) {
-                    break;
-                } else if (e.start <= variant.getPos() && e.end >= variant.getPos()) {
-                    getItems().add(e.line);
-                }
-            }
+        final ExonDatabase database = Ensembl.getDatabase();
+        final int chromosome = database == null ? -1 : database.indexOf(variant.getChrom());
+        if (chromosome != -1) {
+            database.forEachOverlapping(chromosome, variant.getPos(), variant.getPos(),
+                    row -> getItems().add(database.getRow(row)));
         } else {
             final String[] loading = {"loading...", "", "", "loading...", "loading...", "", "loading...",
                 "loading...", "loading...", ""};
             final String[] empty = {"no data", "", "", "no data", "no data", "", "no data",
                 "no data", "no data", ""};
-            getItems().setAll(Ensembl.ready ? empty : loading);
-        }
-    }
-
-    /**
-     * Class that loads the Ensembl exons.
-     */
-    private static class Ensembl {
-
-        static File file;
-        static boolean ready = false;
-        // Chr, list of exons
-        static Map<String, List<Exon>> chromosomes;
-
-        static void initialize(File file) {
-            if (chromosomes != null) {
-                return;
-            }
-            Task task;
-            task = new Task() {
-
-                @Override
-                protected Object call() throws Exception {
-                    System.out.println("Reading exons");
-                    Ensembl.chromosomes = new TreeMap<>();
-                    Ensembl.file = file;
-                    try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-                        // Skip header
-                        br.readLine();
-                        br.lines().forEach(line -> {
-                            // Create the Exon
-                            String[] row = line.split("\t");
-                            String chr = row[0];
-                            int start = Integer.valueOf(row[1]);
-                            int end = Integer.valueOf(row[2]);
-                            Exon exon = new Exon(chr, start, end, row);
-                            // Take the exons list of the chromosome
-                            List<Exon> exons = chromosomes.get(chr);
-                            // If list does not exist, create it and add the only exon
-                            if (exons == null) {
-                                exons = new ArrayList<>();
-                                exons.add(exon);
-                                chromosomes.put(chr, exons);
-                            } else {
-                                // Try to insert in a previous position
-                                boolean inserted = false;
-                                for (int i = 0; i < exons.size(); i++) {
-                                    // If there is an exons with a higher start, insert before
-                                    if (exons.get(i).start > exon.start) {
-                                        exons.add(i, exon);
-                                        inserted = true;
-                                        break;
-                                    } else if (exons.get(i).start == exon.start) {
-                                        if (exons.get(i).end > exon.end) {
-                                            exons.add(i, exon);
-                                            inserted = true;
-                                            break;
-                                        }
-                                    }
-                                }
-                                // Add to the end of the list
-                                if (!inserted) {
-                                    exons.add(exon);
-                                }
-                            }
-                        });
-                        System.out.println("Done");
-                    } catch (Exception e) {
-                        MainViewController.printException(e);
-//                        Dialogs.create().printException(e);
-                    }
-                    return null;
-                }
-
-            };
-            task.setOnSucceeded(e -> {
-                ready = true;
-//                print();
-            });
-            new Thread(task).start();
+            getItems().setAll(Ensembl.isLoading() ? loading : empty);
         }
-
-        static void print() {
-            File exit = new File("/home/unidad03/exons.txt");
-            exit.delete();
-            chromosomes.entrySet().stream().forEach(chromosome -> {
-//                String chr = chromosome.getKey();
-                chromosome.getValue().stream().forEach(exon -> {
-                    try (BufferedWriter out = new BufferedWriter(new FileWriter(exit, true))) {
-                        out.write(Arrays.toString(exon.line));
-                        out.newLine();
-                    } catch (Exception e) {
-                        MainViewController.printException(e);
-//                        Dialogs.create().printException(e);
-                    }
-                });
-            });
-        }
-    }
-
-    /**
-     * Keeps info about an exon line.
-     */
-    private static class Exon {
-
-        String chr;
-        int start;
-        int end;
-        String[] line;
-
-        public Exon(String chr, int start, int end, String[] line) {
-            this.chr = chr;
-            this.start = start;
-            this.end = end;
-            this.line = line;
-        }
-
     }
 }
@@ -0,0 +1,525 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.vcf;
+
+import exomesuite.utils.ByteSequence;
+import exomesuite.utils.LineIndex;
+import exomesuite.utils.NumberParser;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Columnar store of the variants of a VCF file. The file is memory-mapped and, for each variant,
+ * only its location in the file and the most used fields are kept, in off-heap buffers: CHROM and
+ * FILTER as dictionary codes, POS as int and QUAL as double. Numeric INFO columns are created on
+ * demand. The filters are evaluated against these columns, without parsing the lines again. Variant objects are only created when they are requested, usually for the rows the
+ * table is showing, so files larger than the heap can be opened. The file is parsed in parallel
+ * chunks, and rows already loaded can be read while the rest of the file is still loading.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+public class VariantStore implements Closeable {
+
+    /**
+     * Approximate size of the chunks of the file that are parsed in parallel.
+     */
+    private static final int CHUNK_SIZE = 8 << 20;
+    /**
+     * Initial number of rows of the columns.
+     */
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    private final File file;
+    private final FileChannel channel;
+    /**
+     * Mapped regions of the file and location of each variant line.
+     */
+    private final LineIndex lines;
+    /**
+     * Lines starting with #.
+     */
+    private final List<String> headers = new ArrayList<>();
+    private final InfoDictionary dictionary;
+    private final InfoDictionary chromosomes = new InfoDictionary();
+    private final InfoDictionary filters = new InfoDictionary();
+    /**
+     * Numeric INFO columns, by INFO key. Keys are not added to the dictionary.
+     */
+    private final Map<String, InfoColumn> infoColumns = new HashMap<>();
+
+    /**
+     * Rows below size are completely written and can be read from any thread. Columns are
+     * volatile as they are replaced when they grow during the loading.
+     */
+    private volatile int size;
+    private int capacity;
+    private volatile ByteBuffer chromCodes;
+    private volatile ByteBuffer positions;
+    private volatile ByteBuffer quals;
+    private volatile ByteBuffer filterCodes;
+
+    /**
+     * Maps and indexes the VCF file.
+     *
+     * @param file the VCF file
+     * @param dictionary the INFO keys dictionary of the file, usually from its VCFHeader
+     * @throws IOException if the file cannot be read
+     */
+    public VariantStore(File file, InfoDictionary dictionary) throws IOException {
+        this(file, dictionary, null);
+    }
+
+    /**
+     * Maps and indexes the VCF file, notifying the listener each time a chunk of the file is
+     * added to the store. The listener can throw an unchecked exception to stop the loading.
+     *
+     * @param file the VCF file
+     * @param dictionary the INFO keys dictionary of the file, usually from its VCFHeader
+     * @param listener the listener of the progress, or null
+     * @throws IOException if the file cannot be read
+     */
+    public VariantStore(File file, InfoDictionary dictionary, LoadListener listener)
+            throws IOException {
+        this.file = file;
+        this.dictionary = dictionary;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.lines = new LineIndex(file, channel);
+        allocate(INITIAL_CAPACITY);
+        try {
+            load(listener);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Maps the file in regions with LineIndex, so lines never cross regions. Regions are cut in chunks of about CHUNK_SIZE, aligned to
+     * line starts, that are parsed in parallel in the common fork-join pool. Chunks are merged
+     * into the columns in file order, so rows keep the order of the file. Only a few chunks are
+     * parsed ahead of the merge, to keep memory bounded.
+     */
+    private void load(LoadListener listener) throws IOException {
+        final long fileSize = channel.size();
+        final int window = 2 * Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+        final Deque<ForkJoinTask<Chunk>> pending = new ArrayDeque<>();
+        try {
+            long start = 0;
+            while (start < fileSize) {
+                final MappedByteBuffer segment = lines.map(start);
+                final int end = segment.limit();
+                int from = 0;
+                while (from < end) {
+                    int to = end - from > CHUNK_SIZE ? from + CHUNK_SIZE : end;
+                    while (to < end && segment.get(to - 1) != '\n') {
+                        to++;
+                    }
+                    if (pending.size() == window) {
+                        merge(pending.poll().join(), fileSize, listener);
+                    }
+                    final Chunk chunk = new Chunk(segment, start, from, to);
+                    pending.add(ForkJoinPool.commonPool().submit(chunk::parse));
+                    from = to;
+                }
+                start += end;
+            }
+            while (!pending.isEmpty()) {
+                merge(pending.poll().join(), fileSize, listener);
+            }
+        } finally {
+            pending.forEach(task -> task.cancel(false));
+        }
+    }
+
+    /**
+     * Appends the rows of a parsed chunk to the columns. Rows are published, by updating size,
+     * once they are completely written.
+     */
+    private void merge(Chunk chunk, long fileSize, LoadListener listener) {
+        headers.addAll(chunk.headers);
+        if (size + chunk.size > capacity) {
+            int newCapacity = capacity;
+            while (size + chunk.size > newCapacity) {
+                newCapacity *= 2;
+            }
+            allocate(newCapacity);
+        }
+        int row = size;
+        for (int i = 0; i < chunk.size; i++, row++) {
+            lines.add(chunk.segmentStart + chunk.offsets[i], chunk.lengths[i]);
+            chromCodes.putInt(row * 4, chunk.chromCodes[i]);
+            positions.putInt(row * 4, chunk.positions[i]);
+            quals.putDouble(row * 8, chunk.quals[i]);
+            filterCodes.putInt(row * 4, chunk.filterCodes[i]);
+        }
+        size = row;
+        if (listener != null) {
+            listener.loaded(this, size, chunk.segmentStart + chunk.to, fileSize);
+        }
+    }
+
+    /**
+     * Creates the columns with the new capacity, copying the current values.
+     */
+    private void allocate(int newCapacity) {
+        chromCodes = LineIndex.grow(chromCodes, newCapacity * 4);
+        positions = LineIndex.grow(positions, newCapacity * 4);
+        quals = LineIndex.grow(quals, newCapacity * 8);
+        filterCodes = LineIndex.grow(filterCodes, newCapacity * 4);
+        capacity = newCapacity;
+    }
+
+    /**
+     * Number of variants in the file.
+     *
+     * @return the number of variants
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Lines of the file starting with #, in order.
+     *
+     * @return the header lines
+     */
+    public List<String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Gets the INFO keys dictionary used by the variants of this store.
+     *
+     * @return the INFO keys dictionary
+     */
+    public InfoDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Gets the CHROM of the variant in the given row.
+     *
+     * @param row the row
+     * @return the chromosome
+     */
+    public String getChrom(int row) {
+        return chromosomes.getKey(getChromCode(row));
+    }
+
+    /**
+     * Gets the code of the CHROM of the variant. Codes are stable for the store,
+     * but, as chunks are parsed in parallel, not in order of appearance.
+     *
+     * @param row the row
+     * @return the chromosome code
+     */
+    public int getChromCode(int row) {
+        return chromCodes.getInt(row * 4);
+    }
+
+    /**
+     * Gets the dictionary of chromosome names.
+     *
+     * @return the chromosomes dictionary
+     */
+    public InfoDictionary getChromosomes() {
+        return chromosomes;
+    }
+
+    /**
+     * Gets the POS of the variant in the given row.
+     *
+     * @param row the row
+     * @return the position
+     */
+    public int getPos(int row) {
+        return positions.getInt(row * 4);
+    }
+
+    /**
+     * Gets the QUAL of the variant in the given row.
+     *
+     * @param row the row
+     * @return the quality, NaN if missing
+     */
+    public double getQual(int row) {
+        return quals.getDouble(row * 8);
+    }
+
+    /**
+     * Gets the FILTER of the variant in the given row.
+     *
+     * @param row the row
+     * @return the filter
+     */
+    public String getFilter(int row) {
+        return filters.getKey(getFilterCode(row));
+    }
+
+    /**
+     * Gets the code of the FILTER of the variant, as getChromCode().
+     *
+     * @param row the row
+     * @return the filter code
+     */
+    public int getFilterCode(int row) {
+        return filterCodes.getInt(row * 4);
+    }
+
+    /**
+     * Gets the dictionary of FILTER values.
+     *
+     * @return the filters dictionary
+     */
+    public InfoDictionary getFilters() {
+        return filters;
+    }
+
+    /**
+     * Gets the first numeric value of an INFO field. The column is created the first time the
+     * key is requested, and extended if rows have been loaded since then.
+     *
+     * @param key the INFO key
+     * @param row the row, lower than size()
+     * @return the first value of the INFO field, or NaN if not present or not a number
+     */
+    public double getInfoNumber(String key, int row) {
+        return getInfoColumn(key).getDouble(row * 8);
+    }
+
+    /**
+     * Gets, and creates or extends if needed, the numeric column of the INFO key.
+     */
+    private synchronized ByteBuffer getInfoColumn(String key) {
+        InfoColumn column = infoColumns.get(key);
+        if (column == null) {
+            column = new InfoColumn();
+            infoColumns.put(key, column);
+        }
+        final int rows = size;
+        if (column.rows < rows) {
+            column.values = LineIndex.grow(column.values, rows * 8);
+            final ByteSequence line = new ByteSequence();
+            final int[] ends = new int[8];
+            for (int row = column.rows; row < rows; row++) {
+                setLine(row, line);
+                VCFTokenizer.tokenize(line, ends);
+                column.values.putDouble(row * 8, infoNumber(line, ends[6] + 1, ends[7], key));
+            }
+            column.rows = rows;
+        }
+        return column.values;
+    }
+
+    /**
+     * Looks for key in the INFO field, line[from, to), and parses its first value.
+     */
+    private static double infoNumber(ByteSequence line, int from, int to, String key) {
+        int pos = from;
+        while (pos < to) {
+            int end = line.indexOf(';', pos);
+            if (end == -1 || end > to) {
+                end = to;
+            }
+            final int keyEnd = pos + key.length();
+            if (keyEnd < end && line.charAt(keyEnd) == '=' && regionMatches(line, pos, key)) {
+                int valueEnd = line.indexOf(',', keyEnd + 1);
+                if (valueEnd == -1 || valueEnd > end) {
+                    valueEnd = end;
+                }
+                return NumberParser.parseNumber(line, keyEnd + 1, valueEnd);
+            }
+            pos = end + 1;
+        }
+        return Double.NaN;
+    }
+
+    private static boolean regionMatches(CharSequence s, int from, String key) {
+        for (int i = 0; i < key.length(); i++) {
+            if (s.charAt(from + i) != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves line to the bytes of the given row.
+     */
+    private ByteSequence setLine(int row, ByteSequence line) {
+        return lines.setLine(row, line);
+    }
+
+    /**
+     * Creates the Variant of the given row.
+     *
+     * @param row the row
+     * @return a new Variant, sharing the INFO dictionary of the store
+     */
+    public Variant getVariant(int row) {
+        return new Variant(getLine(row), dictionary);
+    }
+
+    private String getLine(int row) {
+        final ByteSequence line = setLine(row, new ByteSequence());
+        final byte[] bytes = new byte[line.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) line.charAt(i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets a read only list of variants backed by this store. Variants are created when the list
+     * is accessed and the last ones are cached, so it is cheap to use as the items of a table.
+     * As a variant can be recreated from the file at any time, the variants of the list are read
+     * only too: their getInfos() map throws UnsupportedOperationException if it is modified. To
+     * change variants, write a new file and load it, or use getVariant().
+     *
+     * @param rows the rows of the store to include, in order, or null to include all the rows
+     * loaded so far
+     * @return a list of variants
+     */
+    public List<Variant> asList(int[] rows) {
+        return LineIndex.asList(rows, size,
+                row -> new Variant(getLine(row), dictionary, true));
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Mapped buffers are released by the garbage collector
+        lines.clear();
+        infoColumns.clear();
+        channel.close();
+    }
+
+    /**
+     * A region of a segment, parsed into primitive arrays by a worker thread and later merged
+     * into the columns.
+     */
+    private class Chunk {
+
+        final ByteBuffer segment;
+        final long segmentStart;
+        final int from;
+        final int to;
+        final List<String> headers = new ArrayList<>();
+        int size;
+        int[] offsets = new int[1024];
+        int[] lengths = new int[1024];
+        int[] chromCodes = new int[1024];
+        int[] positions = new int[1024];
+        double[] quals = new double[1024];
+        int[] filterCodes = new int[1024];
+
+        Chunk(ByteBuffer segment, long segmentStart, int from, int to) {
+            this.segment = segment;
+            this.segmentStart = segmentStart;
+            this.from = from;
+            this.to = to;
+        }
+
+        Chunk parse() {
+            final ByteSequence line = new ByteSequence();
+            final int[] ends = new int[7];
+            int lineStart = from;
+            while (lineStart < to) {
+                int lineEnd = lineStart;
+                while (lineEnd < to && segment.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                addLine(lineStart, lineEnd, line, ends);
+                lineStart = lineEnd + 1;
+            }
+            return this;
+        }
+
+        private void addLine(int lineStart, int lineEnd, ByteSequence line, int[] ends) {
+            // Windows line ends
+            if (lineEnd > lineStart && segment.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd == lineStart) {
+                return;
+            }
+            line.set(segment, lineStart, lineEnd - lineStart);
+            if (line.charAt(0) == '#') {
+                headers.add(line.toString());
+                return;
+            }
+            VCFTokenizer.tokenize(line, ends);
+            if (size == offsets.length) {
+                final int length = size * 2;
+                offsets = Arrays.copyOf(offsets, length);
+                lengths = Arrays.copyOf(lengths, length);
+                chromCodes = Arrays.copyOf(chromCodes, length);
+                positions = Arrays.copyOf(positions, length);
+                quals = Arrays.copyOf(quals, length);
+                filterCodes = Arrays.copyOf(filterCodes, length);
+            }
+            offsets[size] = lineStart;
+            lengths[size] = lineEnd - lineStart;
+            chromCodes[size] = chromosomes.add(line, 0, ends[0]);
+            positions[size] = VCFTokenizer.parseInt(line, ends[0] + 1, ends[1]);
+            quals[size] = VCFTokenizer.parseQual(line, ends[4] + 1, ends[5]);
+            filterCodes[size] = filters.add(line, Math.min(ends[5] + 1, ends[6]), ends[6]);
+            size++;
+        }
+    }
+
+    /**
+     * Numeric values of an INFO key for the first rows of the store.
+     */
+    private static class InfoColumn {
+
+        ByteBuffer values;
+        int rows;
+    }
+
+    /**
+     * Receives the progress of the loading of a store.
+     */
+    public interface LoadListener {
+
+        /**
+         * Called from the loading thread each time a chunk of the file has been added to the
+         * store. The first rows of the store can be read from then on, from any thread.
+         *
+         * @param store the store being loaded
+         * @param rows the number of rows loaded
+         * @param bytes the number of bytes of the file read
+         * @param totalBytes the size of the file
+         */
+        void loaded(VariantStore store, int rows, long bytes, long totalBytes);
+    }
+
+}
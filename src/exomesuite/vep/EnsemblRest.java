@@ -16,24 +16,13 @@
  */
 package exomesuite.vep;
 
-import exomesuite.json.JSONArray;
-import exomesuite.json.JSONObject;
+import exomesuite.utils.FileManager;
 import exomesuite.vcf.Variant;
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Only works with GRCh38.
@@ -43,92 +32,58 @@ import java.util.logging.Logger;
  */
 public class EnsemblRest {
 
-    private final static String server = "http://rest.ensembl.org";
+    /**
+     * Requests at the same time, Ensembl allows 15 per second.
+     */
+    private final static int THREADS = 4;
+    private final static String CACHE_FILE = "vep.cache";
+    private static VepClient client;
 
     /**
-     * Only works for GRCh38.
+     * The VEP client of the application, with the cache in the user path.
+     *
+     * @return the shared client
+     */
+    public static synchronized VepClient getClient() {
+        if (client == null) {
+            client = new VepClient(VepClient.DEFAULT_SERVER,
+                    new File(FileManager.getUserPath(), CACHE_FILE), THREADS);
+        }
+        return client;
+    }
+
+    /**
+     * Only works for GRCh38. Adds the VEP INFO fields to the variants, in background.
      *
      * @param variants
-     * @return
+     * @return a future with the number of annotated variants
      */
-    public static Map<String, String> getVepInformation(Variant... variants) {
+    public static CompletableFuture<Integer> getVepInformation(Variant... variants) {
         return getVepInformation(Arrays.asList(variants));
     }
 
     /**
-     * Only works for GRCh38.
+     * Only works for GRCh38. Adds the VEP INFO fields to the variants, in background.
      *
      * @param variants
-     * @return
+     * @return a future with the number of annotated variants
      */
-    public static Map<String, String> getVepInformation(List<Variant> variants) {
-        try {
-            final String ext = "/vep/homo_sapiens/region";
-            URL url;
-            try {
-                url = new URL(server + ext);
-            } catch (MalformedURLException ex) {
-                ex.printStackTrace();
-//                MainViewController.printException(ex);
-                return null;
-            }
-
-            URLConnection connection = url.openConnection();
-            HttpURLConnection httpConnection = (HttpURLConnection) connection;
-            JSONArray list = new JSONArray();
-            variants.forEach(v -> list.put(v.toString().replace("\t", " ")));
-            JSONObject root = new JSONObject();
-            root.put("variants", list);
-            String postBody = root.toString(2);
-            System.out.println(postBody);
-//            for (Variant v : variants) {
-//                postBody += "\"" + v.toString().replace("\t", " ") + "\"" + ", ";
-//            }
-            // Remove last comma+space
-            postBody = postBody.substring(0, postBody.length() - 3);
-            postBody += "]}";
-//            String postBody = "{ \"variants\" : [\"21 26960070 rs116645811 G A . . .\", \"21 26965148 rs1135638 G A . . .\" ] }";
-            httpConnection.setRequestMethod("POST");
-            httpConnection.setRequestProperty("Content-Type", "application/json");
-            httpConnection.setRequestProperty("Accept", "application/json");
-            httpConnection.setRequestProperty("Content-Length", Integer.toString(postBody.getBytes().length));
-            httpConnection.setUseCaches(false);
-            httpConnection.setDoInput(true);
-            httpConnection.setDoOutput(true);
-
-            // Send request
-            try (DataOutputStream wr = new DataOutputStream(httpConnection.getOutputStream())) {
-                wr.writeBytes(postBody);
-                wr.flush();
-            }
-            InputStream response = connection.getInputStream();
-            int responseCode = httpConnection.getResponseCode();
-
-            if (responseCode != 200) {
-                throw new RuntimeException("Response code was not 200. Detected response was " + responseCode);
-            }
-
-            String output;
-            try (Reader reader = new BufferedReader(new InputStreamReader(response, "UTF-8"))) {
-                StringBuilder builder = new StringBuilder();
-                char[] buffer = new char[8192];
-                int read;
-                while ((read = reader.read(buffer, 0, buffer.length)) > 0) {
-                    builder.append(buffer, 0, read);
-                }
-                output = builder.toString();
-            }
-            // Output is a vector
-//            System.out.println(output);
-            JSONArray json = new JSONArray(output);
-            System.out.println(json.toString(2));
-//            JSONObject json = new JSONObject(output);
+    public static CompletableFuture<Integer> getVepInformation(List<Variant> variants) {
+        return getClient().annotate(variants);
+    }
 
-//            System.out.println(output);
-        } catch (IOException ex) {
-            Logger.getLogger(EnsemblRest.class.getName()).log(Level.SEVERE, null, ex);
-        }
-        return null;
+    /**
+     * Only works for GRCh38. Annotates input into output with the VEP INFO fields.
+     *
+     * @param input the VCF file
+     * @param output the annotated VCF file
+     * @return the number of annotated variants
+     * @throws IOException if input cannot be read, output cannot be written or Ensembl fails
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public static long getVepInformation(File input, File output)
+            throws IOException, InterruptedException {
+        return getClient().annotate(input, output);
     }
 
 }
@@ -0,0 +1,619 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.vep;
+
+import exomesuite.json.JSONArray;
+import exomesuite.json.JSONException;
+import exomesuite.json.JSONObject;
+import exomesuite.vcf.InfoDictionary;
+import exomesuite.vcf.Variant;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Client of the Variant Effect Predictor of the Ensembl REST API. Variants are sent in batches of
+ * a fixed size, by a bounded pool of threads, and failed requests are retried with an
+ * exponential backoff. Results are merged into the INFO of the variants (INFO_IDS) and kept in a
+ * cache file, keyed by the normalized chrom:pos:ref:alt, so a variant is only requested once,
+ * even between sessions. Variants without results are cached too.
+ * <p>
+ * The server is a parameter, so the client can be used with a mirror or a local server.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+public class VepClient implements Closeable {
+
+    /**
+     * The Ensembl REST server, only works with GRCh38.
+     */
+    public static final String DEFAULT_SERVER = "http://rest.ensembl.org";
+    /**
+     * INFO fields added to the variants.
+     */
+    public static final String[] INFO_IDS = {"VEP_CONSEQUENCE", "VEP_IMPACT", "VEP_GENE",
+        "VEP_ID"};
+    private static final String[] DESCRIPTIONS = {"Most severe consequence",
+        "Highest impact of the consequences", "Genes of the consequences",
+        "IDs of the colocated variants"};
+    private static final String ENDPOINT = "/vep/homo_sapiens/region";
+    /**
+     * Impacts of VEP, from the lowest to the highest.
+     */
+    private static final String[] IMPACTS = {"MODIFIER", "LOW", "MODERATE", "HIGH"};
+    private static final String[] CONSEQUENCES = {"transcript_consequences",
+        "regulatory_feature_consequences", "motif_feature_consequences",
+        "intergenic_consequences"};
+    /**
+     * Cached value of variants without results.
+     */
+    private static final String EMPTY = ".";
+    /**
+     * Batches per chunk of lines read by annotate(File, File).
+     */
+    private static final int CHUNK_BATCHES = 20;
+    private static final int INFO_COLUMN = 7;
+
+    private final String server;
+    private final File cacheFile;
+    private final ExecutorService pool;
+    private final Map<String, String> cache = new ConcurrentHashMap<>();
+    private BufferedWriter cacheWriter;
+    private int batchSize = 200;
+    private int retries = 3;
+    private long backoff = 1000;
+    private int timeout = 60000;
+
+    /**
+     * Creates a client and loads the cache file, if it exists.
+     *
+     * @param server the server, such as DEFAULT_SERVER
+     * @param cacheFile the cache file, or null to not keep results between sessions
+     * @param threads the maximum number of requests at the same time
+     */
+    public VepClient(String server, File cacheFile, int threads) {
+        this.server = server;
+        this.cacheFile = cacheFile;
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            final Thread thread = new Thread(runnable, "VEP");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (cacheFile != null && cacheFile.exists()) {
+            loadCache();
+        }
+    }
+
+    /**
+     * Sets the maximum number of variants per request. Default is 200, the limit of Ensembl.
+     *
+     * @param batchSize the number of variants per request
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Sets how many times a failed request is repeated. The n-th retry waits backoff * 2^(n-1)
+     * milliseconds, or what the server asks with Retry-After. Default is 3 retries from 1 second.
+     *
+     * @param retries the number of retries
+     * @param backoff milliseconds to wait before the first retry
+     */
+    public void setRetries(int retries, long backoff) {
+        this.retries = Math.max(0, retries);
+        this.backoff = Math.max(0, backoff);
+    }
+
+    /**
+     * Sets the connect and read timeout of the requests. Default is 60 seconds.
+     *
+     * @param timeout the timeout in milliseconds
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Annotates the variants in background. Cached variants are annotated at once, the rest are
+     * requested in batches. Each variant is modified by only one thread, but the caller should
+     * not use the variants until the future completes.
+     *
+     * @param variants the variants to annotate
+     * @return a future with the number of variants with VEP results; it completes exceptionally
+     * with the first error if any batch fails after all the retries, but the variants of the
+     * rest of batches are annotated anyway
+     */
+    public CompletableFuture<Integer> annotate(List<Variant> variants) {
+        final AtomicInteger annotated = new AtomicInteger();
+        // Variants not in cache, by key, so duplicates are requested once
+        final Map<String, List<Variant>> pending = new LinkedHashMap<>();
+        for (Variant variant : variants) {
+            final String key = getKey(variant.getChrom(), variant.getPos(), variant.getRef(),
+                    variant.getAlt());
+            final String info = cache.get(key);
+            if (info != null) {
+                if (merge(variant, info)) {
+                    annotated.incrementAndGet();
+                }
+            } else {
+                pending.computeIfAbsent(key, k -> new ArrayList<>()).add(variant);
+            }
+        }
+        final List<String> keys = new ArrayList<>(pending.keySet());
+        final List<CompletableFuture<Void>> batches = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i += batchSize) {
+            final List<String> batch = keys.subList(i, Math.min(keys.size(), i + batchSize));
+            batches.add(CompletableFuture.runAsync(() -> {
+                try {
+                    final Map<String, String> results = request(batch, pending);
+                    for (String key : batch) {
+                        final String info = results.getOrDefault(key, EMPTY);
+                        store(key, info);
+                        for (Variant variant : pending.get(key)) {
+                            if (merge(variant, info)) {
+                                annotated.incrementAndGet();
+                            }
+                        }
+                    }
+                    flushCache();
+                } catch (IOException | InterruptedException ex) {
+                    throw new CompletionException(ex);
+                }
+            }, pool));
+        }
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0]))
+                .thenApply(nothing -> annotated.get());
+    }
+
+    /**
+     * Annotates input into output, without loading the whole file. Variants are read in chunks of
+     * some batches, which are annotated by annotate(List) and written in the same order. Only
+     * the INFO column of the lines is changed. They must be different files.
+     *
+     * @param input the VCF file
+     * @param output the annotated VCF file
+     * @return the number of variants with VEP results
+     * @throws IOException if input cannot be read, output cannot be written or a batch fails
+     * after all the retries
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public long annotate(File input, File output) throws IOException, InterruptedException {
+        long annotated = 0;
+        final InfoDictionary dictionary = new InfoDictionary();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(input), StandardCharsets.UTF_8), 1 << 16);
+                BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(output), StandardCharsets.UTF_8), 1 << 20)) {
+            final List<String> lines = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("##")) {
+                    if (!isOwnHeader(line)) {
+                        writeLine(writer, line);
+                    }
+                } else if (line.startsWith("#")) {
+                    for (String header : getInfoHeaders()) {
+                        writeLine(writer, header);
+                    }
+                    writeLine(writer, line);
+                } else {
+                    lines.add(line);
+                    if (lines.size() == CHUNK_BATCHES * batchSize) {
+                        annotated += annotate(lines, dictionary, writer);
+                    }
+                }
+            }
+            annotated += annotate(lines, dictionary, writer);
+        }
+        return annotated;
+    }
+
+    /**
+     * Annotates a chunk of lines, writes them and empties lines.
+     */
+    private int annotate(List<String> lines, InfoDictionary dictionary, BufferedWriter writer)
+            throws IOException, InterruptedException {
+        final List<Variant> variants = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            variants.add(new Variant(line, dictionary));
+        }
+        final int annotated;
+        try {
+            annotated = annotate(variants).get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+        for (int i = 0; i < lines.size(); i++) {
+            writeLine(writer, replaceInfo(lines.get(i), variants.get(i).getInfos()));
+        }
+        lines.clear();
+        return annotated;
+    }
+
+    /**
+     * Gets the header lines of the INFO fields.
+     *
+     * @return the ##INFO lines, one per field
+     */
+    public static String[] getInfoHeaders() {
+        final String[] headers = new String[INFO_IDS.length];
+        for (int i = 0; i < INFO_IDS.length; i++) {
+            headers[i] = "##INFO=<ID=" + INFO_IDS[i] + ",Number=.,Type=String,Description=\""
+                    + DESCRIPTIONS[i] + "\">";
+        }
+        return headers;
+    }
+
+    /**
+     * true if line is the ##INFO header of one of the fields of the client, that will be written
+     * again.
+     */
+    private static boolean isOwnHeader(String line) {
+        if (!line.startsWith("##INFO=<ID=")) {
+            return false;
+        }
+        for (String id : INFO_IDS) {
+            if (line.startsWith(id + ",", 11)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the INFO column of a VCF line.
+     *
+     * @return the line with infos as INFO, or line if it has no INFO column
+     */
+    private static String replaceInfo(String line, Map<String, String> infos) {
+        int start = 0;
+        for (int c = 0; c < INFO_COLUMN && start > -1; c++) {
+            start = line.indexOf('\t', start);
+            if (start > -1) {
+                start++;
+            }
+        }
+        if (start == -1) {
+            return line;
+        }
+        int end = line.indexOf('\t', start);
+        if (end == -1) {
+            end = line.length();
+        }
+        final StringBuilder builder = new StringBuilder(line.length() + 64);
+        builder.append(line, 0, start);
+        final int length = builder.length();
+        for (Map.Entry<String, String> entry : infos.entrySet()) {
+            if (builder.length() > length) {
+                builder.append(';');
+            }
+            builder.append(entry.getKey());
+            if (entry.getValue() != null) {
+                builder.append('=').append(entry.getValue());
+            }
+        }
+        if (builder.length() == length) {
+            builder.append('.');
+        }
+        return builder.append(line, end, line.length()).toString();
+    }
+
+    private static void writeLine(BufferedWriter writer, String line) throws IOException {
+        writer.write(line);
+        writer.newLine();
+    }
+
+    /**
+     * Sends a batch, retrying if the server fails or asks to slow down.
+     *
+     * @return the INFO of each key, for the variants with results
+     */
+    private Map<String, String> request(List<String> batch, Map<String, List<Variant>> pending)
+            throws IOException, InterruptedException {
+        // The server echoes each variant in the input field of its result
+        final Map<String, String> keys = new LinkedHashMap<>();
+        final JSONArray list = new JSONArray();
+        for (String key : batch) {
+            final Variant variant = pending.get(key).get(0);
+            final String input = String.format("%s %d . %s %s . . .", variant.getChrom(),
+                    variant.getPos(), variant.getRef(), variant.getAlt());
+            keys.put(input, key);
+            list.put(input);
+        }
+        final JSONObject root = new JSONObject();
+        root.put("variants", list);
+        final byte[] body = root.toString().getBytes(StandardCharsets.UTF_8);
+        for (int attempt = 0;; attempt++) {
+            long wait = backoff << Math.min(attempt, 20);
+            final HttpURLConnection connection
+                    = (HttpURLConnection) new URL(server + ENDPOINT).openConnection();
+            int code;
+            try {
+                connection.setRequestMethod("POST");
+                connection.setRequestProperty("Content-Type", "application/json");
+                connection.setRequestProperty("Accept", "application/json");
+                connection.setConnectTimeout(timeout);
+                connection.setReadTimeout(timeout);
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(body.length);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(body);
+                }
+                code = connection.getResponseCode();
+                if (code == HttpURLConnection.HTTP_OK) {
+                    try (InputStream in = connection.getInputStream()) {
+                        return parse(new JSONArray(read(in)), keys);
+                    } catch (JSONException ex) {
+                        throw new IOException("Unexpected VEP response", ex);
+                    }
+                }
+                final String retryAfter = connection.getHeaderField("Retry-After");
+                if (retryAfter != null) {
+                    try {
+                        wait = (long) (Double.parseDouble(retryAfter) * 1000);
+                    } catch (NumberFormatException ex) {
+                    }
+                }
+            } catch (IOException ex) {
+                // Connection problems and broken responses
+                if (attempt >= retries) {
+                    throw ex;
+                }
+                Logger.getLogger(VepClient.class.getName()).log(Level.INFO,
+                        ex.getMessage() + ", retrying in {0} ms", wait);
+                Thread.sleep(wait);
+                continue;
+            } finally {
+                connection.disconnect();
+            }
+            final String message = "VEP response code was " + code;
+            // Only rate limits and server errors are worth a retry
+            if (code != 429 && code < 500 || attempt >= retries) {
+                throw new IOException(message);
+            }
+            Logger.getLogger(VepClient.class.getName()).log(Level.INFO,
+                    message + ", retrying in {0} ms", wait);
+            Thread.sleep(wait);
+        }
+    }
+
+    /**
+     * Reads the results of a batch.
+     *
+     * @param results the response
+     * @param keys the key of each input
+     * @return the INFO of each key
+     */
+    private static Map<String, String> parse(JSONArray results, Map<String, String> keys) {
+        final Map<String, String> infos = new LinkedHashMap<>();
+        for (int i = 0; i < results.length(); i++) {
+            final JSONObject result = results.optJSONObject(i);
+            if (result == null) {
+                continue;
+            }
+            final String key = keys.get(result.optString("input"));
+            if (key == null) {
+                continue;
+            }
+            final Set<String> genes = new LinkedHashSet<>();
+            final Set<String> ids = new LinkedHashSet<>();
+            int impact = -1;
+            for (String consequences : CONSEQUENCES) {
+                final JSONArray array = result.optJSONArray(consequences);
+                for (int j = 0; array != null && j < array.length(); j++) {
+                    final JSONObject consequence = array.optJSONObject(j);
+                    if (consequence == null) {
+                        continue;
+                    }
+                    final String gene = consequence.optString("gene_symbol", "");
+                    if (!gene.isEmpty()) {
+                        genes.add(clean(gene));
+                    }
+                    impact = Math.max(impact, indexOf(consequence.optString("impact", "")));
+                }
+            }
+            final JSONArray colocated = result.optJSONArray("colocated_variants");
+            for (int j = 0; colocated != null && j < colocated.length(); j++) {
+                final JSONObject variant = colocated.optJSONObject(j);
+                if (variant != null && !variant.optString("id", "").isEmpty()) {
+                    ids.add(clean(variant.optString("id")));
+                }
+            }
+            final StringBuilder info = new StringBuilder();
+            append(info, INFO_IDS[0], clean(result.optString("most_severe_consequence", "")));
+            append(info, INFO_IDS[1], impact == -1 ? "" : IMPACTS[impact]);
+            append(info, INFO_IDS[2], String.join(",", genes));
+            append(info, INFO_IDS[3], String.join(",", ids));
+            infos.put(key, info.length() == 0 ? EMPTY : info.toString());
+        }
+        return infos;
+    }
+
+    private static void append(StringBuilder info, String id, String value) {
+        if (!value.isEmpty()) {
+            if (info.length() > 0) {
+                info.append(';');
+            }
+            info.append(id).append('=').append(value);
+        }
+    }
+
+    private static int indexOf(String impact) {
+        for (int i = 0; i < IMPACTS.length; i++) {
+            if (IMPACTS[i].equals(impact)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Replaces the characters that are not allowed in INFO values.
+     */
+    private static String clean(String value) {
+        return value.replaceAll("[,;=\\s]", "_");
+    }
+
+    /**
+     * Puts the fields of info into the INFO of the variant, replacing previous VEP fields.
+     *
+     * @return true if info is not empty
+     */
+    private static boolean merge(Variant variant, String info) {
+        final Map<String, String> infos = variant.getInfos();
+        for (String id : INFO_IDS) {
+            infos.remove(id);
+        }
+        if (info.equals(EMPTY)) {
+            return false;
+        }
+        for (String field : info.split(";")) {
+            final int equals = field.indexOf('=');
+            infos.put(field.substring(0, equals), field.substring(equals + 1));
+        }
+        return true;
+    }
+
+    /**
+     * Normalizes a variant: chromosome without chr, alleles in upper case, and bases shared at the
+     * end and then at the start of the alleles removed (at least one is kept), so the same
+     * variant written in different ways has the same key.
+     *
+     * @param chrom the chromosome
+     * @param pos the position
+     * @param ref the reference allele
+     * @param alt the alternative alleles
+     * @return chrom:pos:ref:alt
+     */
+    static String getKey(String chrom, int pos, String ref, String alt) {
+        if (chrom.regionMatches(true, 0, "chr", 0, 3)) {
+            chrom = chrom.substring(3);
+        }
+        ref = ref.toUpperCase();
+        alt = alt.toUpperCase();
+        // Multiallelic variants are kept as they are
+        if (!alt.contains(",")) {
+            int refEnd = ref.length();
+            int altEnd = alt.length();
+            while (refEnd > 1 && altEnd > 1 && ref.charAt(refEnd - 1) == alt.charAt(altEnd - 1)) {
+                refEnd--;
+                altEnd--;
+            }
+            int start = 0;
+            while (start < refEnd - 1 && start < altEnd - 1 && ref.charAt(start) == alt.charAt(start)) {
+                start++;
+            }
+            ref = ref.substring(start, refEnd);
+            alt = alt.substring(start, altEnd);
+            pos += start;
+        }
+        return chrom + ":" + pos + ":" + ref + ":" + alt;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Loads the cache file: one line per key, key TAB info.
+     */
+    private void loadCache() {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(cacheFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int tab = line.indexOf('\t');
+                // A broken last line, from a killed session, is ignored
+                if (tab > 0 && tab < line.length() - 1) {
+                    cache.put(line.substring(0, tab), line.substring(tab + 1));
+                }
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(VepClient.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    private synchronized void store(String key, String info) throws IOException {
+        cache.put(key, info);
+        if (cacheFile != null) {
+            if (cacheWriter == null) {
+                cacheWriter = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(cacheFile, true), StandardCharsets.UTF_8));
+            }
+            cacheWriter.write(key + "\t" + info);
+            cacheWriter.newLine();
+        }
+    }
+
+    private synchronized void flushCache() throws IOException {
+        if (cacheWriter != null) {
+            cacheWriter.flush();
+        }
+    }
+
+    /**
+     * Stops the running requests and closes the cache file.
+     *
+     * @throws IOException if the cache cannot be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        pool.shutdownNow();
+        if (cacheWriter != null) {
+            cacheWriter.close();
+            cacheWriter = null;
+        }
+    }
+
+}
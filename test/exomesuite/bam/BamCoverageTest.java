@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.bam;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads with BamRecordReader and BamCoverage a small BAM file written with BgzfOutputStream.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+public class BamCoverageTest {
+
+    static final int M = 0, I = 1, D = 2, N = 3, S = 4;
+    /**
+     * Alignments at chr2:21, enough to fill several BGZF blocks.
+     */
+    private static final int FILLERS = 5000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File bam;
+
+    /**
+     * chr1 (length 30) and chr2 (length 50).
+     * <ul>
+     * <li>chr1:1 2S5M2I3M2D4M3N2M, with a low quality base at chr1:2</li>
+     * <li>chr1:1 10M duplicate, paired not proper, unmapped, secondary and QC fail: skipped</li>
+     * <li>chr1:5 10M, reverse and proper pair</li>
+     * <li>chr2:10 5M</li>
+     * <li>chr2:21 1M, FILLERS times</li>
+     * </ul>
+     */
+    @Before
+    public void writeBam() throws IOException {
+        bam = folder.newFile("test.bam");
+        try (BgzfOutputStream out = new BgzfOutputStream(bam)) {
+            final ByteBuffer header = buffer(100);
+            header.put("BAM\1".getBytes(StandardCharsets.US_ASCII));
+            header.putInt(0);
+            header.putInt(2);
+            putReference(header, "chr1", 30);
+            putReference(header, "chr2", 50);
+            out.write(header.array(), 0, header.position());
+            final byte[] qualities = new byte[18];
+            Arrays.fill(qualities, (byte) 30);
+            // Second base of the first M
+            qualities[3] = 5;
+            write(out, 0, 0, 0, "ACGTACGTACGTACGTAC", qualities,
+                    S, 2, M, 5, I, 2, M, 3, D, 2, M, 4, N, 3, M, 2);
+            for (int flag : new int[]{BamRecord.DUPLICATE, BamRecord.PAIRED, BamRecord.UNMAPPED,
+                BamRecord.SECONDARY, BamRecord.QC_FAIL}) {
+                write(out, 0, 0, flag, "AAAAAAAAAA", null, M, 10);
+            }
+            write(out, 0, 4, BamRecord.PAIRED | BamRecord.PROPER_PAIR | BamRecord.REVERSE,
+                    "CCCCCCCCCC", null, M, 10);
+            write(out, 1, 9, 0, "GGGGG", null, M, 5);
+            for (int i = 0; i < FILLERS; i++) {
+                write(out, 1, 20, 0, "T", null, M, 1);
+            }
+        }
+    }
+
+    @Test
+    public void readRecords() throws IOException {
+        try (BamRecordReader reader = new BamRecordReader(bam)) {
+            assertArrayEquals(new String[]{"chr1", "chr2"}, reader.getReferenceNames());
+            assertArrayEquals(new int[]{30, 50}, reader.getReferenceLengths());
+            assertEquals(1, reader.getReferenceIndex("chr2"));
+            final BamRecord record = new BamRecord();
+            assertTrue(reader.next(record));
+            assertEquals(0, record.getReferenceIndex());
+            assertEquals(0, record.getPosition());
+            assertEquals(8, record.getCigarLength());
+            assertEquals(I, record.getCigarOperator(2));
+            assertEquals(2, record.getCigarOperationLength(2));
+            // 5M 3M 2D 4M 3N 2M
+            assertEquals(19, record.getEnd());
+            assertEquals(18, record.getSequenceLength());
+            assertEquals('A', record.getBase(0));
+            assertEquals('C', record.getBase(17));
+            assertEquals(5, record.getBaseQuality(3));
+            int count = 1;
+            while (reader.next(record)) {
+                count++;
+            }
+            assertEquals(8 + FILLERS, count);
+        }
+    }
+
+    @Test
+    public void depths() throws IOException {
+        try (BamCoverage coverage = new BamCoverage(bam)) {
+            final int[] expected = new int[31];
+            // 5M: chr1:1-5, chr1:2 has low quality
+            Arrays.fill(expected, 1, 6, 1);
+            expected[2] = 0;
+            // 3M 2D 4M: chr1:6-14
+            Arrays.fill(expected, 6, 15, 1);
+            // 3N: chr1:15-17, then 2M: chr1:18-19
+            Arrays.fill(expected, 18, 20, 1);
+            // Reverse proper pair: chr1:5-14
+            for (int p = 5; p <= 14; p++) {
+                expected[p]++;
+            }
+            assertArrayEquals(expected, coverage.getDepths("chr1", null));
+        }
+    }
+
+    @Test
+    public void minBaseQuality() throws IOException {
+        try (BamCoverage coverage = new BamCoverage(bam)) {
+            coverage.setMinBaseQuality(0);
+            assertEquals(1, coverage.getDepths("chr1", null)[2]);
+            coverage.setMinBaseQuality(31);
+            // Only the deletion counts for the first alignment, the second has no qualities
+            final int[] depths = coverage.getDepths("chr1", null);
+            assertEquals(0, depths[1]);
+            assertEquals(2, depths[9]);
+        }
+    }
+
+    @Test
+    public void referencesInAnyOrder() throws IOException {
+        try (BamCoverage coverage = new BamCoverage(bam)) {
+            final int[] chr2 = coverage.getDepths("chr2", null);
+            assertEquals(0, chr2[9]);
+            assertEquals(1, chr2[10]);
+            assertEquals(1, chr2[14]);
+            assertEquals(0, chr2[15]);
+            assertEquals(FILLERS, chr2[21]);
+            assertEquals(0, chr2[22]);
+            // Going back to the first reference
+            assertEquals(2, coverage.getDepths("chr1", null)[5]);
+            assertEquals(FILLERS, coverage.getDepths("chr2", null)[21]);
+        }
+    }
+
+    @Test
+    public void runs() throws IOException {
+        try (BamCoverage coverage = new BamCoverage(bam)) {
+            final StringBuilder runs = new StringBuilder();
+            coverage.scan(1, (start, end, depth) -> runs.append(start).append('-').append(end)
+                    .append(':').append(depth).append(' '), null);
+            assertEquals("1-9:0 10-14:1 15-20:0 21-21:" + FILLERS + " 22-50:0 ", runs.toString());
+        }
+    }
+
+    static ByteBuffer buffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    static void putReference(ByteBuffer header, String name, int length) {
+        header.putInt(name.length() + 1);
+        header.put(name.getBytes(StandardCharsets.US_ASCII));
+        header.put((byte) 0);
+        header.putInt(length);
+    }
+
+    /**
+     * Writes an alignment. Without qualities, they are missing (0xff). Also used by
+     * BamRegionReaderTest.
+     *
+     * @param cigar pairs of operator and length
+     */
+    static void write(BgzfOutputStream out, int reference, int position, int flag,
+            String sequence, byte[] qualities, int... cigar) throws IOException {
+        final String name = "read";
+        final ByteBuffer record = buffer(1000);
+        record.putInt(0);
+        record.putInt(reference);
+        record.putInt(position);
+        record.put((byte) (name.length() + 1));
+        record.put((byte) 60);
+        // bin is not used by the readers
+        record.putShort((short) 0);
+        record.putShort((short) (cigar.length / 2));
+        record.putShort((short) flag);
+        record.putInt(sequence.length());
+        record.putInt(-1);
+        record.putInt(-1);
+        record.putInt(0);
+        record.put(name.getBytes(StandardCharsets.US_ASCII));
+        record.put((byte) 0);
+        for (int i = 0; i < cigar.length; i += 2) {
+            record.putInt(cigar[i + 1] << 4 | cigar[i]);
+        }
+        final String codes = "=ACMGRSVTWYHKDBN";
+        for (int i = 0; i < sequence.length(); i += 2) {
+            final int high = codes.indexOf(sequence.charAt(i));
+            final int low = i + 1 < sequence.length() ? codes.indexOf(sequence.charAt(i + 1)) : 0;
+            record.put((byte) (high << 4 | low));
+        }
+        for (int i = 0; i < sequence.length(); i++) {
+            record.put(qualities == null ? (byte) 0xff : qualities[i]);
+        }
+        record.putInt(0, record.position() - 4);
+        out.write(record.array(), 0, record.position());
+    }
+
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.bam;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static exomesuite.bam.BamCoverageTest.D;
+import static exomesuite.bam.BamCoverageTest.I;
+import static exomesuite.bam.BamCoverageTest.M;
+import static exomesuite.bam.BamCoverageTest.N;
+import static exomesuite.bam.BamCoverageTest.S;
+import static exomesuite.bam.PileUp.A;
+import static exomesuite.bam.PileUp.C;
+import static exomesuite.bam.PileUp.DELETION;
+import static exomesuite.bam.PileUp.G;
+import static exomesuite.bam.PileUp.REVERSE;
+import static exomesuite.bam.PileUp.T;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Reads pileups with BamRegionReader from a small BAM file and the index written along with it,
+ * as samtools index would.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+public class BamRegionReaderTest {
+
+    /**
+     * Metadata bin of the index.
+     */
+    private static final int PSEUDO_BIN = 37450;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File bam;
+    private BamRegionReader reader;
+    /**
+     * Virtual offsets of the alignments, by name.
+     */
+    private final Map<String, Long> offsets = new TreeMap<>();
+    /**
+     * Virtual offset after the last alignment.
+     */
+    private long end;
+    private final List<Alignment> alignments = new ArrayList<>();
+
+    /**
+     * chr1 (length 200000) and chr2 (length 50), positions are 1-based.
+     * <ul>
+     * <li>r1 chr1:1 2S5M2I3M2D4M3N2M, ACGTACGTACGTACGTAC with a low quality base at chr1:2</li>
+     * <li>dup chr1:1 10M duplicate: skipped</li>
+     * <li>r2 chr1:5 10M CCCCCCCCCC, reverse and proper pair</li>
+     * <li>r0 chr1:101 1M20000N1M, in the 128 KB bin</li>
+     * <li>x chr1:201 1M, in the first 16 KB bin</li>
+     * <li>r5 chr1:16001 3M20000N3M AAACCC, in the 128 KB bin</li>
+     * <li>r4 chr1:100001 3M GGG</li>
+     * <li>c2 chr2:11 5M GGGGG</li>
+     * </ul>
+     * Blocks are flushed between alignments, so each one has its own chunk.
+     */
+    @Before
+    public void writeBam() throws IOException {
+        bam = folder.newFile("test.bam");
+        try (BgzfOutputStream out = new BgzfOutputStream(bam)) {
+            final ByteBuffer header = BamCoverageTest.buffer(100);
+            header.put("BAM\1".getBytes(StandardCharsets.US_ASCII));
+            header.putInt(0);
+            header.putInt(2);
+            BamCoverageTest.putReference(header, "chr1", 200000);
+            BamCoverageTest.putReference(header, "chr2", 50);
+            out.write(header.array(), 0, header.position());
+            final byte[] qualities = new byte[18];
+            Arrays.fill(qualities, (byte) 30);
+            qualities[3] = 5;
+            write(out, "r1", 0, 0, 0, "ACGTACGTACGTACGTAC", qualities,
+                    S, 2, M, 5, I, 2, M, 3, D, 2, M, 4, N, 3, M, 2);
+            write(out, "dup", 0, 0, BamRecord.DUPLICATE, "AAAAAAAAAA", null, M, 10);
+            write(out, "r2", 0, 4, BamRecord.PAIRED | BamRecord.PROPER_PAIR | BamRecord.REVERSE,
+                    "CCCCCCCCCC", null, M, 10);
+            write(out, "r0", 0, 100, 0, "TT", null, M, 1, N, 20000, M, 1);
+            write(out, "x", 0, 200, 0, "T", null, M, 1);
+            write(out, "r5", 0, 16000, 0, "AAACCC", null, M, 3, N, 20000, M, 3);
+            write(out, "r4", 0, 100000, 0, "GGG", null, M, 3);
+            write(out, "c2", 1, 10, 0, "GGGGG", null, M, 5);
+            out.flush();
+            end = out.getVirtualOffset();
+        }
+        writeIndex(new File(bam.getAbsolutePath() + ".bai"));
+        reader = BamRegionReader.open(bam, null);
+        assertNotNull(reader);
+    }
+
+    @After
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    @Test
+    public void chunks() throws IOException {
+        final BamIndex index = new BamIndex(new File(bam.getAbsolutePath() + ".bai"));
+        assertEquals(2, index.getReferenceCount());
+        assertEquals((long) offsets.get("r1"), index.getReferenceStart(0));
+        assertEquals((long) offsets.get("c2"), index.getReferenceStart(1));
+        // Chunks of different bins that touch are merged
+        assertArrayEquals(new long[]{offsets.get("r1"), offsets.get("c2")}, index.getChunks(0, 0, 200000));
+        // r0 is in a candidate bin, but the linear index tells that it ends before the region
+        assertArrayEquals(new long[]{offsets.get("r5"), offsets.get("r4")},
+                index.getChunks(0, 36000, 36006));
+        // Only the 16 KB bin of r4 and its parents
+        assertArrayEquals(new long[]{offsets.get("r4"), offsets.get("c2")},
+                index.getChunks(0, 100000, 100003));
+    }
+
+    @Test
+    public void insertionColumns() throws IOException {
+        final PileUpWindow window = reader.read("chr1", 1, 14);
+        // 14 positions and 2 inserted bases after chr1:5
+        assertEquals(16, window.size());
+        assertColumn(window, 0, 'N', G, 1);
+        // Low quality base of r1
+        assertColumn(window, 1, 'N');
+        assertColumn(window, 2, 'N', A, 1);
+        assertColumn(window, 3, 'N', C, 1);
+        assertColumn(window, 4, 'N', G, 1, C + REVERSE, 1);
+        assertColumn(window, 5, PileUp.EMPTY, T, 1);
+        assertColumn(window, 6, PileUp.EMPTY, A, 1);
+        assertColumn(window, 7, 'N', C, 1, C + REVERSE, 1);
+        assertColumn(window, 9, 'N', T, 1, C + REVERSE, 1);
+        // chr1:9-10
+        assertColumn(window, 10, 'N', DELETION, 1, C + REVERSE, 1);
+        assertColumn(window, 11, 'N', DELETION, 1, C + REVERSE, 1);
+        assertColumn(window, 12, 'N', A, 1, C + REVERSE, 1);
+        assertColumn(window, 15, 'N', T, 1, C + REVERSE, 1);
+    }
+
+    @Test
+    public void insertionAtTheEnd() throws IOException {
+        final PileUpWindow window = reader.read("chr1", 3, 5);
+        assertEquals(5, window.size());
+        assertColumn(window, 0, 'N', A, 1);
+        assertColumn(window, 2, 'N', G, 1, C + REVERSE, 1);
+        assertColumn(window, 3, PileUp.EMPTY, T, 1);
+        assertColumn(window, 4, PileUp.EMPTY, A, 1);
+    }
+
+    @Test
+    public void alignmentsStartingBefore() throws IOException {
+        // The deletion of r1 is at chr1:9-10, r1 and r2 start before the region
+        final PileUpWindow window = reader.read("chr1", 10, 12);
+        assertEquals(3, window.size());
+        assertColumn(window, 0, 'N', DELETION, 1, C + REVERSE, 1);
+        assertColumn(window, 1, 'N', A, 1, C + REVERSE, 1);
+        assertColumn(window, 2, 'N', C, 1, C + REVERSE, 1);
+        // Only the end of r5, after its skipped region
+        final PileUpWindow far = reader.read("chr1", 36001, 36006);
+        assertEquals(6, far.size());
+        assertColumn(far, 0, 'N');
+        assertColumn(far, 2, 'N');
+        assertColumn(far, 3, 'N', C, 1);
+        assertColumn(far, 5, 'N', C, 1);
+    }
+
+    @Test
+    public void referenceNames() throws IOException {
+        final PileUpWindow window = reader.read("2", 10, 16);
+        assertEquals(7, window.size());
+        assertColumn(window, 0, 'N');
+        assertColumn(window, 1, 'N', G, 1);
+        assertColumn(window, 5, 'N', G, 1);
+        assertColumn(window, 6, 'N');
+        assertEquals(0, reader.read("chr3", 1, 10).size());
+        // The alignments of chr2 are not read for the end of chr1
+        final PileUpWindow end = reader.read("chr1", 199990, 200000);
+        for (int i = 0; i < end.size(); i++) {
+            assertColumn(end, i, 'N');
+        }
+    }
+
+    /**
+     * Checks the reference of a column and its counters, all 0 except the given pairs of counter
+     * and depth.
+     */
+    private static void assertColumn(PileUpWindow window, int column, char reference,
+            int... depths) {
+        assertEquals("reference of column " + column, reference, window.getReference(column));
+        final int[] expected = new int[PileUp.COUNTERS];
+        for (int i = 0; i < depths.length; i += 2) {
+            expected[depths[i]] = depths[i + 1];
+        }
+        final int[] actual = new int[PileUp.COUNTERS];
+        for (int c = 0; c < PileUp.COUNTERS; c++) {
+            actual[c] = window.getDepth(column, c);
+        }
+        assertArrayEquals("column " + column, expected, actual);
+    }
+
+    private void write(BgzfOutputStream out, String name, int reference, int position, int flag,
+            String sequence, byte[] qualities, int... cigar) throws IOException {
+        // Each alignment in its own block
+        out.flush();
+        final long offset = out.getVirtualOffset();
+        offsets.put(name, offset);
+        BamCoverageTest.write(out, reference, position, flag, sequence, qualities, cigar);
+        int stop = position;
+        for (int i = 0; i < cigar.length; i += 2) {
+            if (cigar[i] == M || cigar[i] == D || cigar[i] == N) {
+                stop += cigar[i + 1];
+            }
+        }
+        alignments.add(new Alignment(reference, position, stop, offset));
+    }
+
+    /**
+     * Writes the index: the chunks of each bin, consecutive alignments of the same bin in one
+     * chunk, the linear index and the metadata bin, that must be ignored.
+     */
+    private void writeIndex(File index) throws IOException {
+        final ByteBuffer buffer = BamCoverageTest.buffer(10000);
+        buffer.put("BAI\1".getBytes(StandardCharsets.US_ASCII));
+        buffer.putInt(2);
+        for (int reference = 0; reference < 2; reference++) {
+            final Map<Integer, List<long[]>> bins = new TreeMap<>();
+            final long[] linear = new long[1 + 200000 / (1 << 14)];
+            Arrays.fill(linear, -1);
+            for (int i = 0; i < alignments.size(); i++) {
+                final Alignment alignment = alignments.get(i);
+                if (alignment.reference != reference) {
+                    continue;
+                }
+                final long next = i + 1 < alignments.size() ? alignments.get(i + 1).offset : end;
+                final List<long[]> chunks = bins.computeIfAbsent(
+                        reg2bin(alignment.start, alignment.end), bin -> new ArrayList<>());
+                if (!chunks.isEmpty() && chunks.get(chunks.size() - 1)[1] == alignment.offset) {
+                    chunks.get(chunks.size() - 1)[1] = next;
+                } else {
+                    chunks.add(new long[]{alignment.offset, next});
+                }
+                for (int w = alignment.start >> 14; w <= (alignment.end - 1) >> 14; w++) {
+                    if (linear[w] == -1) {
+                        linear[w] = alignment.offset;
+                    }
+                }
+            }
+            buffer.putInt(bins.size() + 1);
+            for (Map.Entry<Integer, List<long[]>> bin : bins.entrySet()) {
+                buffer.putInt(bin.getKey());
+                buffer.putInt(bin.getValue().size());
+                for (long[] chunk : bin.getValue()) {
+                    buffer.putLong(chunk[0]);
+                    buffer.putLong(chunk[1]);
+                }
+            }
+            buffer.putInt(PSEUDO_BIN);
+            buffer.putInt(2);
+            buffer.putLong(0);
+            buffer.putLong(1);
+            buffer.putLong(7);
+            buffer.putLong(0);
+            // Empty windows take the offset of the next one
+            int length = linear.length;
+            while (length > 0 && linear[length - 1] == -1) {
+                length--;
+            }
+            for (int w = length - 2; w >= 0; w--) {
+                if (linear[w] == -1) {
+                    linear[w] = linear[w + 1];
+                }
+            }
+            buffer.putInt(length);
+            for (int w = 0; w < length; w++) {
+                buffer.putLong(linear[w]);
+            }
+        }
+        try (OutputStream out = new FileOutputStream(index)) {
+            out.write(buffer.array(), 0, buffer.position());
+        }
+    }
+
+    /**
+     * Bin of the alignment [start, end), from the SAM specification.
+     */
+    private static int reg2bin(int start, int end) {
+        end--;
+        if (start >> 14 == end >> 14) {
+            return ((1 << 15) - 1) / 7 + (start >> 14);
+        }
+        if (start >> 17 == end >> 17) {
+            return ((1 << 12) - 1) / 7 + (start >> 17);
+        }
+        if (start >> 20 == end >> 20) {
+            return ((1 << 9) - 1) / 7 + (start >> 20);
+        }
+        if (start >> 23 == end >> 23) {
+            return ((1 << 6) - 1) / 7 + (start >> 23);
+        }
+        if (start >> 26 == end >> 26) {
+            return ((1 << 3) - 1) / 7 + (start >> 26);
+        }
+        return 0;
+    }
+
+    private static class Alignment {
+
+        final int reference;
+        final int start;
+        final int end;
+        final long offset;
+
+        Alignment(int reference, int start, int end, long offset) {
+            this.reference = reference;
+            this.start = start;
+            this.end = end;
+            this.offset = offset;
+        }
+    }
+
+}
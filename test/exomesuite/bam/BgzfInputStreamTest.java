@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.bam;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Reads with BgzfInputStream what BgzfOutputStream writes, sequentially and by virtual offset.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+public class BgzfInputStreamTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<byte[]> records = new ArrayList<>();
+    private final List<Long> offsets = new ArrayList<>();
+
+    /**
+     * Writes records of random sizes, some of them longer than a block, so records start in the
+     * middle of blocks and cross block boundaries. Some blocks are flushed before they are full.
+     */
+    private File write() throws IOException {
+        final File file = folder.newFile("test.gz");
+        final Random random = new Random(1);
+        try (BgzfOutputStream out = new BgzfOutputStream(file)) {
+            for (int i = 0; i < 300; i++) {
+                final byte[] record = new byte[random.nextInt(i % 50 == 0 ? 100000 : 3000)];
+                random.nextBytes(record);
+                offsets.add(out.getVirtualOffset());
+                records.add(record);
+                out.write(record);
+                if (i % 37 == 0) {
+                    out.flush();
+                }
+            }
+        }
+        return file;
+    }
+
+    @Test
+    public void readSequentially() throws IOException {
+        final File file = write();
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (byte[] record : records) {
+            expected.write(record);
+        }
+        final ByteArrayOutputStream read = new ByteArrayOutputStream();
+        try (BgzfInputStream in = new BgzfInputStream(file)) {
+            final byte[] buffer = new byte[7777];
+            int n;
+            while ((n = in.read(buffer, 0, buffer.length)) != -1) {
+                read.write(buffer, 0, n);
+            }
+            assertEquals(-1, in.read());
+        }
+        assertArrayEquals(expected.toByteArray(), read.toByteArray());
+    }
+
+    @Test
+    public void seekToVirtualOffsets() throws IOException {
+        final File file = write();
+        final List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < records.size(); i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(2));
+        try (BgzfInputStream in = new BgzfInputStream(file)) {
+            for (int i : order) {
+                in.seek(offsets.get(i));
+                final byte[] record = new byte[records.get(i).length];
+                assertEquals(true, in.readFullyOrEnd(record, 0, record.length));
+                assertArrayEquals("record " + i, records.get(i), record);
+            }
+        }
+    }
+
+    @Test
+    public void virtualOffsetOfNextRecord() throws IOException {
+        final File file = write();
+        try (BgzfInputStream in = new BgzfInputStream(file)) {
+            in.seek(offsets.get(10));
+            in.readFullyOrEnd(new byte[records.get(10).length], 0, records.get(10).length);
+            // Reading from the offset reported by the input gives the next record
+            final long next = in.getVirtualOffset();
+            in.seek(next);
+            final byte[] record = new byte[records.get(11).length];
+            in.readFullyOrEnd(record, 0, record.length);
+            assertArrayEquals(records.get(11), record);
+        }
+    }
+
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.bam;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.Test;
+import static exomesuite.bam.PileUp.A;
+import static exomesuite.bam.PileUp.C;
+import static exomesuite.bam.PileUp.DELETION;
+import static exomesuite.bam.PileUp.G;
+import static exomesuite.bam.PileUp.REVERSE;
+import static exomesuite.bam.PileUp.T;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Decodes samtools mpileup lines with MpileupDecoder.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+public class MpileupDecoderTest {
+
+    private static MpileupDecoder decoder(String text) {
+        return new MpileupDecoder(new ByteArrayInputStream(text.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * Depths of all the counters of the current line.
+     */
+    private static int[] depths(MpileupDecoder decoder) {
+        final int[] depths = new int[PileUp.COUNTERS];
+        for (int c = 0; c < PileUp.COUNTERS; c++) {
+            depths[c] = decoder.getDepth(c);
+        }
+        return depths;
+    }
+
+    /**
+     * Counters with the given pairs of counter and depth.
+     */
+    private static int[] expected(int... pairs) {
+        final int[] depths = new int[PileUp.COUNTERS];
+        for (int i = 0; i < pairs.length; i += 2) {
+            depths[pairs[i]] = pairs[i + 1];
+        }
+        return depths;
+    }
+
+    @Test
+    public void startAndEndOfRead() throws IOException {
+        // Mapping qualities are $, + and ~, which must not be read as bases or marks
+        final MpileupDecoder decoder = decoder("chr1\t10\tA\t3\t^$.^+,$^~G$\tIII\n");
+        assertTrue(decoder.next());
+        assertEquals("chr1", decoder.getChromosome().toString());
+        assertEquals(10, decoder.getPosition());
+        assertEquals('A', decoder.getReference());
+        assertEquals(3, decoder.getDepth());
+        assertEquals(0, decoder.getInsertionLength());
+        assertEquals(Arrays.toString(expected(A, 1, A + REVERSE, 1, G, 1)),
+                Arrays.toString(depths(decoder)));
+        assertFalse(decoder.next());
+    }
+
+    @Test
+    public void indels() throws IOException {
+        final MpileupDecoder decoder = decoder("chr1\t10\tC\t4\t"
+                + ".+12ACGTACGTACGT,+2ac.-10ACGTACGTAC.\tI!II\n");
+        decoder.setMinBaseQuality(10);
+        assertTrue(decoder.next());
+        // The deleted bases are not counted, and neither the insertion of a low quality base
+        assertEquals(Arrays.toString(expected(C, 3)), Arrays.toString(depths(decoder)));
+        assertEquals(12, decoder.getInsertionLength());
+        assertEquals(1, decoder.getInsertionDepth(0, A));
+        assertEquals(0, decoder.getInsertionDepth(0, A + REVERSE));
+        assertEquals(1, decoder.getInsertionDepth(1, C));
+        assertEquals(1, decoder.getInsertionDepth(11, T));
+        final PileUpWindow window = new PileUpWindow(1);
+        decoder.addTo(window);
+        assertEquals(13, window.size());
+        assertEquals('C', window.getReference(0));
+        assertEquals(3, window.getDepth(0, C));
+        assertEquals(0, window.getDepth(0, C + REVERSE));
+        assertEquals(PileUp.EMPTY, window.getReference(1));
+        assertEquals(1, window.getDepth(1, A));
+        assertEquals(1, window.getDepth(12, T));
+    }
+
+    @Test
+    public void insertionsOfDifferentLengths() throws IOException {
+        final MpileupDecoder decoder = decoder("chr1\t10\tC\t2\t.+1G,+3tta\tII\n");
+        assertTrue(decoder.next());
+        assertEquals(3, decoder.getInsertionLength());
+        assertEquals(1, decoder.getInsertionDepth(0, G));
+        assertEquals(1, decoder.getInsertionDepth(0, T + REVERSE));
+        assertEquals(1, decoder.getInsertionDepth(1, T + REVERSE));
+        assertEquals(1, decoder.getInsertionDepth(2, A + REVERSE));
+        // Counters of the insertions are cleared for the next line
+        final MpileupDecoder next = decoder("chr1\t10\tC\t1\t.+3AAA\tI\nchr1\t11\tC\t1\t.+1C\tI\n");
+        assertTrue(next.next());
+        assertTrue(next.next());
+        assertEquals(1, next.getInsertionLength());
+        assertEquals(0, next.getInsertionDepth(0, A));
+        assertEquals(1, next.getInsertionDepth(0, C));
+    }
+
+    @Test
+    public void deletions() throws IOException {
+        final MpileupDecoder decoder = decoder("chr1\t10\tC\t4\t*#*.\tIIII\n");
+        assertTrue(decoder.next());
+        assertEquals(Arrays.toString(expected(DELETION, 2, DELETION + REVERSE, 1, C, 1)),
+                Arrays.toString(depths(decoder)));
+    }
+
+    @Test
+    public void referenceSkipsHaveQualities() throws IOException {
+        // If skips did not take their qualities, G would take ! and T would take I
+        final MpileupDecoder decoder = decoder("chr1\t10\tC\t5\t<>G>T\t!!I!#\n");
+        decoder.setMinBaseQuality(5);
+        assertTrue(decoder.next());
+        assertEquals(Arrays.toString(expected(G, 1)), Arrays.toString(depths(decoder)));
+    }
+
+    @Test
+    public void multipleSamples() throws IOException {
+        final MpileupDecoder decoder = decoder("chr1\t5\tg\t2\t.,\tII\t0\t*\t*\t1\tT\tI\n");
+        assertTrue(decoder.next());
+        assertEquals('G', decoder.getReference());
+        assertEquals(3, decoder.getDepth());
+        assertEquals(Arrays.toString(expected(G, 1, G + REVERSE, 1, T, 1)),
+                Arrays.toString(depths(decoder)));
+    }
+
+    @Test
+    public void crlf() throws IOException {
+        final MpileupDecoder decoder = decoder("chr1\t1\tA\t1\t.\tI\r\n\r\nchr2\t2\tC\t1\tg\tI\r\n"
+                + "chr3\t3\tT\t1\t,\tI");
+        assertTrue(decoder.next());
+        assertEquals("chr1", decoder.getChromosome().toString());
+        assertEquals(Arrays.toString(expected(A, 1)), Arrays.toString(depths(decoder)));
+        assertTrue(decoder.next());
+        assertEquals("chr2", decoder.getChromosome().toString());
+        assertEquals(2, decoder.getPosition());
+        assertEquals(Arrays.toString(expected(G + REVERSE, 1)), Arrays.toString(depths(decoder)));
+        // Last line without line break
+        assertTrue(decoder.next());
+        assertEquals(3, decoder.getPosition());
+        assertEquals(Arrays.toString(expected(T + REVERSE, 1)), Arrays.toString(depths(decoder)));
+        assertFalse(decoder.next());
+    }
+
+    @Test(expected = IOException.class)
+    public void missingQualities() throws IOException {
+        decoder("chr1\t10\tC\t2\t..\tI\n").next();
+    }
+
+    /**
+     * Lines of growing length, so they cross the 64 KB refills of the buffer at any point, and a
+     * line longer than the buffer.
+     */
+    @Test
+    public void linesCrossingBuffers() throws IOException {
+        final StringBuilder text = new StringBuilder();
+        final int lines = 2000;
+        for (int i = 1; i <= lines; i++) {
+            final int depth = i == 1000 ? 100000 : i % 300 + 1;
+            text.append("chr1\t").append(i).append("\tA\t").append(depth).append('\t');
+            for (int j = 0; j < depth; j++) {
+                text.append(j % 2 == 0 ? '.' : 't');
+            }
+            text.append('\t');
+            for (int j = 0; j < depth; j++) {
+                text.append('I');
+            }
+            text.append('\n');
+        }
+        final MpileupDecoder decoder = decoder(text.toString());
+        for (int i = 1; i <= lines; i++) {
+            assertTrue(decoder.next());
+            final int depth = i == 1000 ? 100000 : i % 300 + 1;
+            assertEquals(i, decoder.getPosition());
+            assertEquals("chr1", decoder.getChromosome().toString());
+            assertEquals(depth, decoder.getDepth());
+            assertEquals((depth + 1) / 2, decoder.getDepth(A));
+            assertEquals(depth / 2, decoder.getDepth(T + REVERSE));
+        }
+        assertFalse(decoder.next());
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.vcf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the filters evaluated against the columns of a VariantStore accept the same rows
+ * as the filters evaluated against the Variants.
+ *
+ * @author Pascual Lorente Arencibia (pasculorente@gmail.com)
+ */
+public class VCFFilterTest {
+
+    private static final String[] VALUES = {"", "1", "chr2", "PASS", "LowQual", "10", "50.3",
+        "0.2", "-3", "abc", "rs1", "G", "1.*", "[", "100000"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private VariantStore store;
+
+    @Before
+    public void load() throws IOException {
+        final File file = folder.newFile("test.vcf");
+        Files.write(file.toPath(), Arrays.asList(
+                "##fileformat=VCFv4.1",
+                "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO",
+                "1\t10\trs1\tA\tG\t50.3\tPASS\tDP=10;AF=0.2,0.3;DB",
+                "chr2\t100000\t.\tC\tT\t.\tLowQual\tDP=abc;AF=-3",
+                "1\t5\t.\tG\tGA\t10\tPASS;LowQual\tAF=1e-2;DP=",
+                "chr2\t7\trs2\tT\tA\t0\t.\t.",
+                "X\t1\t.\tA\tC,G\t1234567.891\tPASS\tDP=0;AF=50.3;DB"), StandardCharsets.UTF_8);
+        store = new VariantStore(file, new InfoDictionary());
+    }
+
+    @After
+    public void close() throws IOException {
+        store.close();
+    }
+
+    @Test
+    public void sameRowsAsVariants() {
+        for (VCFFilter.Field field : VCFFilter.Field.values()) {
+            for (VCFFilter.Connector connector : VCFFilter.Connector.values()) {
+                for (String info : new String[]{"DP", "AF", "DB", "MISSING"}) {
+                    for (String value : VALUES) {
+                        for (boolean strict : new boolean[]{true, false}) {
+                            final VCFFilter filter = new VCFFilter(connector, field, info);
+                            filter.setValue(value);
+                            filter.setStrict(strict);
+                            check(filter);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void missingInfoIsNotAddedToTheDictionary() {
+        final int size = store.getDictionary().size();
+        final VCFFilter filter = new VCFFilter(VCFFilter.Connector.GREATER, VCFFilter.Field.INFO,
+                "NEW");
+        filter.setValue("1");
+        final IntPredicate predicate = filter.getRowPredicate(store);
+        for (int row = 0; row < store.size(); row++) {
+            predicate.test(row);
+        }
+        assertEquals(size, store.getDictionary().size());
+    }
+
+    private void check(VCFFilter filter) {
+        final IntPredicate rows = filter.getRowPredicate(store);
+        final Predicate<Variant> variants = filter.getPredicate(store.getDictionary());
+        for (int row = 0; row < store.size(); row++) {
+            assertEquals(filter.getField() + " " + filter.getConnector().name() + " "
+                    + filter.getSelectedInfo() + " " + filter.getValue() + " strict="
+                    + filter.isStrict() + " row " + row,
+                    variants.test(store.getVariant(row)), rows.test(row));
+        }
+    }
+
+}
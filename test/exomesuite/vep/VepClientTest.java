@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2015 UICHUIMI
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package exomesuite.vep;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import exomesuite.json.JSONArray;
+import exomesuite.json.JSONObject;
+import exomesuite.vcf.Variant;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs VepClient against a local HTTP server that answers every variant with the same
+ * consequence, after failing with the queued response codes.
+ *
+ * @author Lorente Arencibia, Pascual (pasculorente@gmail.com)
+ */
+public class VepClientTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    /**
+     * Number of variants of each received request, in order.
+     */
+    private final List<Integer> requests = Collections.synchronizedList(new ArrayList<>());
+    /**
+     * Codes to answer before the next successful responses, with Retry-After if 429.
+     */
+    private final Queue<Integer> failures = new ConcurrentLinkedQueue<>();
+    private File cache;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/vep/homo_sapiens/region", this::handle);
+        server.start();
+        cache = new File(folder.getRoot(), "vep.cache");
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        final JSONArray inputs = new JSONObject(read(exchange.getRequestBody()))
+                .getJSONArray("variants");
+        requests.add(inputs.length());
+        final Integer failure = failures.poll();
+        if (failure != null) {
+            if (failure == 429) {
+                exchange.getResponseHeaders().add("Retry-After", "0.01");
+            }
+            exchange.sendResponseHeaders(failure, -1);
+            exchange.close();
+            return;
+        }
+        final JSONArray results = new JSONArray();
+        for (int i = 0; i < inputs.length(); i++) {
+            final String input = inputs.getString(i);
+            // Variants at position 666 have no results
+            if (input.contains(" 666 ")) {
+                continue;
+            }
+            final JSONObject consequence = new JSONObject();
+            consequence.put("gene_symbol", "GENE1");
+            consequence.put("impact", "MODERATE");
+            final JSONObject colocated = new JSONObject();
+            colocated.put("id", "rs1");
+            final JSONObject result = new JSONObject();
+            result.put("input", input);
+            result.put("most_severe_consequence", "missense_variant");
+            result.put("transcript_consequences", new JSONArray().put(consequence));
+            result.put("colocated_variants", new JSONArray().put(colocated));
+            results.put(result);
+        }
+        final byte[] body = results.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private VepClient client() {
+        final VepClient client = new VepClient("http://localhost:" + server.getAddress().getPort(),
+                cache, 2);
+        client.setRetries(3, 1);
+        return client;
+    }
+
+    private static List<Variant> variants(int count) {
+        final List<Variant> variants = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            variants.add(new Variant("1\t" + (100 + i) + "\t.\tA\tG\t50\tPASS\tDP=10"));
+        }
+        return variants;
+    }
+
+    @Test
+    public void batches() throws Exception {
+        try (VepClient client = client()) {
+            client.setBatchSize(2);
+            assertEquals(5, (int) client.annotate(variants(5)).get());
+        }
+        final List<Integer> sizes = new ArrayList<>(requests);
+        Collections.sort(sizes);
+        assertEquals(Arrays.asList(1, 2, 2), sizes);
+    }
+
+    @Test
+    public void duplicatesAreRequestedOnce() throws Exception {
+        final List<Variant> variants = variants(1);
+        // Same variant, with chr and a shared base
+        variants.add(new Variant("chr1\t100\t.\tAC\tGC\t50\tPASS\t."));
+        try (VepClient client = client()) {
+            assertEquals(2, (int) client.annotate(variants).get());
+        }
+        assertEquals(Collections.singletonList(1), requests);
+        assertEquals("missense_variant", variants.get(1).getInfos().get("VEP_CONSEQUENCE"));
+    }
+
+    @Test
+    public void mergeInfo() throws Exception {
+        final Variant variant = new Variant("1\t100\t.\tA\tG\t50\tPASS\tDP=10;VEP_GENE=OLD");
+        final Variant empty = new Variant("1\t666\t.\tA\tG\t50\tPASS\tDP=10;VEP_GENE=OLD");
+        try (VepClient client = client()) {
+            assertEquals(1, (int) client.annotate(Arrays.asList(variant, empty)).get());
+        }
+        assertEquals("10", variant.getInfos().get("DP"));
+        assertEquals("missense_variant", variant.getInfos().get("VEP_CONSEQUENCE"));
+        assertEquals("MODERATE", variant.getInfos().get("VEP_IMPACT"));
+        assertEquals("GENE1", variant.getInfos().get("VEP_GENE"));
+        assertEquals("rs1", variant.getInfos().get("VEP_ID"));
+        // Old values are removed when there are no results
+        assertEquals("10", empty.getInfos().get("DP"));
+        assertNull(empty.getInfos().get("VEP_GENE"));
+    }
+
+    @Test
+    public void retryRateLimitsAndServerErrors() throws Exception {
+        failures.addAll(Arrays.asList(429, 503, 429));
+        final List<Variant> variants = variants(1);
+        try (VepClient client = client()) {
+            assertEquals(1, (int) client.annotate(variants).get());
+        }
+        assertEquals(4, requests.size());
+        assertEquals("GENE1", variants.get(0).getInfos().get("VEP_GENE"));
+    }
+
+    @Test
+    public void tooManyFailures() throws Exception {
+        failures.addAll(Arrays.asList(503, 503, 503, 503));
+        try (VepClient client = client()) {
+            client.annotate(variants(1)).get();
+            fail("Expected an error");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IOException);
+        }
+        assertEquals(4, requests.size());
+    }
+
+    @Test
+    public void badRequestIsNotRetried() throws Exception {
+        failures.add(400);
+        final List<Variant> variants = variants(1);
+        try (VepClient client = client()) {
+            client.annotate(variants).get();
+            fail("Expected an error");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause().getMessage().contains("400"));
+        }
+        assertEquals(1, requests.size());
+        assertFalse(variants.get(0).getInfos().containsKey("VEP_GENE"));
+    }
+
+    @Test
+    public void cachedVariantsAreNotRequested() throws Exception {
+        try (VepClient client = client()) {
+            client.annotate(variants(3)).get();
+            assertEquals(1, requests.size());
+            final List<Variant> variants = variants(3);
+            assertEquals(3, (int) client.annotate(variants).get());
+            assertEquals(1, requests.size());
+            assertEquals("GENE1", variants.get(2).getInfos().get("VEP_GENE"));
+        }
+        // A new client reads the cache file
+        try (VepClient client = client()) {
+            assertEquals(3, (int) client.annotate(variants(3)).get());
+        }
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void annotateFile() throws Exception {
+        final File input = folder.newFile("input.vcf");
+        final File output = new File(folder.getRoot(), "output.vcf");
+        Files.write(input.toPath(), Arrays.asList("##fileformat=VCFv4.1",
+                "##INFO=<ID=VEP_GENE,Number=.,Type=String,Description=\"Old\">",
+                "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1",
+                "1\t100\t.\tA\tG\t50\tPASS\tDP=10;VEP_GENE=OLD\tGT\t0/1",
+                "1\t666\t.\tA\tG\t50.5\tPASS\tVEP_GENE=OLD\tGT\t1/1",
+                "1\t101\trs5\tA\tG\t.\tPASS\t.\tGT\t0/1"), StandardCharsets.UTF_8);
+        try (VepClient client = client()) {
+            client.setBatchSize(1);
+            assertEquals(2, client.annotate(input, output));
+        }
+        final List<String> expected = new ArrayList<>();
+        expected.add("##fileformat=VCFv4.1");
+        expected.addAll(Arrays.asList(VepClient.getInfoHeaders()));
+        expected.add("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1");
+        final String vep = "VEP_CONSEQUENCE=missense_variant;VEP_GENE=GENE1;VEP_ID=rs1;"
+                + "VEP_IMPACT=MODERATE";
+        expected.add("1\t100\t.\tA\tG\t50\tPASS\tDP=10;" + vep + "\tGT\t0/1");
+        expected.add("1\t666\t.\tA\tG\t50.5\tPASS\t.\tGT\t1/1");
+        expected.add("1\t101\trs5\tA\tG\t.\tPASS\t" + vep + "\tGT\t0/1");
+        assertEquals(expected, Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+    }
+
+    private static String read(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+}